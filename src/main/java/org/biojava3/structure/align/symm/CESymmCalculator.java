@@ -24,113 +24,340 @@
  */
 package org.biojava3.structure.align.symm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.biojava.bio.structure.Atom;
 import org.biojava.bio.structure.Calc;
 import org.biojava.bio.structure.SVDSuperimposer;
+import org.biojava.bio.structure.StructureException;
 import org.biojava.bio.structure.align.ce.CECalculator;
 import org.biojava.bio.structure.align.ce.CeParameters;
 import org.biojava.bio.structure.align.model.AFPChain;
 import org.biojava.bio.structure.jama.Matrix;
 
+/**
+ * A CECalculator whose trace can additionally reject fragment pairs that are related by less than
+ * {@link #getMinAngle() minAngle} degrees, and which can score the fragment matrix on several threads. With the
+ * angle check disabled, the trace is the same as CECalculator's.
+ *
+ * <p><strong>Parallel mode</strong><br/>
+ * The first pass of {@link #traceFragmentMatrix(AFPChain, Atom[], Atom[])} walks a trace from every start position
+ * and dominates the running time for large domains. With {@link #setNrThreads(int) nrThreads} &gt; 1, the rows of the
+ * fragment matrix are split into stripes of one row that are walked concurrently; each stripe records its traces,
+ * and the records are then replayed in row order. Since the walk from one start position does not depend on the
+ * others, the replay applies exactly the updates the sequential loop would, and the result is bit-identical. A stripe
+ * that alone passes the limit on the number of traces stops early, and the replay finishes the pass sequentially from
+ * there. At most nrThreads stripes run ahead of the replay, so only their records are held at once. Each stripe walks
+ * on the trace arrays of its pool thread's {@link CESymmWorkspace}.
+ *
+ * <p>Once it has a long trace, the sequential loop skips the start positions too close to the end of the matrix to
+ * beat it, which cuts the pass short on a symmetric domain. A stripe skips them too, as far as the stripes replayed
+ * before it tell; the best trace only grows, so it never skips a start position that the replay would walk.
+ *
+ * <p>The stripes run on a pool of daemon threads that is shared by all calculators, rather than on a pool per
+ * alignment; idle threads exit after a minute. CESymmCalculatorTest checks that the parallel trace gives the same
+ * alignments as the sequential one.
+ *
+ * <p><strong>Workspace</strong><br/>
+ * With a {@link #setWorkspace(CESymmWorkspace) workspace}, the trace arrays and the distance matrices of the two
+ * structures are reused from the previous alignment, instead of allocated for each one.
+ */
 public class CESymmCalculator extends CECalculator {
 
 	public static final int MIN_ANGLE = 20;
 
+	/**
+	 * The rows of the fragment matrix in one stripe of the parallel trace. A row is already thousands of walks, and
+	 * short stripes let the stripes skip sooner what the replay will skip.
+	 */
+	private static final int STRIPE_ROWS = 1;
+
+	private static ExecutorService tracePool = null;
+
 	Atom origin1 = null ;
 	Atom origin2  = null;
 
+	private int nrThreads = 1;
+
+	private double minAngle = MIN_ANGLE;
+
+	// constants of the current traceFragmentMatrix call; shared read-only with the stripe workers
+	private int winSize;
+	private int winSizeComb1;
+	private int winSizeComb2;
+	private int iterDepth;
+	private int nse1;
+	private int nse2;
+	private int traceMaxSize;
+	private double rmsdThr;
+	private double rmsdThrJoin;
+	private double userRMSDMax;
+	private long tracesLimit;
+	private int bestTracesMax;
+	private Atom[] traceCa2;
+
+	// weights of getScore2, read-only
+	private int[] traceIndexContainer;
+
+	// per-walker scratch
+	private int[] traceIndex;
+	private int[] traceIterLevel;
+	private double[][] traceScore;
+
+	// state of the sequential merge
+	private int nBestTrace0;
+	private double traceScoreMax;
+	private int newBestTrace;
+
+	// nBestTrace after the last replayed stripe; it only grows, so the stripes skip what the replay would skip
+	private volatile int replayedBestTrace;
+
+	/**
+	 * If set, the trace arrays and distance matrices are taken from here instead of being allocated for every call.
+	 */
+	private CESymmWorkspace workspace = null;
+
+	/**
+	 * True if dist1 and dist2 are the workspace's, and so can be larger than the structures.
+	 */
+	private boolean borrowedDistances = false;
+
+	/**
+	 * Set by the stripe workers, which record extensions instead of applying them.
+	 */
+	private TraceRecorder recorder = null;
+
 	public CESymmCalculator(CeParameters params) {
 		super(params);
 
 	}
 
+	/**
+	 * @return The number of threads used to score the fragment matrix; 1 (the default) means sequential
+	 */
+	public int getNrThreads() {
+		return nrThreads;
+	}
+
+	/**
+	 * @param nrThreads The number of threads used to score the fragment matrix. Results are identical for any value.
+	 */
+	public void setNrThreads(int nrThreads) {
+		if (nrThreads < 1) throw new IllegalArgumentException("Need at least 1 thread");
+		this.nrThreads = nrThreads;
+	}
+
+	public CESymmWorkspace getWorkspace() {
+		return workspace;
+	}
+
+	/**
+	 * @param workspace Scratch arrays to reuse for the trace and the distance matrices, or null to allocate new ones on
+	 *                  every call
+	 * @see CESymmWorkspace#forCurrentThread()
+	 */
+	public void setWorkspace(CESymmWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
+	/**
+	 * @return The minimum angle in degrees between aligned fragment pairs; 0 or less disables the check
+	 */
+	public double getMinAngle() {
+		return minAngle;
+	}
+
+	/**
+	 * @param minAngle The minimum angle in degrees between aligned fragment pairs; 0 or less disables the check
+	 */
+	public void setMinAngle(double minAngle) {
+		this.minAngle = minAngle;
+	}
+
+	/**
+	 * With a {@link #setWorkspace(CESymmWorkspace) workspace} and the default scoring strategy (CA distances), the
+	 * same as CECalculator's, except that the distance matrices are the workspace's. For other strategies, or without
+	 * a workspace, CECalculator's.
+	 */
+	@Override
+	public AFPChain extractFragments(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+
+		if ( workspace == null || params.getScoringStrategy() != CeParameters.DEFAULT_SCORING_STRATEGY) {
+			borrowedDistances = false;
+			return super.extractFragments(afpChain, ca1, ca2);
+		}
+
+		int nse1 = ca1.length;
+		int nse2 = ca2.length;
+
+		afpChain.setCa1Length(nse1);
+		afpChain.setCa2Length(nse2);
+
+		workspace.prepareDistances(nse1, nse2);
+		setDist1(initIntraDistmatrix(ca1, workspace.dist1));
+		setDist2(initIntraDistmatrix(ca2, workspace.dist2));
+		borrowedDistances = true;
+
+		int winSize = params.getWinSize();
+		int winSizeComb1 = (winSize-1)*(winSize-2)/2;
+
+		mat = initSumOfDistances(nse1, nse2, winSize, winSizeComb1, ca1, ca2);
+
+		return afpChain;
+	}
+
+	/**
+	 * Fills the top left corner of {@code intraDist} with the distances between the atoms of {@code ca}.
+	 */
+	private static double[][] initIntraDistmatrix(Atom[] ca, double[][] intraDist) throws StructureException {
+		for(int ise1=0; ise1<ca.length; ise1++)  {
+			for(int ise2=0; ise2<ca.length; ise2++)  {
+				intraDist[ise1][ise2] = Calc.getDistance(ca[ise1], ca[ise2]);
+			}
+		}
+		return intraDist;
+	}
+
+	/**
+	 * As CECalculator's, with the weights of this calculator's trace.
+	 */
+	@Override
+	protected double getScore2(int jse1, int jse2, double[][] traceScore, int traceIndx, int[] traceIndex,
+			int winSizeComb1, int winSizeComb2, double score0, double score1) {
+		double val;
+		if ( nTrace>1)
+			val = traceScore[nTrace-2][traceIndex[nTrace-1]];
+		else
+			val = score0;
+		return (val * traceIndexContainer[nTrace-1] + score1 * (traceIndexContainer[nTrace] - traceIndexContainer[nTrace-1]))
+				/ traceIndexContainer[nTrace];
+	}
+
+	/**
+	 * As CECalculator's; but if the distance matrices are the workspace's, the AFPChain gets views of their top left
+	 * corners, the size of the structures.
+	 */
+	@Override
+	public void convertAfpChain(AFPChain afpChain, Atom[] ca1, Atom[] ca2) {
+		super.convertAfpChain(afpChain, ca1, ca2);
+		if ( ! borrowedDistances) return;
+		if ( ca1.length > 0)
+			afpChain.setDisTable1(new Matrix(getDist1(), ca1.length, ca1.length));
+		if ( ca2.length > 0)
+			afpChain.setDisTable2(new Matrix(getDist2(), ca2.length, ca2.length));
+	}
+
 	@Override
 	public void traceFragmentMatrix( AFPChain afpChain,
 			Atom[] ca1, Atom[] ca2) {
 
-		double rmsdThr = params.getRmsdThr();
+		rmsdThr = params.getRmsdThr();
 
 
 		double oldBestTraceScore=10000.0;
 		bestTraceScore = 100.0;
 		nBestTrace=0;
-		int nBestTrace0 = 0;
-		int winSize = params.getWinSize();
-		int winSizeComb1=(winSize-1)*(winSize-2)/2;
+		nBestTrace0 = 0;
+		winSize = params.getWinSize();
+		winSizeComb1=(winSize-1)*(winSize-2)/2;
 		boolean distAll = false;
 
-		int winSizeComb2=distAll?winSize*winSize:winSize;
-		double rmsdThrJoin = params.getRmsdThrJoin();
+		winSizeComb2=distAll?winSize*winSize:winSize;
+		rmsdThrJoin = params.getRmsdThrJoin();
 
 		double z0;		
 
 		//double bestTraceZScore=-1.0;
 
-		int nse1 = ca1.length;
-		int nse2 = ca2.length;
+		nse1 = ca1.length;
+		nse2 = ca2.length;
+		traceCa2 = ca2;
 
 		//System.out.println("nse1 :" +nse1 + " nse2: " + nse2);
 
-		int traceMaxSize=nse1<nse2?nse1:nse2;
-
-		bestTrace1 = new int [traceMaxSize];
-		bestTrace2 = new int [traceMaxSize];
-		trace1     = new int [traceMaxSize]; 
-		trace2     = new int [traceMaxSize];
-
-		int[] traceIndex     = new int [traceMaxSize];
-		int[] traceIterLevel = new int [traceMaxSize];
+		traceMaxSize=nse1<nse2?nse1:nse2;
 
 		int ise11;
 		int ise12;
 		int ise21;
 		int ise22;
 
-		int ise1;
-		int ise2;
-
 		int gapMax=params.getMaxGapSize();
 
-		int iterDepth;
 		if ( gapMax > 0){
 			iterDepth 	=gapMax*2+1;
 		} else {
 			iterDepth = traceMaxSize;
 		}
-		double[][] traceScore = new double[traceMaxSize][iterDepth];
 
-		nTraces =0;
-		long tracesLimit=(long)5e7;
-		double score =-1;
-		double score0 = -1;
-		double score1 = -1 ;
-		double score2 = -1;
+		bestTracesMax=30;
 
-		int mse1;
-		int mse2;
-		int jgap;
-		int jdir;
-		int jse1=0;
-		int jse2=0;
+		if ( workspace == null) {
+			bestTrace1 = new int [traceMaxSize];
+			bestTrace2 = new int [traceMaxSize];
+			trace1     = new int [traceMaxSize]; 
+			trace2     = new int [traceMaxSize];
+
+			traceIndex     = new int [traceMaxSize];
+			traceIterLevel = new int [traceMaxSize];
+
+			traceScore = new double[traceMaxSize][iterDepth];
+
+			bestTraces1 = new int[bestTracesMax][traceMaxSize];
+			bestTraces2 = new int[bestTracesMax][ traceMaxSize];
+			bestTracesN=new int [bestTracesMax];
+			bestTracesScores = new double [bestTracesMax];
+
+			traceIndexContainer = new int [traceMaxSize];
+		} else {
+			workspace.prepare(traceMaxSize, iterDepth, bestTracesMax);
+			bestTrace1 = workspace.bestTrace1;
+			bestTrace2 = workspace.bestTrace2;
+			trace1     = workspace.trace1;
+			trace2     = workspace.trace2;
+
+			traceIndex     = workspace.traceIndex;
+			traceIterLevel = workspace.traceIterLevel;
+
+			traceScore = workspace.traceScore;
+
+			bestTraces1 = workspace.bestTraces1;
+			bestTraces2 = workspace.bestTraces2;
+			bestTracesN = workspace.bestTracesN;
+			bestTracesScores = workspace.bestTracesScores;
+
+			traceIndexContainer = workspace.traceIndexContainer;
+		}
+
+		// CECalculator computes its own weights in extractFragments, which this class may replace
+		for(int i=0; i<traceMaxSize; i++) {
+			traceIndexContainer[i]=(i+1)*i*winSize/2+(i+1)*winSizeComb1;
+		}
+
+		nTraces =0;
+		tracesLimit=(long)5e7;
 
-		int bestTracesMax=30;
-		bestTraces1 = new int[bestTracesMax][traceMaxSize];
-		bestTraces2 = new int[bestTracesMax][ traceMaxSize];
-		bestTracesN=new int [bestTracesMax];
-		bestTracesScores = new double [bestTracesMax];
 		for(int it=0; it<bestTracesMax; it++) {
 			bestTracesN[it]=0;
 			bestTracesScores[it]=100;
 		}
 
 		nBestTraces=0;
-		int newBestTrace=0;
+		newBestTrace=0;
 
-		double traceTotalScore=0;
-		double traceScoreMax =0;
-		double userRMSDMax = params.getMaxOptRMSD();
-		int kse1;
-		int kse2;
+		traceScoreMax =0;
+		userRMSDMax = params.getMaxOptRMSD();
 
 		iterLoop:
 			for(int iter=0; iter<nIter; iter++) {
@@ -175,256 +402,519 @@ public class CESymmCalculator extends CECalculator {
 				}
 
 				//System.out.println("ise1Loop: " + ise11 + " " + ise12 + " " + ise21 + " " + ise22);
-				ise1Loop:
-					for(int ise1_=ise11; ise1_<ise12; ise1_++) {
-						ise2Loop:
-							for(int ise2_=ise21; ise2_<ise22; ise2_++) {
+				if(iter==0 && nrThreads>1) {
+					if ( ! traceFragmentMatrixParallel()) return;
+				}
+				else for(int ise1=ise11; ise1<ise12; ise1++) {
+					// cancelled (e.g. a census job over its time budget): stop as if the trace limit was hit
+					if (Thread.currentThread().isInterrupted()) return;
+					ise2Loop:
+						for(int ise2=ise21; ise2<ise22; ise2++) {
+
+							if(iter>1 && ise1==ise11+1 && ise2==ise21+1) continue ise2Loop;
+
+							//if(ise2==ise21) 	System.out.println(String.format("(%d, %d)",ise1, nTraces));
+
+
+							if(iter==0 && (ise1>nse1-winSize*(nBestTrace-1) || 
+									ise2>nse2-winSize*(nBestTrace-1))) continue ise2Loop;
+
+							if ( ! walkTrace(iter, ise1, ise2)) return;
+						}
+				}
+
+				if ( isPrint) {
+					System.out.println("fragment length: " + params.getWinSize());
+					System.out.println("ntraces : " + nTraces );
+				}
+
+
+
+			}
+
+		if ( params.isShowAFPRanges()){
+			System.out.println("fragment length: " + params.getWinSize());
+			System.out.println("ntraces : " + nTraces );         
+
+		}
+
+	}
+
+	/**
+	 * Walks the alignment path that starts at the fragment pair (ise1, ise2), extending it with
+	 * {@link #traceExtended(int, double)} at every step.
+	 * @return False if the limit on the number of traces was exceeded
+	 */
+	private boolean walkTrace(int iter, int ise1, int ise2) {
+
+		if(mat[ise1][ise2]<0.0) return true;
+		if(mat[ise1][ise2]>rmsdThr) return true;
+		if (mat[ise1][ise2]>userRMSDMax) return true;
+
+		double score;
+		double score0;
+		double score1;
+		double score2;
+		double traceTotalScore=0;
+
+		int mse1;
+		int mse2;
+		int jgap;
+		int jdir;
+		int jse1=0;
+		int jse2=0;
+		int kse1;
+		int kse2;
+
+		nTrace=0;
+		trace1[nTrace]=ise1; 
+		trace2[nTrace]=ise2;
+		traceIndex[nTrace]=0;
+		traceIterLevel[nTrace]=0;
 
-								ise1=ise1_;
-								ise2=ise2_;
-								if(iter>1 && ise1==ise11+1 && ise2==ise21+1) continue ise2Loop;
+		score0=mat[ise1][ise2];
 
-								//if(ise2==ise21) 	System.out.println(String.format("(%d, %d)",ise1, nTraces));
 
+		nTrace++;
+		boolean isTraceUp=true;
+		int traceIndex_=0;
 
-								if(iter==0 && (ise1>nse1-winSize*(nBestTrace-1) || 
-										ise2>nse2-winSize*(nBestTrace-1))) continue ise2Loop;
+		traceLoop:
+			while(nTrace>0) {
 
-								if(mat[ise1][ise2]<0.0) continue ise2Loop;
-								if(mat[ise1][ise2]>rmsdThr) continue ise2Loop;
-								if (mat[ise1][ise2]>userRMSDMax) continue ise2Loop;
-								nTrace=0;
-								trace1[nTrace]=ise1; 
-								trace2[nTrace]=ise2;
-								traceIndex[nTrace]=0;
-								traceIterLevel[nTrace]=0;
+				kse1=trace1[nTrace-1]+winSize;
+				kse2=trace2[nTrace-1]+winSize;
 
-								score0=mat[ise1][ise2];
+				//System.out.println("isTraceUp " + isTraceUp + " " + nTrace + " " + kse1 + " " + kse2);
 
+				while(true) {
+					if(kse1>nse1-winSize-1) break;
+					if(kse2>nse2-winSize-1) break;
+					if(mat[kse1][kse2]>=0.0) break;
+					kse1++;
+					kse2++;
+				}
 
-								nTrace++;
-								boolean isTraceUp=true;
-								int traceIndex_=0;
 
-								traceLoop:
-									while(nTrace>0) {
+				traceIndex_=-1; 
 
-										kse1=trace1[nTrace-1]+winSize;
-										kse2=trace2[nTrace-1]+winSize;
+				if(isTraceUp) {
 
-										//System.out.println("isTraceUp " + isTraceUp + " " + nTrace + " " + kse1 + " " + kse2);
+					int nBestExtTrace=nTrace;
+					double bestExtScore=100.0;
 
-										while(true) {
-											if(kse1>nse1-winSize-1) break;
-											if(kse2>nse2-winSize-1) break;
-											if(mat[kse1][kse2]>=0.0) break;
-											kse1++;
-											kse2++;
-										}
 
+					// extension of the alignment path
+					// condition 4, 5
+					itLoop:
+						for(int it=0; it<iterDepth; it++) {
 
-										traceIndex_=-1; 
+							jgap=(it+1)/2;
+							jdir=(it+1)%2;
 
-										if(isTraceUp) {
+							if(jdir==0) {
+								mse1=kse1+jgap;
+								mse2=kse2;
+							}
+							else {
+								mse1=kse1;
+								mse2=kse2+jgap;
+							}
 
-											int nBestExtTrace=nTrace;
-											double bestExtScore=100.0;
+							if(mse1>nse1-winSize-1) continue itLoop;
+							if(mse2>nse2-winSize-1) continue itLoop;
 
+							if(mat[mse1][mse2]<0.0)     continue itLoop;
+							if(mat[mse1][mse2]>rmsdThr) continue itLoop;
+							if(mat[mse1][mse2]>userRMSDMax) continue itLoop;
 
-											// extension of the alignment path
-											// condition 4, 5
-											itLoop:
-												for(int it=0; it<iterDepth; it++) {
+							nTraces++;
+							if(nTraces>tracesLimit) {
 
-													jgap=(it+1)/2;
-													jdir=(it+1)%2;
+								return false;
+							}
 
-													if(jdir==0) {
-														mse1=kse1+jgap;
-														mse2=kse2;
-													}
-													else {
-														mse1=kse1;
-														mse2=kse2+jgap;
-													}
-
-													if(mse1>nse1-winSize-1) continue itLoop;
-													if(mse2>nse2-winSize-1) continue itLoop;
-
-													if(mat[mse1][mse2]<0.0)     continue itLoop;
-													if(mat[mse1][mse2]>rmsdThr) continue itLoop;
-													if(mat[mse1][mse2]>userRMSDMax) continue itLoop;
-
-													nTraces++;
-													if(nTraces>tracesLimit) {
-
-														return;
-													}
-
-													score=0.0;
-
-													//													if(!distAll) {
-													//System.out.println("getting score " + mse1 + " " + mse2 + " " + winSize + " " + jgap + " " + jdir + " " + it + " " + kse1 + " " + kse2);
-													score = getScoreFromDistanceMatrices(mse1,mse2,winSize);
-													//System.out.println("got score: " + score);
-													score1=score/(nTrace*winSize);
-
-													//													} else {
-													//														// all dist
-													//														for(int itrace=0; itrace<nTrace; itrace++) {
-													//															for(int is1=0; is1<winSize; is1++)
-													//																for(int is2=0; is2<winSize; is2++)
-													//																	score+=Math.abs(dist1[trace1[itrace]+is1][mse1+is2]-
-													//																			dist2[trace2[itrace]+is1][mse2+is2]);
-													//														}
-													//														score1=score/(nTrace*winSize*winSize);
-													//													}
-
-
-													//System.out.println("up: " + nTrace + " "  + score + " " + score0 + " " + score1 + " " + winSize + " " + traceIndex_ + " " + it + " ");
-													if(score1>rmsdThrJoin) 
-														continue itLoop;
-													if(score1>userRMSDMax)
-														continue itLoop;
-
-													double angle = checkAngle(mse1,mse2, ca2, ca2, winSize);
-													if ( angle < MIN_ANGLE)
-														continue itLoop;
-
-													score2=score1;
-
-													// this just got checked, no need to check again..
-													//if(score2>rmsdThrJoin) 
-													//	continue itLoop;
-
-													if(nTrace>nBestExtTrace || (nTrace==nBestExtTrace &&
-															score2<bestExtScore)) {
-														//System.out.println("setting traceindex to " + it + " " + score2);
-														bestExtScore=score2;
-														nBestExtTrace=nTrace;
-														traceIndex_=it;
-														traceScore[nTrace-1][traceIndex_]=score1;
-													}
-
-												}
-										}
-
-										if(traceIndex_!=-1) {
-											jgap=(traceIndex_+1)/2;
-											jdir=(traceIndex_+1)%2;
-											if(jdir==0) {
-												jse1=kse1+jgap;
-												jse2=kse2;
-											}
-											else {
-												jse1=kse1;
-												jse2=kse2+jgap;
-											}
-
-											if(iter==0){
-
-												score1=(traceScore[nTrace-1][traceIndex_]*winSizeComb2*nTrace+
-														mat[jse1][jse2]*winSizeComb1)/(winSizeComb2*nTrace+
-																winSizeComb1);
-
-												score2 = getScore2(jse1, jse2, traceScore, traceIndex_, traceIndex, winSizeComb1, winSizeComb2, score0, score1);
-
-												if(score2>rmsdThrJoin) 
-													traceIndex_=-1;
-												else if ( score2 > userRMSDMax) 
-													traceIndex_=-1;												
-												else {
-													traceScore[nTrace-1][traceIndex_]=score2;
-
-													traceTotalScore=score2;
-												}
-
-											}
-											else {
-												if(traceScoreMax>rmsdThrJoin && nBestTrace>=nBestTrace0) 
-													traceIndex_=-1;								
-												traceTotalScore=traceScoreMax;
-											}
-										}
-
-										//System.out.println("middle: " + nTrace + " " + score + " " + score0 + " " + score1 + "  " + score2  + " " + traceIndex_);
-
-										if(traceIndex_==-1) {
-											//System.out.println("continue traceLoop " + nTrace);
-											//if(iterLevel==1) break;
-											nTrace--;
-											isTraceUp=false;
-											continue traceLoop;
-										}
-										else {
-											traceIterLevel[nTrace-1]++;
-											trace1[nTrace]=jse1;
-											trace2[nTrace]=jse2;
-											traceIndex[nTrace]=traceIndex_;
-											traceIterLevel[nTrace]=0;
-											nTrace++;
-											isTraceUp=true;
-
-											if(nTrace>nBestTrace || 
-													(nTrace==nBestTrace  && 
-															bestTraceScore>traceTotalScore)) {
-
-												for(int itrace=0; itrace<nTrace; itrace++) {
-													bestTrace1[itrace]=trace1[itrace];
-													bestTrace2[itrace]=trace2[itrace];
-												}
-												bestTraceScore=traceTotalScore;
-												nBestTrace=nTrace;
-											}
-
-											if(iter==0) {
-												//System.out.println("doing iter0 " + newBestTrace + " " + traceTotalScore + " " + bestTracesMax);
-												newBestTrace = doIter0(newBestTrace,traceTotalScore, bestTracesMax);
-
-
-											}
-										}
-									}
+							//System.out.println("getting score " + mse1 + " " + mse2 + " " + winSize + " " + jgap + " " + jdir + " " + it + " " + kse1 + " " + kse2);
+							score = getScoreFromDistanceMatrices(mse1,mse2,winSize);
+							//System.out.println("got score: " + score);
+							score1=score/(nTrace*winSize);
+
+							//System.out.println("up: " + nTrace + " "  + score + " " + score0 + " " + score1 + " " + winSize + " " + traceIndex_ + " " + it + " ");
+							if(score1>rmsdThrJoin) 
+								continue itLoop;
+							if(score1>userRMSDMax)
+								continue itLoop;
+
+							if ( minAngle > 0) {
+								double angle = checkAngle(mse1,mse2, traceCa2, traceCa2, winSize);
+								if ( angle < minAngle)
+									continue itLoop;
 							}
+
+							score2=score1;
+
+							// this just got checked, no need to check again..
+							//if(score2>rmsdThrJoin) 
+							//	continue itLoop;
+
+							if(nTrace>nBestExtTrace || (nTrace==nBestExtTrace &&
+									score2<bestExtScore)) {
+								//System.out.println("setting traceindex to " + it + " " + score2);
+								bestExtScore=score2;
+								nBestExtTrace=nTrace;
+								traceIndex_=it;
+								traceScore[nTrace-1][traceIndex_]=score1;
+							}
+
+						}
+				}
+
+				if(traceIndex_!=-1) {
+					jgap=(traceIndex_+1)/2;
+					jdir=(traceIndex_+1)%2;
+					if(jdir==0) {
+						jse1=kse1+jgap;
+						jse2=kse2;
+					}
+					else {
+						jse1=kse1;
+						jse2=kse2+jgap;
 					}
 
-				if ( isPrint) {
-					System.out.println("fragment length: " + params.getWinSize());
-					System.out.println("ntraces : " + nTraces );
+					if(iter==0){
+
+						score1=(traceScore[nTrace-1][traceIndex_]*winSizeComb2*nTrace+
+								mat[jse1][jse2]*winSizeComb1)/(winSizeComb2*nTrace+
+										winSizeComb1);
+
+						score2 = getScore2(jse1, jse2, traceScore, traceIndex_, traceIndex, winSizeComb1, winSizeComb2, score0, score1);
+
+						if(score2>rmsdThrJoin) 
+							traceIndex_=-1;
+						else if ( score2 > userRMSDMax) 
+							traceIndex_=-1;												
+						else {
+							traceScore[nTrace-1][traceIndex_]=score2;
+
+							traceTotalScore=score2;
+						}
+
+					}
+					else {
+						if(traceScoreMax>rmsdThrJoin && nBestTrace>=nBestTrace0) 
+							traceIndex_=-1;								
+						traceTotalScore=traceScoreMax;
+					}
 				}
 
+				//System.out.println("middle: " + nTrace + " " + score + " " + score0 + " " + score1 + "  " + score2  + " " + traceIndex_);
+
+				if(traceIndex_==-1) {
+					//System.out.println("continue traceLoop " + nTrace);
+					//if(iterLevel==1) break;
+					nTrace--;
+					isTraceUp=false;
+					continue traceLoop;
+				}
+				else {
+					traceIterLevel[nTrace-1]++;
+					trace1[nTrace]=jse1;
+					trace2[nTrace]=jse2;
+					traceIndex[nTrace]=traceIndex_;
+					traceIterLevel[nTrace]=0;
+					nTrace++;
+					isTraceUp=true;
+
+					traceExtended(iter, traceTotalScore);
+				}
+			}
+		return true;
+	}
+
+	/**
+	 * Called when the current trace (trace1, trace2 and nTrace) has been extended. Updates the best trace, or hands
+	 * the extension to the {@link #recorder} on a stripe worker.
+	 */
+	private void traceExtended(int iter, double traceTotalScore) {
+
+		if (recorder != null) {
+			recorder.extended(nTraces, traceTotalScore);
+			return;
+		}
 
+		if(nTrace>nBestTrace || 
+				(nTrace==nBestTrace  && 
+						bestTraceScore>traceTotalScore)) {
 
+			for(int itrace=0; itrace<nTrace; itrace++) {
+				bestTrace1[itrace]=trace1[itrace];
+				bestTrace2[itrace]=trace2[itrace];
 			}
+			bestTraceScore=traceTotalScore;
+			nBestTrace=nTrace;
+		}
 
-		//		try {
-		//			Matrix m2 = new Matrix(traceScore).copy();
-		//			JPanel panel = GuiWrapper.getScaleableMatrixPanel(m2);
-		//			JFrame frame = new JFrame();
-		//			frame.addWindowListener(new WindowAdapter(){
-		//				public void windowClosing(WindowEvent e){
-		//					JFrame f = (JFrame) e.getSource();
-		//					f.setVisible(false);
-		//					f.dispose();
-		//				}				
-		//			});
-		//						
-		//			
-		//			frame.getContentPane().add(panel);
-		//
-		//			frame.pack();
-		//			frame.setVisible(true);
-		//		} catch (Exception e) {
-		//			e.printStackTrace();
-		//		}
+		if(iter==0) {
+			//System.out.println("doing iter0 " + newBestTrace + " " + traceTotalScore + " " + bestTracesMax);
+			newBestTrace = doIter0(newBestTrace,traceTotalScore, bestTracesMax);
 
 
-		if ( params.isShowAFPRanges()){
-			System.out.println("fragment length: " + params.getWinSize());
-			System.out.println("ntraces : " + nTraces );         
+		}
+	}
+
+	/**
+	 * Runs the first pass of the trace on {@link #nrThreads} threads, then replays the recorded traces in the order
+	 * of the sequential loop.
+	 * @return False if the limit on the number of traces was exceeded
+	 */
+	private boolean traceFragmentMatrixParallel() {
+
+		// the workers share the centroids, so compute them before forking
+		if ( origin1 == null)
+			origin1 = Calc.getCentroid(traceCa2);
+		if ( origin2 == null)
+			origin2 = Calc.getCentroid(traceCa2);
+
+		replayedBestTrace = nBestTrace;
+
+		ExecutorService pool = getTracePool();
+		LinkedList<Future<TraceRecorder>> pending = new LinkedList<Future<TraceRecorder>>();
+		int next = 0;
+		try {
+			while (next < nse1 || ! pending.isEmpty()) {
+				// get only notices a cancel while it waits
+				if (Thread.currentThread().isInterrupted()) return false;
+				// keep nrThreads stripes running ahead of the replay
+				while (next < nse1 && pending.size() < nrThreads) {
+					pending.add(pool.submit(newStripe(next, Math.min(next + STRIPE_ROWS, nse1))));
+					next += STRIPE_ROWS;
+				}
+
+				// replay in row order
+				TraceRecorder stripe = pending.removeFirst().get();
+				if ( ! stripe.replay(this)) return false;
+				replayedBestTrace = nBestTrace;
+				if (stripe.isAborted()) {
+					// the global count may still be under the limit here, so continue exactly as the sequential loop
+					return traceSequentially(stripe.ise1, stripe.ise2);
+				}
+			}
+
+		} catch (InterruptedException e) {
+			// cancelled while waiting for a stripe: stop as if the trace limit was hit
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			// stripes that are no longer needed, after an early return or a failure
+			for (Future<TraceRecorder> future : pending) {
+				future.cancel(true);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a task that walks the start positions in rows from (inclusive) to to (exclusive) with its own worker.
+	 */
+	private Callable<TraceRecorder> newStripe(final int from, final int to) {
+		return new Callable<TraceRecorder>() {
+			@Override
+			public TraceRecorder call() {
+				// created on the pool thread, so that it walks on that thread's workspace
+				CESymmCalculator worker = newStripeWorker();
+				for (int ise1 = from; ise1 < to; ise1++) {
+					// the alignment was cancelled
+					if (Thread.currentThread().isInterrupted()) throw new CancellationException();
+					// the start positions the sequential loop skips, as far as the replay has got
+					if (ise1 > nse1 - winSize * (replayedBestTrace - 1)) break;
+					for (int ise2 = 0; ise2 < worker.nse2; ise2++) {
+						if (ise2 > nse2 - winSize * (replayedBestTrace - 1)) break;
+						worker.recorder.begin(ise1, ise2, worker.nTraces);
+						if ( ! worker.walkTrace(0, ise1, ise2)) {
+							// this stripe alone passed the limit; the merge takes over from here
+							worker.recorder.abort();
+							return worker.recorder;
+						}
+						worker.recorder.end(worker.nTraces, worker.trace1, worker.trace2);
+					}
+				}
+				return worker.recorder;
+			}
+		};
+	}
+
+	/**
+	 * Returns the threads for the stripes of all calculators.
+	 */
+	private static synchronized ExecutorService getTracePool() {
+		if (tracePool == null) {
+			tracePool = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CESymmCalculator-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return tracePool;
+	}
+
+	/**
+	 * Walks the first pass sequentially from start position (from1, from2) to the end of the matrix.
+	 * Stops early, like the limit on traces, if the thread is interrupted (a census job that ran too long).
+	 * @return False if the limit on the number of traces was exceeded
+	 */
+	private boolean traceSequentially(int from1, int from2) {
+		for (int ise1 = from1; ise1 < nse1; ise1++) {
+			if (Thread.currentThread().isInterrupted()) return false;
+			for (int ise2 = ise1 == from1 ? from2 : 0; ise2 < nse2; ise2++) {
+				if (ise1 > nse1 - winSize * (nBestTrace - 1) || ise2 > nse2 - winSize * (nBestTrace - 1)) continue;
+				if ( ! walkTrace(0, ise1, ise2)) return false;
+			}
+		}
+		return true;
+	}
 
+	/**
+	 * Creates a calculator that shares this one's matrices and constants, and walks on the trace arrays of the calling
+	 * thread's {@link CESymmWorkspace workspace}. The walk writes every entry before reading it, and the recorder
+	 * copies the paths, so a pool thread reuses the same arrays for every stripe it runs.
+	 */
+	private CESymmCalculator newStripeWorker() {
+		CESymmCalculator worker = new CESymmCalculator(params);
+		worker.mat = mat;
+		worker.setDist1(getDist1());
+		worker.setDist2(getDist2());
+		worker.origin1 = origin1;
+		worker.origin2 = origin2;
+		worker.minAngle = minAngle;
+		worker.winSize = winSize;
+		worker.winSizeComb1 = winSizeComb1;
+		worker.winSizeComb2 = winSizeComb2;
+		worker.iterDepth = iterDepth;
+		worker.nse1 = nse1;
+		worker.nse2 = nse2;
+		worker.traceMaxSize = traceMaxSize;
+		worker.rmsdThr = rmsdThr;
+		worker.rmsdThrJoin = rmsdThrJoin;
+		worker.userRMSDMax = userRMSDMax;
+		worker.tracesLimit = tracesLimit;
+		worker.bestTracesMax = bestTracesMax;
+		worker.traceIndexContainer = traceIndexContainer;
+		worker.traceCa2 = traceCa2;
+		CESymmWorkspace scratch = CESymmWorkspace.forCurrentThread();
+		scratch.prepare(traceMaxSize, iterDepth, bestTracesMax);
+		worker.trace1 = scratch.trace1;
+		worker.trace2 = scratch.trace2;
+		worker.traceIndex = scratch.traceIndex;
+		worker.traceIterLevel = scratch.traceIterLevel;
+		worker.traceScore = scratch.traceScore;
+		worker.recorder = new TraceRecorder();
+		return worker;
+	}
+
+	/**
+	 * The traces walked by one stripe worker: for each start position that extended or scored anything, the final
+	 * path, and the score and trace count at each extension. Every extension only appends to the path, so the trace
+	 * at extension <i>k</i> is the first <i>k</i>+2 pairs of the final path. A stripe has at most
+	 * {@link #STRIPE_ROWS} rows, so a recorder holds at most that many rows of start positions.
+	 */
+	private static class TraceRecorder {
+
+		private final List<int[]> starts = new ArrayList<int[]>();
+		private final List<int[]> paths1 = new ArrayList<int[]>();
+		private final List<int[]> paths2 = new ArrayList<int[]>();
+		private final List<long[]> counts = new ArrayList<long[]>();
+		private final List<double[]> scores = new ArrayList<double[]>();
+
+		private int ise1;
+		private int ise2;
+		private long startCount;
+		private int nExtensions;
+		private long[] extensionCounts = new long[16];
+		private double[] extensionScores = new double[16];
+		private boolean aborted = false;
+
+		void begin(int ise1, int ise2, long nTraces) {
+			this.ise1 = ise1;
+			this.ise2 = ise2;
+			startCount = nTraces;
+			nExtensions = 0;
 		}
 
+		void extended(long nTraces, double traceTotalScore) {
+			if (nExtensions == extensionCounts.length) {
+				extensionCounts = Arrays.copyOf(extensionCounts, nExtensions * 2);
+				extensionScores = Arrays.copyOf(extensionScores, nExtensions * 2);
+			}
+			extensionCounts[nExtensions] = nTraces - startCount;
+			extensionScores[nExtensions] = traceTotalScore;
+			nExtensions++;
+		}
+
+		/**
+		 * Marks the current start position as the point where this stripe stopped early.
+		 */
+		void abort() {
+			aborted = true;
+		}
+
+		boolean isAborted() {
+			return aborted;
+		}
+
+		void end(long nTraces, int[] trace1, int[] trace2) {
+			long total = nTraces - startCount;
+			if (total == 0) return; // nothing was scored, so nothing to replay
+			starts.add(new int[] {ise1, ise2});
+			paths1.add(Arrays.copyOf(trace1, nExtensions + 1));
+			paths2.add(Arrays.copyOf(trace2, nExtensions + 1));
+			long[] c = Arrays.copyOf(extensionCounts, nExtensions + 1);
+			c[nExtensions] = total;
+			counts.add(c);
+			scores.add(Arrays.copyOf(extensionScores, nExtensions));
+		}
+
+		/**
+		 * Applies the recorded traces to {@code calc} as the sequential loop would have.
+		 * @return False if the limit on the number of traces was exceeded
+		 */
+		boolean replay(CESymmCalculator calc) {
+			for (int r = 0; r < starts.size(); r++) {
+				int[] start = starts.get(r);
+				if (start[0] > calc.nse1 - calc.winSize * (calc.nBestTrace - 1)
+						|| start[1] > calc.nse2 - calc.winSize * (calc.nBestTrace - 1)) continue;
+
+				long base = calc.nTraces;
+				int[] path1 = paths1.get(r);
+				int[] path2 = paths2.get(r);
+				long[] c = counts.get(r);
+				double[] s = scores.get(r);
+
+				for (int k = 0; k < s.length; k++) {
+					// the sequential loop gives up as soon as the count passes the limit
+					if (base + c[k] > calc.tracesLimit) {
+						calc.nTraces = (int) (calc.tracesLimit + 1);
+						return false;
+					}
+					System.arraycopy(path1, 0, calc.trace1, 0, k + 2);
+					System.arraycopy(path2, 0, calc.trace2, 0, k + 2);
+					calc.nTrace = k + 2;
+					calc.traceExtended(0, s[k]);
+				}
+				if (base + c[s.length] > calc.tracesLimit) {
+					calc.nTraces = (int) (calc.tracesLimit + 1);
+					return false;
+				}
+				calc.nTraces = (int) (base + c[s.length]);
+				calc.nTrace = 0;
+			}
+			return true;
+		}
 	}
 
 	/** do a SVN of the AFPs at positions mse1, mse2. Returns the rotation angle between the AFPs
@@ -0,0 +1,129 @@
+package org.biojava3.structure.align.symm;
+
+import java.util.Arrays;
+
+/**
+ * Scratch arrays for {@link CESymmCalculator}, reused from one alignment to the next: the trace arrays of
+ * {@link CESymmCalculator#traceFragmentMatrix traceFragmentMatrix}, and the intra-protein distance matrices of
+ * {@link CESymmCalculator#extractFragments extractFragments}.
+ *
+ * <p>Each thread has its own workspace ({@link #forCurrentThread()}), which only grows when a larger structure
+ * arrives; so in a census, where each thread aligns one domain after another, the calculator allocates little besides
+ * the score matrix once the largest domains have been seen. The arrays can be longer than the current structure needs; the calculator only
+ * uses them up to its own trace counts and structure lengths. A thread keeps the arrays of its largest alignment so
+ * far, which is dominated by the distance matrix of the doubled protein: 32 MB for 1000 residues.
+ *
+ * <p>{@link CeSymm} borrows the workspace of the calling thread for every alignment. The stripes of a parallel trace walk on
+ * the workspace of the pool thread they run on.
+ *
+ * <p>A workspace must only be used by one alignment at a time. The arrays stay referenced by the calculator until its
+ * alignment has finished, so do not share a workspace between calculators that are in use at the same time. The
+ * distance tables of the resulting AFPChain ({@code getDisTable1()} and {@code getDisTable2()}, which CE-Symm doesn't
+ * use) are views of the distance matrices, and change with the next alignment on the same thread.
+ */
+public class CESymmWorkspace {
+
+	private static final ThreadLocal<CESymmWorkspace> perThread = new ThreadLocal<CESymmWorkspace>() {
+		@Override
+		protected CESymmWorkspace initialValue() {
+			return new CESymmWorkspace();
+		}
+	};
+
+	/**
+	 * @return The workspace of the calling thread
+	 */
+	public static CESymmWorkspace forCurrentThread() {
+		return perThread.get();
+	}
+
+	int[] bestTrace1;
+	int[] bestTrace2;
+	int[] trace1;
+	int[] trace2;
+	int[] traceIndex;
+	int[] traceIterLevel;
+	double[][] traceScore;
+
+	int[][] bestTraces1;
+	int[][] bestTraces2;
+	int[] bestTracesN;
+	double[] bestTracesScores;
+	int[] traceIndexContainer;
+
+	double[][] dist1;
+	double[][] dist2;
+
+	private int traceCapacity = -1;
+	private int iterCapacity = -1;
+	private int bestTracesCapacity = -1;
+	private int dist1Capacity = -1;
+	private int dist2Capacity = -1;
+
+	private int nGrown = 0;
+
+	/**
+	 * @return How many times the arrays had to be (re)allocated
+	 */
+	public int getGrowthCount() {
+		return nGrown;
+	}
+
+	/**
+	 * Makes the arrays large enough for a trace of {@code traceMaxSize} fragments, and clears the parts the
+	 * calculator reads before writing.
+	 */
+	void prepare(int traceMaxSize, int iterDepth, int bestTracesMax) {
+
+		if (traceMaxSize > traceCapacity || iterDepth > iterCapacity || bestTracesMax > bestTracesCapacity) {
+			traceCapacity = Math.max(traceMaxSize, traceCapacity);
+			iterCapacity = Math.max(iterDepth, iterCapacity);
+			bestTracesCapacity = Math.max(bestTracesMax, bestTracesCapacity);
+			bestTrace1 = new int[traceCapacity];
+			bestTrace2 = new int[traceCapacity];
+			trace1 = new int[traceCapacity];
+			trace2 = new int[traceCapacity];
+			traceIndex = new int[traceCapacity];
+			traceIterLevel = new int[traceCapacity];
+			traceScore = new double[traceCapacity][iterCapacity];
+			bestTraces1 = new int[bestTracesCapacity][traceCapacity];
+			bestTraces2 = new int[bestTracesCapacity][traceCapacity];
+			bestTracesN = new int[bestTracesCapacity];
+			bestTracesScores = new double[bestTracesCapacity];
+			traceIndexContainer = new int[traceCapacity];
+			nGrown++;
+			return;
+		}
+
+		// the z-score of the first pass reads bestTrace1[nBestTrace], one past the trace, which must be 0 as in a
+		// new array; traceScore is always written before it is read, so it doesn't need clearing
+		Arrays.fill(bestTrace1, 0);
+		Arrays.fill(bestTrace2, 0);
+		Arrays.fill(trace1, 0);
+		Arrays.fill(trace2, 0);
+		Arrays.fill(traceIndex, 0);
+		Arrays.fill(traceIterLevel, 0);
+		for (int i = 0; i < bestTracesCapacity; i++) {
+			Arrays.fill(bestTraces1[i], 0);
+			Arrays.fill(bestTraces2[i], 0);
+		}
+	}
+
+	/**
+	 * Makes the distance matrices at least {@code nse1} by {@code nse1} and {@code nse2} by {@code nse2}. The
+	 * calculator overwrites every entry it reads, so they are not cleared.
+	 */
+	void prepareDistances(int nse1, int nse2) {
+		if (nse1 > dist1Capacity) {
+			dist1Capacity = nse1;
+			dist1 = new double[nse1][nse1];
+			nGrown++;
+		}
+		if (nse2 > dist2Capacity) {
+			dist2Capacity = nse2;
+			dist2 = new double[nse2][nse2];
+			nGrown++;
+		}
+	}
+
+}
@@ -1,6 +1,11 @@
 package org.biojava3.structure.align.symm;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import org.biojava.bio.structure.Atom;
 import org.biojava.bio.structure.Calc;
@@ -20,7 +25,8 @@ import org.biojava.bio.structure.align.model.AFPChain;
 import org.biojava.bio.structure.align.util.AFPChainScorer;
 import org.biojava.bio.structure.align.util.AlignmentTools;
 import org.biojava.bio.structure.align.util.AtomCache;
-import org.biojava.bio.structure.jama.Matrix;
+import org.biojava.bio.structure.align.util.RotationAxis;
+import org.biojava3.structure.utils.DiagonalPenalty;
 import org.biojava3.structure.utils.SymmetryTools;
 
 
@@ -59,6 +65,11 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 	 */
 	private double gradientExpCoeff = 0;
 
+	/**
+	 * The gray-out penalty for {@link #gradientPolyCoeff} and {@link #gradientExpCoeff}, tabulated per diagonal offset.
+	 */
+	private DiagonalPenalty penalty;
+
 	public float getMinimumMetricChange() {
 		return minimumMetricChange;
 	}
@@ -104,6 +115,16 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 
 	private boolean refineResult = false;
 
+	/**
+	 * Number of threads used to trace the fragment matrix of a single alignment.
+	 */
+	private int nrThreads = 1;
+
+	/**
+	 * While {@link #alignAllOrders(Atom[], Atom[])} runs, a copy of the alignment of each iteration; otherwise null.
+	 */
+	private List<AFPChain> alternatives = null;
+
 	public static void main(String[] args){
 
 		// used only for printing help...
@@ -269,8 +290,8 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 
 
 
-	private static Matrix align(AFPChain afpChain,  Atom[] ca1, Atom[] ca2,
-			CeParameters params, Matrix origM, CECalculator calculator, int counter, double[] GRADIENT_POLY_COEFF, double GRADIENT_EXP_COEFF) throws StructureException{
+	private static ScoreMatrix align(AFPChain afpChain,  Atom[] ca1, Atom[] ca2,
+			CeParameters params, ScoreMatrix origM, CECalculator calculator, int counter, DiagonalPenalty penalty) throws StructureException{
 
 		int fragmentLength = params.getWinSize();
 		//if ( ca1.length > 200 && ca2.length > 200 )
@@ -278,8 +299,7 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 
 		//params.setWinSize(fragmentLength);
 
-		Atom[] ca2clone = SymmetryTools.cloneAtoms(ca2);
-		////
+		// the calculator doesn't move ca2 (it superimposes copies), so every iteration can use the duplicated array
 
 
 		//System.out.println("rows "  + rows + " " + cols +
@@ -303,9 +323,10 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 		if ( origM == null) {
 			//Build alignment ca1 to ca2-ca2
 
-			afpChain = calculator.extractFragments(afpChain, ca1, ca2clone);
+			afpChain = calculator.extractFragments(afpChain, ca1, ca2);
 
-			origM =  SymmetryTools.grayOutPreviousAlignment(afpChain, ca2, rows, cols, calculator, null, blankWindowSize, GRADIENT_POLY_COEFF, GRADIENT_EXP_COEFF);
+			// the calculator gets a working copy below, so origM can own its matrix
+			origM =  SymmetryTools.grayOutPreviousAlignment(afpChain, ca2, rows, cols, calculator, ScoreMatrix.wrap(calculator.getMatMatrix()), blankWindowSize, penalty);
 
 			//SymmetryTools.showMatrix(origM, "original CE matrix");
 
@@ -316,21 +337,24 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 			// we are doing an iteration on a previous alignment
 			// mask the previous alignment
 			//afpChain = calculator.extractFragments(afpChain, ca1, ca2clone);
-			origM =  SymmetryTools.grayOutPreviousAlignment(afpChain, ca2, rows, cols, calculator, origM, blankWindowSize, GRADIENT_POLY_COEFF, GRADIENT_EXP_COEFF);
+			origM =  SymmetryTools.grayOutPreviousAlignment(afpChain, ca2, rows, cols, calculator, origM, blankWindowSize, penalty);
 			//afpChain = calculator.extractFragments(afpChain, ca1, ca2clone);
 			//System.out.println("BLANK OUT PREVIOUS");
 			//SymmetryTools.showMatrix(origM, "iteration  matrix " +counter);
 
 		}
 
-		Matrix clone =(Matrix) origM.clone();
-
 		// that's the matrix to run the alignment on..
-		calculator.setMatMatrix(clone.getArray());
+		// the calculator overwrites it, so it gets a (reused) copy
+		calculator.setMatMatrix(origM.getWorkingCopy());
+
+		calculator.traceFragmentMatrix( afpChain,ca1, ca2);
 
-		calculator.traceFragmentMatrix( afpChain,ca1, ca2clone);
+		// the trace stopped early, so don't optimize what it found
+		if ( Thread.currentThread().isInterrupted())
+			return origM;
 
-		calculator.nextStep( afpChain,ca1, ca2clone);
+		calculator.nextStep( afpChain,ca1, ca2);
 
 		// afpChain = CeMain.filterDuplicateAFPs(afpChain, calculator, ca1, ca2clone);
 		//afpChain.setAlgorithmName("CE-symmetry step " + counter);
@@ -342,7 +366,7 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 		//if ( isSignificant(afpChain)) {
 		//AFPChain c = (AFPChain) afpChain.clone();
 		//afpChain = CeMain.filterDuplicateAFPs(c,calculator,ca1,ca2);
-		afpChain.setDistanceMatrix(origM);
+		afpChain.setDistanceMatrix(origM.snapshot());
 		//	afpChain = CeMain.filterDuplicateAFPs(afpChain, calculator, ca1, ca2clone);
 		//afpChain.setDistanceMatrix((Matrix)origM.clone());
 		//	}
@@ -353,12 +377,18 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 
 	public double[][] matrixInOptimizer(double[][] max) {
 
+		// called before each round of the optimizer, the slow part of nextStep; align returns null
+		if ( Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+
 		return CECalculator.updateMatrixWithSequenceConservation(max, ca1, ca2, params);
 	}
 
 
 
 	public boolean[][] initializeBreakFlag(boolean[][] breakFlag) {
+		if ( Thread.currentThread().isInterrupted())
+			throw new CancellationException();
 		int fragmentLength = params.getWinSize();
 		try {
 			if ( afpChain != null) {
@@ -395,6 +425,18 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 		return align(ca1,ca2,params);
 	}
 
+	/**
+	 * Returns the calculator for one alignment. Without the angle check, a CESymmCalculator traces the same paths as
+	 * a plain CECalculator; and it reuses the arrays of the previous alignment on this thread.
+	 */
+	CECalculator newCalculator(CeParameters params) {
+		CESymmCalculator symmCalculator = new CESymmCalculator(params);
+		symmCalculator.setMinAngle(0);
+		symmCalculator.setNrThreads(nrThreads);
+		symmCalculator.setWorkspace(CESymmWorkspace.forCurrentThread());
+		return symmCalculator;
+	}
+
 	public AFPChain align(Atom[] ca1, Atom[] ca2O, Object param)
 			throws StructureException {
 		if ( ! (param instanceof CeParameters))
@@ -414,25 +456,34 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 			rows = ca1.length ;
 			cols = ca2.length ;
 
-			Matrix origM = null;
+			ScoreMatrix origM = null;
 
 			AFPChain myAFP = new AFPChain();
 
-			calculator = new CECalculator(params);
+			calculator = newCalculator(params);
 			calculator.addMatrixListener(this);
 
+			// tabulated once and shared by all iterations (and alignments with the same coefficients)
+			if ( penalty == null || ! penalty.hasCoefficients(gradientPolyCoeff, gradientExpCoeff))
+				penalty = new DiagonalPenalty(gradientPolyCoeff, gradientExpCoeff);
+
 			int i =0 ; ;
 			//while (! String.format("%.4f",afpChain.getTMScore()).equals(String.format("%.4f", prevTm)) ){
 			//while ( ! String.format("%.4f",afpChain.getTMScore()).equals(String.format("%.4f", prevTm)) ){
 			while ( (afpChain == null || isSignificant(myAFP) ) &&  i < maxNrAlternatives) {
 
+				// cancelled, for example by a census time budget; nobody will use the result
+				if ( Thread.currentThread().isInterrupted())
+					return null;
+
 				//this.afpChain = (AFPChain) myAFP.clone();
 				afpChain = myAFP;
-				if ( origM != null) {
-					myAFP.setDistanceMatrix((Matrix)origM.clone());
-				}
-				origM = align(myAFP, ca1, ca2, params, origM, calculator, i, gradientPolyCoeff, gradientExpCoeff);
+				// the distance matrix snapshot set by the previous iteration is copied on write
+				origM = align(myAFP, ca1, ca2, params, origM, calculator, i, penalty);
 
+				// the trace checks between rows, and stops early if cancelled
+				if ( Thread.currentThread().isInterrupted())
+					return null;
 
 
 				//				if ( String.format("%.4f",myAFP.getTMScore()).equals(String.format("%.4f", prevTm)) ) {
@@ -444,6 +495,10 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 				double tmScore2 = AFPChainScorer.getTMScore(myAFP, ca1, ca2);
 				myAFP.setTMScore(tmScore2);
 
+				// the next iteration reuses myAFP
+				if ( alternatives != null)
+					alternatives.add((AFPChain) myAFP.clone());
+
 				i++;
 				//				if ( isSignificant(myAFP)) {
 				//					prevAligs.add((AFPChain) myAFP.clone());
@@ -467,7 +522,8 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 				showCurrentAlig(afpChain, ca1, ca2);
 			}
 
-			if(refineResult) {
+			// alignAllOrders refines every order itself
+			if(refineResult && alternatives == null) {
 				int order = getSymmetryOrder(afpChain);
 				afpChain = SymmRefiner.refineSymmetry(afpChain, ca1, ca2O, order);
 			}
@@ -479,6 +535,9 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 			//afpChain.setAlgorithmName("CE-symmetry final result ");
 			//StructureAlignmentJmol jmol = StructureAlignmentDisplay.display(afpChain, ca1, ca2);
 			//jmol.evalString("draw l1 line 100 {0 0 0} (1:A.CA/1) ; draw l2 line 100 {0 0 0} (1:A.CA/2);" );
+		} catch (CancellationException e){
+			// interrupted while optimizing; see matrixInOptimizer
+			return null;
 		} catch (Exception e){
 			e.printStackTrace();
 		}
@@ -488,6 +547,66 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 
 	}
 
+	/**
+	 * Runs CE-Symm once and refines its alignment to every order from 2 to {@link #getMaxSymmetryOrder()}, instead of
+	 * committing to the order {@link #getSymmetryOrder(AFPChain)} guesses. With {@link #setMaxNrAlternatives(int)}
+	 * above 1, the alternative paths found after graying out the previous ones are refined to every order too.
+	 *
+	 * <p>The distance matrices and fragment scores are computed once and shared by all of the alternative paths, as in
+	 * {@link #align(Atom[], Atom[])}; and each path is converted to a residue map once and shared by all of the
+	 * orders. For the last path, the candidate of each order is the alignment that CE-Symm with
+	 * {@link #setRefineResult(boolean) refinement} would give if {@link #getSymmetryOrder(AFPChain)} had guessed that
+	 * order; but this costs a single alignment plus the refinements, rather than one alignment per order. (align
+	 * reuses one AFPChain for all of the paths, so it returns the last one; that is the first path only with the
+	 * default of one alternative.)
+	 * @return The candidate symmetries, best first (see {@link SymmetryAlternative}); empty if CE-Symm found no
+	 *         alignment. Orders for which refinement leaves no aligned residues are left out.
+	 */
+	public List<SymmetryAlternative> alignAllOrders(Atom[] ca1, Atom[] ca2) throws StructureException {
+		List<SymmetryAlternative> results = new ArrayList<SymmetryAlternative>();
+		alternatives = new ArrayList<AFPChain>();
+		List<AFPChain> paths;
+		try {
+			align(ca1, ca2);
+			paths = alternatives;
+		} finally {
+			alternatives = null;
+		}
+		// this.ca2 is the duplicated second protein from align, and calculator holds the shared matrices
+		for (int a = 0; a < paths.size(); a++) {
+			if ( Thread.currentThread().isInterrupted())
+				return results;
+			AFPChain path;
+			try {
+				path = CeCPMain.postProcessAlignment(paths.get(a), ca1, this.ca2, calculator);
+			} catch (Exception e) {
+				e.printStackTrace();
+				continue;
+			}
+			if ( path == null || path.getOptAln() == null || path.getOptLength() < 1)
+				continue;
+			int guessedOrder = getSymmetryOrder(path);
+			Map<Integer,Integer> alignment = AlignmentTools.alignmentAsMap(path);
+			for (int order = 2; order <= maxSymmetryOrder; order++) {
+				// refineSymmetry modifies the map it is given
+				Map<Integer,Integer> refined = SymmRefiner.refineSymmetry(new HashMap<Integer,Integer>(alignment), order);
+				if ( refined.isEmpty())
+					continue;
+				AFPChain refinedAFP = AlignmentTools.replaceOptAln(path, ca1, ca2, refined);
+				refinedAFP.setTMScore(AFPChainScorer.getTMScore(refinedAFP, ca1, this.ca2));
+				double angle;
+				try {
+					angle = new RotationAxis(refinedAFP).getAngle();
+				} catch (Exception e) {
+					angle = Double.NaN;
+				}
+				results.add(new SymmetryAlternative(order, a, guessedOrder, refinedAFP, angle));
+			}
+		}
+		Collections.sort(results);
+		return results;
+	}
+
 	public ConfigStrucAligParams getParameters() {
 		return params;
 	}
@@ -537,6 +656,23 @@ public class CeSymm extends AbstractStructureAlignment implements MatrixListener
 				maxSymmetry, minimumMetricChange);
 	}
 
+	/**
+	 * @return The number of threads used to trace the fragment matrix of a single alignment
+	 */
+	public int getNrThreads() {
+		return nrThreads;
+	}
+
+	/**
+	 * Traces the fragment matrix of each alignment on several threads. This helps with very large structures, which
+	 * would otherwise be the last ones running in a census. The results do not depend on the number of threads.
+	 * @param nrThreads The number of threads; 1 (the default) traces sequentially
+	 */
+	public void setNrThreads(int nrThreads) {
+		if (nrThreads < 1) throw new IllegalArgumentException("Need at least 1 thread");
+		this.nrThreads = nrThreads;
+	}
+
 	/**
 	 * @return the refineResult
 	 */
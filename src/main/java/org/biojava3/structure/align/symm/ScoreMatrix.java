@@ -0,0 +1,110 @@
+package org.biojava3.structure.align.symm;
+
+import org.biojava.bio.structure.jama.Matrix;
+
+/**
+ * The CE score matrix of a CE-Symm run, kept as primitive rows and updated in place between iterations.
+ *
+ * <p>CE-Symm grays out the previous alignment path on every iteration and hands a fresh copy of the scores to the
+ * {@link org.biojava.bio.structure.align.ce.CECalculator CECalculator}, which overwrites the copy during optimization.
+ * Instead of cloning a Jama {@link Matrix} twice per iteration, this class keeps one reusable working copy and only
+ * copies the scores themselves when a {@link #snapshot() snapshot} handed to an AFPChain would otherwise be modified
+ * (copy-on-write).
+ *
+ * <p>Not thread-safe; a ScoreMatrix belongs to a single alignment.
+ */
+public class ScoreMatrix {
+
+	private final int rows;
+	private final int cols;
+
+	private double[][] values;
+
+	/**
+	 * True when {@link #values} is also referenced by a snapshot, so it must be copied before the next write.
+	 */
+	private boolean shared = false;
+
+	/**
+	 * Scratch copy handed to the CECalculator; reused across iterations.
+	 */
+	private double[][] working;
+
+	public ScoreMatrix(int rows, int cols) {
+		this(new double[rows][cols], rows, cols);
+	}
+
+	private ScoreMatrix(double[][] values, int rows, int cols) {
+		this.values = values;
+		this.rows = rows;
+		this.cols = cols;
+	}
+
+	/**
+	 * Creates a ScoreMatrix backed directly by {@code values}, without copying. Changes to either are visible in both.
+	 */
+	public static ScoreMatrix wrap(double[][] values) {
+		int cols = values.length == 0 ? 0 : values[0].length;
+		return new ScoreMatrix(values, values.length, cols);
+	}
+
+	public int getRowDimension() {
+		return rows;
+	}
+
+	public int getColumnDimension() {
+		return cols;
+	}
+
+	public double get(int i, int j) {
+		return values[i][j];
+	}
+
+	public void set(int i, int j, double value) {
+		ensureWritable();
+		values[i][j] = value;
+	}
+
+	/**
+	 * Returns the backing array for in-place updates. Any outstanding snapshot is detached first.
+	 */
+	public double[][] getArray() {
+		ensureWritable();
+		return values;
+	}
+
+	/**
+	 * Copies the current scores into a scratch array and returns it. The same array is refilled on every call, so
+	 * the caller must be done with the previous result (typically because the CECalculator has finished with it).
+	 */
+	public double[][] getWorkingCopy() {
+		if (working == null) working = new double[rows][cols];
+		copy(values, working);
+		return working;
+	}
+
+	/**
+	 * Returns a Jama view of the current scores for callers that need to keep them, such as
+	 * {@link org.biojava.bio.structure.align.model.AFPChain#setDistanceMatrix(Matrix)}. The view shares storage with
+	 * this ScoreMatrix until the next write, which copies the scores first so the snapshot never changes.
+	 */
+	public Matrix snapshot() {
+		shared = true;
+		return new Matrix(values, rows, cols);
+	}
+
+	private void ensureWritable() {
+		if (!shared) return;
+		double[][] copy = new double[rows][cols];
+		copy(values, copy);
+		values = copy;
+		shared = false;
+	}
+
+	private static void copy(double[][] from, double[][] to) {
+		for (int i = 0; i < from.length; i++) {
+			System.arraycopy(from[i], 0, to[i], 0, from[i].length);
+		}
+	}
+
+}
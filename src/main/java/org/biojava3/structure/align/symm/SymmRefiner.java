@@ -3,14 +3,8 @@ package org.biojava3.structure.align.symm;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
 
 import org.biojava.bio.structure.Atom;
 import org.biojava.bio.structure.ResidueNumber;
@@ -63,326 +57,500 @@ public class SymmRefiner {
 	 * @throws StructureException
 	 */
 	public static Map<Integer, Integer> refineSymmetry(Map<Integer, Integer> alignment,int k) throws StructureException {
+		Refinement refinement = new Refinement(alignment, k);
+		refinement.run();
+		refinement.writeTo(alignment);
+		return alignment;
+	}
 
-		// Store scores
-		Map<Integer, Double> scores = null;
-		scores = initializeScores(alignment,scores, k);
-
-		// Store eligible residues
-		// Eligible if:
-		//  1. score(x)>0
-		//  2. f^K-1(x) is defined
-		//	3. score(f^K-1(x))>0
-
-		TreeSet<Integer> forwardLoops = new TreeSet<Integer>();
-		TreeSet<Integer> backwardLoops = new TreeSet<Integer>();
-
-
-		List<Integer> eligible = null;
-		eligible = initializeEligible(alignment,scores,eligible,k,forwardLoops,backwardLoops);
-
-		/* For future heap implementation
-		Comparator<Integer> scoreComparator = new Comparator<Integer>() {
-			@Override public int compare(Integer o1, Integer o2) {
-				if(scores.containsKey(o1)) {
-					if(scores.containsKey(o2)) {
-						// If both have defined scores, compare the scores
-						return scores.get(o1).compareTo(scores.get(o2));
-					} else {
-						// o2 has infinite score, so o1 < o2
-						return -1;
-					}
-				} else {
-					//o1 has infinite score
-					if(scores.containsKey(o2)) {
-						// o1 > o2
-						return 1;
-					} else {
-						//both undefined
-						return 0;
-					}
-				}
-			}
-		};
-		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(alignment.size(), scoreComparator);
-		 */
-		//int step = 0;
-		while (!eligible.isEmpty()) {
-			//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
-
-			// Find eligible residue with lowest scores
-			Integer bestRes = null;
-			double bestResScore = Double.POSITIVE_INFINITY;
-			for(Integer res : eligible) {
-				Double score = scores.get(res);
-				if (score != null && score < bestResScore) {
-					bestResScore = score;
-					bestRes = res;
-				}
-			}
+	/**
+	 * The state of one refinement.
+	 *
+	 * Each step closes a cycle of length k by pointing f^k-1(x) back at the eligible residue x with the lowest score,
+	 * until no residue is eligible; then residues that are not in such a cycle are dropped. A residue x is eligible if:
+	 * <ol>
+	 * <li>score(x)>0, where score(x) = |x-f^k(x)| plus a small bias by residue number, for uniqueness</li>
+	 * <li>f^K-1(x) is defined</li>
+	 * <li>score(f^K-1(x))>0</li>
+	 * <li>For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y)); that is, the edge f^k-1(x) -> x doesn't
+	 * cross a cycle that is already closed</li>
+	 * <li>It is not in a cycle of length less than k</li>
+	 * </ol>
+	 * A residue that is found ineligible is never considered again.
+	 *
+	 * Residues are numbered 0..n-1 in increasing order, and the alignment, scores, and eligibility are kept in
+	 * primitive arrays. The eligible residues are kept in an indexed heap by score. Changing f(y) only changes
+	 * f^j(x) for j<=k for the residues x that reach y in fewer than k steps, so after each step only those residues,
+	 * the residues x whose f^k-1(x) is one of them, and the residues whose f^k-1(x) lies next to a newly closed cycle
+	 * are rechecked. Everything else would pass the same checks as before.
+	 */
+	private static class Refinement {
 
-			// Find f^k-1(bestRes)
-			Integer resK1 = bestRes;
-			for (int i = 0; i < k - 1; i++) {
-				assert (resK1 != null);
-				resK1 = alignment.get(resK1);
+		private final int k;
 
-				// Update scores
-				scores.put(resK1, 0.0);
-			}
-			scores.put(bestRes, 0.0);
+		/** Residue numbers, in increasing order */
+		private final int[] values;
 
-			// Modify alignment
-			alignment.put(resK1, bestRes);
+		/** f(x), or -1 */
+		private final int[] f;
+		private final boolean[] isKey;
 
-			scores = initializeScores(alignment, scores, k);
+		/** The residues p with f(p)=x, as linked lists: first predecessor of x, then next predecessor of p */
+		private final int[] predHead;
+		private final int[] predNext;
+		private final int[] predPrev;
 
-			Map<Integer, Double> virginScores = initializeScores(alignment, null, k);
-			if (scores.size() != virginScores.size()) {
-				System.out.println("Size missmatch");
-			} else {
-				for (Integer key : scores.keySet()) {
-					if (!virginScores.containsKey(key) || !scores.get(key).equals(virginScores.get(key))) {
-						System.out.format("Mismatch %d -> %f/%f%n", key, scores.get(key), virginScores.get(key));
-					}
-				}
-			}
+		/** Undefined for residues that are not keys */
+		private final double[] scores;
+		private int minPre = Integer.MAX_VALUE;
+		private int maxPre = Integer.MIN_VALUE;
 
-			// Update eligible
-			// TODO only update residues which could become ineligible
-			eligible = initializeEligible(alignment, scores, eligible, k, forwardLoops, backwardLoops);
+		private final boolean[] eligible;
 
-			// System.out.format("Modifying %d -> %d. %d now eligible.%n", resK1,bestRes,eligible.size());
-		}
-		//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
-
-		// Remove remaining edges
-		Iterator<Integer> alignmentIt = alignment.keySet().iterator();
-		while (alignmentIt.hasNext()) {
-			Integer res = alignmentIt.next();
-			Double score = scores.get(res);
-			if (score == null || score > 0.0) {
-				alignmentIt.remove();
-			}
-		}
-		//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
+		/** f^k-1(x) of eligible residues, or -1 */
+		private final int[] k1;
 
-		return alignment;
-	}
+		/** The eligible residues x with f^k-1(x)=y, as linked lists like the predecessors */
+		private final int[] k1Head;
+		private final int[] k1Next;
+		private final int[] k1Prev;
 
-	/**
-	 * Helper method to initialize eligible residues.
-	 *
-	 * Eligible if:
-	 *  1. score(x)>0
-	 *  2. f^K-1(x) is defined
-	 *  3. score(f^K-1(x))>0
-	 *  4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
-	 * @param alignment The alignment with respect to which to calculate eligibility
-	 * @param scores An up-to-date map from residues to their scores
-	 * @param eligible Starting list of eligible residues. If null will be generated.
-	 * @param k
-	 * @param backwardLoops
-	 * @param forwardLoops
-	 * @return eligible after modification
-	 */
-	private static List<Integer> initializeEligible(Map<Integer, Integer> alignment,
-			Map<Integer, Double> scores, List<Integer> eligible, int k, NavigableSet<Integer> forwardLoops, NavigableSet<Integer> backwardLoops) {
-		// Eligible if:
-		// 1. score(x)>0
-		// 2. f^K-1(x) is defined
-		// 3. score(f^K-1(x))>0
-		// 4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
-		// 5. Not in a loop of length less than k
-
-
-		// Assume all residues are eligible to start
-		if(eligible == null) {
-			eligible = new LinkedList<Integer>(alignment.keySet());
-		}
+		/** Residues whose score became 0 while they were eligible, with x <= f(x) */
+		private final long[] forwardLoops;
+
+		/** Min-heap of the eligible residues by score */
+		private final int[] heap;
+		private final int[] heapPos;
+		private int heapSize = 0;
 
-		// Precalculate f^K-1(x)
-		// Map<Integer, Integer> alignK1 = AlignmentTools.applyAlignment(alignment, k-1);
-		Map<Integer, Integer> alignK1 = applyAlignmentAndCheckCycles(alignment, k - 1, eligible);
+		/** Marks for collecting each step's residues without duplicates */
+		private final int[] mark;
+		private int stamp = 0;
+		private final int[] queue;
+		private final int[] depth;
 
-		// Remove ineligible residues
-		Iterator<Integer> eligibleIt = eligible.iterator();
-		while(eligibleIt.hasNext()) {
-			Integer res = eligibleIt.next();
+		Refinement(Map<Integer, Integer> alignment, int k) {
+			this.k = k;
 
-			//  2. f^K-1(x) is defined
-			if(!alignK1.containsKey(res)) {
-				eligibleIt.remove();
-				continue;
+			int[] all = new int[2 * alignment.size()];
+			int n = 0;
+			for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+				all[n++] = entry.getKey();
+				if (entry.getValue() != null) all[n++] = entry.getValue();
 			}
-			Integer k1 = alignK1.get(res);
-			if(k1 == null) {
-				eligibleIt.remove();
-				continue;
+			Arrays.sort(all, 0, n);
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				if (m == 0 || all[i] != all[m - 1]) all[m++] = all[i];
 			}
+			values = Arrays.copyOf(all, m);
+
+			f = new int[m];
+			isKey = new boolean[m];
+			predHead = new int[m];
+			predNext = new int[m];
+			predPrev = new int[m];
+			scores = new double[m];
+			eligible = new boolean[m];
+			k1 = new int[m];
+			k1Head = new int[m];
+			k1Next = new int[m];
+			k1Prev = new int[m];
+			forwardLoops = new long[(m + 63) / 64];
+			heap = new int[m];
+			heapPos = new int[m];
+			mark = new int[m];
+			queue = new int[m];
+			depth = new int[m];
+			Arrays.fill(f, -1);
+			Arrays.fill(predHead, -1);
+			Arrays.fill(k1Head, -1);
+			Arrays.fill(k1, -1);
+			Arrays.fill(heapPos, -1);
+
+			for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+				int x = indexOf(entry.getKey());
+				isKey[x] = true;
+				if (entry.getValue() != null) setF(x, indexOf(entry.getValue()));
+				minPre = Math.min(minPre, entry.getKey());
+				maxPre = Math.max(maxPre, entry.getKey());
+			}
+
+			// score, and check every residue once
+			for (int x = 0; x < m; x++) {
+				if (isKey[x]) scores[x] = score(x);
+			}
+			int[] keys = new int[m];
+			int nKeys = 0;
+			for (int x = 0; x < m; x++) {
+				if (!isKey[x]) continue;
+				eligible[x] = true;
+				k1[x] = apply(x, k - 1);
+				if (k1[x] >= 0) linkK1(x);
+				heapPush(x);
+				keys[nKeys++] = x;
+			}
+			check(keys, nKeys);
+		}
+
+		private int indexOf(int value) {
+			return Arrays.binarySearch(values, value);
+		}
 
-			//  1. score(x)>0
-			Double score = scores.get(res);
-			if(score == null || score <= 0.0) {
-				eligibleIt.remove();
+		void run() {
+			while (heapSize > 0) {
+				final int best = heap[0];
+
+				// close the cycle through best
+				final int resK1 = apply(best, k - 1);
+				assert (resK1 >= 0);
+				if (f[resK1] >= 0) unlinkPred(resK1);
+				setF(resK1, best);
+				boolean rescoreAll = false;
+				if (!isKey[resK1]) {
+					isKey[resK1] = true;
+					int value = values[resK1];
+					if (value < minPre || value > maxPre) {
+						// the bias of every score depends on the range of residues
+						minPre = Math.min(minPre, value);
+						maxPre = Math.max(maxPre, value);
+						rescoreAll = true;
+					}
+				}
 
-				// res is in a loop. Add it to the proper set
-				if(res <= alignment.get(res)) {
-					//forward
-					forwardLoops.add(res);
+				// the residues whose paths pass through resK1 within k-1 steps
+				int nAffected = collectPredecessors(resK1);
+
+				if (rescoreAll) {
+					for (int x = 0; x < values.length; x++) {
+						if (isKey[x]) rescore(x);
+					}
 				} else {
-					//backward
-					backwardLoops.add(res);
+					for (int i = 0; i < nAffected; i++) {
+						if (isKey[queue[i]]) rescore(queue[i]);
+					}
 				}
 
-				continue;
-			}
-			//	3. score(f^K-1(x))>0
-			Double scoreK1 = scores.get(k1);
-			if(scoreK1 == null || scoreK1 <= 0.0) {
-				eligibleIt.remove();
-				continue;
+				// their f^k-1 may have changed, and so may the eligibility of residues whose f^k-1 is one of them
+				int[] recheck = new int[nAffected];
+				int nRecheck = 0;
+				for (int i = 0; i < nAffected; i++) {
+					final int x = queue[i];
+					if (!eligible[x]) continue;
+					int newK1 = apply(x, k - 1);
+					if (newK1 != k1[x]) {
+						if (k1[x] >= 0) unlinkK1(x);
+						k1[x] = newK1;
+						if (newK1 >= 0) linkK1(x);
+					}
+				}
+				stamp++;
+				for (int i = 0; i < nAffected; i++) {
+					final int y = queue[i];
+					if (eligible[y] && mark[y] != stamp) {
+						mark[y] = stamp;
+						recheck = append(recheck, nRecheck++, y);
+					}
+					for (int x = k1Head[y]; x >= 0; x = k1Next[x]) {
+						if (mark[x] != stamp) {
+							mark[x] = stamp;
+							recheck = append(recheck, nRecheck++, x);
+						}
+					}
+				}
+				check(recheck, nRecheck);
 			}
 		}
 
+		/**
+		 * Applies the eligibility rules to the eligible residues in {@code residues}, and to every eligible residue
+		 * whose f^k-1 is next to a cycle closed while doing so.
+		 */
+		private void check(int[] residues, int n) {
+			int[] newLoops = new int[4];
+			int nNewLoops = 0;
+			for (int i = 0; i < n; i++) {
+				final int x = residues[i];
+				if (!eligible[x]) continue;
+
+				// 5. Not in a loop of length less than k
+				if (inShortCycle(x)) {
+					remove(x);
+					continue;
+				}
+
+				// 2. f^K-1(x) is defined
+				if (k1[x] < 0) {
+					remove(x);
+					continue;
+				}
 
-		// Now that loops are up-to-date, check for loop crossings
-		eligibleIt = eligible.iterator();
-		while(eligibleIt.hasNext()) {
-			Integer res = eligibleIt.next();
+				// 1. score(x)>0
+				if (!(scores[x] > 0.0)) {
+					remove(x);
 
-			//4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
-			//Test equivalent: All loop edges should be properly ordered wrt edge f^k-1(x) -> x
+					// x is in a loop. Only forward loops are checked for crossings.
+					if (x <= f[x]) {
+						forwardLoops[x >> 6] |= 1L << x;
+						newLoops = append(newLoops, nNewLoops++, x);
+					}
+					continue;
+				}
 
-			Integer src = alignK1.get(res);
+				// 3. score(f^K-1(x))>0
+				final int y = k1[x];
+				if (!isKey[y] || !(scores[y] > 0.0)) {
+					remove(x);
+					continue;
+				}
+			}
 
-			if( src < res  ) {
+			// 4. crossings: residues just checked, and residues whose nearest forward loops changed
+			stamp++;
+			for (int i = 0; i < n; i++) {
+				final int x = residues[i];
+				if (eligible[x] && mark[x] != stamp) {
+					mark[x] = stamp;
+					checkCrossing(x);
+				}
+			}
+			for (int i = 0; i < nNewLoops; i++) {
+				final int p = newLoops[i];
+				final int lower = lowerLoop(p);
+				final int higher = higherLoop(p);
+				final int from = lower < 0 ? 0 : lower;
+				final int to = higher < 0 ? values.length : higher;
+				for (int src = from; src < to; src++) {
+					for (int x = k1Head[src]; x >= 0;) {
+						final int next = k1Next[x]; // x may be removed
+						if (mark[x] != stamp) {
+							mark[x] = stamp;
+							checkCrossing(x);
+						}
+						x = next;
+					}
+				}
+			}
+		}
+
+		private void checkCrossing(int x) {
+			//Test equivalent: All loop edges should be properly ordered wrt edge f^k-1(x) -> x
+			final int src = k1[x];
+			if (src < x) {
 				//forward
 				// get interval [a,b) containing res
-				Integer a = forwardLoops.floor(src);
-				Integer b = forwardLoops.higher(src);
+				final int a = floorLoop(src);
+				final int b = higherLoop(src);
 
 				// Ineligible unless f(a) < res < f(b)
-				if(a != null && alignment.get(a) > res ) {
-					eligibleIt.remove();
-					continue;
+				if (a >= 0 && f[a] > x || b >= 0 && f[b] < x) {
+					remove(x);
 				}
-				if(b != null && alignment.get(b) < res ) {
-					eligibleIt.remove();
-					continue;
+			}
+		}
+
+		/**
+		 * Collects into {@link #queue} the residues x with f^j(x)=y for some j<k, including y itself.
+		 * @return The number of residues collected
+		 */
+		private int collectPredecessors(int y) {
+			stamp++;
+			int n = 0;
+			queue[n] = y;
+			depth[n++] = 0;
+			mark[y] = stamp;
+			for (int i = 0; i < n; i++) {
+				if (depth[i] >= k - 1) continue;
+				for (int p = predHead[queue[i]]; p >= 0; p = predNext[p]) {
+					if (mark[p] == stamp) continue;
+					mark[p] = stamp;
+					queue[n] = p;
+					depth[n++] = depth[i] + 1;
 				}
 			}
+			return n;
 		}
 
-		return eligible;
-	}
+		/** @return f^j(x), or -1 */
+		private int apply(int x, int j) {
+			for (int i = 0; i < j && x >= 0; i++) {
+				x = f[x];
+			}
+			return x;
+		}
 
+		private boolean inShortCycle(int x) {
+			int y = x;
+			for (int n = 1; n <= k - 1; n++) {
+				y = f[y];
+				if (y < 0) return false;
+				if (y == x) return true;
+			}
+			return false;
+		}
 
-	/**
-	 * Like {@link AlignmentTools#applyAlignment(Map, int)}, returns a map of k applications of alignmentMap. However,
-	 * it also sets loops of size less than k as ineligible.
-	 *
-	 * @param alignmentMap
-	 *            f(x)
-	 * @param k
-	 * @param eligible
-	 *            Eligible residues. Residues from small cycles are removed.
-	 * @return f^k(x)
-	 */
-	private static Map<Integer, Integer> applyAlignmentAndCheckCycles(Map<Integer, Integer> alignmentMap, int k, List<Integer> eligible) {
-
-		// Convert to lists to establish a fixed order (avoid concurrent modification)
-		List<Integer> preimage = new ArrayList<Integer>(alignmentMap.keySet()); // currently unmodified
-		List<Integer> image = new ArrayList<Integer>(preimage);
-
-		for (int n = 1; n <= k; n++) {
-			// apply alignment
-			for (int i = 0; i < image.size(); i++) {
-				final Integer pre = image.get(i);
-				final Integer post = (pre == null ? null : alignmentMap.get(pre));
-				image.set(i, post);
-
-				// Make cycles ineligible
-				if (post != null && post.equals(preimage.get(i))) {
-					eligible.remove(preimage.get(i)); // Could be O(n) with List impl
-				}
+		/**
+		 * Calculate the score for a residue, specifically the Absolute Error
+		 * 	score(x) = |x-f^k(x)|
+		 *
+		 * Also includes a small bias based on residue number, for uniqueness..
+		 */
+		private double score(int x) {
+			final int image = apply(x, k);
+			final int pre = values[x];
+			double error;
+			if (image < 0) {
+				error = Double.POSITIVE_INFINITY;
+			} else {
+				error = Math.abs(pre - values[image]);
 			}
+			// Add fractional portion relative to sequence position, for uniqueness
+			if (error > 0)
+				error += (double) (pre - minPre) / (1 + maxPre - minPre);
+			return error;
 		}
 
-		Map<Integer, Integer> imageMap = new HashMap<Integer, Integer>(alignmentMap.size());
+		private void rescore(int x) {
+			final double score = score(x);
+			if (score == scores[x]) return;
+			final boolean decreased = score < scores[x];
+			scores[x] = score;
+			if (heapPos[x] >= 0) {
+				if (decreased) siftUp(heapPos[x]);
+				else siftDown(heapPos[x]);
+			}
+		}
 
-		// now populate with actual values
-		for (int i = 0; i < preimage.size(); i++) {
-			Integer pre = preimage.get(i);
-			Integer postK = image.get(i);
-			imageMap.put(pre, postK);
+		private void remove(int x) {
+			eligible[x] = false;
+			if (k1[x] >= 0) unlinkK1(x);
+			k1[x] = -1;
+			heapRemove(x);
 		}
-		return imageMap;
-	}
 
-	/**
-	 * Calculates all scores for an alignment
-	 * @param alignment
-	 * @param scores A mapping from residues to scores, which will be updated or
-	 * 	created if null
-	 * @return scores
-	 */
-	private static Map<Integer, Double> initializeScores(Map<Integer, Integer> alignment,
-			Map<Integer, Double> scores, int k) {
-		if(scores == null) {
-			scores = new HashMap<Integer, Double>(alignment.size());
-		} else {
-			scores.clear();
+		void writeTo(Map<Integer, Integer> alignment) {
+			// Remove remaining edges
+			alignment.clear();
+			for (int x = 0; x < values.length; x++) {
+				if (isKey[x] && scores[x] == 0.0) alignment.put(values[x], values[f[x]]);
+			}
 		}
-		Map<Integer,Integer> alignK = AlignmentTools.applyAlignment(alignment, k);
-
-		// calculate input range
-		int maxPre = Integer.MIN_VALUE;
-		int minPre = Integer.MAX_VALUE;
-		for(Integer pre : alignment.keySet()) {
-			if(pre>maxPre) maxPre = pre;
-			if(pre<minPre) minPre = pre;
+
+		private void setF(int x, int y) {
+			f[x] = y;
+			predPrev[x] = -1;
+			predNext[x] = predHead[y];
+			if (predHead[y] >= 0) predPrev[predHead[y]] = x;
+			predHead[y] = x;
 		}
 
-		for(Integer pre : alignment.keySet()) {
-			Integer image = alignK.get(pre);
+		private void unlinkPred(int x) {
+			if (predPrev[x] >= 0) predNext[predPrev[x]] = predNext[x];
+			else predHead[f[x]] = predNext[x];
+			if (predNext[x] >= 0) predPrev[predNext[x]] = predPrev[x];
+			f[x] = -1;
+		}
 
-			// Use the absolute error score, |x - f^k(x)|
-			double score = scoreAbsError(pre,image,minPre,maxPre);
-			scores.put(pre, score);
+		private void linkK1(int x) {
+			final int y = k1[x];
+			k1Prev[x] = -1;
+			k1Next[x] = k1Head[y];
+			if (k1Head[y] >= 0) k1Prev[k1Head[y]] = x;
+			k1Head[y] = x;
 		}
-		return scores;
-	}
 
+		private void unlinkK1(int x) {
+			if (k1Prev[x] >= 0) k1Next[k1Prev[x]] = k1Next[x];
+			else k1Head[k1[x]] = k1Next[x];
+			if (k1Next[x] >= 0) k1Prev[k1Next[x]] = k1Prev[x];
+		}
 
+		/** @return The largest loop residue <= x, or -1 */
+		private int floorLoop(int x) {
+			if (x < 0) return -1;
+			int word = x >> 6;
+			long bits = forwardLoops[word] & (-1L >>> (63 - (x & 63)));
+			while (bits == 0) {
+				if (--word < 0) return -1;
+				bits = forwardLoops[word];
+			}
+			return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+		}
 
-	/**
-	 * Calculate the score for a residue, specifically the Absolute Error
-	 * 	score(x) = |x-f^k(x)|
-	 *
-	 * Also includes a small bias based on residue number, for uniqueness..
-	 * @param pre x
-	 * @param image f^k(x)
-	 * @param minPre lowest possible residue number
-	 * @param maxPre highest possible residue number
-	 * @return
-	 */
-	private static double scoreAbsError(Integer pre, Integer image,int minPre,int maxPre) {
-		// Use the absolute error score, |x - f^k(x)|
-		double error;
-		if(image == null) {
-			error = Double.POSITIVE_INFINITY;
-		} else {
-			error = Math.abs(pre - image);
+		/** @return The largest loop residue < x, or -1 */
+		private int lowerLoop(int x) {
+			return floorLoop(x - 1);
 		}
 
-		//TODO favor lower degree-in
+		/** @return The smallest loop residue > x, or -1 */
+		private int higherLoop(int x) {
+			final int from = x + 1;
+			if (from >= values.length) return -1;
+			int word = from >> 6;
+			long bits = forwardLoops[word] & (-1L << (from & 63));
+			while (bits == 0) {
+				if (++word >= forwardLoops.length) return -1;
+				bits = forwardLoops[word];
+			}
+			return (word << 6) + Long.numberOfTrailingZeros(bits);
+		}
+
+		private boolean less(int a, int b) {
+			if (scores[a] != scores[b]) return scores[a] < scores[b];
+			return a < b;
+		}
+
+		private void heapPush(int x) {
+			heap[heapSize] = x;
+			heapPos[x] = heapSize;
+			siftUp(heapSize++);
+		}
+
+		private void heapRemove(int x) {
+			final int i = heapPos[x];
+			if (i < 0) return;
+			heapPos[x] = -1;
+			final int last = heap[--heapSize];
+			if (i == heapSize) return;
+			heap[i] = last;
+			heapPos[last] = i;
+			siftUp(i);
+			siftDown(heapPos[last]);
+		}
 
-		// Add fractional portion relative to sequence position, for uniqueness
-		if(error > 0)
-			error += (double)(pre-minPre)/(1+maxPre-minPre);
+		private void siftUp(int i) {
+			final int x = heap[i];
+			while (i > 0) {
+				final int parent = (i - 1) >> 1;
+				if (!less(x, heap[parent])) break;
+				heap[i] = heap[parent];
+				heapPos[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = x;
+			heapPos[x] = i;
+		}
 
-		return error;
+		private void siftDown(int i) {
+			final int x = heap[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) break;
+				if (child + 1 < heapSize && less(heap[child + 1], heap[child])) child++;
+				if (!less(heap[child], x)) break;
+				heap[i] = heap[child];
+				heapPos[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = x;
+			heapPos[x] = i;
+		}
+
+		private static int[] append(int[] array, int n, int value) {
+			if (n == array.length) array = Arrays.copyOf(array, Math.max(4, 2 * n));
+			array[n] = value;
+			return array;
+		}
 	}
 
 	public static void main(String[] args) {
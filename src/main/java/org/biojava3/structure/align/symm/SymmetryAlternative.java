@@ -0,0 +1,104 @@
+package org.biojava3.structure.align.symm;
+
+import org.biojava.bio.structure.align.model.AFPChain;
+
+/**
+ * One candidate symmetry found by {@link CeSymm#alignAllOrders(org.biojava.bio.structure.Atom[],
+ * org.biojava.bio.structure.Atom[]) CeSymm.alignAllOrders}: a CE-Symm alignment refined to a particular order.
+ *
+ * <p>Alternatives are ordered from best to worst: by decreasing TM-score of the refined alignment, then by increasing
+ * deviation of the rotation angle from a multiple of 360&deg;/order, then by increasing order.
+ */
+public class SymmetryAlternative implements Comparable<SymmetryAlternative> {
+
+	private final int order;
+	private final int alternative;
+	private final int guessedOrder;
+	private final AFPChain afpChain;
+	private final double tmScore;
+	private final double angle;
+
+	/**
+	 * @param order The order the alignment was refined to
+	 * @param alternative Which CE-Symm alignment was refined, counting from 0 for the first (best) path
+	 * @param guessedOrder The order {@link CeSymm#getSymmetryOrder(AFPChain)} guessed for the unrefined alignment,
+	 *            or -1
+	 * @param afpChain The refined alignment
+	 * @param angle The rotation angle of the refined alignment in radians, or NaN if it has no axis
+	 */
+	public SymmetryAlternative(int order, int alternative, int guessedOrder, AFPChain afpChain, double angle) {
+		this.order = order;
+		this.alternative = alternative;
+		this.guessedOrder = guessedOrder;
+		this.afpChain = afpChain;
+		this.tmScore = afpChain.getTMScore();
+		this.angle = angle;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public int getAlternative() {
+		return alternative;
+	}
+
+	public int getGuessedOrder() {
+		return guessedOrder;
+	}
+
+	public AFPChain getAfpChain() {
+		return afpChain;
+	}
+
+	public double getTmScore() {
+		return tmScore;
+	}
+
+	/**
+	 * @return The rotation angle of the refined alignment in radians, between 0 and &pi;, or NaN
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 * Returns how far the rotation angle is from the nearest rotation of a perfect {@link #getOrder() order}-fold
+	 * symmetry, {@code 2*pi*j/order} for {@code 0<j<order}. Rotation angles are unsigned, so {@code 2*pi*j/order} and
+	 * {@code 2*pi*(order-j)/order} are the same rotation.
+	 * @return The deviation in radians, or NaN if the angle is unknown
+	 */
+	public double getAngleError() {
+		return getAngleError(angle, order);
+	}
+
+	static double getAngleError(double angle, int order) {
+		if (Double.isNaN(angle)) return Double.NaN;
+		double best = Double.POSITIVE_INFINITY;
+		for (int j = 1; j < order; j++) {
+			double expected = 2 * Math.PI * j / order;
+			if (expected > Math.PI) expected = 2 * Math.PI - expected;
+			best = Math.min(best, Math.abs(angle - expected));
+		}
+		return best;
+	}
+
+	@Override
+	public int compareTo(SymmetryAlternative o) {
+		int c = Double.compare(o.tmScore, tmScore);
+		if (c != 0) return c;
+		// unknown angles sort last
+		double error = getAngleError(), otherError = o.getAngleError();
+		c = Double.compare(Double.isNaN(error) ? Double.POSITIVE_INFINITY : error,
+				Double.isNaN(otherError) ? Double.POSITIVE_INFINITY : otherError);
+		if (c != 0) return c;
+		return order < o.order ? -1 : order == o.order ? 0 : 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("C%d (alternative %d, guessed C%d): TM=%.3f, angle=%.1f, angle error=%.1f", order,
+				alternative, guessedOrder, tmScore, Math.toDegrees(angle), Math.toDegrees(getAngleError()));
+	}
+
+}
@@ -127,7 +127,17 @@ public class CLI {
 			final String[] folds = cmd.getOptionValue("folds") == null ? null : cmd.getOptionValue("folds").split(" ");
 			final boolean randomize = cmd.hasOption("randomize");
 			final boolean restart = cmd.hasOption("restart");
-			final boolean prefetch = cmd.hasOption("prefetch");
+			final boolean rerunFailed = cmd.hasOption("rerunfailed");
+			final Long timeout = cmd.getOptionValue("timeout") == null ? null : Long.parseLong(cmd
+					.getOptionValue("timeout")) * 1000;
+			final Integer maxResidues = cmd.getOptionValue("maxres") == null ? null : Integer.parseInt(cmd
+					.getOptionValue("maxres"));
+			final Integer traceThreads = cmd.getOptionValue("tracethreads") == null ? null : Integer.parseInt(cmd
+					.getOptionValue("tracethreads"));
+			final boolean prefetch = cmd.hasOption("prefetch") || cmd.getOptionValue("prefetchthreads") != null;
+			final Integer prefetchThreads = cmd.getOptionValue("prefetchthreads") == null ? null : Integer
+					.parseInt(cmd.getOptionValue("prefetchthreads"));
+			final String resultCacheDir = cmd.getOptionValue("resultcache");
 			final String scopVersion = cmd.getOptionValue("scopversion");
 
 
@@ -135,7 +145,8 @@ public class CLI {
 			final String sigMethod = cmd.getOptionValue("sigmethod");
 
 			run(pdbDir, censusFile, nThreads, writeEvery, number, clustering, sunIds, superfamilies, folds, randomize,
-					restart, prefetch, scopVersion, sigClass, sigMethod);
+					restart, rerunFailed, timeout, maxResidues, traceThreads, prefetch, prefetchThreads, resultCacheDir,
+					scopVersion, sigClass, sigMethod);
 
 		} catch (RuntimeException e) {
 			printError(e);
@@ -156,6 +167,15 @@ public class CLI {
 			final Integer writeEvery, final Integer number, final AstralSet clustering, final int[] pSunIds,
 			final String[] superfamilies, final String[] folds, final boolean randomize, final boolean restart,
 			boolean prefetch, final String scopVersion, String sigClass, String sigMethod) {
+		run(pdbDir, censusFile, pNThreads, writeEvery, number, clustering, pSunIds, superfamilies, folds, randomize,
+				restart, false, null, null, null, prefetch, null, null, scopVersion, sigClass, sigMethod);
+	}
+
+	public static void run(final String pdbDir, final String censusFile, final Integer pNThreads,
+			final Integer writeEvery, final Integer number, final AstralSet clustering, final int[] pSunIds,
+			final String[] superfamilies, final String[] folds, final boolean randomize, final boolean restart,
+			final boolean rerunFailed, Long timeout, Integer maxResidues, Integer traceThreads, boolean prefetch,
+			Integer prefetchThreads, String resultCacheDir, final String scopVersion, String sigClass, String sigMethod) {
 
 		// get a significance object
 		final Significance sig;
@@ -167,7 +187,7 @@ public class CLI {
 			}
 		} else {
 			if (sigMethod != null) {
-				sig = SignificanceFactory.fromMethod(SignificanceFactory.class.getName(), sigMethod);
+				sig = SignificanceFactory.fromExpression(sigMethod);
 			} else {
 				sig = SignificanceFactory.forCensus();
 			}
@@ -295,6 +315,12 @@ public class CLI {
 		// set final options
 		if (writeEvery != null) census.setPrintFrequency(writeEvery);
 		census.setDoPrefetch(prefetch);
+		if (prefetchThreads != null) census.setPrefetchThreads(prefetchThreads);
+		if (resultCacheDir != null) census.setResultCache(new CeSymmResultCache(new File(resultCacheDir)));
+		census.setRerunFailed(rerunFailed);
+		census.setTimeout(timeout);
+		census.setMaxResidues(maxResidues);
+		if (traceThreads != null) census.setTraceThreads(traceThreads);
 		if (censusFile != null) {
 			census.setOutputWriter(new File(censusFile));
 		} else {
@@ -330,10 +356,29 @@ public class CLI {
 		options.addOption(OptionBuilder.hasArg(false)
 				.withDescription("Ignore any existing work and start from scratch.").isRequired(false)
 				.create("restart"));
+		options.addOption(OptionBuilder.hasArg(false)
+				.withDescription("Run again the domains whose previous result failed, instead of skipping them.")
+				.isRequired(false).create("rerunfailed"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Cancel a domain after this many seconds, and record it as timed out.")
+				.isRequired(false).create("timeout"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Do not run domains with more than this many residues; record them as too large.")
+				.isRequired(false).create("maxres"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Trace each alignment on this many threads, so that very large domains finish sooner. Defaults to 1.")
+				.isRequired(false).create("tracethreads"));
 		options.addOption(OptionBuilder.hasArg(true).withDescription("Use the specified SCOP version; otherwise will use 1.75A.").isRequired(false)
 				.create("scopversion"));
-		options.addOption(OptionBuilder.hasArg(false).withDescription("Prefetch all PDB files.").isRequired(false)
+		options.addOption(OptionBuilder.hasArg(false)
+				.withDescription("Load structures on separate I/O threads ahead of the computation.").isRequired(false)
 				.create("prefetch"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("The number of I/O threads for -prefetch (implies -prefetch). Defaults to 2.")
+				.isRequired(false).create("prefetchthreads"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Keep CE-Symm alignments in this directory, and reuse them for domains with the same coordinates and parameters.")
+				.isRequired(false).create("resultcache"));
 		options.addOption(OptionBuilder.hasArg(true).withDescription("Write to file every n jobs.").isRequired(false)
 				.create("every"));
 		options.addOption(OptionBuilder
@@ -380,7 +425,7 @@ public class CLI {
 		options.addOption(OptionBuilder
 				.hasArg(true)
 				.withDescription(
-						"The name of a factory method that returns a Significance object. If sigclass is also set, expects the factory method to be in that class; otherwise, checks in SignificanceFactory.")
+						"The name of a factory method that returns a Significance object. If sigclass is also set, expects the factory method to be in that class; otherwise, checks in SignificanceFactory, and also accepts an expression such as \"tm>=0.4 & order>=2\" (see SignificanceExpression).")
 						.isRequired(false).create("sigmethod"));
 		return options;
 	}
@@ -0,0 +1,395 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomImpl;
+import org.biojava.bio.structure.align.StructureAlignment;
+import org.biojava.bio.structure.align.ce.ConfigStrucAligParams;
+import org.biojava.bio.structure.align.model.AFPChain;
+import org.biojava.bio.structure.jama.Matrix;
+import org.biojava3.structure.align.symm.CeSymm;
+
+/**
+ * A persistent cache of CE-Symm alignments, keyed by the content of what was aligned rather than by its name. The
+ * key is a SHA-1 hash of the C-alpha coordinates, the algorithm name and version, and its parameters; so a census
+ * that is run again after a change to the significance definitions, or on a new SCOP release in which most domains
+ * are unchanged, only needs to run CE-Symm on the domains whose coordinates or parameters differ.
+ * 
+ * <p>
+ * Each alignment is stored in its own small binary file, under a subdirectory named after the first two characters
+ * of its key. Only what the census reads back is stored: the optimal alignment, the block superpositions, the
+ * aligned sequences, and the scores. Files are written to a temporary name and then renamed, so a reader never sees
+ * a partial entry, and several JVMs (for example {@link ShardWorker ShardWorkers}) can share one directory. An entry
+ * that cannot be read is treated as a miss.
+ * 
+ * <p>
+ * Increase {@link CeSymm#version} whenever a change to CE-Symm changes its results, so that old entries are no longer
+ * used. Parameters are included through their {@code toString()}, plus the CE-Symm-specific settings. Thread-safe.
+ * 
+ * @author dmyerstu
+ */
+public class CeSymmResultCache {
+
+	private static final Logger logger = LogManager.getLogger(CeSymmResultCache.class.getPackage().getName());
+
+	/**
+	 * Changes whenever the layout of an entry changes; part of the key, so old entries are simply ignored.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int MAGIC = 0x43535243; // CSRC
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File dir;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong puts = new AtomicLong();
+
+	private final AtomicLong unreadable = new AtomicLong();
+
+	public CeSymmResultCache(File dir) {
+		if (!dir.exists() && !dir.mkdirs()) throw new IllegalArgumentException("Could not create " + dir.getPath());
+		this.dir = dir;
+	}
+
+	/**
+	 * Describes everything about {@code algorithm} that can change its results: its name, version, and parameters.
+	 */
+	public static String describe(StructureAlignment algorithm) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(algorithm.getAlgorithmName()).append(' ').append(algorithm.getVersion());
+		ConfigStrucAligParams params = algorithm.getParameters();
+		sb.append(' ').append(params == null ? "default" : params.toString());
+		if (algorithm instanceof CeSymm) {
+			CeSymm ceSymm = (CeSymm) algorithm;
+			sb.append(" maxSymmetryOrder=").append(ceSymm.getMaxSymmetryOrder());
+			sb.append(" minimumMetricChange=").append(ceSymm.getMinimumMetricChange());
+			sb.append(" gradientPolyCoeff=").append(Arrays.toString(ceSymm.getGradientPolyCoeff()));
+			sb.append(" gradientExpCoeff=").append(ceSymm.getGradientExpCoeff());
+			sb.append(" maxNrAlternatives=").append(ceSymm.getMaxNrAlternatives());
+			sb.append(" refineResult=").append(ceSymm.isRefineResult());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the key for aligning {@code ca1} to {@code ca2} with an algorithm {@link #describe(StructureAlignment)
+	 * described} by {@code description}. Only coordinates are hashed, so identical coordinates under different
+	 * names share an entry.
+	 */
+	public static String getKey(Atom[] ca1, Atom[] ca2, String description) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not available", e); // required of every JVM
+		}
+		byte[] buffer = new byte[8];
+		update(digest, buffer, FORMAT_VERSION);
+		digest.update(description.getBytes(UTF_8));
+		update(digest, buffer, ca1.length);
+		for (Atom atom : ca1) {
+			update(digest, buffer, atom);
+		}
+		update(digest, buffer, ca2.length);
+		for (Atom atom : ca2) {
+			update(digest, buffer, atom);
+		}
+		byte[] hash = digest.digest();
+		char[] key = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			key[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+			key[2 * i + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(key);
+	}
+
+	private static void update(MessageDigest digest, byte[] buffer, Atom atom) {
+		update(digest, buffer, Double.doubleToLongBits(atom.getX()));
+		update(digest, buffer, Double.doubleToLongBits(atom.getY()));
+		update(digest, buffer, Double.doubleToLongBits(atom.getZ()));
+	}
+
+	private static void update(MessageDigest digest, byte[] buffer, long value) {
+		for (int i = 0; i < 8; i++) {
+			buffer[i] = (byte) (value >>> (56 - 8 * i));
+		}
+		digest.update(buffer, 0, 8);
+	}
+
+	/**
+	 * @return The cached alignment for {@code key}, or null if there is none or it cannot be read
+	 */
+	public AFPChain get(String key) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				AFPChain afpChain = read(in);
+				hits.incrementAndGet();
+				return afpChain;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read the cached alignment " + file.getPath() + ": " + e);
+			unreadable.incrementAndGet();
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores {@code afpChain} under {@code key}, replacing any earlier entry. Failures are logged but not thrown,
+	 * since the cache is only an optimization.
+	 */
+	public void put(String key, AFPChain afpChain) {
+		File file = getFile(key);
+		File parent = file.getParentFile();
+		if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+			logger.warn("Could not create " + parent.getPath());
+			return;
+		}
+		try {
+			File temp = File.createTempFile(key, ".tmp", parent);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				write(afpChain, out);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				// another thread or JVM stored the same alignment first (or the platform can't replace files)
+				if (!temp.delete()) logger.debug("Could not delete " + temp.getPath());
+			}
+			puts.incrementAndGet();
+		} catch (IOException e) {
+			logger.warn("Could not cache the alignment for " + afpChain.getName1() + ": " + e.getMessage());
+		}
+	}
+
+	private static void write(AFPChain afpChain, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeUTF(afpChain.getAlgorithmName() == null ? "" : afpChain.getAlgorithmName());
+		out.writeUTF(afpChain.getVersion() == null ? "" : afpChain.getVersion());
+		out.writeInt(afpChain.getCa1Length());
+		out.writeInt(afpChain.getCa2Length());
+
+		out.writeDouble(afpChain.getTMScore());
+		out.writeDouble(afpChain.getProbability());
+		out.writeDouble(afpChain.getAlignScore());
+		out.writeDouble(afpChain.getTotalRmsdOpt());
+		out.writeInt(afpChain.getGapLen());
+
+		final int alnLength = afpChain.getAlnLength();
+		out.writeInt(alnLength);
+		writeChars(afpChain.getAlnseq1(), alnLength, out);
+		writeChars(afpChain.getAlnseq2(), alnLength, out);
+		writeChars(afpChain.getAlnsymb(), alnLength, out);
+
+		final int blockNum = afpChain.getOptAln() == null ? 0 : afpChain.getBlockNum();
+		out.writeInt(blockNum);
+		if (blockNum == 0) return;
+		// not every alignment has per-block RMSDs or superpositions
+		final boolean hasBlockRmsd = afpChain.getBlockRmsd() != null;
+		final boolean hasOptRmsd = afpChain.getOptRmsd() != null;
+		final boolean hasSuperposition = afpChain.getBlockRotationMatrix() != null
+				&& afpChain.getBlockShiftVector() != null;
+		out.writeBoolean(hasBlockRmsd);
+		out.writeBoolean(hasOptRmsd);
+		out.writeBoolean(hasSuperposition);
+		for (int b = 0; b < blockNum; b++) {
+			final int len = afpChain.getOptLen()[b];
+			out.writeInt(len);
+			for (int i = 0; i < len; i++) {
+				out.writeInt(afpChain.getOptAln()[b][0][i]);
+				out.writeInt(afpChain.getOptAln()[b][1][i]);
+			}
+			out.writeInt(afpChain.getBlockResSize()[b]);
+			if (hasBlockRmsd) out.writeDouble(afpChain.getBlockRmsd()[b]);
+			if (hasOptRmsd) out.writeDouble(afpChain.getOptRmsd()[b]);
+			if (!hasSuperposition) continue;
+			Matrix rotation = afpChain.getBlockRotationMatrix()[b];
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					out.writeDouble(rotation.get(i, j));
+				}
+			}
+			Atom shift = afpChain.getBlockShiftVector()[b];
+			out.writeDouble(shift.getX());
+			out.writeDouble(shift.getY());
+			out.writeDouble(shift.getZ());
+		}
+	}
+
+	private static AFPChain read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) throw new IOException("Not a cached alignment");
+		AFPChain afpChain = new AFPChain();
+		afpChain.setAlgorithmName(in.readUTF());
+		afpChain.setVersion(in.readUTF());
+		afpChain.setCa1Length(in.readInt());
+		afpChain.setCa2Length(in.readInt());
+
+		afpChain.setTMScore(in.readDouble());
+		afpChain.setProbability(in.readDouble());
+		afpChain.setAlignScore(in.readDouble());
+		afpChain.setTotalRmsdOpt(in.readDouble());
+		afpChain.setGapLen(in.readInt());
+
+		final int alnLength = in.readInt();
+		afpChain.setAlnLength(alnLength);
+		afpChain.setAlnseq1(readChars(alnLength, in));
+		afpChain.setAlnseq2(readChars(alnLength, in));
+		afpChain.setAlnsymb(readChars(alnLength, in));
+
+		final int blockNum = in.readInt();
+		if (blockNum == 0) return afpChain; // CE-Symm found no alignment
+		final boolean hasBlockRmsd = in.readBoolean();
+		final boolean hasOptRmsd = in.readBoolean();
+		final boolean hasSuperposition = in.readBoolean();
+		int[][][] optAln = new int[blockNum][2][];
+		int[] optLen = new int[blockNum];
+		int[] blockResSize = new int[blockNum];
+		double[] blockRmsd = new double[blockNum];
+		double[] optRmsd = new double[blockNum];
+		Matrix[] rotations = new Matrix[blockNum];
+		Atom[] shifts = new Atom[blockNum];
+		int optLength = 0;
+		for (int b = 0; b < blockNum; b++) {
+			final int len = in.readInt();
+			optLen[b] = len;
+			optLength += len;
+			optAln[b][0] = new int[len];
+			optAln[b][1] = new int[len];
+			for (int i = 0; i < len; i++) {
+				optAln[b][0][i] = in.readInt();
+				optAln[b][1][i] = in.readInt();
+			}
+			blockResSize[b] = in.readInt();
+			if (hasBlockRmsd) blockRmsd[b] = in.readDouble();
+			if (hasOptRmsd) optRmsd[b] = in.readDouble();
+			if (!hasSuperposition) continue;
+			double[][] rotation = new double[3][3];
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					rotation[i][j] = in.readDouble();
+				}
+			}
+			rotations[b] = new Matrix(rotation);
+			Atom shift = new AtomImpl();
+			shift.setX(in.readDouble());
+			shift.setY(in.readDouble());
+			shift.setZ(in.readDouble());
+			shifts[b] = shift;
+		}
+		afpChain.setBlockNum(blockNum);
+		afpChain.setOptAln(optAln);
+		afpChain.setOptLen(optLen);
+		afpChain.setOptLength(optLength);
+		afpChain.setBlockResSize(blockResSize);
+		if (hasBlockRmsd) afpChain.setBlockRmsd(blockRmsd);
+		if (hasOptRmsd) afpChain.setOptRmsd(optRmsd);
+		if (hasSuperposition) {
+			afpChain.setBlockRotationMatrix(rotations);
+			afpChain.setBlockShiftVector(shifts);
+		}
+		return afpChain;
+	}
+
+	private static void writeChars(char[] chars, int length, DataOutputStream out) throws IOException {
+		out.writeBoolean(chars != null);
+		if (chars == null) return;
+		for (int i = 0; i < length; i++) {
+			out.writeByte(chars[i]); // alignment symbols and one-letter residue codes are ASCII
+		}
+	}
+
+	private static char[] readChars(int length, DataInputStream in) throws IOException {
+		if (!in.readBoolean()) return null;
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (in.readByte() & 0xff);
+		}
+		return chars;
+	}
+
+	private File getFile(String key) {
+		return new File(new File(dir, key.substring(0, 2)), key + ".afp");
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getPuts() {
+		return puts.get();
+	}
+
+	/**
+	 * @return The number of entries that existed but could not be read; these are also counted as misses
+	 */
+	public long getUnreadable() {
+		return unreadable.get();
+	}
+
+	@Override
+	public String toString() {
+		return "CeSymmResultCache [dir=" + dir.getPath() + ", hits=" + hits + ", misses=" + misses + ", puts=" + puts
+				+ ", unreadable=" + unreadable + "]";
+	}
+
+}
@@ -30,16 +30,22 @@ import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.biojava.bio.structure.Atom;
-import org.biojava.bio.structure.StructureException;
 import org.biojava.bio.structure.align.StructureAlignment;
 import org.biojava.bio.structure.align.util.AtomCache;
 import org.biojava.bio.structure.scop.ScopCategory;
@@ -49,6 +55,7 @@ import org.biojava.bio.structure.scop.ScopDomain;
 import org.biojava.bio.structure.scop.ScopFactory;
 import org.biojava3.core.util.ConcurrencyTools;
 import org.biojava3.structure.align.symm.CeSymm;
+import org.biojava3.structure.align.symm.protodomain.AtomPositionMapCache;
 import org.biojava3.structure.utils.FileUtils;
 
 /**
@@ -93,12 +100,37 @@ public class Census {
 
 	private boolean doPrefetch = false;
 
+	private int prefetchThreads = 2;
+
+	private Integer prefetchCapacity;
+
+	private CeSymmResultCache resultCache;
+
 	private File file;
 	private int numSymm;
 
 	private int numTotal;
 
 	private int printFrequency = 20;
+
+	private int maxInFlight;
+
+	private Long timeout;
+
+	private Integer maxResidues;
+
+	private int traceThreads = 1;
+
+	/**
+	 * The longest the main thread waits before checking for jobs over the time budget, in milliseconds.
+	 */
+	private static final long MAX_TIMEOUT_CHECK_INTERVAL = 1000;
+
+	/**
+	 * While prefetching and the window of jobs is not full, how often the main thread looks for newly loaded
+	 * structures, in milliseconds.
+	 */
+	private static final long PREFETCH_CHECK_INTERVAL = 50;
 	private Map<String, Integer> symm = new TreeMap<String, Integer>();
 
 	private Map<String, Integer> total = new TreeMap<String, Integer>();
@@ -139,6 +171,110 @@ public class Census {
 	public Census(int maxThreads) {
 		if (maxThreads < 1) maxThreads = 1;
 		ConcurrencyTools.setThreadPoolSize(maxThreads);
+		maxInFlight = 2 * maxThreads;
+	}
+
+	public Long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout
+	 *            The wall-clock budget for each domain in milliseconds, or null for none. A job that runs longer is
+	 *            cancelled and recorded with {@link Result#STATUS_TIMED_OUT}, so it can be retried later with
+	 *            {@link #setRerunFailed(boolean)}. The job's thread is interrupted, and CE-Symm checks for
+	 *            that between rows of its trace and before each round of its optimizer. Until the job stops, it
+	 *            still counts against the jobs in flight, so that it doesn't leave more jobs queued than the window
+	 *            allows. Whatever it returns is dropped.
+	 */
+	public void setTimeout(Long timeout) {
+		this.timeout = timeout;
+	}
+
+	public Integer getMaxResidues() {
+		return maxResidues;
+	}
+
+	/**
+	 * @param maxResidues
+	 *            Domains with more residues than this are not run, and are recorded with
+	 *            {@link Result#STATUS_TOO_LARGE}; null for no limit
+	 */
+	public void setMaxResidues(Integer maxResidues) {
+		this.maxResidues = maxResidues;
+	}
+
+	public int getTraceThreads() {
+		return traceThreads;
+	}
+
+	/**
+	 * @param traceThreads
+	 *            The number of threads that each CE-Symm alignment {@link CeSymm#setNrThreads(int) traces} on; defaults
+	 *            to 1. The results are the same for any number. More than 1 keeps a few very large domains from being
+	 *            the last jobs running, but a census can then use up to this many times its own threads at once.
+	 */
+	public void setTraceThreads(int traceThreads) {
+		if (traceThreads < 1) throw new IllegalArgumentException("Need at least one trace thread");
+		this.traceThreads = traceThreads;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            The maximum number of jobs that are queued or running at once; more domains are only submitted as
+	 *            jobs finish. Defaults to twice the number of threads.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) throw new IllegalArgumentException("Must allow at least one job in flight");
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	/**
+	 * @param prefetchThreads
+	 *            The number of I/O threads that load structures ahead of the computation when prefetching; defaults to
+	 *            2
+	 */
+	public void setPrefetchThreads(int prefetchThreads) {
+		if (prefetchThreads < 1) throw new IllegalArgumentException("Need at least one prefetch thread");
+		this.prefetchThreads = prefetchThreads;
+	}
+
+	/**
+	 * @return The maximum number of loaded structures waiting for a compute thread when prefetching
+	 */
+	public int getPrefetchCapacity() {
+		return prefetchCapacity == null ? maxInFlight : prefetchCapacity;
+	}
+
+	/**
+	 * @param prefetchCapacity
+	 *            The maximum number of loaded structures waiting for a compute thread when prefetching; defaults to
+	 *            {@link #getMaxInFlight()}
+	 */
+	public void setPrefetchCapacity(int prefetchCapacity) {
+		if (prefetchCapacity < 1) throw new IllegalArgumentException("The prefetch queue must hold at least one structure");
+		this.prefetchCapacity = prefetchCapacity;
+	}
+
+	public CeSymmResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * @param resultCache
+	 *            A persistent cache of CE-Symm alignments shared by the jobs, so that domains whose coordinates and
+	 *            parameters are unchanged since an earlier census are not aligned again; null (the default) for none
+	 */
+	public void setResultCache(CeSymmResultCache resultCache) {
+		this.resultCache = resultCache;
 	}
 
 	public int getPrintFrequency() {
@@ -163,98 +299,239 @@ public class Census {
 
 	public final void run() {
 
+		CensusCheckpoint checkpoint = null;
+		StructurePrefetcher prefetcher = null;
 		try {
 
 			if (file == null) throw new IllegalStateException("Must set file first");
 			if (cache == null) cache = new AtomCache();
 
 			ScopDatabase scop = ScopFactory.getSCOP();
-			List<Future<Result>> futures = new ArrayList<Future<Result>>();
 			Results census = getStartingResults();
 			Significance significance = getSignificance();
-			List<String> knownResults = getKnownResults(census);
-			logger.info("There are " + knownResults.size() + " known results");
+
+			// results are appended to the checkpoint as they arrive; the census file is written once at the end
+			checkpoint = new CensusCheckpoint(CensusCheckpoint.forCensusFile(file));
+			checkpoint.setSyncFrequency(printFrequency);
+			checkpoint.open();
+
+			if (rerunFailed) removeFailedResults(census);
+			Set<String> knownScopIds = new HashSet<String>();
+			Set<Integer> knownSunIds = new HashSet<Integer>();
+			indexKnownResults(census, knownScopIds, knownSunIds);
+			logger.info("There are " + knownScopIds.size() + " known results");
+			skippedBySuperfamily = new TreeMap<String, Integer>();
+			int nSkipped = 0;
+			timingReport = new TimingReport();
 
 			int count = 0;
-			List<ScopDomain> domains;
-			if (doPrefetch) {
-				domains = filterAndPrefetch();
-			} else {
-				domains = getDomains();
-			}
+			List<ScopDomain> domains = getDomains();
 			logger.info("There are " + domains.size() + " domains");
 
-			List<CensusJob> submittedJobs = new ArrayList<CensusJob>(domains.size()); // to get time taken
-
-			// submit jobs
+			// decide which domains to run up front, so they can be handed to the prefetcher
+			List<ScopDomain> toRun = new ArrayList<ScopDomain>(domains.size());
 			for (ScopDomain domain : domains) {
-				if (count % 1000 == 0) logger.info("Working on " + count + " / " + domains.size());
 				if (domain.getRanges() == null || domain.getRanges().isEmpty()) {
 					logger.debug("Skipping " + domain.getScopId() + " because SCOP ranges for it are not defined");
 					continue;
 				}
-				if (knownResults.contains(domain.getScopId())) continue;
-				logger.debug("Submitting new job for " + domain.getScopId() + " (job #" + count + ")");
-				CensusJob calc = new CensusJob(cache, getAlgorithm(), significance);
-				calc.setDomain(domain);
-				calc.setSuperfamily(scop.getScopDescriptionBySunid(domain.getSuperfamilyId()));
-				calc.setCount(count);
-				initializeJob(calc);
-				submittedJobs.add(calc);
-				Future<Result> result = ConcurrencyTools.submit(calc);
-				futures.add(result);
-				count++;
+				if (knownScopIds.contains(domain.getScopId()) || knownSunIds.contains(domain.getSunid())) {
+					ScopDescription superfamily = scop.getScopDescriptionBySunid(domain.getSuperfamilyId());
+					plus(skippedBySuperfamily, superfamily == null ? String.valueOf(domain.getSuperfamilyId())
+							: superfamily.getClassificationId());
+					nSkipped++;
+					continue;
+				}
+				toRun.add(domain);
 			}
+			logger.info("Running " + toRun.size() + " domains");
 
-			// wait for job returns and print
-			for (Future<Result> future : futures) {
-				Result result = null;
-				try {
-					logger.debug("Waiting for a job to finish");
-					boolean flag = false;
-					// We should do this in case the job gets interrupted
-					// Sometimes the OS or JVM might do this
-					// Use the flag instead of future == null because future.get() may actually return null
-					while (!flag) {
+			// with prefetching, structures are loaded on separate I/O threads and arrive through a bounded queue
+			Iterator<ScopDomain> remaining = null;
+			if (doPrefetch) {
+				prefetcher = new StructurePrefetcher(cache, scop, toRun, prefetchThreads, getPrefetchCapacity());
+				prefetcher.start();
+			} else {
+				remaining = toRun.iterator();
+			}
+
+			// jobs are submitted lazily, keeping at most maxInFlight of them queued or running, and results are recorded
+			// in the order they finish; a finished job is dropped from inFlight so it can be garbage collected
+			CompletionService<Result> completion = new ExecutorCompletionService<Result>(
+					ConcurrencyTools.getThreadPool());
+			Map<Future<Result>, CensusJob> inFlight = new HashMap<Future<Result>, CensusJob>();
+			// jobs cancelled by the time budget that are still running, and so still hold a thread
+			List<CensusJob> cancelled = new ArrayList<CensusJob>();
+			long timeTaken = 0;
+			int nSuccess = 0;
+
+			while (true) {
+
+				Iterator<CensusJob> stopping = cancelled.iterator();
+				while (stopping.hasNext()) {
+					if (stopping.next().isFinished()) stopping.remove();
+				}
+
+				// submit jobs until the window is full
+				while (inFlight.size() + cancelled.size() < maxInFlight) {
+					ScopDomain domain;
+					StructurePrefetcher.Prefetched prefetched = null;
+					if (prefetcher == null) {
+						if (!remaining.hasNext()) break;
+						domain = remaining.next();
+					} else {
+						// only wait for a structure when nothing is running; otherwise go back to collecting results
 						try {
-							result = future.get();
-							flag = true;
+							prefetched = inFlight.isEmpty() ? prefetcher.take() : prefetcher.poll();
 						} catch (InterruptedException e) {
-							logger.debug("The calling thread was interrupted"); // probably not a concern
+							logger.debug("The calling thread was interrupted");
+							continue;
 						}
+						if (prefetched == null) break;
+						domain = prefetched.getDomain();
 					}
-				} catch (ExecutionException e) {
-					logger.error("Error on result (" + futures.size() + " remain)", e);
-					continue;
+					if (count % 1000 == 0) {
+						logger.info("Working on " + count + " / " + toRun.size() + " (" + inFlight.size()
+								+ " jobs in flight)");
+						if (prefetcher != null) logger.info(prefetcher);
+					}
+					logger.debug("Submitting new job for " + domain.getScopId() + " (job #" + count + ")");
+					CensusJob calc = new CensusJob(cache, getAlgorithm(), significance);
+					calc.setDomain(domain);
+					calc.setSuperfamily(scop.getScopDescriptionBySunid(domain.getSuperfamilyId()));
+					calc.setCount(count);
+					calc.setMaxResidues(maxResidues);
+					calc.setTraceThreads(traceThreads);
+					calc.setResultCache(resultCache);
+					if (prefetched != null && prefetched.getStructure() != null) {
+						calc.setStructure(prefetched.getStructure(), prefetched.getLoadMillis());
+					}
+					initializeJob(calc);
+					inFlight.put(completion.submit(calc), calc);
+					count++;
 				}
-				logger.debug("Result was returned for " + census.size() + " / " + domains.size());
-				logger.debug(result);
-				census.add(result);
-				updateStats(result);
-				if (census.size() % printFrequency == 0) {
-					logger.debug("Printing to stream ");
-					print(census);
+				if (inFlight.isEmpty() && cancelled.isEmpty()) break;
+
+				// wait for any job to return and record it
+				// with a time budget, wake up regularly to cancel jobs that have run too long
+				logger.debug("Waiting for a job to finish");
+				// while prefetching with room in the window, wake up regularly to submit newly loaded structures
+				boolean awaitingStructures = prefetcher != null && !prefetcher.isExhausted()
+						&& inFlight.size() + cancelled.size() < maxInFlight;
+				Future<Result> future = null;
+				try {
+					if (timeout == null && !awaitingStructures) {
+						future = completion.take();
+					} else {
+						long interval = timeout == null ? PREFETCH_CHECK_INTERVAL : Math.min(timeout,
+								MAX_TIMEOUT_CHECK_INTERVAL);
+						if (awaitingStructures) interval = Math.min(interval, PREFETCH_CHECK_INTERVAL);
+						future = completion.poll(interval, TimeUnit.MILLISECONDS);
+					}
+				} catch (InterruptedException e) {
+					// We should do this in case the job gets interrupted
+					// Sometimes the OS or JVM might do this
+					logger.debug("The calling thread was interrupted"); // probably not a concern
 				}
-			}
-			logger.debug("Printing leftover results to stream");
-			print(census);
-			logger.info("Finished!");
-
-			long timeTaken = 0;
-			int nSuccess = 0;
-			for (CensusJob job : submittedJobs) {
+				// check the budget on every pass, since polls rarely time out while other jobs keep finishing
+				if (timeout != null) cancelOverdueJobs(inFlight, cancelled, census, checkpoint);
+				if (future == null) continue;
+				CensusJob job = inFlight.remove(future);
+				if (job == null) continue; // cancelled by cancelOverdueJobs, and already recorded
 				if (job.getTimeTaken() != null) {
 					timeTaken += job.getTimeTaken();
 					nSuccess++;
 				}
+				Result result = null;
+				boolean flag = false;
+				// Use the flag instead of result == null because future.get() may actually return null
+				while (!flag) {
+					try {
+						result = future.get(); // already done, so this doesn't block
+						flag = true;
+					} catch (InterruptedException e) {
+						logger.debug("The calling thread was interrupted");
+					} catch (ExecutionException e) {
+						logger.error("Error on result (" + inFlight.size() + " in flight)", e);
+						break;
+					}
+				}
+				if (!flag) continue;
+				logger.debug("Result was returned for " + census.size() + " / " + toRun.size());
+				record(result, census, checkpoint);
 			}
+
+			logger.info("Skipped " + nSkipped + " known domains in " + skippedBySuperfamily.size() + " superfamilies");
+			for (Map.Entry<String, Integer> entry : skippedBySuperfamily.entrySet()) {
+				logger.debug("Skipped " + entry.getValue() + " known domains in " + entry.getKey());
+			}
+
+			beforeWrite();
+			checkpoint.close();
+			logger.debug("Compacting the checkpoint into " + file.getPath());
+			print(census);
+			checkpoint.delete();
+			logger.info("Finished!");
+
 			avgTimeTaken = (double) timeTaken / (double) nSuccess;
+			logger.info("Stage timings:" + System.getProperty("line.separator") + timingReport);
+			logger.info(AtomPositionMapCache.getInstance());
+			if (prefetcher != null) logger.info(prefetcher);
+			if (resultCache != null) logger.info(resultCache);
 
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write to the census checkpoint", e);
 		} finally {
+			if (prefetcher != null) prefetcher.shutdown();
+			if (checkpoint != null) {
+				try {
+					checkpoint.close();
+				} catch (IOException e) {
+					logger.warn("Could not close the census checkpoint", e);
+				}
+			}
 			ConcurrencyTools.shutdown();
 		}
 	}
 
+	private void record(Result result, Results census, CensusCheckpoint checkpoint) throws IOException {
+		beforeWrite();
+		logger.debug(result);
+		census.add(result);
+		updateStats(result);
+		timingReport.add(result);
+		if (result != null) checkpoint.append(result);
+	}
+
+	/**
+	 * Cancels the running jobs that have exceeded the {@link #setTimeout(Long) time budget}, and records a
+	 * {@link Result#STATUS_TIMED_OUT timed-out} result for each. The cancelled jobs are moved to {@code cancelled}
+	 * until their threads stop.
+	 */
+	private void cancelOverdueJobs(Map<Future<Result>, CensusJob> inFlight, List<CensusJob> cancelled, Results census,
+			CensusCheckpoint checkpoint) throws IOException {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Future<Result>, CensusJob>> iter = inFlight.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<Future<Result>, CensusJob> entry = iter.next();
+			Long startTime = entry.getValue().getStartTime();
+			if (startTime == null || now - startTime <= timeout) continue;
+			if (!entry.getKey().cancel(true)) continue; // it just finished; take it normally
+			iter.remove();
+			cancelled.add(entry.getValue());
+			Result result = entry.getValue().getUnfinishedResult(Result.STATUS_TIMED_OUT);
+			logger.warn("Cancelled " + result.getScopId() + " after " + (now - startTime) + "ms");
+			record(result, census, checkpoint);
+		}
+	}
+
+	/**
+	 * Called before each result is recorded in the checkpoint, and before the census file is written. A subclass
+	 * throws an unchecked exception to stop the census without writing anything more.
+	 */
+	protected void beforeWrite() {
+	}
+
 	/**
 	 * Do anything else to the {@link CensusJob} object before it is run.
 	 * @param calc
@@ -264,6 +541,34 @@ public class Census {
 
 	private double avgTimeTaken;
 
+	private TimingReport timingReport = new TimingReport();
+
+	private boolean rerunFailed = false;
+
+	private Map<String, Integer> skippedBySuperfamily = new TreeMap<String, Integer>();
+
+	/**
+	 * @return The number of domains skipped because they had a previous result, by superfamily classification
+	 */
+	public Map<String, Integer> getSkippedBySuperfamily() {
+		return skippedBySuperfamily;
+	}
+
+	/**
+	 * @param rerunFailed
+	 *            If true, previous results that {@link #isFailed(Result) failed} are run again instead of being skipped
+	 */
+	public void setRerunFailed(boolean rerunFailed) {
+		this.rerunFailed = rerunFailed;
+	}
+
+	/**
+	 * @return The per-stage times of the jobs run by the last call to {@link #run()}
+	 */
+	public TimingReport getTimingReport() {
+		return timingReport;
+	}
+
 	public double getAvgTimeTaken() {
 		return avgTimeTaken;
 	}
@@ -297,41 +602,40 @@ public class Census {
 	}
 
 	/**
-	 * Returns the names of the domains that we already analyzed.
-	 *
-	 * @param census
-	 * @return
+	 * Indexes the domains that we already analyzed by scop Id and sun Id.
 	 */
-	private final List<String> getKnownResults(Results census) {
-		List<String> names = new ArrayList<String>();
-		List<Result> results = census.getData();
+	private final void indexKnownResults(Results census, Set<String> scopIds, Set<Integer> sunIds) {
 		int i = 0;
-		for (Result result : results) {
+		for (Result result : census.getData()) {
 			if (result == null) {
 				logger.warn("A previous result (#" + i + ") was null.");
 				continue;
 			}
-			names.add(result.getScopId());
+			scopIds.add(result.getScopId());
+			if (result.getSunId() != null) sunIds.add(result.getSunId());
 			i++;
 		}
-		return names;
 	}
 
-	protected List<ScopDomain> filterAndPrefetch() {
-		List<ScopDomain> domains = getDomains();
-		List<ScopDomain> filtered = new ArrayList<ScopDomain>(domains.size());
-		for (ScopDomain domain : domains) {
-			try {
-				Atom[] atoms = cache.getAtoms(domain.getScopId());
-				if (atoms == null || atoms.length == 0) throw new StructureException("No atoms in array.");
-				filtered.add(domain);
-			} catch (IOException e) {
-				logger.error("Could not preload structure for " + domain.getScopId(), e);
-			} catch (StructureException e) {
-				logger.error("Could not preload structure for " + domain.getScopId(), e);
-			}
+	/**
+	 * @return Whether {@code result} is from a job that failed: CE-Symm returned nothing, or the significance could
+	 *         not be determined
+	 */
+	public static boolean isFailed(Result result) {
+		return result.getAlignment() == null || result.getAlignment().getTmScore() == null
+				|| result.getIsSignificant() == null;
+	}
+
+	/**
+	 * Removes the {@link #isFailed(Result) failed} results from {@code census}, so that they are run again.
+	 */
+	private void removeFailedResults(Results census) {
+		List<Result> kept = new ArrayList<Result>(census.size());
+		for (Result result : census.getData()) {
+			if (result != null && !isFailed(result)) kept.add(result);
 		}
-		return filtered;
+		logger.info("Re-running " + (census.size() - kept.size()) + " failed results");
+		census.setData(kept);
 	}
 
 	public AlgorithmGiver getAlgorithm() {
@@ -354,7 +658,51 @@ public class Census {
 		return domains;
 	}
 
+	/**
+	 * Returns the results in the census file, plus any results in its {@link CensusCheckpoint} that are not in the
+	 * census file yet. Where a domain has several results (because a failed one was rerun), the latest is kept, unless
+	 * it {@link #isFailed(Result) failed} and an earlier one completed; this is the same preference as
+	 * {@link ShardDirectory#merge(Results)}.
+	 */
 	protected final Results getResultsFromPrevRun() {
+		Results results = getResultsFromPrevFile();
+		CensusCheckpoint checkpoint = new CensusCheckpoint(CensusCheckpoint.forCensusFile(file));
+		List<Result> logged;
+		try {
+			logged = checkpoint.read();
+		} catch (IOException e) {
+			logger.warn("Could not read checkpoint " + checkpoint.getFile().getPath() + ". Ignoring it.", e);
+			return results;
+		}
+		if (logged.isEmpty()) return results;
+		if (results == null) results = new Results();
+		// the run may have stopped after writing the census file but before deleting the checkpoint
+		Map<String, Result> byScopId = new LinkedHashMap<String, Result>();
+		for (Result result : results.getData()) {
+			putLatest(byScopId, result);
+		}
+		int nResumed = 0;
+		for (Result result : logged) {
+			if (putLatest(byScopId, result)) nResumed++;
+		}
+		results.setData(new ArrayList<Result>(byScopId.values()));
+		logger.info("Found " + nResumed + " previous results in checkpoint " + checkpoint.getFile().getPath());
+		return results;
+	}
+
+	/**
+	 * Puts {@code result} in place of any earlier result for its domain, unless that one completed and this one failed.
+	 * 
+	 * @return Whether {@code result} was put
+	 */
+	private static boolean putLatest(Map<String, Result> byScopId, Result result) {
+		Result existing = byScopId.get(result.getScopId());
+		if (existing != null && !isFailed(existing) && isFailed(result)) return false;
+		byScopId.put(result.getScopId(), result);
+		return true;
+	}
+
+	private Results getResultsFromPrevFile() {
 		if (file.exists() && file.length() > 0) {
 			try {
 				Results results = Results.fromXML(file);
@@ -390,11 +738,17 @@ public class Census {
 		map.put(key, map.get(key) + 1);
 	}
 
+	/**
+	 * @param doPrefetch
+	 *            Whether to load structures on {@link #setPrefetchThreads(int) separate I/O threads} ahead of the
+	 *            computation, through a {@link StructurePrefetcher}
+	 */
 	protected void setDoPrefetch(boolean doPrefetch) {
 		this.doPrefetch = doPrefetch;
 	}
 
 	protected void updateStats(Result result) {
+		if (result != null && result.getStatus() != null) return; // never ran
 		try {
 			String[] parts = result.getClassification().split("\\.");
 			plus(total, parts[0]);
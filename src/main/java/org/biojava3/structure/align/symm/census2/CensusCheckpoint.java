@@ -0,0 +1,245 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only log of census {@link Result Results}, written as results arrive so that a {@link Census} can be
+ * resumed without rewriting the whole {@link Results} XML every few results.
+ * 
+ * <p>
+ * Each record is the XML of one Result, preceded by its length in bytes. Records are flushed as they are appended and
+ * synced to disk every {@link #getSyncFrequency() syncFrequency} records. A record that was cut off (by a crash, for
+ * example) is ignored when the log is read, and removed when it is reopened.
+ * 
+ * @author dmyerstu
+ */
+public class CensusCheckpoint {
+
+	private static final Logger logger = LogManager.getLogger(CensusCheckpoint.class.getPackage().getName());
+
+	private static JAXBContext jaxbContext;
+
+	private static final QName RECORD_NAME = new QName("result");
+
+	static {
+		try {
+			jaxbContext = JAXBContext.newInstance(Result.class);
+		} catch (Exception e) {
+			throw new RuntimeException(e); // fatal
+		}
+	}
+
+	private final File file;
+
+	private FileOutputStream fos;
+	private DataOutputStream out;
+
+	private int nUnsynced = 0;
+
+	private int syncFrequency = 20;
+
+	/**
+	 * @return The checkpoint file that belongs to the census file {@code censusFile}
+	 */
+	public static File forCensusFile(File censusFile) {
+		return new File(censusFile.getPath() + ".checkpoint");
+	}
+
+	public CensusCheckpoint(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Appends {@code result} to the log.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the log is not open
+	 */
+	public void append(Result result) throws IOException {
+		if (out == null) throw new IllegalStateException("Must open the checkpoint first");
+		byte[] bytes = toBytes(result);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+		nUnsynced++;
+		if (nUnsynced >= syncFrequency) sync();
+	}
+
+	/**
+	 * Syncs the log to disk and closes it.
+	 */
+	public void close() throws IOException {
+		if (out == null) return;
+		sync();
+		out.close();
+		out = null;
+		fos = null;
+	}
+
+	/**
+	 * Deletes the log file, once its results have been compacted into the census file.
+	 */
+	public boolean delete() {
+		return file.delete();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getSyncFrequency() {
+		return syncFrequency;
+	}
+
+	/**
+	 * Opens the log for appending, first removing any record that was cut off.
+	 */
+	public void open() throws IOException {
+		if (file.exists()) {
+			long valid = scan(null);
+			if (valid < file.length()) {
+				logger.warn("Discarding " + (file.length() - valid) + " bytes of an incomplete record in " + file.getPath());
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(valid);
+				} finally {
+					raf.close();
+				}
+			}
+		}
+		fos = new FileOutputStream(file, true);
+		out = new DataOutputStream(new BufferedOutputStream(fos));
+	}
+
+	/**
+	 * Reads every complete record in the log.
+	 * 
+	 * @return An empty list if the log does not exist
+	 */
+	public List<Result> read() throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		if (file.exists()) scan(results);
+		return results;
+	}
+
+	/**
+	 * @param syncFrequency
+	 *            The number of records between syncs to disk
+	 */
+	public void setSyncFrequency(int syncFrequency) {
+		if (syncFrequency < 1) throw new IllegalArgumentException("The sync frequency must be at least 1");
+		this.syncFrequency = syncFrequency;
+	}
+
+	/**
+	 * Forces the records appended so far to disk.
+	 */
+	public void sync() throws IOException {
+		if (out == null) return;
+		out.flush();
+		fos.getFD().sync();
+		nUnsynced = 0;
+	}
+
+	/**
+	 * Reads the complete records, adding them to {@code results} if it is not null.
+	 * 
+	 * @return The length in bytes of the complete records
+	 */
+	private long scan(List<Result> results) throws IOException {
+		long valid = 0;
+		long length = file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (true) {
+				int n;
+				try {
+					n = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (n < 0 || valid + 4 + n > length) break;
+				byte[] bytes = new byte[n];
+				in.readFully(bytes);
+				Result result;
+				try {
+					result = fromBytes(bytes);
+				} catch (IOException e) {
+					logger.warn("Could not read a record in " + file.getPath() + " after " + valid + " bytes", e);
+					break;
+				}
+				if (results != null) results.add(result);
+				valid += 4 + n;
+			}
+		} finally {
+			in.close();
+		}
+		return valid;
+	}
+
+	private static Result fromBytes(byte[] bytes) throws IOException {
+		try {
+			Unmarshaller un = jaxbContext.createUnmarshaller();
+			return un.unmarshal(new StreamSource(new ByteArrayInputStream(bytes)), Result.class).getValue();
+		} catch (JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static byte[] toBytes(Result result) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			Marshaller m = jaxbContext.createMarshaller();
+			m.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+			m.marshal(new JAXBElement<Result>(RECORD_NAME, Result.class, result), baos);
+		} catch (JAXBException e) {
+			throw new IOException(e);
+		}
+		return baos.toByteArray();
+	}
+
+}
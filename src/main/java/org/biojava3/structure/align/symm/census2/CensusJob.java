@@ -26,6 +26,7 @@ import org.biojava.bio.structure.Atom;
 import org.biojava.bio.structure.Structure;
 import org.biojava.bio.structure.StructureException;
 import org.biojava.bio.structure.StructureTools;
+import org.biojava.bio.structure.align.StructureAlignment;
 import org.biojava.bio.structure.align.model.AFPChain;
 import org.biojava.bio.structure.align.util.AFPChainScorer;
 import org.biojava.bio.structure.align.util.AtomCache;
@@ -95,6 +96,22 @@ public class CensusJob implements Callable<Result> {
 
 	private Long timeTaken;
 
+	private Integer maxResidues;
+
+	private int traceThreads = 1;
+
+	private volatile Long startTime;
+
+	private volatile boolean finished = false;
+
+	private Timings timings;
+
+	private Structure prefetchedStructure;
+
+	private Float prefetchMillis;
+
+	private CeSymmResultCache resultCache;
+
 	/**
 	 * Preferred method for web-based calls.
 	 */
@@ -129,17 +146,33 @@ public class CensusJob implements Callable<Result> {
 
 	@Override
 	public Result call() {
+		try {
+			return align();
+		} finally {
+			finished = true;
+		}
+	}
+
+	private Result align() {
 
 		if (domain == null || superfamily == null || count == null) throw new IllegalStateException(
 				"Must set domain, superfamily, and count first.");
 		String name = domain.getScopId();
+		startTime = System.currentTimeMillis();
+		timings = new Timings();
 
 		// first, get the atoms
 		Atom[] ca1, ca2;
 		Structure structure;
 		logger.debug("Getting atoms for " + name + " (job #" + count + ")");
+		long stageStart = System.nanoTime();
 		try {
-			structure = cache.getStructureForDomain(name, scop);
+			if (prefetchedStructure != null) {
+				structure = prefetchedStructure;
+				prefetchedStructure = null; // only needed until the atoms are extracted
+			} else {
+				structure = cache.getStructureForDomain(name, scop);
+			}
 			// ca1 = cache.getAtoms(name);
 			ca1 = StructureTools.getAtomCAArray(structure);
 			ca2 = StructureTools.cloneCAArray(ca1);
@@ -147,16 +180,28 @@ public class CensusJob implements Callable<Result> {
 			logger.error("Could not create the atom arrays for " + name + ": " + e.getMessage(), e);
 			return null;
 		}
+		timings.setStructureMillis(Timings.millisSince(stageStart) + (prefetchMillis == null ? 0 : prefetchMillis));
+		timings.setNumResidues(ca1.length);
 		logger.debug("Got " + ca1.length + " atoms (job #" + count + ")");
+		if (maxResidues != null && ca1.length > maxResidues) {
+			logger.info("Not running CE-Symm on " + name + " because it has " + ca1.length + " residues (job #" + count
+					+ ")");
+			Result r = getUnfinishedResult(Result.STATUS_TOO_LARGE);
+			r.setTimings(timings);
+			return r;
+		}
 
 		// run the alignment
 		AFPChain afpChain = null;
 		logger.debug("Running CE-Symm (job #" + count + ")");
+		stageStart = System.nanoTime();
 		try {
 			afpChain = findSymmetry(name, ca1, ca2);
 		} catch (Exception e) {
 			logger.error("Failed running CE-Symm on " + name + ": " + e.getMessage(), e);
 			return convertResult(null, null, superfamily, name, null, null, domain, null, null);
+		} finally {
+			timings.setAlignmentMillis(Timings.millisSince(stageStart));
 		}
 		if (afpChain == null || afpChain.getOptAln() == null) {
 			logger.debug("CE-Symm returned null (job #" + count + ")");
@@ -185,38 +230,46 @@ public class CensusJob implements Callable<Result> {
 
 			// first try to find the protodomain
 			logger.debug("Finding protodomain (job #" + count + ")");
+			stageStart = System.nanoTime();
 			try {
 				protodomain = Protodomain.fromSymmetryAlignment(afpChain, ca2, 1, cache);
 				logger.debug("Protodomain is " + protodomain + " (job #" + count + ")");
 			} catch (Exception e) {
 				logger.warn("Could not create protodomain because " + e.getMessage(), e);
 			}
+			timings.setProtodomainMillis(Timings.millisSince(stageStart));
 
 			// now try to find the order
 			logger.debug("Finding order (job #" + count + ")");
+			stageStart = System.nanoTime();
 			try {
 				order = CeSymm.getSymmetryOrder(afpChain);
 				logger.debug("Order is " + order + " (job #" + count + ")");
 			} catch (Exception e) {
 				logger.error("Failed to determine the order of symmetry on " + name + ": " + e.getMessage(), e);
 			}
+			timings.setOrderMillis(Timings.millisSince(stageStart));
 
 			// now try to find the angle
 			logger.debug("Finding angle (job #" + count + ")");
+			stageStart = System.nanoTime();
 			try {
 				angle = (float) getAngle(afpChain, ca1, ca2);
 				logger.debug("Angle is " + angle + " (job #" + count + ")");
 			} catch (Exception e) {
 				logger.error("Failed to determine the angle on " + name + ": " + e.getMessage(), e);
 			}
+			timings.setAxisMillis(Timings.millisSince(stageStart));
 
 			// now determine whether it's significant
 			logger.debug("Determining significance (job #" + count + ")");
+			stageStart = System.nanoTime();
 			try {
 				isSignificant = significance.isSignificant(protodomain, order, angle, afpChain);
 			} catch (RuntimeException e) {
 				logger.error("Failed to determine the signifcance of " + name + ": " + e.getMessage(), e);
 			}
+			timings.setSignificanceMillis(Timings.millisSince(stageStart));
 
 			// now find fraction helical
 			Float fractionHelical = null;
@@ -243,6 +296,74 @@ public class CensusJob implements Callable<Result> {
 		return timeTaken;
 	}
 
+	/**
+	 * @return The time in milliseconds at which {@link #call()} started, or null if it hasn't started yet
+	 */
+	public Long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Whether {@link #call()} has returned or thrown. A job cancelled while running keeps its thread until
+	 *         then.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns a Result for this job's domain without any alignment or timings, recording why CE-Symm was not run or
+	 * finished.
+	 * 
+	 * @param status
+	 *            For example {@link Result#STATUS_TIMED_OUT}
+	 */
+	public Result getUnfinishedResult(String status) {
+		Result r = convertResult(null, null, superfamily, domain.getScopId(), null, null, domain, null, null);
+		r.setStatus(status);
+		r.setTimings(null); // the job may still be filling them in
+		return r;
+	}
+
+	/**
+	 * @param maxResidues
+	 *            Domains with more residues than this are not run, and get the status {@link Result#STATUS_TOO_LARGE};
+	 *            null for no limit
+	 */
+	public void setMaxResidues(Integer maxResidues) {
+		this.maxResidues = maxResidues;
+	}
+
+	/**
+	 * @param traceThreads
+	 *            If the algorithm is CE-Symm, the number of threads it {@link CeSymm#setNrThreads(int) traces} on
+	 */
+	public void setTraceThreads(int traceThreads) {
+		this.traceThreads = traceThreads;
+	}
+
+	/**
+	 * Gives this job a structure that was already loaded, for example by a {@link StructurePrefetcher}, so that
+	 * {@link #call()} doesn't load it from the {@link AtomCache} itself.
+	 * 
+	 * @param loadMillis
+	 *            The time it took to load, which is counted in the {@link Timings#getStructureMillis() structure
+	 *            timing}
+	 */
+	public void setStructure(Structure structure, float loadMillis) {
+		this.prefetchedStructure = structure;
+		this.prefetchMillis = loadMillis;
+	}
+
+	/**
+	 * @param resultCache
+	 *            A cache of earlier alignments to look in before running CE-Symm, and to store new alignments in; null
+	 *            to always run CE-Symm
+	 */
+	public void setResultCache(CeSymmResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
 	/**
 	 * Discards the stored AFPChain to free heap memory.
 	 */
@@ -293,9 +414,11 @@ public class CensusJob implements Callable<Result> {
 
 		r.setAlignment(new Alignment(afpChain));
 		r.setIsSignificant(isSymmetric);
+		r.setTimings(timings);
 		// r.setFractionHelical(fractionHelical);
+		long axisStart = System.nanoTime();
 		try {
-			if (afpChain.getAlnLength() > 0) r.setAxis(new Axis(new RotationAxis(afpChain)));
+			if (afpChain != null && afpChain.getAlnLength() > 0) r.setAxis(new Axis(new RotationAxis(afpChain)));
 
 		} catch (RuntimeException e) {
 
@@ -313,6 +436,11 @@ public class CensusJob implements Callable<Result> {
 				r.setAxis(axis);
 			}
 		}
+		if (timings != null && afpChain != null) {
+			float axisMillis = Timings.millisSince(axisStart);
+			if (timings.getAxisMillis() != null) axisMillis += timings.getAxisMillis();
+			timings.setAxisMillis(axisMillis);
+		}
 		r.setOrder(order);
 
 		return r;
@@ -321,14 +449,29 @@ public class CensusJob implements Callable<Result> {
 	private AFPChain findSymmetry(String name, Atom[] ca1, Atom[] ca2) throws StructureException, IOException {
 		if (!sanityCheckPreAlign(ca1, ca2)) throw new RuntimeException("Can't align using same structure.");
 		long startTime = System.currentTimeMillis();
-		AFPChain afpChain = algorithm.getAlgorithm().align(ca1, ca2);
+		StructureAlignment alg = algorithm.getAlgorithm();
+		if (traceThreads > 1 && alg instanceof CeSymm) ((CeSymm) alg).setNrThreads(traceThreads);
+		String key = null;
+		AFPChain afpChain = null;
+		if (resultCache != null) {
+			key = CeSymmResultCache.getKey(ca1, ca2, CeSymmResultCache.describe(alg));
+			afpChain = resultCache.get(key);
+			if (afpChain != null) logger.debug("Found a cached alignment for " + name + " (job #" + count + ")");
+		}
+		if (afpChain == null) {
+			afpChain = alg.align(ca1, ca2);
+			if (afpChain != null) {
+				double realTmScore = AFPChainScorer.getTMScore(afpChain, ca1, ca2);
+				afpChain.setTMScore(realTmScore);
+				// a cancelled job may have stopped CE-Symm early
+				if (key != null && !Thread.currentThread().isInterrupted()) resultCache.put(key, afpChain);
+			}
+		}
 		long endTime = System.currentTimeMillis();
 		timeTaken = endTime - startTime;
 		if (afpChain == null) return null;
 		afpChain.setName1(name);
 		afpChain.setName2(name);
-		double realTmScore = AFPChainScorer.getTMScore(afpChain, ca1, ca2);
-		afpChain.setTMScore(realTmScore);
 		return afpChain;
 	}
 
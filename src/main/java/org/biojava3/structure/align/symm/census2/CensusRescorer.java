@@ -26,13 +26,129 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * A class to update a census ({@link Results}) XML file with new score cutoffs.
+ * A class to update a census ({@link Results}) XML file with new score cutoffs, or to compare many score cutoffs in
+ * one pass with {@link #sweep(File, List, List, int)}.
  * @author dmyerstu
  */
 public class CensusRescorer {
 
+	/**
+	 * How one Significance compares to the significance already recorded in a census.
+	 */
+	public static class Summary {
+
+		private final String name;
+		private long nTotal;
+		private long truePositives;
+		private long falsePositives;
+		private long falseNegatives;
+		private long trueNegatives;
+		private long nUnlabeled;
+		private long nUnlabeledSignificant;
+		private long nUndetermined;
+
+		public Summary(String name) {
+			this.name = name;
+		}
+
+		public static String getHeader() {
+			return "significance\tn\tsignificant\tfraction\tTP\tFP\tFN\tTN\tunlabeled\tundetermined\tagreement";
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The number of results this Significance and the census both call significant
+		 */
+		public long getTruePositives() {
+			return truePositives;
+		}
+
+		public long getFalsePositives() {
+			return falsePositives;
+		}
+
+		public long getFalseNegatives() {
+			return falseNegatives;
+		}
+
+		public long getTrueNegatives() {
+			return trueNegatives;
+		}
+
+		/**
+		 * @return The number of results this Significance calls significant
+		 */
+		public long getNSignificant() {
+			return truePositives + falsePositives + nUnlabeledSignificant;
+		}
+
+		public long getNTotal() {
+			return nTotal;
+		}
+
+		/**
+		 * @return The number of results whose recorded significance was null
+		 */
+		public long getNUnlabeled() {
+			return nUnlabeled;
+		}
+
+		/**
+		 * @return The number of results on which this Significance threw an exception
+		 */
+		public long getNUndetermined() {
+			return nUndetermined;
+		}
+
+		/**
+		 * @return The fraction of labeled results on which this Significance agrees with the census
+		 */
+		public double getAgreement() {
+			return (double) (truePositives + trueNegatives)
+					/ (truePositives + trueNegatives + falsePositives + falseNegatives);
+		}
+
+		@Override
+		public String toString() {
+			return name + "\t" + nTotal + "\t" + getNSignificant() + "\t"
+					+ String.format("%.4f", (double) getNSignificant() / nTotal) + "\t" + truePositives + "\t"
+					+ falsePositives + "\t" + falseNegatives + "\t" + trueNegatives + "\t" + nUnlabeled + "\t"
+					+ nUndetermined + "\t" + String.format("%.4f", getAgreement());
+		}
+
+		private void add(long[] counts) {
+			nTotal += counts[TOTAL];
+			truePositives += counts[TP];
+			falsePositives += counts[FP];
+			falseNegatives += counts[FN];
+			trueNegatives += counts[TN];
+			nUnlabeled += counts[UNLABELED];
+			nUnlabeledSignificant += counts[UNLABELED_SIGNIFICANT];
+			nUndetermined += counts[UNDETERMINED];
+		}
+	}
+
+	private static final int TOTAL = 0, TP = 1, FP = 2, FN = 3, TN = 4, UNLABELED = 5, UNLABELED_SIGNIFICANT = 6,
+			UNDETERMINED = 7, N_COUNTS = 8;
+
+	/**
+	 * The number of results each task of {@link #sweep(File, List, List, int)} evaluates.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
 	private Significance sig;
 
 	public CensusRescorer(Significance sig) {
@@ -59,20 +175,92 @@ public class CensusRescorer {
 	}
 
 	private void filter(Results census) {
-		Results oldCensus = new Results();
-		oldCensus.addAll(census.getData());
-		int i = 0;
-		for (Result result : oldCensus.getData()) {
-			/*
-			 * It is critical that exceptions not be ignored here.
-			 * Otherwise, i may not be what it should, so we'll keep deleting the wrong items.
-			 */
-			if (!sig.isSignificant(result)) {
-				census.getData().remove(i);
-			} else {
-				i++;
+		List<Result> kept = new ArrayList<Result>();
+		for (Result result : census.getData()) {
+			if (sig.isSignificant(result)) kept.add(result);
+		}
+		census.setData(kept);
+	}
+
+	/**
+	 * Evaluates every Significance in {@code sigs} on every result of the census XML file {@code census}, and
+	 * compares it with the significance recorded in the file. The census is streamed, and batches of results are
+	 * evaluated on {@code nThreads} threads, so memory use doesn't depend on the size of the census. The file is not
+	 * modified.
+	 * 
+	 * @param names
+	 *            A name for each Significance, for the summaries
+	 * @return A summary for each Significance, in order
+	 */
+	public static List<Summary> sweep(File census, List<String> names, final List<Significance> sigs, int nThreads)
+			throws IOException {
+
+		if (names.size() != sigs.size()) throw new IllegalArgumentException("Need one name per significance");
+		List<Summary> summaries = new ArrayList<Summary>(sigs.size());
+		for (String name : names) {
+			summaries.add(new Summary(name));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		ResultsReader reader = new ResultsReader(census);
+		try {
+			LinkedList<Future<long[][]>> inFlight = new LinkedList<Future<long[][]>>();
+			Result result = reader.next();
+			while (result != null || !inFlight.isEmpty()) {
+				if (result != null && inFlight.size() < 2 * nThreads) {
+					final List<Result> batch = new ArrayList<Result>(BATCH_SIZE);
+					while (result != null && batch.size() < BATCH_SIZE) {
+						batch.add(result);
+						result = reader.next();
+					}
+					inFlight.add(pool.submit(new Callable<long[][]>() {
+						@Override
+						public long[][] call() {
+							return count(batch, sigs);
+						}
+					}));
+				} else {
+					long[][] counts = inFlight.removeFirst().get();
+					for (int s = 0; s < summaries.size(); s++) {
+						summaries.get(s).add(counts[s]);
+					}
+				}
 			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			reader.close();
+			pool.shutdownNow();
 		}
+		return summaries;
+	}
+
+	private static long[][] count(List<Result> batch, List<Significance> sigs) {
+		long[][] counts = new long[sigs.size()][N_COUNTS];
+		for (Result result : batch) {
+			Boolean recorded = result.getIsSignificant();
+			for (int s = 0; s < sigs.size(); s++) {
+				counts[s][TOTAL]++;
+				boolean isSignificant;
+				try {
+					isSignificant = sigs.get(s).isSignificant(result);
+				} catch (RuntimeException e) {
+					counts[s][UNDETERMINED]++;
+					continue;
+				}
+				if (recorded == null) {
+					counts[s][UNLABELED]++;
+					if (isSignificant) counts[s][UNLABELED_SIGNIFICANT]++;
+				} else if (recorded) {
+					counts[s][isSignificant ? TP : FN]++;
+				} else {
+					counts[s][isSignificant ? FP : TN]++;
+				}
+			}
+		}
+		return counts;
 	}
 
 	/**
@@ -85,8 +273,23 @@ public class CensusRescorer {
 	 * @throws IOException 
 	 */
 	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("-sweep")) {
+			List<String> names = new ArrayList<String>();
+			List<Significance> sigs = new ArrayList<Significance>();
+			for (int i = 2; i < args.length; i++) {
+				names.add(args[i]);
+				sigs.add(SignificanceFactory.fromExpression(args[i]));
+			}
+			int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			System.out.println(Summary.getHeader());
+			for (Summary summary : sweep(new File(args[1]), names, sigs, nThreads)) {
+				System.out.println(summary);
+			}
+			return;
+		}
 		if (args.length > 4 || args.length < 2) {
 			System.err.println("Usage: CensusRescorer intput-file output-file [significance-method] [remove-insignificant (if \"true\")]");
+			System.err.println("   or: CensusRescorer -sweep input-file significance-method [significance-method...]");
 			return;
 		}
 		File input = new File(args[0]);
@@ -94,7 +297,7 @@ public class CensusRescorer {
 		Significance sig = SignificanceFactory.generallySymmetric();
 		if (args.length >= 3) {
 			String sigMethod = args[2];
-			sig = SignificanceFactory.fromMethod(null, sigMethod);
+			sig = SignificanceFactory.fromExpression(sigMethod);
 		}
 		boolean remove = false;
 		if (args.length >= 4) {
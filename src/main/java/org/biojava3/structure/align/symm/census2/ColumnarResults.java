@@ -0,0 +1,990 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A census stored column by column in a compact binary file, which is memory-mapped and read without unmarshalling
+ * the whole census into {@link Result} objects. Statistics that need only a few properties, such as TM-score and
+ * order, touch only those columns.
+ * 
+ * <p>
+ * Every property of {@link Result}, {@link Alignment}, {@link Axis} and {@link Timings} is a {@link Column}. Numbers
+ * are stored as primitive 4-byte columns, booleans as bytes, and strings dictionary-encoded (a code per row, plus the
+ * distinct strings once). Nulls are preserved, so converting XML to this format and back loses nothing. Use
+ * {@link #write(Results, File)} or {@link #fromXML(File, File)} to create a file, and {@link #open(File)} to read it.
+ * 
+ * <p>
+ * File layout (big-endian): the magic number, version, number of rows, number of columns, and timestamp; a directory
+ * of (name, type, offset) per column; then the column data. Columns are looked up by name, so a file without some
+ * column reads as null for it.
+ * 
+ * <p>
+ * The whole file is mapped as one buffer, so it can be at most {@link Integer#MAX_VALUE} bytes (2 GB), which is
+ * several million results. {@link #write(Results, File)} and {@link #open(File)} refuse larger files.
+ * 
+ * <p>
+ * Reading is thread-safe.
+ * 
+ * @author dmyerstu
+ */
+public class ColumnarResults implements Closeable {
+
+	/**
+	 * The objects of a {@link Result} that can each be null as a whole.
+	 */
+	public static enum Group {
+		RESULT(0), ALIGNMENT(1), AXIS(2), TIMINGS(4);
+		private final int bit;
+
+		private Group(int bit) {
+			this.bit = bit;
+		}
+	}
+
+	public static enum Type {
+		BOOLEAN, FLOAT, INT, STRING;
+	}
+
+	public static enum Column {
+
+		SCOP_ID(Type.STRING, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getScopId();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setScopId((String) value);
+			}
+		},
+		SUN_ID(Type.INT, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getSunId();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setSunId((Integer) value);
+			}
+		},
+		RANK(Type.INT, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getRank();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setRank((Integer) value);
+			}
+		},
+		CLASSIFICATION(Type.STRING, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getClassification();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setClassification((String) value);
+			}
+		},
+		DESCRIPTION(Type.STRING, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getDescription();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setDescription((String) value);
+			}
+		},
+		IS_SIGNIFICANT(Type.BOOLEAN, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getIsSignificant();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setIsSignificant((Boolean) value);
+			}
+		},
+		ORDER(Type.INT, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getOrder();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setOrder((Integer) value);
+			}
+		},
+		PROTODOMAIN(Type.STRING, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getProtodomain();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setProtodomain((String) value);
+			}
+		},
+		FRACTION_HELICAL(Type.FLOAT, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getFractionHelical();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setFractionHelical((Float) value);
+			}
+		},
+		STATUS(Type.STRING, Group.RESULT) {
+			@Override
+			Object get(Result r) {
+				return r.getStatus();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.setStatus((String) value);
+			}
+		},
+		ALIGN_LENGTH(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getAlignLength();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setAlignLength((Integer) value);
+			}
+		},
+		ALIGN_SCORE(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getAlignScore();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setAlignScore((Float) value);
+			}
+		},
+		ALTERNATE_TM(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getAlternateTm();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setAlternateTm((Float) value);
+			}
+		},
+		BLOCK1_LENGTH(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getBlock1Length();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setBlock1Length((Integer) value);
+			}
+		},
+		BLOCK2_LENGTH(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getBlock2Length();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setBlock2Length((Integer) value);
+			}
+		},
+		COVERAGE(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getCoverage();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setCoverage((Integer) value);
+			}
+		},
+		GAP_LENGTH(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getGapLength();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setGapLength((Integer) value);
+			}
+		},
+		IDENTITY(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getIdentity();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setIdentity((Float) value);
+			}
+		},
+		INITIAL_SHIFT(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getInitialShift();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setInitialShift((Integer) value);
+			}
+		},
+		N_NON_SELF_ALIGNED(Type.INT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getnNonSelfAligned();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setnNonSelfAligned((Integer) value);
+			}
+		},
+		RMSD(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getRmsd();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setRmsd((Float) value);
+			}
+		},
+		SIMILARITY(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getSimilarity();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setSimilarity((Float) value);
+			}
+		},
+		TMPR(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getTmpr();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setTmpr((Float) value);
+			}
+		},
+		TM_SCORE(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getTmScore();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setTmScore((Float) value);
+			}
+		},
+		Z_SCORE(Type.FLOAT, Group.ALIGNMENT) {
+			@Override
+			Object get(Result r) {
+				return r.getAlignment().getzScore();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAlignment().setzScore((Float) value);
+			}
+		},
+		THETA(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getTheta();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setTheta((Float) value);
+			}
+		},
+		X(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getX();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setX((Float) value);
+			}
+		},
+		Y(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getY();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setY((Float) value);
+			}
+		},
+		Z(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getZ();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setZ((Float) value);
+			}
+		},
+		SCREW(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getScrew();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setScrew((Float) value);
+			}
+		},
+		ORTHOGONAL(Type.FLOAT, Group.AXIS) {
+			@Override
+			Object get(Result r) {
+				return r.getAxis().getOrthogonal();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getAxis().setOrthogonal((Float) value);
+			}
+		},
+		NUM_RESIDUES(Type.INT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getNumResidues();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setNumResidues((Integer) value);
+			}
+		},
+		STRUCTURE_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getStructureMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setStructureMillis((Float) value);
+			}
+		},
+		ALIGNMENT_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getAlignmentMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setAlignmentMillis((Float) value);
+			}
+		},
+		PROTODOMAIN_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getProtodomainMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setProtodomainMillis((Float) value);
+			}
+		},
+		ORDER_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getOrderMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setOrderMillis((Float) value);
+			}
+		},
+		AXIS_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getAxisMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setAxisMillis((Float) value);
+			}
+		},
+		SIGNIFICANCE_MILLIS(Type.FLOAT, Group.TIMINGS) {
+			@Override
+			Object get(Result r) {
+				return r.getTimings().getSignificanceMillis();
+			}
+
+			@Override
+			void set(Result r, Object value) {
+				r.getTimings().setSignificanceMillis((Float) value);
+			}
+		};
+
+		private final Group group;
+		private final Type type;
+
+		private Column(Type type, Group group) {
+			this.type = type;
+			this.group = group;
+		}
+
+		public Group getGroup() {
+			return group;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Reads this property from {@code r}, whose {@link #getGroup() group} is not null.
+		 */
+		abstract Object get(Result r);
+
+		/**
+		 * Sets this property on {@code r}, whose {@link #getGroup() group} is not null.
+		 */
+		abstract void set(Result r, Object value);
+	}
+
+	/**
+	 * Where the data of one string column is in the file.
+	 */
+	private static class Dictionary {
+		long bytesOffset;
+		String[] decoded;
+		long offsetsOffset;
+		int size;
+	}
+
+	public static final int MAGIC = 0x43534e31; // CSN1
+
+	public static final int VERSION = 1;
+
+	private static final String GROUPS_COLUMN = "GROUPS";
+
+	private static final byte NULL_BOOLEAN = -1;
+
+	/**
+	 * A NaN that {@link Float#floatToRawIntBits(float)} never returns for computed values, so real NaNs survive.
+	 */
+	private static final int NULL_FLOAT_BITS = 0x7fa00bad;
+
+	private static final int NULL_INT = Integer.MIN_VALUE;
+
+	private final MappedByteBuffer buffer;
+	private final Dictionary[] dictionaries = new Dictionary[Column.values().length];
+	private long groupsOffset = -1;
+	private final long[] offsets = new long[Column.values().length];
+	private final RandomAccessFile raf;
+	private final int size;
+	private final String timestamp;
+
+	private ColumnarResults(RandomAccessFile raf) throws IOException {
+		this.raf = raf;
+		if (raf.readInt() != MAGIC) throw new IOException("Not a columnar census file");
+		int version = raf.readInt();
+		if (version != VERSION) throw new IOException("Unsupported columnar census version " + version);
+		size = raf.readInt();
+		int nColumns = raf.readInt();
+		timestamp = raf.readBoolean() ? raf.readUTF() : null;
+		Map<String, Column> byName = new HashMap<String, Column>();
+		for (Column column : Column.values()) {
+			byName.put(column.name(), column);
+			offsets[column.ordinal()] = -1;
+		}
+		List<Column> strings = new ArrayList<Column>();
+		for (int i = 0; i < nColumns; i++) {
+			String name = raf.readUTF();
+			Type type = Type.values()[raf.readByte()];
+			long offset = raf.readLong();
+			if (name.equals(GROUPS_COLUMN)) {
+				groupsOffset = offset;
+				continue;
+			}
+			Column column = byName.get(name);
+			if (column == null) continue; // from a newer version
+			if (column.getType() != type) throw new IOException("Column " + name + " has type " + type);
+			offsets[column.ordinal()] = offset;
+			if (type == Type.STRING) strings.add(column);
+		}
+		if (groupsOffset < 0) throw new IOException("The groups column is missing");
+		if (raf.length() > Integer.MAX_VALUE) throw new IOException("The file has " + raf.length()
+				+ " bytes, more than can be mapped");
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		for (Column column : strings) {
+			Dictionary dictionary = new Dictionary();
+			long codesEnd = offsets[column.ordinal()] + 4L * size;
+			dictionary.size = buffer.getInt((int) codesEnd);
+			dictionary.offsetsOffset = codesEnd + 4;
+			dictionary.bytesOffset = dictionary.offsetsOffset + 4L * (dictionary.size + 1);
+			dictionary.decoded = new String[dictionary.size];
+			dictionaries[column.ordinal()] = dictionary;
+		}
+	}
+
+	/**
+	 * Converts the XML census {@code xml} into a columnar file {@code binary}.
+	 */
+	public static void fromXML(File xml, File binary) throws IOException {
+		write(Results.fromXML(xml), binary);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: " + ColumnarResults.class.getSimpleName() + " input-file output-file");
+			System.err.println("Converts from XML to the columnar format if the input ends in .xml; otherwise back");
+			return;
+		}
+		if (args[0].endsWith(".xml")) {
+			fromXML(new File(args[0]), new File(args[1]));
+		} else {
+			toXML(new File(args[0]), new File(args[1]));
+		}
+	}
+
+	/**
+	 * Memory-maps a file written by {@link #write(Results, File)}.
+	 */
+	public static ColumnarResults open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new ColumnarResults(raf);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw new IOException("Could not read " + file, e);
+		}
+	}
+
+	/**
+	 * Converts the columnar file {@code binary} into an XML census {@code xml}.
+	 */
+	public static void toXML(File binary, File xml) throws IOException {
+		ColumnarResults columns = open(binary);
+		try {
+			PrintWriter out = new PrintWriter(xml);
+			try {
+				out.print(columns.toResults().toXML());
+			} finally {
+				out.close();
+			}
+		} finally {
+			columns.close();
+		}
+	}
+
+	/**
+	 * Writes {@code results} to {@code file} in the columnar format. Null results are skipped.
+	 */
+	public static void write(Results results, File file) throws IOException {
+
+		List<Result> data = new ArrayList<Result>(results.size());
+		for (Result result : results.getData()) {
+			if (result != null) data.add(result);
+		}
+		final int n = data.size();
+		Column[] columns = Column.values();
+
+		// build each column in memory so that the directory can hold their offsets
+		byte[][] blobs = new byte[columns.length + 1][];
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(n);
+		DataOutputStream blob = new DataOutputStream(baos);
+		for (Result result : data) {
+			int groups = 0;
+			if (result.getAlignment() != null) groups |= Group.ALIGNMENT.bit;
+			if (result.getAxis() != null) groups |= Group.AXIS.bit;
+			if (result.getTimings() != null) groups |= Group.TIMINGS.bit;
+			blob.writeByte(groups);
+		}
+		blob.flush();
+		blobs[0] = baos.toByteArray();
+		for (Column column : columns) {
+			baos = new ByteArrayOutputStream(4 * n);
+			blob = new DataOutputStream(baos);
+			writeColumn(column, data, blob);
+			blob.flush();
+			blobs[column.ordinal() + 1] = baos.toByteArray();
+		}
+
+		// the header's size doesn't depend on the offsets, so write it once to measure it
+		long headerSize = writeHeader(new DataOutputStream(new ByteArrayOutputStream()), results.getTimestamp(), n,
+				blobs, 0);
+		long length = headerSize;
+		for (byte[] bytes : blobs) {
+			length += bytes.length;
+		}
+		if (length > Integer.MAX_VALUE) throw new IOException("The census needs " + length
+				+ " bytes, more than can be mapped");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			writeHeader(out, results.getTimestamp(), n, blobs, headerSize);
+			for (byte[] bytes : blobs) {
+				out.write(bytes);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static boolean isIn(Result result, Group group) {
+		switch (group) {
+		case ALIGNMENT:
+			return result.getAlignment() != null;
+		case AXIS:
+			return result.getAxis() != null;
+		case TIMINGS:
+			return result.getTimings() != null;
+		default:
+			return true;
+		}
+	}
+
+	private static void writeColumn(Column column, List<Result> data, DataOutputStream out) throws IOException {
+		Map<String, Integer> codes = null;
+		List<String> dictionary = null;
+		if (column.getType() == Type.STRING) {
+			codes = new HashMap<String, Integer>();
+			dictionary = new ArrayList<String>();
+		}
+		for (Result result : data) {
+			Object value = isIn(result, column.getGroup()) ? column.get(result) : null;
+			switch (column.getType()) {
+			case BOOLEAN:
+				out.writeByte(value == null ? NULL_BOOLEAN : (Boolean) value ? 1 : 0);
+				break;
+			case FLOAT:
+				out.writeInt(value == null ? NULL_FLOAT_BITS : Float.floatToRawIntBits((Float) value));
+				break;
+			case INT:
+				if (value != null && (Integer) value == NULL_INT) throw new IllegalArgumentException(column
+						+ " cannot store " + NULL_INT);
+				out.writeInt(value == null ? NULL_INT : (Integer) value);
+				break;
+			case STRING:
+				if (value == null) {
+					out.writeInt(-1);
+					break;
+				}
+				Integer code = codes.get(value);
+				if (code == null) {
+					code = dictionary.size();
+					codes.put((String) value, code);
+					dictionary.add((String) value);
+				}
+				out.writeInt(code);
+				break;
+			}
+		}
+		if (dictionary == null) return;
+		List<byte[]> encoded = new ArrayList<byte[]>(dictionary.size());
+		for (String string : dictionary) {
+			encoded.add(string.getBytes("UTF-8"));
+		}
+		out.writeInt(dictionary.size());
+		int offset = 0;
+		out.writeInt(offset);
+		for (byte[] bytes : encoded) {
+			offset += bytes.length;
+			out.writeInt(offset);
+		}
+		for (byte[] bytes : encoded) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * @return The number of bytes written
+	 */
+	private static long writeHeader(DataOutputStream out, String timestamp, int n, byte[][] blobs, long headerSize)
+			throws IOException {
+		Column[] columns = Column.values();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		out.writeInt(blobs.length);
+		out.writeBoolean(timestamp != null);
+		if (timestamp != null) out.writeUTF(timestamp);
+		long offset = headerSize;
+		for (int i = 0; i < blobs.length; i++) {
+			if (i == 0) {
+				out.writeUTF(GROUPS_COLUMN);
+				out.writeByte(Type.BOOLEAN.ordinal()); // a byte per row
+			} else {
+				out.writeUTF(columns[i - 1].name());
+				out.writeByte(columns[i - 1].getType().ordinal());
+			}
+			out.writeLong(offset);
+			offset += blobs[i].length;
+		}
+		out.flush();
+		return out.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * @return The dictionary code of the string in {@code column} at {@code row}, or -1 for null. Codes are dense
+	 *         from 0, so they can index arrays when grouping.
+	 */
+	public int getCode(Column column, int row) {
+		checkType(column, Type.STRING);
+		long offset = offsets[column.ordinal()];
+		if (offset < 0) return -1;
+		return buffer.getInt(index(offset, 4, row));
+	}
+
+	/**
+	 * @return The string with dictionary code {@code code} in {@code column}
+	 * @throws IllegalArgumentException If the file has no {@code column}, so that its dictionary is empty
+	 * @throws IndexOutOfBoundsException If {@code code} is not below {@link #getDictionarySize(Column)}
+	 */
+	public String getDictionaryEntry(Column column, int code) {
+		checkType(column, Type.STRING);
+		Dictionary dictionary = dictionaries[column.ordinal()];
+		if (dictionary == null) throw new IllegalArgumentException("The file has no column " + column);
+		if (code < 0 || code >= dictionary.size) throw new IndexOutOfBoundsException("Code " + code + " of "
+				+ dictionary.size);
+		String string = dictionary.decoded[code];
+		if (string == null) { // a race here only decodes twice
+			int start = buffer.getInt((int) (dictionary.offsetsOffset + 4L * code));
+			int end = buffer.getInt((int) (dictionary.offsetsOffset + 4L * (code + 1)));
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get((int) (dictionary.bytesOffset + start + i));
+			}
+			try {
+				string = new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e); // UTF-8 is always supported
+			}
+			dictionary.decoded[code] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * @return The number of distinct strings in {@code column}
+	 */
+	public int getDictionarySize(Column column) {
+		checkType(column, Type.STRING);
+		Dictionary dictionary = dictionaries[column.ordinal()];
+		return dictionary == null ? 0 : dictionary.size;
+	}
+
+	/**
+	 * @return The value in {@code column} at {@code row}; check {@link #isNull(Column, int)} first
+	 */
+	public float getFloat(Column column, int row) {
+		checkType(column, Type.FLOAT);
+		long offset = offsets[column.ordinal()];
+		if (offset < 0) return Float.NaN;
+		return Float.intBitsToFloat(buffer.getInt(index(offset, 4, row)));
+	}
+
+	/**
+	 * @return The value in {@code column} at {@code row}; check {@link #isNull(Column, int)} first
+	 */
+	public int getInt(Column column, int row) {
+		checkType(column, Type.INT);
+		long offset = offsets[column.ordinal()];
+		if (offset < 0) return NULL_INT;
+		return buffer.getInt(index(offset, 4, row));
+	}
+
+	/**
+	 * @return The value in {@code column} at {@code row}; check {@link #isNull(Column, int)} first
+	 */
+	public boolean getBoolean(Column column, int row) {
+		checkType(column, Type.BOOLEAN);
+		long offset = offsets[column.ordinal()];
+		if (offset < 0) return false;
+		return buffer.get(index(offset, 1, row)) == 1;
+	}
+
+	/**
+	 * Creates the Result at {@code row}.
+	 */
+	public Result getResult(int row) {
+		Result result = new Result();
+		int groups = buffer.get(index(groupsOffset, 1, row));
+		if ((groups & Group.ALIGNMENT.bit) != 0) result.setAlignment(new Alignment());
+		if ((groups & Group.AXIS.bit) != 0) result.setAxis(new Axis());
+		if ((groups & Group.TIMINGS.bit) != 0) result.setTimings(new Timings());
+		for (Column column : Column.values()) {
+			if (!isIn(result, column.getGroup())) continue;
+			column.set(result, getValue(column, row));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The string in {@code column} at {@code row}, or null
+	 */
+	public String getString(Column column, int row) {
+		int code = getCode(column, row);
+		return code < 0 ? null : getDictionaryEntry(column, code);
+	}
+
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The value in {@code column} at {@code row}, boxed, or null
+	 */
+	public Object getValue(Column column, int row) {
+		if (isNull(column, row)) return null;
+		switch (column.getType()) {
+		case BOOLEAN:
+			return getBoolean(column, row);
+		case FLOAT:
+			return getFloat(column, row);
+		case INT:
+			return getInt(column, row);
+		default:
+			return getString(column, row);
+		}
+	}
+
+	/**
+	 * @return Whether the value in {@code column} at {@code row} is null, including when its whole {@link Group} is
+	 */
+	public boolean isNull(Column column, int row) {
+		long offset = offsets[column.ordinal()];
+		if (offset < 0) return true;
+		if (column.getGroup() != Group.RESULT) {
+			int groups = buffer.get(index(groupsOffset, 1, row));
+			if ((groups & column.getGroup().bit) == 0) return true;
+		}
+		switch (column.getType()) {
+		case BOOLEAN:
+			return buffer.get(index(offset, 1, row)) == NULL_BOOLEAN;
+		case FLOAT:
+			return buffer.getInt(index(offset, 4, row)) == NULL_FLOAT_BITS;
+		case INT:
+			return buffer.getInt(index(offset, 4, row)) == NULL_INT;
+		default:
+			return buffer.getInt(index(offset, 4, row)) == -1;
+		}
+	}
+
+	/**
+	 * @return The number of results
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Creates every Result. This needs as much memory as {@link Results#fromXML(File)}.
+	 */
+	public Results toResults() {
+		Results results = new Results();
+		List<Result> data = new ArrayList<Result>(size);
+		for (int row = 0; row < size; row++) {
+			data.add(getResult(row));
+		}
+		results.setData(data);
+		results.setTimestamp(timestamp);
+		return results;
+	}
+
+	private void checkType(Column column, Type type) {
+		if (column.getType() != type) throw new IllegalArgumentException(column + " is of type " + column.getType()
+				+ ", not " + type);
+	}
+
+	private int index(long offset, int width, int row) {
+		if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		return (int) (offset + (long) width * row);
+	}
+
+}
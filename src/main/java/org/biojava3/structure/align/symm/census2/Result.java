@@ -36,6 +36,16 @@ public class Result implements Serializable {
 
 	private static final long serialVersionUID = 2282745910618366982L;
 
+	/**
+	 * The {@link #getStatus() status} of a domain whose job ran past the census's time budget and was cancelled.
+	 */
+	public static final String STATUS_TIMED_OUT = "TIMED_OUT";
+
+	/**
+	 * The {@link #getStatus() status} of a domain with more residues than the census allows; it was not run.
+	 */
+	public static final String STATUS_TOO_LARGE = "TOO_LARGE";
+
 	private Axis axis;
 	private Alignment alignment;
 	private String classification;
@@ -47,6 +57,8 @@ public class Result implements Serializable {
 	private String scopId;
 	private Integer sunId;
 	private Float fractionHelical;
+	private String status;
+	private Timings timings;
 	public Axis getAxis() {
 		return axis;
 	}
@@ -113,12 +125,32 @@ public class Result implements Serializable {
 	public void setSunId(Integer sunId) {
 		this.sunId = sunId;
 	}
+	/**
+	 * @return Null if CE-Symm ran to completion (successfully or not); otherwise why it was not run, such as
+	 *         {@link #STATUS_TIMED_OUT} or {@link #STATUS_TOO_LARGE}
+	 */
+	public String getStatus() {
+		return status;
+	}
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	/**
+	 * @return How long each stage of the job took, or null if unknown. Not part of {@link #equals(Object)}, since it
+	 *         differs from run to run.
+	 */
+	public Timings getTimings() {
+		return timings;
+	}
+	public void setTimings(Timings timings) {
+		this.timings = timings;
+	}
 	@Override
 	public String toString() {
 		return "Result [axis=" + axis + ", alignment=" + alignment + ", classification=" + classification
 				+ ", description=" + description + ", isSignificant=" + isSignificant + ", order=" + order
 				+ ", protodomain=" + protodomain + ", rank=" + rank + ", scopId=" + scopId + ", sunId=" + sunId
-				+ ", fractionHelical=" + fractionHelical + "]";
+				+ ", fractionHelical=" + fractionHelical + ", status=" + status + ", timings=" + timings + "]";
 	}
 	@Override
 	public int hashCode() {
@@ -134,6 +166,7 @@ public class Result implements Serializable {
 		result = prime * result + ((protodomain == null) ? 0 : protodomain.hashCode());
 		result = prime * result + ((rank == null) ? 0 : rank.hashCode());
 		result = prime * result + ((scopId == null) ? 0 : scopId.hashCode());
+		result = prime * result + ((status == null) ? 0 : status.hashCode());
 		result = prime * result + ((sunId == null) ? 0 : sunId.hashCode());
 		return result;
 	}
@@ -196,6 +229,11 @@ public class Result implements Serializable {
 				return false;
 		} else if (!scopId.equals(other.scopId))
 			return false;
+		if (status == null) {
+			if (other.status != null)
+				return false;
+		} else if (!status.equals(other.status))
+			return false;
 		if (sunId == null) {
 			if (other.sunId != null)
 				return false;
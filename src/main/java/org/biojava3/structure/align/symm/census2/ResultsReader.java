@@ -0,0 +1,128 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the {@link Result Results} of a census XML file one at a time, so that a census can be processed without
+ * holding all of it in memory as {@link Results#fromXML(File)} does. Not thread-safe.
+ * 
+ * @author dmyerstu
+ */
+public class ResultsReader implements Closeable {
+
+	private static JAXBContext jaxbContext;
+
+	private static final String RESULT_ELEMENT = "data";
+
+	private static final String TIMESTAMP_ELEMENT = "timestamp";
+
+	static {
+		try {
+			jaxbContext = JAXBContext.newInstance(Result.class);
+		} catch (JAXBException e) {
+			throw new RuntimeException(e); // fatal
+		}
+	}
+
+	private final InputStream is;
+
+	private final XMLStreamReader reader;
+
+	private String timestamp;
+
+	private final Unmarshaller unmarshaller;
+
+	public ResultsReader(File file) throws IOException {
+		is = new BufferedInputStream(new FileInputStream(file));
+		try {
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			unmarshaller = jaxbContext.createUnmarshaller();
+		} catch (XMLStreamException e) {
+			is.close();
+			throw new IOException("Could not read " + file, e);
+		} catch (JAXBException e) {
+			is.close();
+			throw new IOException("Could not read " + file, e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return The timestamp of the census, once {@link #next()} has reached it (it follows the results); otherwise
+	 *         null
+	 */
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The next Result, or null at the end of the file
+	 */
+	public Result next() throws IOException {
+		try {
+			while (reader.hasNext()) {
+				if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals(RESULT_ELEMENT)) {
+						// leaves the reader just after the element
+						return unmarshaller.unmarshal(reader, Result.class).getValue();
+					}
+					if (name.equals(TIMESTAMP_ELEMENT)) {
+						timestamp = reader.getElementText();
+						continue;
+					}
+				}
+				reader.next();
+			}
+			return null;
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} catch (JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The shared directory through which a {@link ShardedCensus} coordinator and its {@link ShardWorker workers}
+ * communicate. It can be on a local disk or on a file system shared by several machines.
+ * 
+ * <p>
+ * For each shard {@code i}, the directory holds:
+ * <ul>
+ * <li>{@code shard-i.txt}, the SCOP ids of its domains, one per line</li>
+ * <li>{@code shard-i.claim}, while a worker holds the shard; it contains the worker's id, and the worker touches it
+ * regularly as a heartbeat. It is created atomically, so only one worker can claim a shard, and only the worker it
+ * names may release it or mark the shard done.</li>
+ * <li>{@code shard-i.xml} and its {@link CensusCheckpoint checkpoint}, the worker's results</li>
+ * <li>{@code shard-i.done} once the results are complete, or {@code shard-i.failed} if the coordinator gave up</li>
+ * <li>{@code shard-i.log}, the output of a worker process started by the coordinator</li>
+ * </ul>
+ * 
+ * @author dmyerstu
+ */
+public class ShardDirectory {
+
+	private static final Logger logger = LogManager.getLogger(ShardDirectory.class.getPackage().getName());
+
+	private final File dir;
+
+	public ShardDirectory(File dir) {
+		this.dir = dir;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Splits {@code scopIds} into {@code nShards} contiguous shards of nearly equal size, and writes them. Domains
+	 * that are next to each other in SCOP often come from the same PDB entry, so contiguous shards let each worker
+	 * reuse what it has loaded.
+	 * 
+	 * @return The number of shards written, which is less than {@code nShards} if there are fewer domains
+	 * @throws IllegalStateException
+	 *             If the directory already has shards
+	 */
+	public int create(List<String> scopIds, int nShards) throws IOException {
+		if (nShards < 1) throw new IllegalArgumentException("Need at least one shard");
+		if (getShardCount() > 0) throw new IllegalStateException(dir.getPath() + " already has shards");
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getPath());
+		nShards = Math.max(1, Math.min(nShards, scopIds.size()));
+		int start = 0;
+		for (int shard = 0; shard < nShards; shard++) {
+			final int end = (int) ((long) scopIds.size() * (shard + 1) / nShards);
+			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(getNamesFile(shard))));
+			try {
+				for (String scopId : scopIds.subList(start, end)) {
+					out.println(scopId);
+				}
+			} finally {
+				out.close();
+			}
+			start = end;
+		}
+		return nShards;
+	}
+
+	/**
+	 * @return The number of shards, which are numbered from 0
+	 */
+	public int getShardCount() {
+		int n = 0;
+		while (getNamesFile(n).exists()) {
+			n++;
+		}
+		return n;
+	}
+
+	public List<String> getScopIds(int shard) throws IOException {
+		List<String> scopIds = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(getNamesFile(shard)));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (!line.trim().isEmpty()) scopIds.add(line.trim());
+			}
+		} finally {
+			br.close();
+		}
+		return scopIds;
+	}
+
+	/**
+	 * Claims {@code shard} for {@code workerId}, unless it is already claimed, done, or failed.
+	 * 
+	 * @return Whether the claim succeeded
+	 */
+	public boolean claim(int shard, String workerId) throws IOException {
+		if (isDone(shard) || isFailed(shard)) return false;
+		File claim = getClaimFile(shard);
+		if (!claim.createNewFile()) return false;
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(claim)));
+		try {
+			out.println(workerId);
+		} finally {
+			out.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Claims the first shard that is neither claimed, done, nor failed.
+	 * 
+	 * @return The shard, or null if there is none
+	 */
+	public Integer claimNext(String workerId) throws IOException {
+		final int n = getShardCount();
+		for (int shard = 0; shard < n; shard++) {
+			if (claim(shard, workerId)) return shard;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The id of the worker holding {@code shard}, or null if it is not claimed
+	 */
+	public String getClaimant(int shard) {
+		File claim = getClaimFile(shard);
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(claim));
+			try {
+				String line = br.readLine();
+				return line == null ? "" : line.trim(); // empty while the claim is being written
+			} finally {
+				br.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Whether {@code shard} is still claimed by {@code workerId}
+	 */
+	public boolean holdsClaim(int shard, String workerId) {
+		return workerId.equals(getClaimant(shard));
+	}
+
+	/**
+	 * Records that {@code workerId} is alive, if it still holds {@code shard}.
+	 * 
+	 * @return Whether the claim is still held by {@code workerId}; if not, the worker must stop writing to the shard
+	 */
+	public boolean heartbeat(int shard, String workerId) {
+		if (!holdsClaim(shard, workerId)) return false;
+		if (!getClaimFile(shard).setLastModified(System.currentTimeMillis())) {
+			logger.warn("Could not touch the claim on shard " + shard);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The time since the last heartbeat on {@code shard} in milliseconds, or null if it is not claimed
+	 */
+	public Long getClaimAge(int shard) {
+		File claim = getClaimFile(shard);
+		long modified = claim.lastModified();
+		if (modified == 0) return null;
+		return System.currentTimeMillis() - modified;
+	}
+
+	/**
+	 * @return The claimed shards whose last heartbeat is older than {@code maxAge} milliseconds
+	 */
+	public List<Integer> getStaleClaims(long maxAge) {
+		List<Integer> stale = new ArrayList<Integer>();
+		final int n = getShardCount();
+		for (int shard = 0; shard < n; shard++) {
+			Long age = getClaimAge(shard);
+			if (age != null && age > maxAge && !isDone(shard)) stale.add(shard);
+		}
+		return stale;
+	}
+
+	/**
+	 * Gives up the claim that {@code workerId} holds on {@code shard}, so that another worker can take it. Its results
+	 * so far are kept, and the next worker resumes from them. A claim held by any other worker is left alone.
+	 * 
+	 * <p>
+	 * The file system has no atomic compare-and-delete, so this only narrows the window in which a claim that was
+	 * just taken over could be deleted; claims are only taken over once they have been stale for much longer than it.
+	 * 
+	 * @return Whether the claim was held by {@code workerId}
+	 */
+	public boolean release(int shard, String workerId) {
+		if (!holdsClaim(shard, workerId)) {
+			logger.warn("Not releasing shard " + shard + ", which is no longer claimed by " + workerId);
+			return false;
+		}
+		File claim = getClaimFile(shard);
+		if (!claim.delete()) logger.warn("Could not release the claim on shard " + shard);
+		return true;
+	}
+
+	/**
+	 * Marks {@code shard} done and releases it, if it is still claimed by {@code workerId}.
+	 * 
+	 * @return Whether the claim was held by {@code workerId}
+	 */
+	public boolean markDone(int shard, String workerId) throws IOException {
+		if (!holdsClaim(shard, workerId)) {
+			logger.warn("Not marking shard " + shard + " done, since it is no longer claimed by " + workerId);
+			return false;
+		}
+		if (!getDoneFile(shard).createNewFile()) logger.debug("Shard " + shard + " was already done");
+		return release(shard, workerId);
+	}
+
+	/**
+	 * Marks {@code shard} failed and releases it, if it is still claimed by {@code workerId}.
+	 * 
+	 * @return Whether the claim was held by {@code workerId}
+	 */
+	public boolean markFailed(int shard, String workerId) throws IOException {
+		if (!holdsClaim(shard, workerId)) {
+			logger.warn("Not marking shard " + shard + " failed, since it is no longer claimed by " + workerId);
+			return false;
+		}
+		if (!getFailedFile(shard).createNewFile()) logger.debug("Shard " + shard + " had already failed");
+		return release(shard, workerId);
+	}
+
+	public boolean isClaimed(int shard) {
+		return getClaimFile(shard).exists();
+	}
+
+	public boolean isDone(int shard) {
+		return getDoneFile(shard).exists();
+	}
+
+	public boolean isFailed(int shard) {
+		return getFailedFile(shard).exists();
+	}
+
+	/**
+	 * @return Whether every shard is done or has failed
+	 */
+	public boolean isFinished() {
+		final int n = getShardCount();
+		for (int shard = 0; shard < n; shard++) {
+			if (!isDone(shard) && !isFailed(shard)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the results of every shard, including the partial results of shards that are unfinished or failed, into
+	 * {@code into}. Where several results have the same SCOP id, a result that completed is preferred over one that
+	 * {@link Census#isFailed(Result) failed}, and otherwise the first one is kept.
+	 * 
+	 * @return The number of results merged from the shards, before removing duplicates
+	 */
+	public int merge(Results into) throws IOException {
+		Map<String, Result> byScopId = new LinkedHashMap<String, Result>();
+		for (Result result : into.getData()) {
+			put(byScopId, result);
+		}
+		int nMerged = 0;
+		final int n = getShardCount();
+		for (int shard = 0; shard < n; shard++) {
+			File results = getResultsFile(shard);
+			if (results.exists()) {
+				for (Result result : Results.fromXML(results).getData()) {
+					put(byScopId, result);
+					nMerged++;
+				}
+			}
+			for (Result result : new CensusCheckpoint(CensusCheckpoint.forCensusFile(results)).read()) {
+				put(byScopId, result);
+				nMerged++;
+			}
+		}
+		into.setData(new ArrayList<Result>(byScopId.values()));
+		return nMerged;
+	}
+
+	private static void put(Map<String, Result> byScopId, Result result) {
+		if (result == null || result.getScopId() == null) return;
+		Result existing = byScopId.get(result.getScopId());
+		if (existing == null || Census.isFailed(existing) && !Census.isFailed(result)) {
+			byScopId.put(result.getScopId(), result);
+		}
+	}
+
+	public File getNamesFile(int shard) {
+		return file(shard, ".txt");
+	}
+
+	public File getResultsFile(int shard) {
+		return file(shard, ".xml");
+	}
+
+	public File getLogFile(int shard) {
+		return file(shard, ".log");
+	}
+
+	private File getClaimFile(int shard) {
+		return file(shard, ".claim");
+	}
+
+	private File getDoneFile(int shard) {
+		return file(shard, ".done");
+	}
+
+	private File getFailedFile(int shard) {
+		return file(shard, ".failed");
+	}
+
+	private File file(int shard, String extension) {
+		return new File(dir, String.format("shard-%04d%s", shard, extension));
+	}
+
+}
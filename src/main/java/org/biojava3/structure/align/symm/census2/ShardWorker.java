@@ -0,0 +1,161 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biojava.bio.structure.align.util.AtomCache;
+import org.biojava.bio.structure.scop.ScopDatabase;
+import org.biojava.bio.structure.scop.ScopDomain;
+import org.biojava.bio.structure.scop.ScopFactory;
+
+/**
+ * Runs the census on one shard of a {@link ShardedCensus}, in its own JVM. The shard must already be claimed for this
+ * worker's id in the {@link ShardDirectory}. The worker touches the claim as a heartbeat while it runs, writes its
+ * results next to the shard (resuming from any earlier partial results), and marks the shard done. If the claim is
+ * taken from it (because its heartbeat was late), it stops before writing anything more.
+ * 
+ * <p>
+ * Exits with status 0 if the shard is done, 1 if the census failed, 2 if the shard is not claimed by this worker, and
+ * 3 if the worker lost its claim while running.
+ * 
+ * @author dmyerstu
+ */
+public class ShardWorker {
+
+	private static final Logger logger = LogManager.getLogger(ShardWorker.class.getPackage().getName());
+
+	/**
+	 * How often the worker touches its claim, in milliseconds.
+	 */
+	public static final long HEARTBEAT_INTERVAL = 30 * 1000;
+
+	/**
+	 * Usage: {@code ShardWorker work-dir shard worker-id threads pdb-dir|- [significance-method]}
+	 */
+	public static void main(String[] args) {
+		if (args.length != 5 && args.length != 6) {
+			System.err.println("Usage: " + ShardWorker.class.getSimpleName()
+					+ " work-dir shard worker-id threads pdb-dir|- [significance-method]");
+			System.exit(-1);
+		}
+		ShardDirectory shards = new ShardDirectory(new File(args[0]));
+		final int shard = Integer.parseInt(args[1]);
+		final String workerId = args[2];
+		final int nThreads = Integer.parseInt(args[3]);
+		final String pdbDir = args[4].equals("-") ? null : args[4];
+		final String sigMethod = args.length > 5 ? args[5] : null;
+
+		if (!workerId.equals(shards.getClaimant(shard))) {
+			logger.error("Shard " + shard + " is not claimed by " + workerId);
+			System.exit(2);
+		}
+		AtomCache cache = pdbDir == null ? new AtomCache() : new AtomCache(pdbDir, false);
+		Significance sig = sigMethod == null ? null : SignificanceFactory.fromExpression(sigMethod);
+		try {
+			run(shards, shard, workerId, nThreads, cache, sig);
+		} catch (Exception e) {
+			if (!shards.holdsClaim(shard, workerId)) {
+				logger.error("Stopped shard " + shard + " because " + workerId + " no longer holds it", e);
+				System.exit(3);
+			}
+			logger.fatal("Shard " + shard + " failed", e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Runs the census on the domains of {@code shard}, and marks it done.
+	 * 
+	 * @throws IllegalStateException
+	 *             If {@code workerId} loses its claim on the shard; no results are written after that
+	 * 
+	 * @param significance
+	 *            Null for the {@link Census#getDefaultSignificance() default}
+	 */
+	public static void run(final ShardDirectory shards, final int shard, final String workerId, int nThreads,
+			AtomCache cache, final Significance significance) throws Exception {
+
+		ScopDatabase scop = ScopFactory.getSCOP();
+		final List<ScopDomain> domains = new ArrayList<ScopDomain>();
+		for (String scopId : shards.getScopIds(shard)) {
+			ScopDomain domain = scop.getDomainByScopID(scopId);
+			if (domain == null) {
+				logger.error("No SCOP domain with id " + scopId + " was found");
+			} else {
+				domains.add(domain);
+			}
+		}
+		logger.info("Running shard " + shard + " with " + domains.size() + " domains");
+
+		Thread heartbeat = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (shards.heartbeat(shard, workerId)) {
+						Thread.sleep(HEARTBEAT_INTERVAL);
+					}
+					logger.error(workerId + " lost its claim on shard " + shard);
+				} catch (InterruptedException e) {
+					// the shard is finished
+				}
+			}
+		}, "shard-heartbeat");
+		heartbeat.setDaemon(true);
+		heartbeat.start();
+
+		try {
+			Census census = new Census(nThreads) {
+				@Override
+				protected List<ScopDomain> getDomains() {
+					return domains;
+				}
+
+				@Override
+				protected Significance getSignificance() {
+					return significance == null ? super.getSignificance() : significance;
+				}
+
+				@Override
+				protected void beforeWrite() {
+					if (!shards.holdsClaim(shard, workerId)) {
+						throw new IllegalStateException(workerId + " no longer holds shard " + shard);
+					}
+				}
+			};
+			census.setOutputWriter(shards.getResultsFile(shard));
+			census.setCache(cache);
+			census.run();
+			if (!shards.markDone(shard, workerId)) {
+				throw new IllegalStateException(workerId + " no longer holds shard " + shard);
+			}
+			logger.info("Finished shard " + shard);
+		} finally {
+			heartbeat.interrupt();
+		}
+	}
+
+}
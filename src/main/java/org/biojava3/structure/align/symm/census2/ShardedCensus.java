@@ -0,0 +1,509 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biojava.bio.structure.scop.ScopCategory;
+import org.biojava.bio.structure.scop.ScopDatabase;
+import org.biojava.bio.structure.scop.ScopDescription;
+import org.biojava.bio.structure.scop.ScopDomain;
+import org.biojava.bio.structure.scop.ScopFactory;
+
+/**
+ * Runs the census as a set of shards, each in its own {@link ShardWorker} JVM, and merges their results into one census
+ * file.
+ * 
+ * <p>
+ * The coordinator splits the domains into a {@link ShardDirectory}, then keeps up to {@code nWorkers} worker processes
+ * running, each on a shard it has claimed. A worker that exits without finishing its shard, or whose heartbeat stops,
+ * gives the shard back; the next worker resumes from its partial results. A shard that fails {@code maxAttempts} times
+ * is marked failed and left out, rather than holding up the rest of the census.
+ * 
+ * <p>
+ * Workers on other machines can share the work if the directory is on a shared file system: start a coordinator with
+ * {@code -join} there, which runs workers on unclaimed shards but neither creates shards nor merges. Only the
+ * coordinator that created the shards releases stale claims held by other machines. Attempt counts are kept in memory,
+ * so they start over if the coordinator is restarted; shards that are done are never rerun.
+ * 
+ * @author dmyerstu
+ */
+public class ShardedCensus {
+
+	private static final Logger logger = LogManager.getLogger(ShardedCensus.class.getPackage().getName());
+
+	private static final AtomicInteger workerCount = new AtomicInteger(0);
+
+	private final ShardDirectory shards;
+
+	private final int nWorkers;
+	private int threadsPerWorker = 1;
+	private String pdbDir;
+	private String sigMethod;
+	private List<String> jvmArgs = new ArrayList<String>();
+
+	private long staleAfter = 10 * 60 * 1000;
+	private int maxAttempts = 3;
+	private long pollInterval = 5000;
+	private boolean coordinating = true;
+
+	private final Map<Integer, Process> running = new HashMap<Integer, Process>();
+	private final Map<Integer, String> runningIds = new HashMap<Integer, String>();
+	private final Map<Integer, Integer> attempts = new HashMap<Integer, Integer>();
+
+	public ShardedCensus(File dir, int nWorkers) {
+		if (nWorkers < 1) throw new IllegalArgumentException("Need at least one worker");
+		this.shards = new ShardDirectory(dir);
+		this.nWorkers = nWorkers;
+	}
+
+	public static void main(String[] args) {
+
+		Options options = getOptions();
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			printUsage(options);
+			return;
+		}
+
+		try {
+
+			ScopFactory.setScopDatabase(ScopFactory.getSCOP(ScopFactory.VERSION_1_75A));
+
+			final File dir = new File(cmd.getOptionValue("dir"));
+			final int nWorkers = cmd.getOptionValue("workers") == null ? Math.max(1, Runtime.getRuntime()
+					.availableProcessors() / 2) : Integer.parseInt(cmd.getOptionValue("workers"));
+			final int nShards = cmd.getOptionValue("shards") == null ? nWorkers * 8 : Integer.parseInt(cmd
+					.getOptionValue("shards"));
+			final File output = cmd.getOptionValue("file") == null ? null : new File(cmd.getOptionValue("file"));
+			final boolean join = cmd.hasOption("join");
+
+			ShardedCensus census = new ShardedCensus(dir, nWorkers);
+			census.setCoordinating(!join);
+			if (cmd.getOptionValue("threads") != null) {
+				census.setThreadsPerWorker(Integer.parseInt(cmd.getOptionValue("threads")));
+			}
+			census.setPdbDir(cmd.getOptionValue("pdb"));
+			census.setSigMethod(cmd.getOptionValue("sigmethod"));
+			if (cmd.getOptionValue("jvmargs") != null) {
+				for (String arg : cmd.getOptionValue("jvmargs").trim().split("\\s+")) {
+					if (!arg.isEmpty()) census.getJvmArgs().add(arg);
+				}
+			}
+			if (cmd.getOptionValue("stale") != null) {
+				census.setStaleAfter(Long.parseLong(cmd.getOptionValue("stale")) * 1000);
+			}
+			if (cmd.getOptionValue("attempts") != null) {
+				census.setMaxAttempts(Integer.parseInt(cmd.getOptionValue("attempts")));
+			}
+
+			if (!join && census.getShards().getShardCount() == 0) {
+				List<String> scopIds = cmd.getOptionValue("names") == null ? getAllScopIds() : readScopIds(new File(
+						cmd.getOptionValue("names")));
+				if (output != null && output.exists()) {
+					Set<String> known = new HashSet<String>();
+					for (Result result : Results.fromXML(output).getData()) {
+						known.add(result.getScopId());
+					}
+					Iterator<String> iter = scopIds.iterator();
+					while (iter.hasNext()) {
+						if (known.contains(iter.next())) iter.remove();
+					}
+				}
+				int n = census.shard(scopIds, nShards);
+				logger.info("Split " + scopIds.size() + " domains into " + n + " shards in " + dir.getPath());
+			}
+
+			census.dispatch();
+
+			if (!join && output != null) {
+				census.merge(output);
+			}
+
+		} catch (RuntimeException e) {
+			logger.fatal(e.getMessage(), e);
+		} catch (Exception e) {
+			logger.fatal(e.getMessage(), e);
+		}
+
+	}
+
+	/**
+	 * @return The SCOP ids of every domain in a superfamily that has its ranges defined, in SCOP order
+	 */
+	public static List<String> getAllScopIds() {
+		List<String> scopIds = new ArrayList<String>();
+		ScopDatabase scop = ScopFactory.getSCOP();
+		for (ScopDescription superfamily : scop.getByCategory(ScopCategory.Superfamily)) {
+			for (ScopDomain domain : scop.getScopDomainsBySunid(superfamily.getSunID())) {
+				if (domain.getRanges() != null && !domain.getRanges().isEmpty()) scopIds.add(domain.getScopId());
+			}
+		}
+		return scopIds;
+	}
+
+	private static List<String> readScopIds(File file) throws IOException {
+		List<String> scopIds = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (!line.trim().isEmpty()) scopIds.add(line.trim());
+			}
+		} finally {
+			br.close();
+		}
+		return scopIds;
+	}
+
+	/**
+	 * Splits {@code scopIds} into shards; see {@link ShardDirectory#create(List, int)}.
+	 */
+	public int shard(List<String> scopIds, int nShards) throws IOException {
+		return shards.create(scopIds, nShards);
+	}
+
+	/**
+	 * Runs workers on the shards until every shard is done or failed (or, when not {@link #setCoordinating(boolean)
+	 * coordinating}, until there is no shard left to claim), and waits for them to exit.
+	 */
+	public void dispatch() throws IOException, InterruptedException {
+
+		logger.info("Dispatching " + shards.getShardCount() + " shards to " + nWorkers + " workers");
+
+		while (true) {
+
+			// reap workers that have exited
+			Iterator<Map.Entry<Integer, Process>> iter = running.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<Integer, Process> entry = iter.next();
+				final int shard = entry.getKey();
+				Integer exit = exitValue(entry.getValue());
+				if (exit == null) continue;
+				iter.remove();
+				final String workerId = runningIds.remove(shard);
+				if (shards.isDone(shard)) {
+					logger.info("Shard " + shard + " is done");
+				} else {
+					logger.warn("The worker on shard " + shard + " exited with status " + exit
+							+ " before finishing; see " + shards.getLogFile(shard).getPath());
+					fail(shard, workerId);
+				}
+			}
+
+			// kill local workers that have stopped responding; they are reaped on the next pass
+			for (Map.Entry<Integer, Process> entry : running.entrySet()) {
+				Long age = shards.getClaimAge(entry.getKey());
+				if (age != null && age > staleAfter) {
+					logger.warn("The worker on shard " + entry.getKey() + " has not responded in " + age / 1000
+							+ "s; stopping it");
+					entry.getValue().destroy();
+				}
+			}
+
+			// claims held by workers elsewhere; only the coordinator that created the shards takes these back
+			if (coordinating) {
+				for (int shard : shards.getStaleClaims(staleAfter)) {
+					if (running.containsKey(shard)) continue;
+					final String claimant = shards.getClaimant(shard);
+					if (claimant == null) continue; // released since
+					logger.warn("The claim by " + claimant + " on shard " + shard + " is stale");
+					fail(shard, claimant);
+				}
+			}
+
+			// fill the free slots
+			boolean exhausted = false;
+			while (running.size() < nWorkers) {
+				final String workerId = newWorkerId();
+				Integer shard = shards.claimNext(workerId);
+				if (shard == null) {
+					exhausted = true;
+					break;
+				}
+				logger.info("Starting " + workerId + " on shard " + shard);
+				try {
+					running.put(shard, launch(shard, workerId));
+					runningIds.put(shard, workerId);
+				} catch (IOException e) {
+					logger.error("Could not start a worker on shard " + shard, e);
+					fail(shard, workerId);
+				}
+			}
+
+			if (running.isEmpty() && (exhausted && !coordinating || shards.isFinished())) break;
+
+			Thread.sleep(pollInterval);
+		}
+
+		logger.info("No shards left to run");
+	}
+
+	/**
+	 * Releases {@code shard} after a failed attempt by {@code workerId}, or marks it failed if it has used up its
+	 * attempts. Does nothing if the shard is no longer claimed by {@code workerId}, since another worker has taken it.
+	 */
+	private void fail(int shard, String workerId) throws IOException {
+		if (!shards.holdsClaim(shard, workerId)) {
+			logger.info("Shard " + shard + " is no longer claimed by " + workerId + "; leaving it");
+			return;
+		}
+		Integer n = attempts.get(shard);
+		n = n == null ? 1 : n + 1;
+		attempts.put(shard, n);
+		if (n >= maxAttempts) {
+			logger.error("Giving up on shard " + shard + " after " + n + " attempts");
+			shards.markFailed(shard, workerId);
+		} else {
+			shards.release(shard, workerId);
+		}
+	}
+
+	private static Integer exitValue(Process process) {
+		try {
+			return process.exitValue();
+		} catch (IllegalThreadStateException e) {
+			return null; // still running
+		}
+	}
+
+	private static String newWorkerId() {
+		return ManagementFactory.getRuntimeMXBean().getName() + "#" + workerCount.incrementAndGet();
+	}
+
+	/**
+	 * Starts a {@link ShardWorker} JVM on {@code shard}, which must already be claimed for {@code workerId}. The
+	 * worker uses the same Java installation and classpath as this JVM, and its output goes to the shard's log.
+	 */
+	protected Process launch(int shard, String workerId) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.addAll(jvmArgs);
+		command.add(ShardWorker.class.getName());
+		command.add(shards.getDirectory().getPath());
+		command.add(String.valueOf(shard));
+		command.add(workerId);
+		command.add(String.valueOf(threadsPerWorker));
+		command.add(pdbDir == null ? "-" : pdbDir);
+		if (sigMethod != null) command.add(sigMethod);
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		Process process = pb.start();
+		process.getOutputStream().close();
+		copyInBackground(process.getInputStream(), new FileOutputStream(shards.getLogFile(shard), true),
+				"shard-" + shard + "-log");
+		return process;
+	}
+
+	private static void copyInBackground(final InputStream in, final OutputStream out, String name) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[8192];
+				try {
+					int n;
+					while ((n = in.read(buffer)) != -1) {
+						out.write(buffer, 0, n);
+					}
+				} catch (IOException e) {
+					logger.warn("Lost worker output", e);
+				} finally {
+					try {
+						out.close();
+					} catch (IOException e) {
+						logger.warn("Could not close worker log", e);
+					}
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Merges the results of every shard into {@code output}, keeping the results already there.
+	 */
+	public void merge(File output) throws IOException {
+		Results results = output.exists() ? Results.fromXML(output) : new Results();
+		final int before = results.getData().size();
+		final int nMerged = shards.merge(results);
+		PrintWriter out = new PrintWriter(output);
+		try {
+			out.print(results.toXML());
+		} finally {
+			out.close();
+		}
+		logger.info("Merged " + nMerged + " shard results into " + output.getPath() + ", which now has "
+				+ results.getData().size() + " results (" + (results.getData().size() - before) + " new)");
+	}
+
+	private static Options getOptions() {
+		Options options = new Options();
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("The shared directory that holds the shards and their results.").isRequired(true)
+				.create("dir"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("The number of shards to create. Defaults to 8 per worker.").isRequired(false)
+				.create("shards"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("The number of worker JVMs to run at once. Defaults to half the number of cores.")
+				.isRequired(false).create("workers"));
+		options.addOption(OptionBuilder.hasArg(true).withDescription("The number of threads in each worker.")
+				.isRequired(false).create("threads"));
+		options.addOption(OptionBuilder.hasArg(true).withDescription("PDB files directory").isRequired(false)
+				.create("pdb"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Merge the results into this census file. Domains already in it are not run.")
+				.isRequired(false).create("file"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("A file of SCOP ids, one per line. Defaults to every domain in SCOP.")
+				.isRequired(false).create("names"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("A Significance factory method or expression, as in the census CLI.")
+				.isRequired(false).create("sigmethod"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Space-separated arguments for the worker JVMs, such as \"-Xmx4g\".")
+				.isRequired(false).create("jvmargs"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("Seconds without a heartbeat before a worker is considered dead. Defaults to 600.")
+				.isRequired(false).create("stale"));
+		options.addOption(OptionBuilder.hasArg(true)
+				.withDescription("The number of times to try a shard before marking it failed. Defaults to 3.")
+				.isRequired(false).create("attempts"));
+		options.addOption(OptionBuilder.hasArg(false)
+				.withDescription("Only run workers on unclaimed shards in an existing directory; do not merge.")
+				.isRequired(false).create("join"));
+		return options;
+	}
+
+	private static void printUsage(Options options) {
+		HelpFormatter hf = new HelpFormatter();
+		hf.printHelp("java " + ShardedCensus.class.getName(), options);
+	}
+
+	public ShardDirectory getShards() {
+		return shards;
+	}
+
+	public int getThreadsPerWorker() {
+		return threadsPerWorker;
+	}
+
+	public void setThreadsPerWorker(int threadsPerWorker) {
+		this.threadsPerWorker = threadsPerWorker;
+	}
+
+	public String getPdbDir() {
+		return pdbDir;
+	}
+
+	public void setPdbDir(String pdbDir) {
+		this.pdbDir = pdbDir;
+	}
+
+	public String getSigMethod() {
+		return sigMethod;
+	}
+
+	public void setSigMethod(String sigMethod) {
+		this.sigMethod = sigMethod;
+	}
+
+	public List<String> getJvmArgs() {
+		return jvmArgs;
+	}
+
+	public void setJvmArgs(List<String> jvmArgs) {
+		this.jvmArgs = jvmArgs;
+	}
+
+	public long getStaleAfter() {
+		return staleAfter;
+	}
+
+	/**
+	 * @param staleAfter
+	 *            Milliseconds without a heartbeat before a worker is considered dead. Should be well above
+	 *            {@link ShardWorker#HEARTBEAT_INTERVAL}.
+	 */
+	public void setStaleAfter(long staleAfter) {
+		this.staleAfter = staleAfter;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	public boolean isCoordinating() {
+		return coordinating;
+	}
+
+	/**
+	 * @param coordinating
+	 *            False to only run workers on unclaimed shards, as on a second machine
+	 */
+	public void setCoordinating(boolean coordinating) {
+		this.coordinating = coordinating;
+	}
+
+}
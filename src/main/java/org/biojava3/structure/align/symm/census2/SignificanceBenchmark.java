@@ -0,0 +1,188 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the speed of the {@link SignificanceFactory} objects with their compiled {@link SignificanceExpression}
+ * equivalents over a census, and checks that they agree. Results for which the factory object throws an exception are
+ * counted separately and excluded from the comparison.
+ * 
+ * @author dmyerstu
+ */
+public class SignificanceBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+
+	/**
+	 * The calls that returned true in all of the timings. {@link #main(String[])} prints it, so that the JIT cannot
+	 * drop the calls being timed.
+	 */
+	private static long nSignificantCalls = 0;
+
+	private static final String[] DEFAULT_NAMES = { "forCensus", "rotationallySymmetric", "conservative",
+			"rotationallySymmetricWithAngle", "rotationallySymmetricSmart", "notRotationallySymmetricSmart", "bin2",
+			"asymmetric" };
+
+	/**
+	 * Creates {@code n} random results, a few of them with missing fields.
+	 */
+	public static List<Result> randomResults(int n, long seed) {
+		Random random = new Random(seed);
+		List<Result> results = new ArrayList<Result>(n);
+		for (int i = 0; i < n; i++) {
+			Result result = new Result();
+			result.setScopId("d" + i);
+			if (random.nextInt(50) != 0) {
+				Alignment alignment = new Alignment();
+				alignment.setTmScore(random.nextFloat());
+				alignment.setzScore(random.nextFloat() * 12);
+				alignment.setRmsd(random.nextFloat() * 5);
+				result.setAlignment(alignment);
+			}
+			if (random.nextInt(20) != 0) result.setOrder(1 + random.nextInt(8));
+			if (random.nextInt(20) != 0) {
+				Axis axis = new Axis();
+				axis.setTheta((float) (random.nextFloat() * Math.PI));
+				result.setAxis(axis);
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * Usage: {@code SignificanceBenchmark census-file|number-of-random-results [rounds] [method-name...]}
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: " + SignificanceBenchmark.class.getSimpleName()
+					+ " census-file|number-of-random-results [rounds] [method-name...]");
+			return;
+		}
+		List<Result> results;
+		if (args[0].matches("\\d+")) {
+			results = randomResults(Integer.parseInt(args[0]), 0);
+		} else {
+			results = Results.fromXML(new File(args[0])).getData();
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		String[] names = DEFAULT_NAMES;
+		if (args.length > 2) {
+			names = new String[args.length - 2];
+			System.arraycopy(args, 2, names, 0, names.length);
+		}
+		System.out.println("method\tfactory (ns/result)\tcompiled (ns/result)\tspeedup\tdisagreements\tfactory errors");
+		List<Significance> factories = new ArrayList<Significance>();
+		List<Significance> compiled = new ArrayList<Significance>();
+		for (String name : names) {
+			factories.add(SignificanceFactory.fromMethod(null, name));
+			compiled.add(SignificanceExpression.compile(name));
+			System.out.println(compare(name, factories.get(factories.size() - 1), compiled.get(compiled.size() - 1),
+					results, rounds));
+		}
+		// a sweep calls every definition from the same place, which is where the factory objects suffer most
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			time(factories, results, 1);
+			time(compiled, results, 1);
+		}
+		double factoryNanos = time(factories, results, rounds);
+		double compiledNanos = time(compiled, results, rounds);
+		System.out.println(String.format("all, as in a sweep\t%.1f\t%.1f\t%.2f", factoryNanos, compiledNanos,
+				factoryNanos / compiledNanos));
+		System.out.println("significant in all timings: " + getSignificantCalls());
+	}
+
+	/**
+	 * @return The number of calls to {@link Significance#isSignificant(Result)} that returned true in all of the
+	 *         timings so far
+	 */
+	public static long getSignificantCalls() {
+		return nSignificantCalls;
+	}
+
+	/**
+	 * Times {@code factory} and {@code compiled} over {@code results}, and counts the results on which they disagree.
+	 * 
+	 * @return A tab-delimited line of the form printed by {@link #main(String[])}
+	 */
+	public static String compare(String name, Significance factory, Significance compiled, List<Result> results,
+			int rounds) {
+		int errors = 0;
+		int disagreements = 0;
+		for (Result result : results) {
+			boolean expected;
+			try {
+				expected = factory.isSignificant(result);
+			} catch (RuntimeException e) {
+				errors++;
+				continue;
+			}
+			if (expected != compiled.isSignificant(result)) disagreements++;
+		}
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			time(factory, results, 1);
+			time(compiled, results, 1);
+		}
+		double factoryNanos = time(factory, results, rounds);
+		double compiledNanos = time(compiled, results, rounds);
+		return String.format("%s\t%.1f\t%.1f\t%.2f\t%d\t%d", name, factoryNanos, compiledNanos, factoryNanos
+				/ compiledNanos, disagreements, errors);
+	}
+
+	/**
+	 * @return The mean time in nanoseconds to call {@link Significance#isSignificant(Result)} on one result
+	 */
+	public static double time(Significance sig, List<Result> results, int rounds) {
+		List<Significance> sigs = new ArrayList<Significance>(1);
+		sigs.add(sig);
+		return time(sigs, results, rounds);
+	}
+
+	/**
+	 * @return The mean time in nanoseconds to call {@link Significance#isSignificant(Result)} for each of
+	 *         {@code sigs} on one result
+	 */
+	public static double time(List<Significance> sigs, List<Result> results, int rounds) {
+		long nSignificant = 0;
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (Result result : results) {
+				for (Significance sig : sigs) {
+					try {
+						if (sig.isSignificant(result)) nSignificant++;
+					} catch (RuntimeException e) {
+						// the factory objects throw on missing values
+					}
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		nSignificantCalls += nSignificant;
+		return (double) elapsed / ((long) rounds * Math.max(1, results.size()));
+	}
+
+}
@@ -0,0 +1,735 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biojava.bio.structure.align.model.AFPChain;
+import org.biojava.bio.structure.align.util.RotationAxis;
+import org.biojava3.structure.align.symm.protodomain.Protodomain;
+
+/**
+ * A {@link Significance} compiled from a boolean expression over the fields of a {@link Result}, such as
+ * {@code "tm >= 0.4 & order >= 2"} or {@code "rotationallySymmetric(0.5, 3.1416) | zScore(8)"}.
+ * 
+ * <p>
+ * The expression is parsed once and flattened into a list of range tests {@code low <= field <= high}, each of which
+ * names the test to evaluate next if it is true and if it is false (so {@code &} and {@code |} short-circuit, and
+ * {@code !} costs nothing). {@link #isSignificant(Result)} follows this list in a single loop over the primitive values of the result's
+ * fields. This avoids the chains of nested anonymous classes built by
+ * {@link SignificanceFactory#and(Significance, Significance)} and friends, which are slow to call over hundreds of
+ * thousands of results.
+ * 
+ * <p>
+ * Syntax:
+ * <ul>
+ * <li>Comparisons {@code field op number}, where op is one of {@code < <= > >= == !=} ({@code =} means {@code ==}).
+ * The fields are listed in {@link #FIELDS}; names are case-insensitive.</li>
+ * <li>{@code &} (or {@code &&}, {@code and}), {@code |} (or {@code ||}, {@code or}), {@code !} (or {@code not}), and
+ * parentheses, with the usual precedence.</li>
+ * <li>The names of most of the definitions in {@link SignificanceFactory}, with or without arguments; for example
+ * {@code rotationallySymmetric}, {@code rotationallySymmetric(0.5, 3.1416)}, {@code tmScore(0.4)},
+ * {@code binned(0.4, 0.5)}, {@code forCensus}. These are compiled to the same comparisons as the factory methods.</li>
+ * </ul>
+ * 
+ * <p>
+ * Undefined values never throw: a comparison on a field that is null (or cannot be computed, like the epsilon of a
+ * result without an axis) is simply false. When deciding {@link #isPossiblySignificant(AFPChain)}, the fields that
+ * are not known until later in a {@link CensusJob} (order, axis, rank and fraction helical) are treated as unknown,
+ * and the alignment is possibly significant unless the known fields alone make the expression false.
+ * 
+ * <p>
+ * Instances are immutable and thread-safe.
+ * 
+ * @author dmyerstu
+ */
+public class SignificanceExpression implements Significance {
+
+	/**
+	 * The names of the fields that can be compared, in order of their internal codes.
+	 */
+	public static final String[] FIELDS = { "tm", "z", "rmsd", "identity", "similarity", "coverage", "alignLength",
+			"gapLength", "alignScore", "order", "theta", "screw", "orthogonal", "epsilon", "guessedOrder", "rank",
+			"fractionHelical" };
+
+	private static final int TM = 0, Z = 1, RMSD = 2, IDENTITY = 3, SIMILARITY = 4, COVERAGE = 5, ALIGN_LENGTH = 6,
+			GAP_LENGTH = 7, ALIGN_SCORE = 8, ORDER = 9, THETA = 10, SCREW = 11, ORTHOGONAL = 12, EPSILON = 13,
+			GUESSED_ORDER = 14, RANK = 15, FRACTION_HELICAL = 16;
+
+	private static final Map<String, Integer> fieldCodes = new HashMap<String, Integer>();
+
+	static {
+		for (int i = 0; i < FIELDS.length; i++) {
+			fieldCodes.put(FIELDS[i].toLowerCase(), i);
+		}
+		fieldCodes.put("tmscore", TM);
+		fieldCodes.put("zscore", Z);
+	}
+
+	// node types; the comparisons come first so that anything below AND is a comparison
+	private static final byte LT = 0, LE = 1, GT = 2, GE = 3, EQ = 4, NE = 5, AND = 6, OR = 7, NOT = 8;
+
+	/**
+	 * The targets that end the program. Both are negative, so that the evaluation loop stops on them.
+	 */
+	private static final int EXIT_TRUE = -1, EXIT_FALSE = -2;
+
+	private static final double DEFAULT_DEVIATION = 1.0 * Math.PI / 180;
+	private static final int DEFAULT_MAX_ORDER = 8;
+
+	/**
+	 * Compiles {@code expression}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the expression cannot be parsed
+	 */
+	public static SignificanceExpression compile(String expression) {
+		Parser parser = new Parser(expression);
+		Node root = parser.parse();
+		return new SignificanceExpression(expression, root);
+	}
+
+	/**
+	 * @return Whether {@code name} is a definition that can be used in an expression, with or without arguments
+	 */
+	public static boolean isDefinition(String name) {
+		try {
+			definition(name, null);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private final String expression;
+
+	// the program: one entry per range test
+	private final int[] fields;
+	private final double[] lows;
+	private final double[] highs;
+	private final double[] deviations;
+	private final int[] maxOrders;
+	private final int[] ifTrue;
+	private final int[] ifFalse;
+
+	private final int entry;
+
+	private final boolean needsAxis;
+
+	private SignificanceExpression(String expression, Node root) {
+		this.expression = expression;
+		Program program = new Program();
+		entry = root.emit(program, EXIT_TRUE, EXIT_FALSE);
+		final int n = program.nodes.size();
+		fields = new int[n];
+		lows = new double[n];
+		highs = new double[n];
+		deviations = new double[n];
+		maxOrders = new int[n];
+		ifTrue = new int[n];
+		ifFalse = new int[n];
+		boolean axis = false;
+		for (int i = 0; i < n; i++) {
+			Node node = program.nodes.get(i);
+			fields[i] = node.field;
+			lows[i] = program.lows.get(i);
+			highs[i] = program.highs.get(i);
+			deviations[i] = node.deviation;
+			maxOrders[i] = node.maxOrder;
+			ifTrue[i] = program.ifTrue.get(i);
+			ifFalse[i] = program.ifFalse.get(i);
+			if (node.field >= THETA && node.field <= GUESSED_ORDER) axis = true;
+		}
+		needsAxis = axis;
+	}
+
+	/**
+	 * Only the alignment fields are known at this point; comparisons on any other field could go either way.
+	 */
+	@Override
+	public boolean isPossiblySignificant(AFPChain afpChain) {
+		return isPossiblySignificant(entry, afpChain);
+	}
+
+	private boolean isPossiblySignificant(int pc, AFPChain afpChain) {
+		while (pc >= 0) {
+			if (fields[pc] <= ALIGN_SCORE) {
+				pc = inRange(pc, alignmentValue(fields[pc], afpChain)) ? ifTrue[pc] : ifFalse[pc];
+			} else {
+				if (isPossiblySignificant(ifTrue[pc], afpChain)) return true;
+				pc = ifFalse[pc];
+			}
+		}
+		return pc == EXIT_TRUE;
+	}
+
+	@Override
+	public boolean isSignificant(Protodomain protodomain, int order, double angle, AFPChain afpChain) {
+		Axis axis = null;
+		if (needsAxis) {
+			try {
+				axis = new Axis(new RotationAxis(afpChain));
+			} catch (Exception e) {
+				// leave the axis fields undefined
+			}
+		}
+		int pc = entry;
+		while (pc >= 0) {
+			final int field = fields[pc];
+			double value;
+			if (field <= ALIGN_SCORE) {
+				value = alignmentValue(field, afpChain);
+			} else if (field == ORDER) {
+				value = order;
+			} else if (field <= GUESSED_ORDER) {
+				value = axisValue(pc, axis, order);
+			} else {
+				value = Double.NaN; // rank and fraction helical aren't known yet
+			}
+			pc = inRange(pc, value) ? ifTrue[pc] : ifFalse[pc];
+		}
+		return pc == EXIT_TRUE;
+	}
+
+	@Override
+	public boolean isSignificant(Result result) {
+		int pc = entry;
+		while (pc >= 0) {
+			pc = inRange(pc, resultValue(pc, result)) ? ifTrue[pc] : ifFalse[pc];
+		}
+		return pc == EXIT_TRUE;
+	}
+
+	/**
+	 * @return The expression this was compiled from
+	 */
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/**
+	 * @return The compiled program, one range test per line with the tests to go to if true and if false, for
+	 *         debugging
+	 */
+	public String toProgramString() {
+		StringBuilder sb = new StringBuilder();
+		for (int pc = 0; pc < fields.length; pc++) {
+			sb.append(pc == entry ? "> " : "  ").append(pc).append(": ").append(lows[pc]).append(" <= ");
+			sb.append(FIELDS[fields[pc]]);
+			if (fields[pc] == GUESSED_ORDER) {
+				sb.append("(").append(deviations[pc]).append(", ").append(maxOrders[pc]).append(")");
+			}
+			sb.append(" <= ").append(highs[pc]);
+			sb.append(" ? ").append(target(ifTrue[pc])).append(" : ").append(target(ifFalse[pc]));
+			sb.append(System.getProperty("line.separator"));
+		}
+		return sb.toString();
+	}
+
+	private static String target(int pc) {
+		if (pc == EXIT_TRUE) return "true";
+		if (pc == EXIT_FALSE) return "false";
+		return String.valueOf(pc);
+	}
+
+	private double resultValue(int pc, Result result) {
+		final int field = fields[pc];
+		if (field <= ALIGN_SCORE) {
+			final Alignment alignment = result.getAlignment();
+			if (alignment == null) return Double.NaN;
+			switch (field) {
+			case TM:
+				return value(alignment.getTmScore());
+			case Z:
+				return value(alignment.getzScore());
+			case RMSD:
+				return value(alignment.getRmsd());
+			case IDENTITY:
+				return value(alignment.getIdentity());
+			case SIMILARITY:
+				return value(alignment.getSimilarity());
+			case COVERAGE:
+				return value(alignment.getCoverage());
+			case ALIGN_LENGTH:
+				return value(alignment.getAlignLength());
+			case GAP_LENGTH:
+				return value(alignment.getGapLength());
+			default:
+				return value(alignment.getAlignScore());
+			}
+		}
+		switch (field) {
+		case ORDER:
+			return value(result.getOrder());
+		case RANK:
+			return value(result.getRank());
+		case FRACTION_HELICAL:
+			return value(result.getFractionHelical());
+		default:
+			return axisValue(pc, result.getAxis(), result.getOrder());
+		}
+	}
+
+	private double axisValue(int pc, Axis axis, Integer order) {
+		if (axis == null) return Double.NaN;
+		switch (fields[pc]) {
+		case THETA:
+			return value(axis.getTheta());
+		case SCREW:
+			return value(axis.getScrew());
+		case ORTHOGONAL:
+			return value(axis.getOrthogonal());
+		case EPSILON:
+			if (order == null || axis.getTheta() == null) return Double.NaN;
+			return value(axis.evaluateEpsilon(order)); // null for order < 2
+		default:
+			if (axis.getTheta() == null) return Double.NaN;
+			return axis.guessOrder(deviations[pc], maxOrders[pc]);
+		}
+	}
+
+	private static double alignmentValue(int field, AFPChain afpChain) {
+		switch (field) {
+		case TM:
+			return afpChain.getTMScore();
+		case Z:
+			return afpChain.getProbability();
+		case RMSD:
+			return afpChain.getTotalRmsdOpt();
+		case IDENTITY:
+			return afpChain.getIdentity();
+		case SIMILARITY:
+			return afpChain.getSimilarity();
+		case COVERAGE:
+			return afpChain.getCoverage1();
+		case ALIGN_LENGTH:
+			return afpChain.getAlnLength();
+		case GAP_LENGTH:
+			return afpChain.getGapLen();
+		default:
+			return afpChain.getAlignScore();
+		}
+	}
+
+	private static double value(Number number) {
+		return number == null ? Double.NaN : number.doubleValue();
+	}
+
+	/**
+	 * Undefined values are NaN, which is in no range. The non-short-circuit {@code &} avoids a second branch.
+	 */
+	private boolean inRange(int pc, double value) {
+		return value >= lows[pc] & value <= highs[pc];
+	}
+
+	/**
+	 * Returns the expression tree for the named definition, with its arguments or defaults.
+	 * 
+	 * @param args
+	 *            The arguments, or null to check only that the name exists
+	 * @throws IllegalArgumentException
+	 *             If there is no such definition or the number of arguments is wrong
+	 */
+	private static Node definition(String name, double[] args) {
+		final boolean check = args == null;
+		if (check) args = new double[0];
+		Node node;
+		if (name.equals("tmScore")) {
+			node = check ? null : cmp(TM, GE, arg(name, args, 0, Double.NaN));
+		} else if (name.equals("zScore")) {
+			node = check ? null : cmp(Z, GE, arg(name, args, 0, Double.NaN));
+		} else if (name.equals("binned")) {
+			node = check ? null : binned(arg(name, args, 0, Double.NaN), arg(name, args, 1, Double.NaN));
+		} else if (name.equals("asymmetric")) {
+			node = not(cmp(ORDER, GE, 2)).or(cmp(TM, LT, arg(name, args, 0, 0.4)));
+		} else if (name.equals("rotationallySymmetric")) {
+			node = rotationallySymmetric(arg(name, args, 0, 0.4), arg(name, args, 1, Double.MAX_VALUE));
+		} else if (name.equals("rotationallySymmetricWithAngle")) {
+			node = withAngle(arg(name, args, 0, 0.4), (int) arg(name, args, 1, DEFAULT_MAX_ORDER),
+					arg(name, args, 2, DEFAULT_DEVIATION));
+		} else if (name.equals("rotationallySymmetricSmart") || name.equals("forCeSymmOrd")
+				|| name.equals("forCeSymmTm")) {
+			node = smart();
+		} else if (name.equals("notRotationallySymmetricSmart")) {
+			node = not(smart());
+		} else if (name.equals("generallySymmetric") || name.equals("forCensus") || name.equals("mediumTmScore")) {
+			node = cmp(TM, GE, 0.4);
+		} else if (name.equals("liberalTmScore")) {
+			node = cmp(TM, GE, 0.3);
+		} else if (name.equals("ultraLiberal")) {
+			node = cmp(TM, GE, 0.0);
+		} else if (name.equals("forUnpublishedSymD")) {
+			node = cmp(TM, GE, 0.47);
+		} else if (name.equals("forPublishedSymD8")) {
+			node = cmp(Z, GE, 8);
+		} else if (name.equals("forPublishedSymD10")) {
+			node = cmp(Z, GE, 10);
+		} else if (name.equals("bin1")) {
+			node = binned(0.4, 0.5);
+		} else if (name.equals("bin2")) {
+			node = binned(0.5, 0.6);
+		} else if (name.equals("bin3")) {
+			node = binned(0.6, 1);
+		} else if (name.equals("liberal")) {
+			node = rotationallySymmetric(0.3, Double.MAX_VALUE);
+		} else if (name.equals("conservative")) {
+			node = rotationallySymmetric(0.5, Math.PI);
+		} else if (name.equals("veryConservative")) {
+			node = rotationallySymmetric(0.6, Math.PI);
+		} else if (name.equals("superConservative")) {
+			node = rotationallySymmetric(0.7, Math.PI);
+		} else {
+			throw new IllegalArgumentException("No significance definition named " + name);
+		}
+		if (args.length > arity(name)) {
+			throw new IllegalArgumentException("Too many arguments for " + name);
+		}
+		return node;
+	}
+
+	/**
+	 * @return The number of arguments the definition {@code name} takes, or 0 if it takes none
+	 */
+	private static int arity(String name) {
+		if (name.equals("tmScore") || name.equals("zScore") || name.equals("asymmetric")) return 1;
+		if (name.equals("binned") || name.equals("rotationallySymmetric")) return 2;
+		if (name.equals("rotationallySymmetricWithAngle")) return 3;
+		return 0;
+	}
+
+	private static double arg(String name, double[] args, int index, double defaultValue) {
+		if (args.length == 0 && !Double.isNaN(defaultValue)) return defaultValue;
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Too few arguments for " + name);
+		}
+		return args[index];
+	}
+
+	private static Node binned(double start, double end) {
+		return cmp(ORDER, GE, 2).and(cmp(TM, GE, start)).and(cmp(TM, LT, end));
+	}
+
+	private static Node rotationallySymmetric(double threshold, double epsilonThreshold) {
+		return cmp(ORDER, GE, 2).and(cmp(EPSILON, LE, epsilonThreshold)).and(cmp(TM, GE, threshold));
+	}
+
+	private static Node withAngle(double threshold, int maxOrder, double deviationThreshold) {
+		Node guessed = new Node(GT, GUESSED_ORDER, 1, deviationThreshold, maxOrder, null, null);
+		return guessed.and(cmp(TM, GE, threshold));
+	}
+
+	private static Node smart() {
+		return rotationallySymmetric(0.4, Double.MAX_VALUE).or(
+				withAngle(0.4, DEFAULT_MAX_ORDER, DEFAULT_DEVIATION));
+	}
+
+	private static Node cmp(int field, byte op, double constant) {
+		return new Node(op, field, constant, DEFAULT_DEVIATION, DEFAULT_MAX_ORDER, null, null);
+	}
+
+	private static Node not(Node a) {
+		return new Node(NOT, -1, 0, 0, 0, a, null);
+	}
+
+	/**
+	 * A node of the parsed expression: either a comparison of a field with a constant, or a boolean operator.
+	 */
+	private static class Node {
+		final byte op;
+		final int field;
+		final double constant;
+		final double deviation;
+		final int maxOrder;
+		final Node left;
+		final Node right;
+
+		Node(byte op, int field, double constant, double deviation, int maxOrder, Node left, Node right) {
+			this.op = op;
+			this.field = field;
+			this.constant = constant;
+			this.deviation = deviation;
+			this.maxOrder = maxOrder;
+			this.left = left;
+			this.right = right;
+		}
+
+		Node and(Node other) {
+			return new Node(AND, -1, 0, 0, 0, this, other);
+		}
+
+		Node or(Node other) {
+			return new Node(OR, -1, 0, 0, 0, this, other);
+		}
+
+		/**
+		 * Appends the comparisons of this subtree to {@code program}, so that evaluating them continues at
+		 * {@code ifTrue} if the subtree is true and at {@code ifFalse} otherwise.
+		 * 
+		 * @return The index of the first comparison to evaluate
+		 */
+		int emit(Program program, int ifTrue, int ifFalse) {
+			switch (op) {
+			case AND:
+				return left.emit(program, right.emit(program, ifTrue, ifFalse), ifFalse);
+			case OR:
+				return left.emit(program, ifTrue, right.emit(program, ifTrue, ifFalse));
+			case NOT:
+				return left.emit(program, ifFalse, ifTrue);
+			default:
+				if (op == NE) {
+					// a single range can't exclude a point, and v != c must still be false for NaN
+					Node lt = new Node(LT, field, constant, deviation, maxOrder, null, null);
+					Node gt = new Node(GT, field, constant, deviation, maxOrder, null, null);
+					return lt.or(gt).emit(program, ifTrue, ifFalse);
+				}
+				return program.add(this, ifTrue, ifFalse);
+			}
+		}
+	}
+
+	/**
+	 * The program under construction. Every comparison except {@code !=} becomes a closed range; strict bounds use
+	 * the adjacent double, which is exact.
+	 */
+	private static class Program {
+		final List<Node> nodes = new ArrayList<Node>();
+		final List<Double> lows = new ArrayList<Double>();
+		final List<Double> highs = new ArrayList<Double>();
+		final List<Integer> ifTrue = new ArrayList<Integer>();
+		final List<Integer> ifFalse = new ArrayList<Integer>();
+
+		int add(Node comparison, int whenTrue, int whenFalse) {
+			final double c = comparison.constant;
+			double low = Double.NEGATIVE_INFINITY, high = Double.POSITIVE_INFINITY;
+			switch (comparison.op) {
+			case LT:
+				high = Math.nextAfter(c, Double.NEGATIVE_INFINITY);
+				if (c == Double.NEGATIVE_INFINITY) low = Double.POSITIVE_INFINITY; // nothing is less
+				break;
+			case LE:
+				high = c;
+				break;
+			case GT:
+				low = Math.nextUp(c);
+				if (c == Double.POSITIVE_INFINITY) high = Double.NEGATIVE_INFINITY; // nothing is greater
+				break;
+			case GE:
+				low = c;
+				break;
+			default:
+				low = c;
+				high = c;
+			}
+			nodes.add(comparison);
+			lows.add(low);
+			highs.add(high);
+			ifTrue.add(whenTrue);
+			ifFalse.add(whenFalse);
+			return nodes.size() - 1;
+		}
+	}
+
+
+	/**
+	 * A recursive-descent parser for the grammar:
+	 * 
+	 * <pre>
+	 * or      := and (('|' | '||' | 'or') and)*
+	 * and     := unary (('&amp;' | '&amp;&amp;' | 'and') unary)*
+	 * unary   := ('!' | 'not') unary | '(' or ')' | field op number | name ['(' [number (',' number)*] ')']
+	 * </pre>
+	 */
+	private static class Parser {
+
+		private final String s;
+		private int pos = 0;
+
+		Parser(String s) {
+			if (s == null) throw new IllegalArgumentException("The expression is null");
+			this.s = s;
+		}
+
+		Node parse() {
+			Node node = parseOr();
+			skipSpace();
+			if (pos < s.length()) throw error("Unexpected '" + s.charAt(pos) + "'");
+			return node;
+		}
+
+		private Node parseOr() {
+			Node node = parseAnd();
+			while (true) {
+				if (accept("||") || accept("|") || acceptWord("or")) {
+					node = node.or(parseAnd());
+				} else {
+					return node;
+				}
+			}
+		}
+
+		private Node parseAnd() {
+			Node node = parseUnary();
+			while (true) {
+				if (accept("&&") || accept("&") || acceptWord("and")) {
+					node = node.and(parseUnary());
+				} else {
+					return node;
+				}
+			}
+		}
+
+		private Node parseUnary() {
+			skipSpace();
+			if (peek("!=")) throw error("Expected an expression");
+			if (accept("!") || acceptWord("not")) {
+				return not(parseUnary());
+			}
+			if (accept("(")) {
+				Node node = parseOr();
+				expect(")");
+				return node;
+			}
+			final int start = pos;
+			String name = identifier();
+			Integer field = fieldCodes.get(name.toLowerCase());
+			byte op = comparison();
+			if (op >= 0) {
+				if (field == null) {
+					pos = start;
+					throw error("No field named " + name);
+				}
+				return cmp(field, op, number());
+			}
+			double[] args = new double[0];
+			if (accept("(")) {
+				List<Double> list = new ArrayList<Double>();
+				if (!accept(")")) {
+					do {
+						list.add(number());
+					} while (accept(","));
+					expect(")");
+				}
+				args = new double[list.size()];
+				for (int i = 0; i < args.length; i++) {
+					args[i] = list.get(i);
+				}
+			}
+			try {
+				return definition(name, args);
+			} catch (IllegalArgumentException e) {
+				pos = start;
+				throw error(e.getMessage());
+			}
+		}
+
+		/**
+		 * @return The comparison operator at the current position, or -1
+		 */
+		private byte comparison() {
+			if (accept("<=")) return LE;
+			if (accept(">=")) return GE;
+			if (accept("==")) return EQ;
+			if (accept("!=")) return NE;
+			if (accept("<")) return LT;
+			if (accept(">")) return GT;
+			if (accept("=")) return EQ;
+			return -1;
+		}
+
+		private String identifier() {
+			skipSpace();
+			final int start = pos;
+			while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '_')) {
+				if (pos == start && Character.isDigit(s.charAt(pos))) break;
+				pos++;
+			}
+			if (pos == start) throw error("Expected a field or definition name");
+			return s.substring(start, pos);
+		}
+
+		private double number() {
+			skipSpace();
+			final int start = pos;
+			while (pos < s.length() && "0123456789.eE+-".indexOf(s.charAt(pos)) >= 0) {
+				pos++;
+			}
+			String token = s.substring(start, pos);
+			if (token.isEmpty()) {
+				// allow the constant pi, since angles are in radians
+				if (acceptWord("pi")) return Math.PI;
+				throw error("Expected a number");
+			}
+			try {
+				return Double.parseDouble(token);
+			} catch (NumberFormatException e) {
+				pos = start;
+				throw error("Malformed number " + token);
+			}
+		}
+
+		private boolean accept(String token) {
+			skipSpace();
+			if (s.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Accepts a keyword only if it isn't the start of a longer name.
+		 */
+		private boolean acceptWord(String word) {
+			skipSpace();
+			final int end = pos + word.length();
+			if (s.regionMatches(true, pos, word, 0, word.length())
+					&& (end == s.length() || !Character.isLetterOrDigit(s.charAt(end)) && s.charAt(end) != '_')) {
+				pos = end;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean peek(String token) {
+			skipSpace();
+			return s.startsWith(token, pos);
+		}
+
+		private void expect(String token) {
+			if (!accept(token)) throw error("Expected '" + token + "'");
+		}
+
+		private void skipSpace() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + pos + " of \"" + s + "\"");
+		}
+	}
+
+}
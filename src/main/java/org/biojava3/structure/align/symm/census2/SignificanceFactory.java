@@ -41,6 +41,7 @@ import org.biojava3.structure.align.symm.protodomain.Protodomain;
  * <li>{@link #SignificanceFactory#fromClass(String)}</li>
  * <li>{@link #SignificanceFactory#fromClass(String, Object...)}</li>
  * <li>{@link #SignificanceFactory#fromMethod(String, String, Object...)}</li>
+ * <li>{@link #SignificanceFactory#fromExpression(String)}</li>
  * </ul>
  * 
  * @author dmyerstu
@@ -202,6 +203,22 @@ public class SignificanceFactory {
 		}
 	}
 
+	/**
+	 * Gets a Significance object from a string given on the command line. This is either an expression for
+	 * {@link SignificanceExpression}, such as {@code "tm >= 0.4 & order >= 2"} or {@code "rotationallySymmetric"},
+	 * which is compiled, or the name of any other factory method in this class, which is called by reflection.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the string is neither a valid expression nor the name of a factory method
+	 */
+	public static Significance fromExpression(String expression) {
+		final String name = expression.trim();
+		if (name.matches("[A-Za-z_][A-Za-z0-9_]*") && !SignificanceExpression.isDefinition(name)) {
+			return fromMethod(null, name);
+		}
+		return SignificanceExpression.compile(expression);
+	}
+
 	public static Significance generallySymmetric() {
 		return tmScore(0.4);
 	}
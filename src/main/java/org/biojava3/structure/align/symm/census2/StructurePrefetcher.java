@@ -0,0 +1,283 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biojava.bio.structure.Structure;
+import org.biojava.bio.structure.align.util.AtomCache;
+import org.biojava.bio.structure.scop.ScopDatabase;
+import org.biojava.bio.structure.scop.ScopDomain;
+
+/**
+ * Loads the structures of a list of domains on a few I/O threads, ahead of the {@link CensusJob CensusJobs} that
+ * need them. Loaded structures wait in a bounded queue, in roughly the order of the list, so reading and parsing PDB
+ * files overlaps CE-Symm instead of blocking a compute thread, and at most {@code capacity} structures are held at
+ * once.
+ * 
+ * <p>
+ * The queue statistics tell how to size the two pools: if the consumer often finds the queue empty, the I/O threads
+ * can't keep up and more of them will help; if the I/O threads often find it full, they are ahead and fewer (or a
+ * smaller queue) would do.
+ * 
+ * @author dmyerstu
+ */
+public class StructurePrefetcher {
+
+	/**
+	 * A domain with its structure, or with a null structure if it could not be loaded; the {@link CensusJob} then
+	 * tries again itself and reports the error.
+	 */
+	public static class Prefetched {
+		private final ScopDomain domain;
+		private final Structure structure;
+		private final float loadMillis;
+
+		public Prefetched(ScopDomain domain, Structure structure, float loadMillis) {
+			this.domain = domain;
+			this.structure = structure;
+			this.loadMillis = loadMillis;
+		}
+
+		public ScopDomain getDomain() {
+			return domain;
+		}
+
+		public float getLoadMillis() {
+			return loadMillis;
+		}
+
+		public Structure getStructure() {
+			return structure;
+		}
+	}
+
+	private static final Logger logger = LogManager.getLogger(StructurePrefetcher.class.getPackage().getName());
+
+	/**
+	 * How often {@link #take()} checks whether every domain has been handed out, in milliseconds.
+	 */
+	private static final long TAKE_CHECK_INTERVAL = 100;
+
+	private final AtomCache cache;
+	private final ScopDatabase scop;
+	private final List<ScopDomain> domains;
+	private final int nThreads;
+	private final BlockingQueue<Prefetched> queue;
+
+	private final AtomicInteger next = new AtomicInteger(0);
+	private final AtomicInteger nFailed = new AtomicInteger(0);
+	private final AtomicInteger nFullPuts = new AtomicInteger(0);
+	private final AtomicLong loadNanos = new AtomicLong(0);
+
+	// only touched by the consuming thread
+	private int nTaken = 0;
+	private int nEmptyTakes = 0;
+	private long depthSum = 0;
+	private int maxDepth = 0;
+
+	private Thread[] threads;
+
+	/**
+	 * @param nThreads
+	 *            The number of I/O threads
+	 * @param capacity
+	 *            The maximum number of loaded structures waiting to be taken
+	 */
+	public StructurePrefetcher(AtomCache cache, ScopDatabase scop, List<ScopDomain> domains, int nThreads,
+			int capacity) {
+		if (nThreads < 1) throw new IllegalArgumentException("Need at least one prefetch thread");
+		if (capacity < 1) throw new IllegalArgumentException("The prefetch queue must hold at least one structure");
+		this.cache = cache;
+		this.scop = scop;
+		this.domains = domains;
+		this.nThreads = nThreads;
+		this.queue = new ArrayBlockingQueue<Prefetched>(capacity);
+	}
+
+	/**
+	 * Starts the I/O threads. They are daemon threads and stop on their own once every domain is loaded.
+	 */
+	public void start() {
+		if (threads != null) throw new IllegalStateException("Already started");
+		threads = new Thread[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							final int index = next.getAndIncrement();
+							if (index >= domains.size()) return;
+							Prefetched item = load(domains.get(index));
+							if (!queue.offer(item)) {
+								nFullPuts.incrementAndGet();
+								queue.put(item);
+							}
+						}
+					} catch (InterruptedException e) {
+						logger.debug("Prefetch thread interrupted");
+					}
+				}
+			}, "census-prefetch-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * Stops the I/O threads, abandoning any structures not yet loaded.
+	 */
+	public void shutdown() {
+		if (threads == null) return;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		queue.clear();
+	}
+
+	/**
+	 * @return The next loaded structure, or null if none is ready yet or all have been taken; never blocks
+	 */
+	public Prefetched poll() {
+		Prefetched item = queue.poll();
+		recordTake(item);
+		return item;
+	}
+
+	/**
+	 * Waits for the next loaded structure.
+	 * 
+	 * @return The next loaded structure, or null if all have been taken
+	 */
+	public Prefetched take() throws InterruptedException {
+		while (!isExhausted()) {
+			Prefetched item = queue.poll(TAKE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			if (item != null) {
+				recordTake(item);
+				return item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Whether every domain has been taken
+	 */
+	public boolean isExhausted() {
+		return nTaken >= domains.size();
+	}
+
+	private void recordTake(Prefetched item) {
+		if (item == null) {
+			if (!isExhausted()) nEmptyTakes++;
+			return;
+		}
+		final int depth = queue.size();
+		depthSum += depth;
+		if (depth > maxDepth) maxDepth = depth;
+		nTaken++;
+	}
+
+	private Prefetched load(ScopDomain domain) {
+		final long start = System.nanoTime();
+		Structure structure = null;
+		try {
+			structure = cache.getStructureForDomain(domain.getScopId(), scop);
+		} catch (Throwable e) {
+			// even an Error must not kill the thread: the domain has been handed out, so it has to be queued, or take()
+			// would wait for it forever
+			nFailed.incrementAndGet();
+			logger.warn("Could not prefetch " + domain.getScopId() + ": " + e);
+		}
+		final long elapsed = System.nanoTime() - start;
+		loadNanos.addAndGet(elapsed);
+		return new Prefetched(domain, structure, elapsed / 1000000f);
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	/**
+	 * @return The number of structures loaded and waiting to be taken
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The mean number of structures still waiting each time one was taken
+	 */
+	public double getMeanQueueDepth() {
+		return nTaken == 0 ? 0 : (double) depthSum / nTaken;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return How many times a structure was wanted but none was ready, so a compute slot stayed idle
+	 */
+	public int getEmptyTakes() {
+		return nEmptyTakes;
+	}
+
+	/**
+	 * @return How many times an I/O thread had to wait for room in the queue
+	 */
+	public int getFullPuts() {
+		return nFullPuts.get();
+	}
+
+	public int getFailed() {
+		return nFailed.get();
+	}
+
+	public int getTaken() {
+		return nTaken;
+	}
+
+	/**
+	 * @return The mean time to load one structure, in milliseconds
+	 */
+	public double getMeanLoadMillis() {
+		final int nLoaded = Math.min(next.get(), domains.size());
+		return nLoaded == 0 ? 0 : loadNanos.get() / 1000000.0 / nLoaded;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Prefetched %d/%d structures on %d threads (%d failed, %.1fms each); queue depth %d/%d "
+				+ "(mean %.1f, max %d); empty on %d takes, full on %d puts", nTaken, domains.size(), nThreads,
+				getFailed(), getMeanLoadMillis(), getQueueDepth(), getCapacity(), getMeanQueueDepth(), maxDepth,
+				nEmptyTakes, getFullPuts());
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the {@link Timings} of census results into a histogram of times for each stage, and a table of mean
+ * times by domain size. Comparing the structure-loading stage to the rest tells whether a run is I/O-bound or
+ * CPU-bound.
+ * 
+ * <p>
+ * Histogram bucket <em>k</em> &gt; 0 counts times in [2<sup>k-1</sup>, 2<sup>k</sup>) milliseconds; bucket 0 counts
+ * times under 1 ms. Not thread-safe.
+ * 
+ * @author dmyerstu
+ */
+public class TimingReport {
+
+	public static final String[] STAGES = new String[] { "structure", "alignment", "protodomain", "order", "axis",
+			"significance" };
+
+	private static final int N_BUCKETS = 32;
+
+	private final int residueBinSize;
+
+	private final int[][] histograms = new int[STAGES.length][N_BUCKETS];
+	private final double[] totals = new double[STAGES.length];
+	private final int[] counts = new int[STAGES.length];
+
+	/**
+	 * Per residue bin: the number of results followed by the total time of each stage.
+	 */
+	private final Map<Integer, double[]> byResidues = new TreeMap<Integer, double[]>();
+
+	private int nTimed;
+
+	public TimingReport() {
+		this(100);
+	}
+
+	/**
+	 * @param residueBinSize
+	 *            The width of the domain-size bins in the scaling table, in residues
+	 */
+	public TimingReport(int residueBinSize) {
+		if (residueBinSize < 1) throw new IllegalArgumentException("The bin size must be positive");
+		this.residueBinSize = residueBinSize;
+	}
+
+	/**
+	 * Returns the times of {@code timings} in the order of {@link #STAGES}, with null for stages not reached.
+	 */
+	public static Float[] getStageMillis(Timings timings) {
+		return new Float[] { timings.getStructureMillis(), timings.getAlignmentMillis(),
+				timings.getProtodomainMillis(), timings.getOrderMillis(), timings.getAxisMillis(),
+				timings.getSignificanceMillis() };
+	}
+
+	static int getBucket(double millis) {
+		if (millis < 1) return 0;
+		int bucket = 1 + (int) Math.floor(Math.log(millis) / Math.log(2));
+		return Math.min(bucket, N_BUCKETS - 1);
+	}
+
+	/**
+	 * Adds the timings of {@code result}, if it has any.
+	 */
+	public void add(Result result) {
+		if (result == null || result.getTimings() == null) return;
+		Timings timings = result.getTimings();
+		Float[] millis = getStageMillis(timings);
+		double[] bin = null;
+		if (timings.getNumResidues() != null) {
+			int key = timings.getNumResidues() / residueBinSize * residueBinSize;
+			bin = byResidues.get(key);
+			if (bin == null) {
+				bin = new double[STAGES.length + 1];
+				byResidues.put(key, bin);
+			}
+			bin[0]++;
+		}
+		for (int i = 0; i < STAGES.length; i++) {
+			if (millis[i] == null) continue;
+			histograms[i][getBucket(millis[i])]++;
+			totals[i] += millis[i];
+			counts[i]++;
+			if (bin != null) bin[i + 1] += millis[i];
+		}
+		nTimed++;
+	}
+
+	/**
+	 * @return The number of results added that had timings
+	 */
+	public int getCount() {
+		return nTimed;
+	}
+
+	/**
+	 * @return The histogram of {@code stage}, indexed by bucket
+	 */
+	public int[] getHistogram(int stage) {
+		return histograms[stage].clone();
+	}
+
+	/**
+	 * @return The mean time of {@code stage} over the results that reached it, or NaN if none did
+	 */
+	public double getMeanMillis(int stage) {
+		return totals[stage] / counts[stage];
+	}
+
+	/**
+	 * @return The fraction of all measured time spent loading structures
+	 */
+	public double getFractionLoading() {
+		double sum = 0;
+		for (double total : totals) {
+			sum += total;
+		}
+		return totals[0] / sum;
+	}
+
+	@Override
+	public String toString() {
+		DecimalFormat df = new DecimalFormat("0.0");
+		StringBuilder sb = new StringBuilder();
+		String nl = System.getProperty("line.separator");
+		sb.append("timings for " + nTimed + " results; " + df.format(getFractionLoading() * 100.0)
+				+ "% of the time was spent loading structures" + nl);
+		sb.append("stage\tn\tmean (ms)");
+		for (int k = 0; k < N_BUCKETS; k++) {
+			sb.append("\t<" + (1L << k));
+		}
+		sb.append(nl);
+		for (int i = 0; i < STAGES.length; i++) {
+			sb.append(STAGES[i] + "\t" + counts[i] + "\t" + df.format(getMeanMillis(i)));
+			for (int k = 0; k < N_BUCKETS; k++) {
+				sb.append("\t" + histograms[i][k]);
+			}
+			sb.append(nl);
+		}
+		sb.append("residues\tn");
+		for (String stage : STAGES) {
+			sb.append("\t" + stage);
+		}
+		sb.append(nl);
+		for (Map.Entry<Integer, double[]> entry : byResidues.entrySet()) {
+			double[] bin = entry.getValue();
+			sb.append(entry.getKey() + "-" + (entry.getKey() + residueBinSize - 1) + "\t" + (int) bin[0]);
+			for (int i = 0; i < STAGES.length; i++) {
+				sb.append("\t" + df.format(bin[i + 1] / bin[0]));
+			}
+			sb.append(nl);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import java.io.Serializable;
+
+/**
+ * How long each stage of a {@link CensusJob} took, in milliseconds. A stage that was not reached is null.
+ * 
+ * @author dmyerstu
+ */
+public class Timings implements Serializable {
+
+	private static final long serialVersionUID = -2794150236377017411L;
+
+	private Float alignmentMillis;
+	private Float axisMillis;
+	private Integer numResidues;
+	private Float orderMillis;
+	private Float protodomainMillis;
+	private Float significanceMillis;
+	private Float structureMillis;
+
+	/**
+	 * @return The number of milliseconds since {@code startNanos}, from {@link System#nanoTime()}
+	 */
+	public static float millisSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000000.0f;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (obj == null) return false;
+		if (getClass() != obj.getClass()) return false;
+		Timings other = (Timings) obj;
+		if (!equal(alignmentMillis, other.alignmentMillis)) return false;
+		if (!equal(axisMillis, other.axisMillis)) return false;
+		if (!equal(numResidues, other.numResidues)) return false;
+		if (!equal(orderMillis, other.orderMillis)) return false;
+		if (!equal(protodomainMillis, other.protodomainMillis)) return false;
+		if (!equal(significanceMillis, other.significanceMillis)) return false;
+		if (!equal(structureMillis, other.structureMillis)) return false;
+		return true;
+	}
+
+	/**
+	 * @return The time spent running CE-Symm, including the TM-score
+	 */
+	public Float getAlignmentMillis() {
+		return alignmentMillis;
+	}
+
+	/**
+	 * @return The time spent finding the angle and axis of rotation
+	 */
+	public Float getAxisMillis() {
+		return axisMillis;
+	}
+
+	public Integer getNumResidues() {
+		return numResidues;
+	}
+
+	public Float getOrderMillis() {
+		return orderMillis;
+	}
+
+	public Float getProtodomainMillis() {
+		return protodomainMillis;
+	}
+
+	public Float getSignificanceMillis() {
+		return significanceMillis;
+	}
+
+	/**
+	 * @return The time spent loading the structure from the {@link org.biojava.bio.structure.align.util.AtomCache
+	 *         AtomCache}
+	 */
+	public Float getStructureMillis() {
+		return structureMillis;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (alignmentMillis == null ? 0 : alignmentMillis.hashCode());
+		result = prime * result + (axisMillis == null ? 0 : axisMillis.hashCode());
+		result = prime * result + (numResidues == null ? 0 : numResidues.hashCode());
+		result = prime * result + (orderMillis == null ? 0 : orderMillis.hashCode());
+		result = prime * result + (protodomainMillis == null ? 0 : protodomainMillis.hashCode());
+		result = prime * result + (significanceMillis == null ? 0 : significanceMillis.hashCode());
+		result = prime * result + (structureMillis == null ? 0 : structureMillis.hashCode());
+		return result;
+	}
+
+	public void setAlignmentMillis(Float alignmentMillis) {
+		this.alignmentMillis = alignmentMillis;
+	}
+
+	public void setAxisMillis(Float axisMillis) {
+		this.axisMillis = axisMillis;
+	}
+
+	public void setNumResidues(Integer numResidues) {
+		this.numResidues = numResidues;
+	}
+
+	public void setOrderMillis(Float orderMillis) {
+		this.orderMillis = orderMillis;
+	}
+
+	public void setProtodomainMillis(Float protodomainMillis) {
+		this.protodomainMillis = protodomainMillis;
+	}
+
+	public void setSignificanceMillis(Float significanceMillis) {
+		this.significanceMillis = significanceMillis;
+	}
+
+	public void setStructureMillis(Float structureMillis) {
+		this.structureMillis = structureMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "Timings [numResidues=" + numResidues + ", structureMillis=" + structureMillis + ", alignmentMillis="
+				+ alignmentMillis + ", protodomainMillis=" + protodomainMillis + ", orderMillis=" + orderMillis
+				+ ", axisMillis=" + axisMillis + ", significanceMillis=" + significanceMillis + "]";
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+}
@@ -0,0 +1,406 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biojava3.structure.align.symm.census2.Result;
+import org.biojava3.structure.align.symm.census2.Results;
+import org.biojava3.structure.align.symm.census2.Significance;
+import org.biojava3.structure.align.symm.census2.SignificanceFactory;
+
+/**
+ * Computes statistics for every combination of {@link Grouping}, {@link Property} and {@link Significance} in a single
+ * pass over a census. Each result is grouped, scored and tested for significance once, and the counts and sums are
+ * kept in primitive arrays per group. The census can be split into chunks that are aggregated on separate threads and
+ * then {@link #merge(GroupedStats) merged}.
+ * 
+ * <p>
+ * For each grouping and group, this records the number of results, the number significant under each Significance,
+ * and for each Property the number of defined values, their sum, sum of squares, minimum and maximum, both over all
+ * results ({@link #ALL}) and over the results significant under each Significance. Significances, properties, and
+ * groupings must be thread-safe to use {@link #compute(List, List, List, Results, int)} with more than one thread.
+ * 
+ * @author dmyerstu
+ */
+public class GroupedStats {
+
+	/**
+	 * The significance index meaning all results, significant or not.
+	 */
+	public static final int ALL = -1;
+
+	private static final Logger logger = LogManager.getLogger(GroupedStats.class.getPackage().getName());
+
+	private static final int N = 0, SUM = 1, SUM_SQ = 2, MIN = 3, MAX = 4, N_STATS = 5;
+
+	private final List<Grouping> groupings;
+	private final List<Property> properties;
+	private final List<Significance> significances;
+
+	/**
+	 * For each grouping, the index of each group in {@link #cells}.
+	 */
+	private final List<Map<String, Integer>> groupIndices;
+
+	/**
+	 * For each grouping, one row of counters per group. A row holds the number of results, then the number significant
+	 * under each significance, then N_STATS statistics for each (property, significance or ALL).
+	 */
+	private final List<List<double[]>> cells;
+
+	private final int nSlots;
+	private final int rowWidth;
+
+	private int nErrors = 0;
+	private int nResults = 0;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: " + GroupedStats.class.getSimpleName()
+					+ " census-file significance-method [significance-method...]");
+			return;
+		}
+		Results census = Results.fromXML(new File(args[0]));
+		List<Significance> sigs = new ArrayList<Significance>();
+		for (int i = 1; i < args.length; i++) {
+			sigs.add(SignificanceFactory.fromExpression(args[i]));
+		}
+		List<Grouping> groupings = new ArrayList<Grouping>();
+		groupings.add(Grouping.superfamily());
+		groupings.add(Grouping.fold());
+		List<Property> properties = new ArrayList<Property>();
+		properties.add(Property.tmScore());
+		properties.add(Property.order());
+		properties.add(Property.identity());
+		properties.add(Property.similarity());
+		int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		System.out.println(compute(groupings, properties, sigs, census, nThreads));
+	}
+
+	/**
+	 * Aggregates {@code census} in {@code nThreads} chunks on as many threads, and merges the chunks.
+	 */
+	public static GroupedStats compute(List<Grouping> groupings, List<Property> properties,
+			List<Significance> significances, Results census, int nThreads) {
+
+		final List<Result> data = census.getData();
+		nThreads = Math.max(1, Math.min(nThreads, data.size()));
+		GroupedStats total = new GroupedStats(groupings, properties, significances);
+		if (nThreads == 1) {
+			total.addAll(data);
+			return total;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<GroupedStats>> futures = new ArrayList<Future<GroupedStats>>();
+			final int chunkSize = (data.size() + nThreads - 1) / nThreads;
+			for (int start = 0; start < data.size(); start += chunkSize) {
+				final List<Result> chunk = data.subList(start, Math.min(start + chunkSize, data.size()));
+				final GroupedStats partial = new GroupedStats(groupings, properties, significances);
+				futures.add(pool.submit(new Callable<GroupedStats>() {
+					@Override
+					public GroupedStats call() {
+						partial.addAll(chunk);
+						return partial;
+					}
+				}));
+			}
+			for (Future<GroupedStats> future : futures) {
+				total.merge(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return total;
+	}
+
+	public GroupedStats(List<Grouping> groupings, List<Property> properties, List<Significance> significances) {
+		this.groupings = new ArrayList<Grouping>(groupings);
+		this.properties = new ArrayList<Property>(properties);
+		this.significances = new ArrayList<Significance>(significances);
+		nSlots = significances.size() + 1;
+		rowWidth = nSlots + properties.size() * nSlots * N_STATS;
+		groupIndices = new ArrayList<Map<String, Integer>>(groupings.size());
+		cells = new ArrayList<List<double[]>>(groupings.size());
+		for (int g = 0; g < groupings.size(); g++) {
+			groupIndices.add(new HashMap<String, Integer>());
+			cells.add(new ArrayList<double[]>());
+		}
+	}
+
+	public void add(Result result) {
+
+		if (result == null) return;
+		nResults++;
+
+		// evaluate everything once, independently of the groupings
+		boolean[] isSignificant = new boolean[significances.size()];
+		for (int s = 0; s < isSignificant.length; s++) {
+			try {
+				isSignificant[s] = significances.get(s).isSignificant(result);
+			} catch (RuntimeException e) {
+				nErrors++;
+				logger.debug("Could not determine the significance of " + result.getScopId(), e);
+			}
+		}
+		double[] values = new double[properties.size()];
+		boolean[] isDefined = new boolean[properties.size()];
+		for (int p = 0; p < values.length; p++) {
+			try {
+				values[p] = properties.get(p).getProperty(result);
+				isDefined[p] = true;
+			} catch (PropertyUndefinedException e) {
+				// okay
+			}
+		}
+
+		for (int g = 0; g < groupings.size(); g++) {
+			String key;
+			try {
+				key = groupings.get(g).group(result);
+			} catch (RuntimeException e) {
+				nErrors++;
+				logger.debug("Could not group " + result.getScopId() + " by " + groupings.get(g), e);
+				continue;
+			}
+			double[] row = getOrCreateRow(g, key);
+			row[0]++;
+			for (int s = 0; s < isSignificant.length; s++) {
+				if (isSignificant[s]) row[1 + s]++;
+			}
+			for (int p = 0; p < values.length; p++) {
+				if (!isDefined[p]) continue;
+				accumulate(row, statsOffset(p, ALL), values[p]);
+				for (int s = 0; s < isSignificant.length; s++) {
+					if (isSignificant[s]) accumulate(row, statsOffset(p, s), values[p]);
+				}
+			}
+		}
+	}
+
+	public void addAll(List<Result> results) {
+		for (Result result : results) {
+			add(result);
+		}
+	}
+
+	/**
+	 * @return The number of results in {@code group}
+	 */
+	public int getCount(int grouping, String group) {
+		double[] row = getRow(grouping, group);
+		return row == null ? 0 : (int) row[0];
+	}
+
+	/**
+	 * @return The number of times a grouping or significance threw an exception
+	 */
+	public int getErrorCount() {
+		return nErrors;
+	}
+
+	/**
+	 * @return The names of the groups under {@code grouping}, in order
+	 */
+	public SortedSet<String> getGroups(int grouping) {
+		return new TreeSet<String>(groupIndices.get(grouping).keySet());
+	}
+
+	/**
+	 * @return The largest defined value of {@code property} in {@code group}, or NaN if there are none
+	 */
+	public double getMax(int grouping, int property, int significance, String group) {
+		return getStat(grouping, property, significance, group, MAX);
+	}
+
+	/**
+	 * @return The mean of the defined values of {@code property} in {@code group}, among the results significant
+	 *         under {@code significance} (or {@link #ALL}), or NaN if there are none
+	 */
+	public double getMean(int grouping, int property, int significance, String group) {
+		return getStat(grouping, property, significance, group, SUM)
+				/ getStat(grouping, property, significance, group, N);
+	}
+
+	/**
+	 * @return The smallest defined value of {@code property} in {@code group}, or NaN if there are none
+	 */
+	public double getMin(int grouping, int property, int significance, String group) {
+		return getStat(grouping, property, significance, group, MIN);
+	}
+
+	/**
+	 * @return The number of defined values of {@code property} in {@code group}
+	 */
+	public int getN(int grouping, int property, int significance, String group) {
+		double n = getStat(grouping, property, significance, group, N);
+		return Double.isNaN(n) ? 0 : (int) n;
+	}
+
+	/**
+	 * @return The number of results in {@code group} significant under {@code significance}
+	 */
+	public int getNSignificant(int grouping, int significance, String group) {
+		double[] row = getRow(grouping, group);
+		return row == null ? 0 : (int) row[1 + significance];
+	}
+
+	/**
+	 * @return The number of non-null results added
+	 */
+	public int getResultCount() {
+		return nResults;
+	}
+
+	/**
+	 * @return The population standard deviation of the defined values of {@code property} in {@code group}
+	 */
+	public double getStdDev(int grouping, int property, int significance, String group) {
+		double n = getStat(grouping, property, significance, group, N);
+		double mean = getStat(grouping, property, significance, group, SUM) / n;
+		double variance = getStat(grouping, property, significance, group, SUM_SQ) / n - mean * mean;
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/**
+	 * Adds the counts of {@code other}, which must have the same groupings, properties and significances.
+	 */
+	public void merge(GroupedStats other) {
+		if (other.rowWidth != rowWidth || other.groupings.size() != groupings.size()) throw new IllegalArgumentException(
+				"Can only merge statistics with the same groupings, properties, and significances");
+		nResults += other.nResults;
+		nErrors += other.nErrors;
+		for (int g = 0; g < groupings.size(); g++) {
+			for (Map.Entry<String, Integer> entry : other.groupIndices.get(g).entrySet()) {
+				double[] from = other.cells.get(g).get(entry.getValue());
+				double[] to = getOrCreateRow(g, entry.getKey());
+				for (int i = 0; i < nSlots; i++) {
+					to[i] += from[i];
+				}
+				for (int offset = nSlots; offset < rowWidth; offset += N_STATS) {
+					to[offset + N] += from[offset + N];
+					to[offset + SUM] += from[offset + SUM];
+					to[offset + SUM_SQ] += from[offset + SUM_SQ];
+					to[offset + MIN] = Math.min(to[offset + MIN], from[offset + MIN]);
+					to[offset + MAX] = Math.max(to[offset + MAX], from[offset + MAX]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints, for each grouping and group: the number of results; and for each significance the fraction significant
+	 * and the mean of each property among the significant results.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int g = 0; g < groupings.size(); g++) {
+			sb.append(groupings.get(g) + "\tn");
+			for (int s = 0; s < significances.size(); s++) {
+				sb.append("\tsig" + s);
+				for (Property property : properties) {
+					sb.append("\tsig" + s + " " + property);
+				}
+			}
+			sb.append(StatUtils.NEWLINE);
+			for (String group : getGroups(g)) {
+				int n = getCount(g, group);
+				sb.append(group + "\t" + n);
+				for (int s = 0; s < significances.size(); s++) {
+					sb.append("\t" + StatUtils.formatP((double) getNSignificant(g, s, group) / n));
+					for (int p = 0; p < properties.size(); p++) {
+						double mean = getMean(g, p, s, group);
+						sb.append("\t" + (Double.isNaN(mean) ? "" : StatUtils.formatD(mean)));
+					}
+				}
+				sb.append(StatUtils.NEWLINE);
+			}
+			sb.append(StatUtils.NEWLINE);
+		}
+		return sb.toString();
+	}
+
+	private static void accumulate(double[] row, int offset, double value) {
+		row[offset + N]++;
+		row[offset + SUM] += value;
+		row[offset + SUM_SQ] += value * value;
+		if (value < row[offset + MIN]) row[offset + MIN] = value;
+		if (value > row[offset + MAX]) row[offset + MAX] = value;
+	}
+
+	private double[] getOrCreateRow(int grouping, String key) {
+		Map<String, Integer> indices = groupIndices.get(grouping);
+		List<double[]> rows = cells.get(grouping);
+		Integer index = indices.get(key);
+		if (index != null) return rows.get(index);
+		double[] row = new double[rowWidth];
+		for (int offset = nSlots; offset < rowWidth; offset += N_STATS) {
+			row[offset + MIN] = Double.POSITIVE_INFINITY;
+			row[offset + MAX] = Double.NEGATIVE_INFINITY;
+		}
+		indices.put(key, rows.size());
+		rows.add(row);
+		return row;
+	}
+
+	private double[] getRow(int grouping, String group) {
+		Integer index = groupIndices.get(grouping).get(group);
+		return index == null ? null : cells.get(grouping).get(index);
+	}
+
+	private double getStat(int grouping, int property, int significance, String group, int stat) {
+		double[] row = getRow(grouping, group);
+		if (row == null) return Double.NaN;
+		int offset = statsOffset(property, significance);
+		if (row[offset + N] == 0) return Double.NaN;
+		return row[offset + stat];
+	}
+
+	/**
+	 * @param significance
+	 *            An index into the significances, or {@link #ALL}
+	 */
+	private int statsOffset(int property, int significance) {
+		return nSlots + (property * nSlots + significance + 1) * N_STATS;
+	}
+
+}
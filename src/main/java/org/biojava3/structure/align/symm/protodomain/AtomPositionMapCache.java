@@ -0,0 +1,153 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+
+package org.biojava3.structure.align.symm.protodomain;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomPositionMap;
+import org.biojava.bio.structure.StructureException;
+import org.biojava.bio.structure.StructureTools;
+import org.biojava.bio.structure.align.util.AtomCache;
+import org.biojava.bio.structure.io.FileParsingParameters;
+
+/**
+ * A bounded, least-recently-used cache of {@link AtomPositionMap AtomPositionMaps} by PDB Id. Building a map means
+ * parsing the whole PDB entry and scanning all of its atoms, which a {@link Protodomain} needs several times per
+ * domain; in a census, every domain of a multi-domain entry would otherwise repeat it.
+ * 
+ * <p>
+ * An entry parsed differently gives a different map (for example, with only C-alpha atoms), so the key also holds the
+ * directory and the {@link FileParsingParameters} of the {@link AtomCache} that the entry is parsed with that change
+ * which atoms are read. Other settings of the AtomCache, such as fetching obsolete entries, are not in the key; if two
+ * AtomCaches differ only in those, {@link #clear()} the cache before switching between them.
+ * 
+ * <p>
+ * Thread-safe. Maps are built outside the lock, so two threads missing on the same entry at once may both build it;
+ * the maps are only read after they are built, so sharing them between threads is safe.
+ * 
+ * @author dmyerstu
+ */
+public class AtomPositionMapCache {
+
+	public static final int DEFAULT_MAX_SIZE = 100;
+
+	private static final AtomPositionMapCache instance = new AtomPositionMapCache(DEFAULT_MAX_SIZE);
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final Map<String, AtomPositionMap> maps;
+
+	private volatile int maxSize;
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @return The cache shared by all {@link Protodomain Protodomains}
+	 */
+	public static AtomPositionMapCache getInstance() {
+		return instance;
+	}
+
+	public AtomPositionMapCache(int maxSize) {
+		setMaxSize(maxSize);
+		maps = new LinkedHashMap<String, AtomPositionMap>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, AtomPositionMap> eldest) {
+				return size() > AtomPositionMapCache.this.maxSize;
+			}
+		};
+	}
+
+	public synchronized void clear() {
+		maps.clear();
+	}
+
+	/**
+	 * Returns the map of all amino acid positions in the PDB entry {@code pdbId}, building it from {@code cache} if
+	 * needed.
+	 */
+	public AtomPositionMap get(AtomCache cache, String pdbId) throws IOException, StructureException {
+		final String key = getKey(cache, pdbId);
+		synchronized (this) {
+			AtomPositionMap map = maps.get(key);
+			if (map != null) {
+				hits.incrementAndGet();
+				return map;
+			}
+		}
+		misses.incrementAndGet();
+		// We cannot use CA atoms only here because sometimes the C-alpha atom is missing
+		// Our AtomPositionMap should use something more liberal (see the AtomPositionMap constructor)
+		final Atom[] allAtoms = StructureTools.getAllAtomArray(cache.getStructure(pdbId));
+		AtomPositionMap map = new AtomPositionMap(allAtoms);
+		synchronized (this) {
+			maps.put(key, map);
+		}
+		return map;
+	}
+
+	/**
+	 * @return The PDB Id, and the settings of {@code cache} that change which atoms the entry is parsed with
+	 */
+	private static String getKey(AtomCache cache, String pdbId) {
+		FileParsingParameters params = cache.getFileParsingParams();
+		return pdbId.toUpperCase() + "|" + cache.getPath() + "|" + params.isParseCAOnly() + "|" + params.isAlignSeqRes()
+				+ "|" + params.isLoadChemCompInfo() + "|" + params.isHeaderOnly() + "|" + params.getAtomCaThreshold();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return maps.size();
+	}
+
+	/**
+	 * Sets the maximum number of entries. If the cache is larger, it shrinks as new entries are added.
+	 */
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 1) throw new IllegalArgumentException("The cache must hold at least one entry");
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public String toString() {
+		return "AtomPositionMapCache [size=" + size() + ", maxSize=" + maxSize + ", hits=" + hits + ", misses="
+				+ misses + "]";
+	}
+
+}
@@ -39,7 +39,6 @@ import org.biojava.bio.structure.ResidueNumber;
 import org.biojava.bio.structure.ResidueRange;
 import org.biojava.bio.structure.Structure;
 import org.biojava.bio.structure.StructureException;
-import org.biojava.bio.structure.StructureTools;
 import org.biojava.bio.structure.align.client.StructureName;
 import org.biojava.bio.structure.align.model.AFPChain;
 import org.biojava.bio.structure.align.util.AtomCache;
@@ -375,7 +374,7 @@ public class Protodomain {
 	}
 
 	/**
-	 * Really just calls {@link ResidueRange#getAminoAcidPositions(Atom[])}.
+	 * Returns the positions of all amino acids in the PDB entry, from the shared {@link AtomPositionMapCache}.
 	 * 
 	 * @param cache
 	 * @param scopDomain
@@ -385,11 +384,7 @@ public class Protodomain {
 	private static AtomPositionMap getAminoAcidPositions(AtomCache cache, String pdbId, String scopId)
 			throws ProtodomainCreationException {
 		try {
-			// We cannot use CA atoms only here because sometimes the C-alpha atom is missing
-			// Our AtomPositionMap should use something more liberal (see the AtomPositionMap constructor)
-			final Atom[] allAtoms = StructureTools.getAllAtomArray(cache.getStructure(pdbId)); // TODO is using scopId
-			// ok here?
-			return new AtomPositionMap(allAtoms);
+			return AtomPositionMapCache.getInstance().get(cache, pdbId); // TODO is using scopId ok here?
 		} catch (IOException e) {
 			throw new ProtodomainCreationException("unknown", scopId, e,
 					"Could not get a list of amino acid residue number positions.");
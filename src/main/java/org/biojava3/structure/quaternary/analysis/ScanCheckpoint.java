@@ -0,0 +1,117 @@
+package org.biojava3.structure.quaternary.analysis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A plain-text log of the PDB entries that a {@link ScanSymmetry} run has finished, one "pdbId,status" line per
+ * entry, so that a restarted scan skips them.
+ *
+ * Lines are appended and flushed after the CSV rows of the entry have been written. A line that was cut off
+ * by a crash is ignored when the log is read, and removed when it is reopened.
+ */
+public class ScanCheckpoint {
+	private File file = null;
+	private PrintWriter out = null;
+
+	/**
+	 * Returns the checkpoint file that belongs to the CSV file csvFile.
+	 */
+	public static File forCsvFile(File csvFile) {
+		return new File(csvFile.getPath() + ".checkpoint");
+	}
+
+	public ScanCheckpoint(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the status of each entry in the log, in the order they were finished. An entry that was
+	 * logged more than once (after a retry) has its last status.
+	 */
+	public Map<String, String> read() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		if (!file.exists()) {
+			return entries;
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			long length = 0;
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				length += line.length() + 1;
+				// the last line is incomplete if it isn't terminated
+				if (length > file.length()) {
+					break;
+				}
+				int comma = line.indexOf(',');
+				if (comma > 0) {
+					entries.remove(line.substring(0, comma));
+					entries.put(line.substring(0, comma), line.substring(comma + 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Opens the log for appending, first removing a line that was cut off.
+	 */
+	public void open() throws IOException {
+		if (file.exists() && file.length() > 0) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				long valid = raf.length();
+				while (valid > 0) {
+					raf.seek(valid - 1);
+					if (raf.read() == '\n') {
+						break;
+					}
+					valid--;
+				}
+				if (valid < raf.length()) {
+					System.err.println("Discarding an incomplete line at the end of " + file.getPath());
+					raf.setLength(valid);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+		out = new PrintWriter(new FileWriter(file, true));
+	}
+
+	/**
+	 * Logs that the entry pdbId is finished with the given status.
+	 * @throws IllegalStateException if the log is not open
+	 */
+	public void append(String pdbId, String status) throws IOException {
+		if (out == null) {
+			throw new IllegalStateException("Must open the checkpoint first");
+		}
+		out.print(pdbId + "," + status + "\n");
+		out.flush();
+		if (out.checkError()) {
+			throw new IOException("Could not write to " + file.getPath());
+		}
+	}
+
+	public void close() {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+}
@@ -1,219 +1,378 @@
 package org.biojava3.structure.quaternary.analysis;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import org.biojava.bio.structure.Structure;
-import org.biojava.bio.structure.StructureException;
 import org.biojava.bio.structure.align.util.AtomCache;
 import org.biojava.bio.structure.io.FileParsingParameters;
 import org.biojava3.structure.StructureIO;
 import org.biojava3.structure.dbscan.GetRepresentatives;
-import org.biojava3.structure.quaternary.core.AxisAligner;
-import org.biojava3.structure.quaternary.core.HelixAxisAligner;
-import org.biojava3.structure.quaternary.core.QuatSymmetryDetector;
 import org.biojava3.structure.quaternary.core.QuatSymmetryParameters;
-import org.biojava3.structure.quaternary.core.QuatSymmetryResults;
-import org.biojava3.structure.quaternary.core.Subunits;
-import org.biojava3.structure.quaternary.jmolScript.JmolSymmetryScriptGenerator;
-import org.biojava3.structure.quaternary.jmolScript.JmolSymmetryScriptGeneratorH;
-import org.biojava3.structure.quaternary.misc.ProteinComplexSignature;
 import org.biojava3.structure.quaternary.utils.BlastClustReader;
 
+/**
+ * Calculates the quaternary symmetry of every current PDB entry and writes the results to a CSV file.
+ *
+ * Entries are calculated by {@link ScanSymmetryJob ScanSymmetryJobs} on a pool of threads. The calling thread writes
+ * the results in the order of the PDB IDs and logs each finished entry in a {@link ScanCheckpoint}, so an interrupted
+ * scan continues where it stopped when it is run again with the same CSV file. Entries that failed, ran out of memory,
+ * took longer than the time budget or have more atoms than the limit are logged too, and are only tried again
+ * with {@link #setRetryFailed(boolean)}. Entries that are known to run out of memory should be excluded with
+ * {@link #setExcluded(Collection)}, for example from a file given to {@link #main(String[])}: all jobs share one JVM,
+ * so an OutOfMemoryError can hit any of them, or the thread writing the results.
+ */
 public class ScanSymmetry implements Runnable {
 //	private static String PDB_PATH = "C:/Users/Peter/Documents/PDB/";
 	private AtomCache cache = null;
 	private static String RESULT_DIR = "C:/Users/Peter/Documents/QuatStructureComparison/";
 
+	/**
+	 * The longest the calling thread waits before checking for jobs over the time budget, in milliseconds.
+	 */
+	private static final long MAX_TIMEOUT_CHECK_INTERVAL = 1000;
+
+	/**
+	 * The default time budget for each entry, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 10 * 60 * 1000;
+
+	/**
+	 * The default size limit of a biological assembly, in atoms. Only C-alpha atoms are parsed, so this is about the
+	 * number of residues.
+	 */
+	public static final int DEFAULT_MAX_ATOMS = 100000;
+
+	private File csvFile = new File(RESULT_DIR + "symm.csv");
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private long timeout = DEFAULT_TIMEOUT;
+	private int maxAtoms = DEFAULT_MAX_ATOMS;
+	private Set<String> excluded = new HashSet<String>();
+	private boolean retryFailed = false;
 
 	public ScanSymmetry () {
 		initializeCache();
 	}
 
-	public static void main(String[] args) {
-		new ScanSymmetry().run();
+	/**
+	 * Runs the scan. The optional argument is a file of PDB IDs to exclude, in the format of
+	 * {@link #readExcluded(File)}.
+	 */
+	public static void main(String[] args) throws IOException {
+		ScanSymmetry scan = new ScanSymmetry();
+		if (args.length > 0) {
+			scan.setExcluded(readExcluded(new File(args[0])));
+		}
+		scan.run();
 	}
 
-	public void run() {
-		String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(Calendar.getInstance().getTime());
+	/**
+	 * Reads a list of PDB IDs to exclude: one per line, with blank lines and lines starting with # ignored.
+	 */
+	public static Set<String> readExcluded(File file) throws IOException {
+		Set<String> excluded = new HashSet<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					excluded.add(line.toUpperCase());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return excluded;
+	}
+
+	/**
+	 * Sets the CSV file for the results. The checkpoint and the error log are written next to it.
+	 */
+	public void setCsvFile(File csvFile) {
+		this.csvFile = csvFile;
+	}
+
+	/**
+	 * Sets the number of entries that are calculated at the same time.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the wall-clock budget for each entry in milliseconds, or 0 for none; the default is {@link #DEFAULT_TIMEOUT}.
+	 * An entry that takes longer is cancelled and logged as timed out. The symmetry solvers stop when they are
+	 * interrupted; other parts of the calculation run to the end, but their results are dropped.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Sets the largest biological assembly, in atoms, that is calculated; the default is {@link #DEFAULT_MAX_ATOMS}.
+	 * Larger entries are logged as too large. An entry that runs out of memory anyway is logged as such, and the scan
+	 * goes on.
+	 */
+	public void setMaxAtoms(int maxAtoms) {
+		this.maxAtoms = maxAtoms;
+	}
 
+	/**
+	 * Sets the PDB IDs of entries that are not calculated at all; none are excluded by default. Excluded entries are
+	 * not logged in the checkpoint, so they are calculated if they are removed from the list later.
+	 */
+	public void setExcluded(Collection<String> excluded) {
+		this.excluded = new HashSet<String>(excluded);
+	}
+
+	/**
+	 * If true, entries that were logged as failed, timed out, too large or out of memory are calculated again.
+	 */
+	public void setRetryFailed(boolean retryFailed) {
+		this.retryFailed = retryFailed;
+	}
+
+	public void run() {
 		System.out.println("Reading blastclust files");
 
 		BlastClustReader reader95 = new BlastClustReader(95);
 		BlastClustReader reader30 = new BlastClustReader(30);
+		// load the clusters before the readers are shared between threads
+		reader95.getPdbChainIdClusters();
+		reader30.getPdbChainIdClusters();
 
-
+		ScanCheckpoint checkpoint = new ScanCheckpoint(ScanCheckpoint.forCsvFile(csvFile));
 		PrintWriter out = null;
 		PrintWriter error = null;
-
-		try {
-			out = new PrintWriter(new FileWriter(RESULT_DIR + timeStamp + "_symm.csv"));
-			error = new PrintWriter(new FileWriter(RESULT_DIR + timeStamp + "_error.txt"));
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			System.exit(-1);
-		}
-
-
-		long t1 = System.nanoTime();
+		ExecutorService pool = null;
 
 		int success = 0;
 		int proteins = 0;
 		int failure = 0;
+		int skipped = 0;
 
-		String header = "pdbId,bioassembly,local,pseudostoichiometric,stoichiometry,pseudosymmetric,pointgroup,order," +
-				"lowSymmetry,minidentity,maxidentity,rmsd,tmscoremin,subunits,time,signature95,stoich95,signature30,stoich30,spacegroup";
-		out.println(header);
-		
-		QuatSymmetryParameters parameters = new QuatSymmetryParameters();
-
+		long t1 = System.nanoTime();
 
-		Set<String> set = GetRepresentatives.getAll();
+		try {
+			// entries that are logged as finished are skipped, failed ones only if they are not retried
+			Set<String> finished = new HashSet<String>();
+			for (Map.Entry<String, String> entry: checkpoint.read().entrySet()) {
+				if (!retryFailed || entry.getValue().equals(ScanSymmetryJob.STATUS_DONE)) {
+					finished.add(entry.getKey());
+				}
+			}
+			removeUnfinishedRows(csvFile, finished);
 
-		// set skip to true to restart calculation with a specified PDB ID
-		boolean skip = false;
-		String restartId = "4A0W";
-		
-		for (String pdbId: set) {
-//		for (String pdbId: helixExamples) {
-			if (skip && pdbId.equals(restartId)) {
-				skip = false;
-			} 
-			if (skip) {
-				continue;
+			boolean newFile = !csvFile.exists();
+			out = new PrintWriter(new FileWriter(csvFile, true));
+			if (newFile) {
+				out.println(ScanSymmetryJob.CSV_HEADER);
+				out.flush();
 			}
+			error = new PrintWriter(new FileWriter(new File(csvFile.getPath() + ".errors"), true));
+			checkpoint.open();
 
-			// exclude the following examples (out of memory exception)		
-			if (pdbId.equals("1M4X")) continue;
-			if (pdbId.equals("3HQV")) continue;
-			if (pdbId.equals("3HR2")) continue;
-			if (pdbId.equals("4A8B")) continue; 
-			if (pdbId.equals("4D8Q")) continue;
-			
-			if (pdbId.equals("4A0W")) continue;
-
-			System.out.println("------------- " + pdbId  + "-------------");
-
 			StructureIO.setAtomCache(cache);
-			int bioAssemblyCount = StructureIO.getNrBiologicalAssemblies(pdbId);
-			int bioAssemblyId = 0;
-			System.out.println("Bioassemblies: " + bioAssemblyCount);
-			if (bioAssemblyCount > 0) {
-				bioAssemblyId = 1;
-			}
-			
-			System.out.println("bioAssemblyId: " + bioAssemblyId);
-//			for (int i = 0; i < bioAssemblyCount; i++) {	
-			Structure structure = null;
-				try {
-					structure = StructureIO.getBiologicalAssembly(pdbId, bioAssemblyId);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					error.println(pdbId + "[" + bioAssemblyId + "]: " + e.getMessage());
-					error.flush();
-				} catch (StructureException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					error.println(pdbId + "[" + bioAssemblyId + "]: " + e.getMessage());
-					error.flush();
+			QuatSymmetryParameters parameters = new QuatSymmetryParameters();
+
+			List<String> pdbIds = new ArrayList<String>();
+			int nExcluded = 0;
+			for (String pdbId: GetRepresentatives.getAll()) {
+				if (finished.contains(pdbId)) {
+					skipped++;
+				} else if (excluded.contains(pdbId)) {
+					nExcluded++;
+				} else {
+					pdbIds.add(pdbId);
 				}
+			}
+			System.out.println("Skipping " + skipped + " entries that are logged in " + checkpoint.getFile().getPath());
+			System.out.println("Skipping " + nExcluded + " excluded entries");
+			skipped += nExcluded;
 
-				long ts1 = System.nanoTime(); 	
+			// jobs are submitted lazily, at most 2 per thread ahead of the next entry to write, and written in order
+			pool = Executors.newFixedThreadPool(threads);
+			CompletionService<List<String>> completion = new ExecutorCompletionService<List<String>>(pool);
+			Map<Future<List<String>>, ScanSymmetryJob> inFlight = new HashMap<Future<List<String>>, ScanSymmetryJob>();
+			Map<Integer, ScanSymmetryJob> done = new HashMap<Integer, ScanSymmetryJob>();
+			Map<ScanSymmetryJob, Integer> index = new HashMap<ScanSymmetryJob, Integer>();
+			int maxAhead = 2 * threads;
+			int next = 0;
+			int written = 0;
 
+			while (written < pdbIds.size()) {
+				while (next < pdbIds.size() && next - written < maxAhead) {
+					ScanSymmetryJob job = new ScanSymmetryJob(pdbIds.get(next), parameters, reader95, reader30);
+					job.setMaxAtoms(maxAtoms);
+					index.put(job, next);
+					inFlight.put(completion.submit(job), job);
+					next++;
+				}
+
+				// with a time budget, wake up regularly to cancel jobs that have run too long
+				Future<List<String>> future = null;
 				try {
-					String spaceGroup = structure.getCrystallographicInfo().getSpaceGroup();
-					QuatSymmetryDetector detector = new QuatSymmetryDetector(structure, parameters);
+					if (timeout <= 0) {
+						future = completion.take();
+					} else {
+						future = completion.poll(Math.min(timeout, MAX_TIMEOUT_CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+					}
+				} catch (InterruptedException e) {
+					// stop the scan; the running jobs are cancelled below, and the logged entries are kept
+					System.err.println("Interrupted after writing " + written + " of " + pdbIds.size() + " entries");
+					Thread.currentThread().interrupt();
+					break;
+				}
+				// check the budget on every pass, since polls rarely time out while other jobs keep finishing
+				if (timeout > 0) {
+					for (ScanSymmetryJob job: cancelOverdueJobs(inFlight)) {
+						done.put(index.remove(job), job);
+					}
+				}
+				if (future != null) {
+					ScanSymmetryJob job = inFlight.remove(future);
+					if (job != null) {
+						// a cancelled job is already done
+						done.put(index.remove(job), job);
+					}
+				}
 
-					if (detector.hasProteinSubunits()) {	
-						long ts2 = System.nanoTime();
-	
-						int time = Math.round((float)(ts2-ts1)/1000000.0f);
-						List<QuatSymmetryResults> globalResults = detector.getGlobalSymmetry();
-						
-						printToCsv(reader95, reader30, out, pdbId,
-								bioAssemblyId, time, globalResults, spaceGroup);
-						for (List<QuatSymmetryResults> localResults: detector.getLocalSymmetries()) {
-							printToCsv(reader95, reader30, out, pdbId,
-									bioAssemblyId, time, localResults, spaceGroup);
+				// write the finished entries that are next in line
+				ScanSymmetryJob job = null;
+				while ((job = done.remove(written)) != null) {
+					String status = job.getStatus();
+					System.out.println("------------- " + job.getPdbId()  + ": " + status + " -------------");
+					if (status.equals(ScanSymmetryJob.STATUS_DONE)) {
+						for (String row: job.getRows()) {
+							out.println(row);
+						}
+						out.flush();
+						if (out.checkError()) {
+							throw new IOException("Could not write to " + csvFile.getPath());
 						}
-						proteins++;
+						if (job.hasProteinSubunits()) {
+							proteins++;
+						}
+						success++;
+					} else {
+						failure++;
+						error.println(job.getPdbId() + "[" + job.getBioAssemblyId() + "]: " + status + ": " + job.getMessage());
+						error.flush();
 					}
-					success++;
-					out.flush();
-				} catch (Exception e) {
-					failure++;
-					e.printStackTrace();
-					error.println(pdbId + "[" + bioAssemblyId + "]: " + e.getMessage());
-					error.flush();
+					checkpoint.append(job.getPdbId(), status);
+					written++;
 				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+			checkpoint.close();
+			if (out != null) {
+				out.close();
+			}
+			if (error != null) {
+				error.close();
+			}
 		}
 		long t2 = System.nanoTime();
 
 		System.out.println("PDBs succeeded: " + success);
 		System.out.println("PDBs failed   : " + failure);
+		System.out.println("PDBs skipped  : " + skipped);
 		System.out.println("Proteins      : " + proteins);
-		System.out.println("Total structure: " + set.size());
 		System.out.println("Cpu time: " + (t2-t1)/1000000 + " ms.");
-		
-	    out.close();
-//		out1.flush();
-		error.close();
 	}
 
-	private void printToCsv(BlastClustReader reader95,
-			BlastClustReader reader30, PrintWriter out, String pdbId,
-			int bioAssemblyId, int time, List<QuatSymmetryResults> resultsList, String spaceGroup) {
-		for (QuatSymmetryResults results: resultsList) {
-			ProteinComplexSignature s95 = new ProteinComplexSignature(pdbId, results.getSubunits().getChainIds(), reader95);
-			String signature95 = s95.getComplexSignature();
-			String stoich95 = s95.getComplexStoichiometry();
-			ProteinComplexSignature s30 = new ProteinComplexSignature(pdbId, results.getSubunits().getChainIds(), reader30);
-			String signature30 = s30.getComplexSignature();
-			String stoich30 = s30.getComplexStoichiometry();
-			int order = 1;
-			if (!results.getSymmetry().equals("H")) {
-				order = results.getRotationGroup().getOrder();
+	/**
+	 * Cancels the running jobs that have exceeded the time budget, and returns them marked as timed out.
+	 */
+	private List<ScanSymmetryJob> cancelOverdueJobs(Map<Future<List<String>>, ScanSymmetryJob> inFlight) {
+		List<ScanSymmetryJob> cancelled = new ArrayList<ScanSymmetryJob>();
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Future<List<String>>, ScanSymmetryJob>> iter = inFlight.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<Future<List<String>>, ScanSymmetryJob> entry = iter.next();
+			ScanSymmetryJob job = entry.getValue();
+			Long startTime = job.getStartTime();
+			if (startTime == null || now - startTime <= timeout) {
+				continue;
+			}
+			// mark it first, so that the failure caused by the interrupt doesn't count
+			job.setUnfinished(ScanSymmetryJob.STATUS_TIMED_OUT, "cancelled after " + (now - startTime) + " ms");
+			if (!entry.getKey().cancel(true)) {
+				// it just finished; take it normally
+				continue;
 			}
-			
-			out.println("PDB" + pdbId +"," + bioAssemblyId + "," + results.isLocal() +
-					"," + results.getSubunits().isPseudoStoichiometric() +
-					"," + results.getSubunits().getStoichiometry() +
-					"," + results.getSubunits().isPseudoSymmetric() +
-					"," + results.getSymmetry() +
-					"," + order + 
-					"," + isLowSymmetry(results) +
-					"," + Math.round(results.getSubunits().getMinSequenceIdentity()*100.0) +
-					"," + Math.round(results.getSubunits().getMaxSequenceIdentity()*100.0) +
-					"," + (float) results.getAverageTraceRmsd() +
-					"," + (float) results.getAverageTraceTmScoreMin() +
-					"," + results.getSubunits().getSubunitCount() +
-					"," + time +
-					"," + signature95 +
-					"," + stoich95 +
-					"," + signature30 +
-					"," + stoich30 +
-					"," + spaceGroup
-					);
+			iter.remove();
+			cancelled.add(job);
 		}
+		return cancelled;
 	}
-	
-	private boolean isLowSymmetry(QuatSymmetryResults results) {
-		return getMinFold(results.getSubunits()) > 1 && results.getRotationGroup() != null && results.getRotationGroup().getPointGroup().equals("C1");
-	}
-	
-	private int getMinFold(Subunits subunits) {
-		if (subunits.getFolds().size() > 1) {
-			return subunits.getFolds().get(1);
+
+	/**
+	 * Removes the rows of entries that are not logged as finished from the CSV file. These are left behind if the scan
+	 * stopped after writing the rows of an entry but before logging it.
+	 */
+	static void removeUnfinishedRows(File csvFile, Set<String> finished) throws IOException {
+		if (!csvFile.exists()) {
+			return;
+		}
+		File tmpFile = new File(csvFile.getPath() + ".tmp");
+		int removed = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(csvFile));
+		PrintWriter writer = new PrintWriter(new FileWriter(tmpFile));
+		try {
+			String line = reader.readLine();
+			if (line != null) {
+				// header
+				writer.println(line);
+			}
+			while ((line = reader.readLine()) != null) {
+				int comma = line.indexOf(',');
+				if (line.startsWith("PDB") && comma > 3 && finished.contains(line.substring(3, comma))) {
+					writer.println(line);
+				} else {
+					removed++;
+				}
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+		if (removed == 0) {
+			tmpFile.delete();
+			return;
+		}
+		System.out.println("Removing " + removed + " rows of unfinished entries from " + csvFile.getPath());
+		if (!csvFile.delete() || !tmpFile.renameTo(csvFile)) {
+			throw new IOException("Could not replace " + csvFile.getPath() + " with " + tmpFile.getPath());
 		}
-		return subunits.getFolds().get(0);
 	}
-	
+
 	private void initializeCache() {
 		cache = new AtomCache();
 		FileParsingParameters params = cache.getFileParsingParams();
@@ -0,0 +1,220 @@
+package org.biojava3.structure.quaternary.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.biojava.bio.structure.Chain;
+import org.biojava.bio.structure.Group;
+import org.biojava.bio.structure.Structure;
+import org.biojava3.structure.StructureIO;
+import org.biojava3.structure.quaternary.core.QuatSymmetryDetector;
+import org.biojava3.structure.quaternary.core.QuatSymmetryParameters;
+import org.biojava3.structure.quaternary.core.QuatSymmetryResults;
+import org.biojava3.structure.quaternary.core.Subunits;
+import org.biojava3.structure.quaternary.misc.ProteinComplexSignature;
+import org.biojava3.structure.quaternary.utils.BlastClustReader;
+
+/**
+ * Calculates the quaternary symmetry of the first biological assembly of one PDB entry, for {@link ScanSymmetry}.
+ * The job returns the CSV rows of the entry, and sets a status that says whether the entry has been finished.
+ *
+ * The BlastClustReaders are shared between jobs, so their clusters must be loaded before the jobs start.
+ */
+public class ScanSymmetryJob implements Callable<List<String>> {
+	public static final String STATUS_DONE = "done";
+	public static final String STATUS_FAILED = "failed";
+	public static final String STATUS_TIMED_OUT = "timed_out";
+	public static final String STATUS_TOO_LARGE = "too_large";
+	public static final String STATUS_OUT_OF_MEMORY = "out_of_memory";
+
+	public static final String CSV_HEADER = "pdbId,bioassembly,local,pseudostoichiometric,stoichiometry,pseudosymmetric,pointgroup,order," +
+			"lowSymmetry,minidentity,maxidentity,rmsd,tmscoremin,subunits,time,signature95,stoich95,signature30,stoich30,spacegroup";
+
+	private String pdbId = null;
+	private QuatSymmetryParameters parameters = null;
+	private BlastClustReader reader95 = null;
+	private BlastClustReader reader30 = null;
+	private int maxAtoms = Integer.MAX_VALUE;
+
+	private int bioAssemblyId = 0;
+	private volatile Long startTime = null;
+	private boolean protein = false;
+
+	// set once, by the job or by whoever cancels it, whichever is first
+	private String status = null;
+	private String message = null;
+	private List<String> rows = new ArrayList<String>();
+
+	public ScanSymmetryJob(String pdbId, QuatSymmetryParameters parameters, BlastClustReader reader95, BlastClustReader reader30) {
+		this.pdbId = pdbId;
+		this.parameters = parameters;
+		this.reader95 = reader95;
+		this.reader30 = reader30;
+	}
+
+	/**
+	 * Sets the largest number of atoms in the biological assembly that is calculated. Larger assemblies get the status
+	 * STATUS_TOO_LARGE without being calculated.
+	 */
+	public void setMaxAtoms(int maxAtoms) {
+		this.maxAtoms = maxAtoms;
+	}
+
+	public String getPdbId() {
+		return pdbId;
+	}
+
+	public int getBioAssemblyId() {
+		return bioAssemblyId;
+	}
+
+	/**
+	 * Returns the time in milliseconds at which the job started, or null if it hasn't started yet.
+	 */
+	public Long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns one of the STATUS constants, or null if the job hasn't finished.
+	 */
+	public synchronized String getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the reason the entry failed, or null.
+	 */
+	public synchronized String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns true if the entry has protein subunits, i.e. it has CSV rows.
+	 */
+	public synchronized boolean hasProteinSubunits() {
+		return protein && STATUS_DONE.equals(status);
+	}
+
+	/**
+	 * Returns the CSV rows of the entry, which are empty unless the status is STATUS_DONE.
+	 */
+	public synchronized List<String> getRows() {
+		return rows;
+	}
+
+	/**
+	 * Marks a job that is cancelled or could not be run. Has no effect if the job has already finished, so
+	 * whatever a cancelled job calculates afterwards is dropped.
+	 */
+	public void setUnfinished(String status, String message) {
+		finish(status, message, new ArrayList<String>());
+	}
+
+	private synchronized void finish(String status, String message, List<String> rows) {
+		if (this.status != null) {
+			return;
+		}
+		this.status = status;
+		this.message = message;
+		this.rows = rows;
+	}
+
+	public List<String> call() {
+		startTime = System.currentTimeMillis();
+		try {
+			int bioAssemblyCount = StructureIO.getNrBiologicalAssemblies(pdbId);
+			if (bioAssemblyCount > 0) {
+				bioAssemblyId = 1;
+			}
+			Structure structure = StructureIO.getBiologicalAssembly(pdbId, bioAssemblyId);
+
+			int atomCount = getAtomCount(structure);
+			if (atomCount > maxAtoms) {
+				setUnfinished(STATUS_TOO_LARGE, atomCount + " atoms");
+				return getRows();
+			}
+
+			long ts1 = System.nanoTime();
+			String spaceGroup = structure.getCrystallographicInfo().getSpaceGroup();
+			QuatSymmetryDetector detector = new QuatSymmetryDetector(structure, parameters);
+
+			List<String> lines = new ArrayList<String>();
+			if (detector.hasProteinSubunits()) {
+				long ts2 = System.nanoTime();
+
+				int time = Math.round((float)(ts2-ts1)/1000000.0f);
+				addRows(detector.getGlobalSymmetry(), time, spaceGroup, lines);
+				for (List<QuatSymmetryResults> localResults: detector.getLocalSymmetries()) {
+					addRows(localResults, time, spaceGroup, lines);
+				}
+				protein = true;
+			}
+			finish(STATUS_DONE, null, lines);
+		} catch (OutOfMemoryError e) {
+			setUnfinished(STATUS_OUT_OF_MEMORY, e.getMessage());
+		} catch (Exception e) {
+			setUnfinished(STATUS_FAILED, e.getMessage());
+		}
+		return getRows();
+	}
+
+	private static int getAtomCount(Structure structure) {
+		int count = 0;
+		for (int m = 0; m < structure.nrModels(); m++) {
+			for (Chain c: structure.getModel(m)) {
+				for (Group g: c.getAtomGroups()) {
+					count += g.getAtoms().size();
+				}
+			}
+		}
+		return count;
+	}
+
+	private void addRows(List<QuatSymmetryResults> resultsList, int time, String spaceGroup, List<String> lines) {
+		for (QuatSymmetryResults results: resultsList) {
+			ProteinComplexSignature s95 = new ProteinComplexSignature(pdbId, results.getSubunits().getChainIds(), reader95);
+			String signature95 = s95.getComplexSignature();
+			String stoich95 = s95.getComplexStoichiometry();
+			ProteinComplexSignature s30 = new ProteinComplexSignature(pdbId, results.getSubunits().getChainIds(), reader30);
+			String signature30 = s30.getComplexSignature();
+			String stoich30 = s30.getComplexStoichiometry();
+			int order = 1;
+			if (!results.getSymmetry().equals("H")) {
+				order = results.getRotationGroup().getOrder();
+			}
+
+			lines.add("PDB" + pdbId +"," + bioAssemblyId + "," + results.isLocal() +
+					"," + results.getSubunits().isPseudoStoichiometric() +
+					"," + results.getSubunits().getStoichiometry() +
+					"," + results.getSubunits().isPseudoSymmetric() +
+					"," + results.getSymmetry() +
+					"," + order +
+					"," + isLowSymmetry(results) +
+					"," + Math.round(results.getSubunits().getMinSequenceIdentity()*100.0) +
+					"," + Math.round(results.getSubunits().getMaxSequenceIdentity()*100.0) +
+					"," + (float) results.getAverageTraceRmsd() +
+					"," + (float) results.getAverageTraceTmScoreMin() +
+					"," + results.getSubunits().getSubunitCount() +
+					"," + time +
+					"," + signature95 +
+					"," + stoich95 +
+					"," + signature30 +
+					"," + stoich30 +
+					"," + spaceGroup
+					);
+		}
+	}
+
+	private boolean isLowSymmetry(QuatSymmetryResults results) {
+		return getMinFold(results.getSubunits()) > 1 && results.getRotationGroup() != null && results.getRotationGroup().getPointGroup().equals("C1");
+	}
+
+	private int getMinFold(Subunits subunits) {
+		if (subunits.getFolds().size() > 1) {
+			return subunits.getFolds().get(1);
+		}
+		return subunits.getFolds().get(0);
+	}
+}
@@ -0,0 +1,129 @@
+package org.biojava3.structure.quaternary.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Proposes likely rotation axes for a set of subunits from their geometry, so that
+ * {@link RotationSolver} can try them before sampling all orientations on the sphere.
+ *
+ * All axes pass through the centroid of the subunit centers. The candidates are:
+ * <ul>
+ * <li>the principal axes of the moments of inertia, which coincide with the highest-order axis
+ * of cyclic and dihedral assemblies</li>
+ * <li>the direction of each subunit center, as for axes that pass through a subunit</li>
+ * <li>the direction of the midpoint between each subunit and its nearest neighbors, as for 2-fold axes
+ * that swap a pair of subunits</li>
+ * <li>the normal of the plane through each subunit and two of its nearest neighbors, as for axes
+ * around a ring of subunits</li>
+ * </ul>
+ * Axes within a small angle of an earlier axis, in either direction, are dropped.
+ */
+public class CandidateAxes {
+    private static final int NEIGHBORS = 6;
+    private static final double MIN_ANGLE = Math.toRadians(2.0);
+
+    private Subunits subunits = null;
+    private List<Vector3d> axes = null;
+
+    public CandidateAxes(Subunits subunits) {
+        this.subunits = subunits;
+    }
+
+    /**
+     * Returns unit vectors along the candidate axes, most likely first.
+     */
+    public List<Vector3d> getAxes() {
+        if (axes == null) {
+            run();
+        }
+        return axes;
+    }
+
+    private void run() {
+        axes = new ArrayList<Vector3d>();
+        double cosMinAngle = Math.cos(MIN_ANGLE);
+
+        for (Vector3d axis: subunits.getMomentsOfInertia().getPrincipalAxes()) {
+            addAxis(new Vector3d(axis), cosMinAngle);
+        }
+
+        List<Point3d> centers = subunits.getCenters();
+        int n = centers.size();
+        for (Point3d c: centers) {
+            addAxis(new Vector3d(c), cosMinAngle);
+        }
+
+        for (int i = 0; i < n; i++) {
+            Point3d ci = centers.get(i);
+            int[] neighbors = getNearestNeighbors(centers, i);
+            for (int a = 0; a < neighbors.length; a++) {
+                Point3d ca = centers.get(neighbors[a]);
+                Vector3d midpoint = new Vector3d(ci);
+                midpoint.add(ca);
+                addAxis(midpoint, cosMinAngle);
+
+                Vector3d u = new Vector3d(ca);
+                u.sub(ci);
+                for (int b = a + 1; b < neighbors.length; b++) {
+                    Vector3d v = new Vector3d(centers.get(neighbors[b]));
+                    v.sub(ci);
+                    Vector3d normal = new Vector3d();
+                    normal.cross(u, v);
+                    addAxis(normal, cosMinAngle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Normalizes the axis and adds it, unless it is degenerate or close to an axis that is already there.
+     */
+    private void addAxis(Vector3d axis, double cosMinAngle) {
+        double length = axis.length();
+        if (length < 1.0E-6) {
+            return;
+        }
+        axis.scale(1.0/length);
+        for (Vector3d other: axes) {
+            if (Math.abs(axis.dot(other)) > cosMinAngle) {
+                return;
+            }
+        }
+        axes.add(axis);
+    }
+
+    /**
+     * Returns the indices of up to NEIGHBORS centers closest to center i, closest first.
+     */
+    private static int[] getNearestNeighbors(List<Point3d> centers, int i) {
+        int n = centers.size();
+        int k = Math.min(NEIGHBORS, n - 1);
+        int[] nearest = new int[k];
+        double[] distances = new double[k];
+        int count = 0;
+        Point3d ci = centers.get(i);
+        for (int j = 0; j < n; j++) {
+            if (j == i) {
+                continue;
+            }
+            double d = ci.distanceSquared(centers.get(j));
+            if (count == k && d >= distances[k - 1]) {
+                continue;
+            }
+            // insertion into the sorted list of the nearest centers so far
+            int pos = count < k ? count++ : k - 1;
+            while (pos > 0 && distances[pos - 1] > d) {
+                distances[pos] = distances[pos - 1];
+                nearest[pos] = nearest[pos - 1];
+                pos--;
+            }
+            distances[pos] = d;
+            nearest[pos] = j;
+        }
+        return nearest;
+    }
+}
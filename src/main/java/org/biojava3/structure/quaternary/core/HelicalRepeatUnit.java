@@ -13,6 +13,7 @@ import java.util.TreeMap;
 
 import javax.vecmath.Point3d;
 
+import org.biojava3.structure.quaternary.geometry.ContactCounter;
 import org.biojava3.structure.quaternary.geometry.SuperPosition;
 
 public class HelicalRepeatUnit {
@@ -140,9 +141,10 @@ private Map<Integer[], Integer> findInteractingNeigbors() {
 	Map<Integer[], Integer>  contactMap = new HashMap<Integer[], Integer>();
 	
 	Map<Integer, List<Integer[]>> distanceMap = findClosestPairs(8);
+	ContactCounter counter = new ContactCounter(repeatUnits, 10);
 	for (List<Integer[]> pairs: distanceMap.values())
 	for (Integer[] pair: pairs) {
-		Integer contacts = calcContactNumber(repeatUnits.get(pair[0]), repeatUnits.get(pair[1]));
+		Integer contacts = counter.getContactCount(pair[0], pair[1]);
 //		System.out.println("contacts: " + pair[0] + "-" + pair[1] + ": " + contacts);
 		if (contacts > 0) {
 			contactMap.put(pair, contacts);
@@ -193,16 +195,4 @@ private Map<Integer, List<Integer[]>> findClosestPairs(int maxNeighbors) {
 
     return reducedMap;
 }
-
-private static int calcContactNumber(Point3d[] a, Point3d[] b) {
-	int contacts = 0;
-	for (Point3d pa : a) {
-		for (Point3d pb : b) {
-			if (pa.distance(pb) < 10) {
-				contacts++;
-			}
-		}
-	}
-	return contacts;
-}
 }
@@ -0,0 +1,125 @@
+package org.biojava3.structure.quaternary.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable permutation of subunit indices, stored as an int[] with a precomputed hash code,
+ * so that it can be compared and put into hash sets without boxing.
+ *
+ * Subunit i is mapped onto subunit get(i).
+ */
+public final class Permutation {
+    private final int[] indices;
+    private final int hashCode;
+
+    /**
+     * Creates a permutation from a copy of indices.
+     */
+    public Permutation(int[] indices) {
+        this(indices.clone(), Arrays.hashCode(indices));
+    }
+
+    private Permutation(int[] indices, int hashCode) {
+        this.indices = indices;
+        this.hashCode = hashCode;
+    }
+
+    private static Permutation wrap(int[] indices) {
+        return new Permutation(indices, Arrays.hashCode(indices));
+    }
+
+    public static Permutation fromList(List<Integer> permutation) {
+        int[] indices = new int[permutation.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = permutation.get(i);
+        }
+        return wrap(indices);
+    }
+
+    public List<Integer> toList() {
+        List<Integer> permutation = new ArrayList<Integer>(indices.length);
+        for (int index: indices) {
+            permutation.add(index);
+        }
+        return permutation;
+    }
+
+    public int get(int i) {
+        return indices[i];
+    }
+
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the permutation that applies this permutation first and then other, like
+     * {@link PermutationGroup#combine(List, List)}.
+     */
+    public Permutation combine(Permutation other) {
+        int[] combined = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            combined[i] = other.indices[indices[i]];
+        }
+        return wrap(combined);
+    }
+
+    /**
+     * Returns the order of this permutation, i.e. the number of times it has to be applied to get the identity,
+     * or 0 if the order is larger than the number of subunits, like {@link PermutationGroup#getOrder(List)}.
+     * The order is the least common multiple of the cycle lengths.
+     */
+    public int getOrder() {
+        int n = indices.length;
+        boolean[] visited = new boolean[n];
+        long order = 1;
+        for (int i = 0; i < n; i++) {
+            if (visited[i]) {
+                continue;
+            }
+            int length = 0;
+            for (int j = i; !visited[j]; j = indices[j]) {
+                visited[j] = true;
+                length++;
+            }
+            order = order / gcd(order, length) * length;
+            if (order > n) {
+                return 0;
+            }
+        }
+        return n == 0 ? 0 : (int) order;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        Permutation other = (Permutation) obj;
+        return hashCode == other.hashCode && Arrays.equals(indices, other.indices);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(indices);
+    }
+}
@@ -2,22 +2,35 @@
 package org.biojava3.structure.quaternary.core;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  *
  * @author Peter
  */
 public class PermutationGroup {
-    List<List<Integer>> permutations = new ArrayList<List<Integer>>();
+    List<Permutation> permutations = new ArrayList<Permutation>();
+    Set<Permutation> members = new HashSet<Permutation>();
 
     public void addPermutation(List<Integer> permutation) {
-        if (!permutations.contains(permutation)) {
+        addPermutation(Permutation.fromList(permutation));
+    }
+
+    public void addPermutation(Permutation permutation) {
+        if (members.add(permutation)) {
             permutations.add(permutation);
         }
     }
 
-    public List<Integer> getPermutation(int index) {
+    /**
+     * Returns the permutation at index. Before Permutation existed this returned a List&lt;Integer&gt;; use
+     * {@link Permutation#toList()} where that is still needed.
+     */
+    public Permutation getPermutation(int index) {
     	return permutations.get(index);
     }
     
@@ -27,30 +40,27 @@ public class PermutationGroup {
     
  
     /**
-     * Ways to complete group: 
-     * - combinations of permutations pi x pj
-     * - combinations with itself p^k
+     * Completes the group by adding all products of its permutations.
      * 
+     * Every element of the group generated by the current permutations is a product of those
+     * permutations, so it is enough to multiply each new element with the original ones,
+     * using a work queue instead of repeated passes over all pairs.
      */
     public void completeGroup() {
-    	int n = permutations.size();
+        List<Permutation> generators = new ArrayList<Permutation>(permutations);
         for (int i = 0; i < permutations.size(); i++) {
-            for (int j = i; j < permutations.size(); j++) {
-                List<Integer> p = combine(permutations.get(i), permutations.get(j));
-                addPermutation(p);
+            Permutation p = permutations.get(i);
+            for (Permutation g: generators) {
+                addPermutation(p.combine(g));
 //                System.out.println("complete group: adding " + p);
             }
         }
-        // repeat iteratively until no new permutation are created
-        if (permutations.size() > n) {
-        	completeGroup();
-        }
     }
 
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Permutation Group: " + permutations.size() + " permutation");
-        for (List<Integer> permutation : permutations) {
+        for (Permutation permutation : permutations) {
             sb.append(permutation.toString());
         }
         return sb.toString();
@@ -76,6 +86,10 @@ public class PermutationGroup {
     }
     
     public String getGroupTable() {
+    	Map<Permutation, Integer> index = new HashMap<Permutation, Integer>();
+    	for (int i = 0; i < getOrder(); i++) {
+    		index.put(permutations.get(i), i);
+    	}
     	StringBuilder builder = new StringBuilder();
     	builder.append("  |");
     	for (int i = 0; i < getOrder(); i++) {
@@ -93,7 +107,8 @@ public class PermutationGroup {
     		builder.append(" |");
     		for (int j = 0; j < getOrder(); j++) {
     			builder.append(" ");
-    			builder.append(permutations.indexOf(combine(permutations.get(i), permutations.get(j))));
+    			Integer product = index.get(permutations.get(i).combine(permutations.get(j)));
+    			builder.append(product == null ? -1 : product);
     		}
     		builder.append("\n");
     	}
@@ -14,6 +14,7 @@ public class QuatSymmetryParameters {
 	private int maximumLocalCombinations = 50000; // max number of combinations to try for local symmetry calculation
 	private boolean localSymmetry = true;
 	private boolean verbose = false;
+	private int solverThreads = 1; // threads for the orientation search of the RotationSolver
 	private static final String n = System.getProperty("line.separator");
 	
 	/**
@@ -116,6 +117,21 @@ public class QuatSymmetryParameters {
 	public void setVerbose(boolean verbose) {
 		this.verbose = verbose;
 	}
+	/**
+	 * @return the number of threads the RotationSolver uses to sample orientations
+	 */
+	public int getSolverThreads() {
+		return solverThreads;
+	}
+	/**
+	 * @param solverThreads the number of threads the RotationSolver uses to sample orientations.
+	 * With more than 1, it finds the same rotation group as with 1. The threads are shared by all
+	 * solvers, but each assembly solved at the same time uses up to this many, so keep it at 1
+	 * when ScanSymmetry already runs several jobs in parallel.
+	 */
+	public void setSolverThreads(int solverThreads) {
+		this.solverThreads = solverThreads;
+	}
 	
 	public String toString() {
 		StringBuilder s = new StringBuilder();
@@ -143,6 +159,9 @@ public class QuatSymmetryParameters {
 		s.append("Verbose                           : ");
 		s.append(verbose);
 		s.append(n);
+		s.append("Solver threads                    : ");
+		s.append(solverThreads);
+		s.append(n);
 		return s.toString();
 	}
 }
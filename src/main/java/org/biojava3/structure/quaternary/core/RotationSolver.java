@@ -2,9 +2,21 @@
 package org.biojava3.structure.quaternary.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.AxisAngle4d;
 import javax.vecmath.Matrix4d;
@@ -31,10 +43,14 @@ public class RotationSolver implements QuatSymmetrySolver {
     private Matrix4d centroidInverse = new Matrix4d();
     private Point3d[] originalCoords = null;
     private Point3d[] transformedCoords = null;
-    private Set<List<Integer>> hashCodes = new HashSet<List<Integer>>();
+    private Set<Permutation> hashCodes = new HashSet<Permutation>();
+    private static final Permutation EMPTY_PERMUTATION = new Permutation(new int[0]);
+    private static final int ORIENTATIONS_PER_BLOCK = 64;
+    private static ExecutorService solverPool = null;
 
     private RotationGroup rotations = new RotationGroup();
     private QuatSuperpositionScorer scorer = null;
+    private boolean useCandidateAxes = true;
 
     public RotationSolver(Subunits subunits, QuatSymmetryParameters parameters) {
     	if (subunits.getSubunitCount()== 2) {
@@ -44,6 +60,14 @@ public class RotationSolver implements QuatSymmetrySolver {
         this.parameters = parameters;
     }
 
+    /**
+     * Sets whether the axes of CandidateAxes are tried before the sphere samples. They only make a solution
+     * be found sooner, so turning them off must give the same rotation group; this is meant for tests.
+     */
+    void setUseCandidateAxes(boolean useCandidateAxes) {
+        this.useCandidateAxes = useCandidateAxes;
+    }
+
 	public RotationGroup getSymmetryOperations() {
 		if (rotations.getOrder() == 0) {
             solve();
@@ -67,51 +91,184 @@ public class RotationSolver implements QuatSymmetrySolver {
             maxSymOps = 60;
          }
 
-        AxisAngle4d sphereAngle = new AxisAngle4d();
-        Matrix4d transformation = new Matrix4d();
-
-        int n = subunits.getSubunitCount();
-        
-        int sphereCount = SphereSampler.getSphereCount();
-        
         List<Double> angles = getAngles();
 
-       for (int i = 0; i < sphereCount; i++) {
-            SphereSampler.getAxisAngle(i, sphereAngle);
-            
+        // try the axes suggested by the geometry of the subunits first, then sample all orientations
+        List<Vector3d> candidateAxes = Collections.emptyList();
+        if (useCandidateAxes) {
+            candidateAxes = new CandidateAxes(subunits).getAxes();
+        }
+
+        if (parameters.getSolverThreads() > 1) {
+            solveParallel(candidateAxes, angles, maxSymOps, parameters.getSolverThreads());
+            return;
+        }
+
+        AxisAngle4d axisAngle = new AxisAngle4d();
+        Matrix4d transformation = new Matrix4d();
+        int orientationCount = candidateAxes.size() + SphereSampler.getSphereCount();
+        for (int i = 0; i < orientationCount; i++) {
+            // cancelled, for example by a time budget in ScanSymmetry
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RuntimeException("Interrupted while solving rotation group");
+            }
+            getOrientation(i, candidateAxes, axisAngle);
             for (double angle : angles) {
-                // apply rotation
-                sphereAngle.angle = angle;
-                transformation.set(sphereAngle);
-                // Make sure matrix element m33 is 1.0. It's not on Linux.
-                transformation.setElement(3, 3, 1.0);
-                for (int j = 0; j < n; j++) {
-                    transformedCoords[j].set(originalCoords[j]);
-                    transformation.transform(transformedCoords[j]);
+                // get permutation of subunits and check validity/uniqueness
+                Permutation permutation = getPermutation(axisAngle, angle, transformation, transformedCoords, box);
+  //              System.out.println("Rotation Solver: permutation: " + i + ": " + permutation);
+                if (addPermutation(permutation, maxSymOps)) {
+                    return;
                 }
+            }
+        }
+    }
 
-                // get permutation of subunits and check validity/uniqueness             
-                List<Integer> permutation = getPermutation();
-  //              System.out.println("Rotation Solver: permutation: " + i + ": " + permutation);
-                
-                boolean isValidPermuation = isValidPermutation(permutation);
-                if (! isValidPermuation) {
-                    continue;
+    /**
+     * Sets axisAngle to the i-th orientation: first the candidate axes, then the sphere samples.
+     */
+    private static void getOrientation(int i, List<Vector3d> candidateAxes, AxisAngle4d axisAngle) {
+        if (i < candidateAxes.size()) {
+            axisAngle.set(candidateAxes.get(i), 0);
+        } else {
+            SphereSampler.getAxisAngle(i - candidateAxes.size(), axisAngle);
+        }
+    }
+
+    /**
+     * Checks a permutation and adds its symmetry operation if it is valid.
+     * @return true if all symmetry operations have been found
+     */
+    private boolean addPermutation(Permutation permutation, int maxSymOps) {
+        boolean isValidPermuation = isValidPermutation(permutation);
+        if (! isValidPermuation) {
+            return false;
+        }
+
+        boolean newPermutation = evaluatePermutation(permutation);
+        if (newPermutation) {
+        	completeRotationGroup();
+        }
+
+        // check if all symmetry operations have been found.
+        return rotations.getOrder() >= maxSymOps;
+    }
+
+    /**
+     * Computes the permutations for blocks of orientations on several threads, and adds them in the same order as
+     * the sequential loop in {@link #solve()}, so the rotation group is the same. Each thread transforms the
+     * subunits into its own coordinates and looks them up in its own DistanceBox. The threads stop once the group
+     * is complete.
+     *
+     * The threads come from a pool shared by all solvers, and each solve keeps at most threads blocks running, so
+     * solving many assemblies doesn't start new threads for each one. Solves that run at the same time (e.g. the
+     * jobs of ScanSymmetry) still add up: they use up to their number times threads.
+     */
+    private void solveParallel(final List<Vector3d> candidateAxes, final List<Double> angles, int maxSymOps, int threads) {
+        final int orientationCount = candidateAxes.size() + SphereSampler.getSphereCount();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        // at most one worker per block that is running, reused by the blocks after it
+        final Queue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+
+        ExecutorService executor = getSolverPool();
+        LinkedList<Future<Permutation[]>> pending = new LinkedList<Future<Permutation[]>>();
+        try {
+            int next = 0;
+            while (next < orientationCount || !pending.isEmpty()) {
+                // keep threads blocks running ahead of the one being added
+                while (next < orientationCount && pending.size() < threads) {
+                    final int start = next;
+                    final int end = Math.min(next + ORIENTATIONS_PER_BLOCK, orientationCount);
+                    pending.add(executor.submit(new Callable<Permutation[]>() {
+                        @Override
+                        public Permutation[] call() {
+                            Worker worker = workers.poll();
+                            if (worker == null) {
+                                worker = new Worker();
+                            }
+                            try {
+                                return worker.getPermutations(start, end, candidateAxes, angles, done);
+                            } finally {
+                                workers.offer(worker);
+                            }
+                        }
+                    }));
+                    next = end;
                 }
-               
-                boolean newPermutation = evaluatePermutation(permutation);
-                if (newPermutation) {
-                	completeRotationGroup();
+
+                Permutation[] permutations = pending.removeFirst().get();
+                for (Permutation permutation: permutations) {
+                    if (addPermutation(permutation, maxSymOps)) {
+                        return;
+                    }
                 }
-                
-                // check if all symmetry operations have been found.          
-                if (rotations.getOrder() >= maxSymOps) {           	
-                	return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while solving rotation group", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            done.set(true);
+            for (Future<Permutation[]> future: pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the threads for the orientation blocks of all solvers.
+     */
+    private static synchronized ExecutorService getSolverPool() {
+        if (solverPool == null) {
+            solverPool = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RotationSolver-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return solverPool;
+    }
+
+    /**
+     * Scratch space of one thread in {@link #solveParallel}.
+     */
+    private class Worker {
+        private final Point3d[] coords = new Point3d[originalCoords.length];
+        private final DistanceBox<Integer> workerBox = new DistanceBox<Integer>(distanceThreshold);
+        private final AxisAngle4d axisAngle = new AxisAngle4d();
+        private final Matrix4d transformation = new Matrix4d();
+
+        Worker() {
+            for (int i = 0; i < originalCoords.length; i++) {
+                coords[i] = new Point3d();
+                workerBox.addPoint(originalCoords[i], i);
+            }
+        }
+
+        /**
+         * @return the permutation for each orientation from start to end and each angle, in that order
+         */
+        Permutation[] getPermutations(int start, int end, List<Vector3d> candidateAxes, List<Double> angles, AtomicBoolean done) {
+            Permutation[] permutations = new Permutation[(end - start) * angles.size()];
+            int k = 0;
+            for (int i = start; i < end; i++) {
+                if (done.get()) {
+                    break;
+                }
+                getOrientation(i, candidateAxes, axisAngle);
+                for (double angle : angles) {
+                    permutations[k++] = getPermutation(axisAngle, angle, transformation, coords, workerBox);
                 }
             }
+            return permutations;
         }
     }
-    
+
     private void completeRotationGroup() {
     	PermutationGroup g = new PermutationGroup();
     	for (int i = 0; i < rotations.getOrder(); i++) {
@@ -127,7 +284,7 @@ public class RotationSolver implements QuatSymmetrySolver {
     	   	
     	// try to complete the group
     	for (int i = 0; i < g.getOrder(); i++) {
-    		List<Integer> permutation = g.getPermutation(i);
+    		Permutation permutation = g.getPermutation(i);
     		
     		boolean isValidPermutation = isValidPermutation(permutation);	
     		if (isValidPermutation) {
@@ -138,13 +295,13 @@ public class RotationSolver implements QuatSymmetrySolver {
     	}
     }
 
-	private boolean evaluatePermutation(List<Integer> permutation) {
+	private boolean evaluatePermutation(Permutation permutation) {
 		// permutate subunits
 		for (int j = 0, n = subunits.getSubunitCount(); j < n; j++) {
 		    transformedCoords[j].set(originalCoords[permutation.get(j)]);
 		}
 
-		int fold = PermutationGroup.getOrder(permutation);
+		int fold = permutation.getOrder();
 		// get optimal transformation and axisangle by superimposing subunits
 		AxisAngle4d axisAngle = new AxisAngle4d();
 		
@@ -176,8 +333,8 @@ public class RotationSolver implements QuatSymmetrySolver {
 			// transform to original coordinate system
 			combineWithTranslation(transformation);
 			// evaluate superposition of CA traces with GTS score
-			double caRmsd = scorer.calcCalphaRMSD(transformation, permutation);
-			double caTmScoreMin = scorer.calcCalphaMinTMScore(transformation, permutation);
+			double caRmsd = scorer.calcCalphaRMSD(transformation, permutation.toList());
+			double caTmScoreMin = scorer.calcCalphaMinTMScore(transformation, permutation.toList());
 			if (caRmsd < 0.0 || caRmsd > parameters.getRmsdThreshold()) {
 				return false;
 			}
@@ -211,7 +368,7 @@ public class RotationSolver implements QuatSymmetrySolver {
     	return m.getSymmetryClass(0.05) == MomentsOfInertia.SymmetryClass.SYMMETRIC;
     }
 
-    private boolean isValidPermutation(List<Integer> permutation) {
+    private boolean isValidPermutation(Permutation permutation) {
     	  // if this permutation is a duplicate, return false
     	if (hashCodes.contains(permutation)) {
     		return false;
@@ -225,7 +382,7 @@ public class RotationSolver implements QuatSymmetrySolver {
         	return false;
         }
      // get fold and make sure there is only one E (fold=1) permutation
-        int fold = PermutationGroup.getOrder(permutation);
+        int fold = permutation.getOrder();
         if (rotations.getOrder() > 1 && fold == 1) {
 //        	System.out.println("Symop = 1");
             return false;
@@ -240,7 +397,7 @@ public class RotationSolver implements QuatSymmetrySolver {
         return hashCodes.add(permutation);
     }
 
-    private boolean isAllowedPermutation(List<Integer> permutation) {
+    private boolean isAllowedPermutation(Permutation permutation) {
     	List<Integer> seqClusterId = subunits.getSequenceClusterIds();
     	for (int i = 0; i < permutation.size(); i++) {
     		int j = permutation.get(i);
@@ -261,9 +418,9 @@ public class RotationSolver implements QuatSymmetrySolver {
         rotation.mul(rotation, centroidInverse);
     }
 
-    private Rotation createSymmetryOperation(List<Integer> permutation, Matrix4d transformation, AxisAngle4d axisAngle, double subunitRmsd, double rmsd, double tmScoreMin, int fold) {
+    private Rotation createSymmetryOperation(Permutation permutation, Matrix4d transformation, AxisAngle4d axisAngle, double subunitRmsd, double rmsd, double tmScoreMin, int fold) {
         Rotation s = new Rotation();
-        s.setPermutation(new ArrayList<Integer>(permutation));
+        s.setPermutation(permutation.toList());
         s.setTransformation(new Matrix4d(transformation));
         s.setAxisAngle(new AxisAngle4d(axisAngle));
         s.setSubunitRmsd(subunitRmsd);
@@ -302,11 +459,27 @@ public class RotationSolver implements QuatSymmetrySolver {
         return distanceThreshold;
     }
 
-    private List<Integer> getPermutation() {
-        List<Integer> permutation = new ArrayList<Integer>(transformedCoords.length);
+    /**
+     * Rotates the subunits by angle around the axis of axisAngle into coords, and returns which subunit each one
+     * lands on, or an empty permutation if that is ambiguous.
+     */
+    private Permutation getPermutation(AxisAngle4d axisAngle, double angle, Matrix4d transformation, Point3d[] coords, DistanceBox<Integer> box) {
+        // apply rotation
+        axisAngle.angle = angle;
+        transformation.set(axisAngle);
+        // Make sure matrix element m33 is 1.0. It's not on Linux.
+        transformation.setElement(3, 3, 1.0);
+        for (int j = 0; j < coords.length; j++) {
+            coords[j].set(originalCoords[j]);
+            transformation.transform(coords[j]);
+        }
+
+        int[] permutation = new int[coords.length];
+        boolean[] used = new boolean[originalCoords.length];
         double sum = 0.0f;
 
-        for (Point3d t: transformedCoords) {
+        for (int i = 0; i < coords.length; i++) {
+            Point3d t = coords[i];
             List<Integer> neighbors = box.getNeighborsWithCache(t);
             int closest = -1;
             double minDist = Double.MAX_VALUE;
@@ -321,30 +494,24 @@ public class RotationSolver implements QuatSymmetrySolver {
             
             sum += minDist;
             if (closest == -1) {
-         	   break;
+         	   return EMPTY_PERMUTATION;
             }
-            permutation.add(closest);
-        }
-        double rmsd = Math.sqrt(sum / transformedCoords.length);
-
-        if (rmsd > distanceThreshold || permutation.size() != transformedCoords.length) {
-            permutation.clear();
-            return permutation;
+            // if an index occurs twice, the permutation is invalid
+            if (used[closest]) {
+  //      	System.out.println("RotationSolver: getPermutation: duplicate members");
+                return EMPTY_PERMUTATION;
+            }
+            used[closest] = true;
+            permutation[i] = closest;
         }
+        double rmsd = Math.sqrt(sum / coords.length);
 
-        // check uniqueness of indices
-        Set<Integer> set = new HashSet<Integer>(permutation);
-        
-        // if size mismatch, clear permutation (its invalid)
-        if (set.size() != originalCoords.length) {
-  //      	System.out.println("RotationSolver: getPermutation: duplicate members" + set.size());
-            permutation.clear();
+        if (rmsd > distanceThreshold) {
+            return EMPTY_PERMUTATION;
         }
       
-//        System.out.println("RMSD: " + rmsd + " missed: " + Math.sqrt(missed) + " closest: " + missedI + " count: " + count);
  //       System.out.println("P1: " + permutation);
- //       System.out.println("P2: " + p2);
-        return permutation;
+        return new Permutation(permutation);
     }
 
     private void initialize() {
@@ -4,6 +4,7 @@ import java.util.List;
 
 import javax.vecmath.Point3d;
 
+import org.biojava3.structure.quaternary.geometry.ContactCounter;
 import org.biojava3.structure.quaternary.utils.Graph;
 import org.biojava3.structure.quaternary.utils.SimpleGraph;
 
@@ -26,10 +27,11 @@ public class SubunitGraph {
 		}
 
 		// add edges if there are 10 or more contact of Calpha atoms
+		ContactCounter counter = new ContactCounter(caCoords, DISTANCE_CUTOFF);
+		int[][] contacts = counter.getContactCounts(MIN_CONTACTS);
 		for (int i = 0; i < n - 1; i++) {
 			for (int j = i + 1; j < n; j++) {
-//				System.out.println("contacts: " + calcContactNumber(caCoords.get(i), caCoords.get(j)));
-				if (calcContactNumber(caCoords.get(i), caCoords.get(j)) >= MIN_CONTACTS) {
+				if (contacts[i][j] >= MIN_CONTACTS) {
 					graph.addEdge(i, j);
 				}
 			}
@@ -37,17 +39,4 @@ public class SubunitGraph {
 
 		return graph;
 	}
-
-	private int calcContactNumber(Point3d[] a, Point3d[] b) {
-		double distCutoffSq = DISTANCE_CUTOFF * DISTANCE_CUTOFF;
-		int contacts = 0;
-		for (Point3d pa : a) {
-			for (Point3d pb : b) {
-				if (pa.distanceSquared(pb) < distCutoffSq) {
-					contacts++;
-				}
-			}
-		}
-		return contacts;
-	}
 }
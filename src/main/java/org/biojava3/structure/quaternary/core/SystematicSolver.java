@@ -1,7 +1,6 @@
 
 package org.biojava3.structure.quaternary.core;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -28,7 +27,7 @@ public class SystematicSolver implements QuatSymmetrySolver {
     private Vector3d centroid = new Vector3d();
     private Matrix4d centroidInverse = new Matrix4d();
     private QuatSuperpositionScorer scorer = null;
-    private Set<List<Integer>> hashCodes = new HashSet<List<Integer>>();
+    private Set<Permutation> hashCodes = new HashSet<Permutation>();
 
     public SystematicSolver(Subunits subunits, QuatSymmetryParameters parameters) {
     	if (subunits.getSubunitCount()== 2) {
@@ -53,11 +52,12 @@ public class SystematicSolver implements QuatSymmetrySolver {
 
         // loop over all permutations
         while (g.hasMore()) {
-            int[] perm = g.getNext();
-            List<Integer> permutation = new ArrayList<Integer>(perm.length);
-            for (int j = 0; j < n; j++) {
-                permutation.add(perm[j]);
+            // cancelled, for example by a time budget in ScanSymmetry
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RuntimeException("Interrupted while solving rotation group");
             }
+            int[] perm = g.getNext();
+            Permutation permutation = new Permutation(perm);
             
             if (! isValidPermutation(permutation)) {
                 continue;
@@ -85,9 +85,9 @@ public class SystematicSolver implements QuatSymmetrySolver {
         rotation.mul(rotation, centroidInverse);
     }
 
-    private Rotation createSymmetryOperation(List<Integer> permutation, Matrix4d transformation, AxisAngle4d axisAngle, double rmsd, double caRmsd, double caTmScoreMin, int fold) {
+    private Rotation createSymmetryOperation(Permutation permutation, Matrix4d transformation, AxisAngle4d axisAngle, double rmsd, double caRmsd, double caTmScoreMin, int fold) {
         Rotation s = new Rotation();
-        s.setPermutation(new ArrayList<Integer>(permutation));
+        s.setPermutation(permutation.toList());
         s.setTransformation(new Matrix4d(transformation));
         s.setAxisAngle(new AxisAngle4d(axisAngle));
         s.setSubunitRmsd(rmsd);
@@ -115,7 +115,7 @@ public class SystematicSolver implements QuatSymmetrySolver {
   //  	System.out.println("complete group: " +  rotations.getOrder() +"/" + g.getOrder());
     	// try to complete the group
     	for (int i = 0; i < g.getOrder(); i++) {
-    		List<Integer> permutation = g.getPermutation(i);
+    		Permutation permutation = g.getPermutation(i);
     		if (isValidPermutation(permutation)) {
     			  // perform permutation of subunits
                 evaluatePermutation(permutation);
@@ -123,7 +123,7 @@ public class SystematicSolver implements QuatSymmetrySolver {
     	}
     }
     
-    private boolean isValidPermutation(List<Integer> permutation) {
+    private boolean isValidPermutation(Permutation permutation) {
     	// if this permutation is a duplicate, return false
     	if (hashCodes.contains(permutation)) {
     		return false;
@@ -139,7 +139,7 @@ public class SystematicSolver implements QuatSymmetrySolver {
         }
         
         // get fold and make sure there is only one E (fold=1) permutation
-        int fold = PermutationGroup.getOrder(permutation);
+        int fold = permutation.getOrder();
         if (rotations.getOrder() > 1 && fold == 1) {
             return false;
         }
@@ -152,7 +152,7 @@ public class SystematicSolver implements QuatSymmetrySolver {
         return hashCodes.add(permutation);
     }
 
-    private boolean isAllowedPermuation(List<Integer> permutation) {
+    private boolean isAllowedPermuation(Permutation permutation) {
     	List<Integer> seqClusterId = subunits.getSequenceClusterIds();
     	for (int i = 0; i < permutation.size(); i++) {
     		int j = permutation.get(i);
@@ -163,13 +163,13 @@ public class SystematicSolver implements QuatSymmetrySolver {
     	return true;
     }
     
-	private boolean evaluatePermutation(List<Integer> permutation) {
+	private boolean evaluatePermutation(Permutation permutation) {
 		// permutate subunits
 		for (int j = 0, n = subunits.getSubunitCount(); j < n; j++) {
 		    transformedCoords[j].set(originalCoords[permutation.get(j)]);
 		}
 
-		int fold = PermutationGroup.getOrder(permutation);
+		int fold = permutation.getOrder();
 		// get optimal transformation and axisangle by superimposing subunits
 		AxisAngle4d axisAngle = new AxisAngle4d();
 		Matrix4d transformation = SuperPosition.superposeAtOrigin(transformedCoords, originalCoords, axisAngle);
@@ -183,14 +183,14 @@ public class SystematicSolver implements QuatSymmetrySolver {
 		if (rmsd <parameters.getRmsdThreshold()) {
 			// transform to original coordinate system
 		    combineWithTranslation(transformation);
-		    	double caRmsd = scorer.calcCalphaRMSD(transformation, permutation);
+		    	double caRmsd = scorer.calcCalphaRMSD(transformation, permutation.toList());
 		    	if (caRmsd < 0.0) {
 		    		return false;
 		    	}
 		    	if (caRmsd > parameters.getRmsdThreshold()) {
 		            return false;
 		    	}
-				double caTmScoreMin = scorer.calcCalphaMinTMScore(transformation, permutation);
+				double caTmScoreMin = scorer.calcCalphaMinTMScore(transformation, permutation.toList());
 		        Rotation symmetryOperation = createSymmetryOperation(permutation, transformation, axisAngle, rmsd, caRmsd, caTmScoreMin, fold);
 		        rotations.addRotation(symmetryOperation);
 		        return true;
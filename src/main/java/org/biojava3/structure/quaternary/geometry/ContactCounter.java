@@ -0,0 +1,195 @@
+package org.biojava3.structure.quaternary.geometry;
+
+import java.util.List;
+import javax.vecmath.Point3d;
+
+/**
+ * Counts contacts between sets of points, such as the CA traces of the chains of a complex.
+ * Two points are in contact if they are closer than the distance cutoff.
+ *
+ * All points go into one {@link DistanceBox} with the cutoff as bin width, so each point is only compared to points
+ * in the neighboring bins. Pairs of sets whose bounding boxes are further apart than the cutoff are rejected before
+ * any point is compared, and points outside the bounding boxes of all possible partners are never looked up.
+ */
+public class ContactCounter {
+    private final List<Point3d[]> sets;
+    private final double cutoff;
+    private final double cutoffSquared;
+    private final int[] owner;
+    private final Point3d[] points;
+    private final DistanceBox<Integer> box;
+
+    // bounding boxes of the sets
+    private final double[][] min;
+    private final double[][] max;
+
+    /** Creates a new instance of ContactCounter */
+    public ContactCounter(List<Point3d[]> sets, double distanceCutoff) {
+        this.sets = sets;
+        this.cutoff = distanceCutoff;
+        this.cutoffSquared = distanceCutoff * distanceCutoff;
+
+        int n = sets.size();
+        int count = 0;
+        for (Point3d[] set: sets) {
+            count += set.length;
+        }
+        owner = new int[count];
+        points = new Point3d[count];
+        min = new double[n][3];
+        max = new double[n][3];
+
+        box = new DistanceBox<Integer>(distanceCutoff);
+        int index = 0;
+        for (int s = 0; s < n; s++) {
+            double[] lower = min[s];
+            double[] upper = max[s];
+            lower[0] = lower[1] = lower[2] = Double.POSITIVE_INFINITY;
+            upper[0] = upper[1] = upper[2] = Double.NEGATIVE_INFINITY;
+            for (Point3d p: sets.get(s)) {
+                owner[index] = s;
+                points[index] = p;
+                box.addPoint(p, index);
+                index++;
+                lower[0] = Math.min(lower[0], p.x);
+                lower[1] = Math.min(lower[1], p.y);
+                lower[2] = Math.min(lower[2], p.z);
+                upper[0] = Math.max(upper[0], p.x);
+                upper[1] = Math.max(upper[1], p.y);
+                upper[2] = Math.max(upper[2], p.z);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of contacts between all pairs of sets, in a single sweep over the points.
+     * @param maxContacts counting stops for a pair once it has this many contacts. Use Integer.MAX_VALUE
+     * for exact counts.
+     * @return contacts[i][j] for i < j; the lower triangle is not filled in
+     */
+    public int[][] getContactCounts(int maxContacts) {
+        int n = sets.size();
+        int[][] contacts = new int[n][n];
+
+        // pairs that can still gain contacts; pairs with disjoint bounding boxes never can
+        boolean[][] open = new boolean[n][n];
+        int[] openPartners = new int[n];
+        for (int i = 0; i < n - 1; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (overlaps(i, j) && maxContacts > 0) {
+                    open[i][j] = true;
+                    openPartners[i]++;
+                }
+            }
+        }
+
+        int start = 0;
+        for (int s = 0; s < n; s++) {
+            int length = sets.get(s).length;
+            double[] lower = partnerMin(s, open[s]);
+            double[] upper = partnerMax(s, open[s]);
+
+            for (int a = start, end = start + length; a < end && openPartners[s] > 0; a++) {
+                Point3d pa = points[a];
+                if (!inside(pa, lower, upper)) {
+                    continue;
+                }
+                for (Integer b: box.getNeighborsWithCache(pa)) {
+                    int t = owner[b];
+                    if (t <= s || !open[s][t]) {
+                        continue;
+                    }
+                    if (pa.distanceSquared(points[b]) < cutoffSquared) {
+                        if (++contacts[s][t] >= maxContacts) {
+                            open[s][t] = false;
+                            openPartners[s]--;
+                            if (openPartners[s] == 0) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            start += length;
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns the number of contacts between two sets.
+     */
+    public int getContactCount(int i, int j) {
+        if (i == j || !overlaps(i, j)) {
+            return 0;
+        }
+        // look up the points of the smaller set
+        if (sets.get(i).length > sets.get(j).length) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        int contacts = 0;
+        for (Point3d pa: sets.get(i)) {
+            if (!inside(pa, min[j], max[j])) {
+                continue;
+            }
+            for (Integer b: box.getNeighborsWithCache(pa)) {
+                if (owner[b] == j && pa.distanceSquared(points[b]) < cutoffSquared) {
+                    contacts++;
+                }
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Returns false if the bounding boxes of the two sets are too far apart for any contact.
+     */
+    private boolean overlaps(int i, int j) {
+        for (int d = 0; d < 3; d++) {
+            if (min[i][d] > max[j][d] + cutoff || max[i][d] < min[j][d] - cutoff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the lower corner of the box around the partners of set s that are still open.
+     */
+    private double[] partnerMin(int s, boolean[] open) {
+        double[] lower = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        for (int t = s + 1; t < open.length; t++) {
+            if (open[t]) {
+                for (int d = 0; d < 3; d++) {
+                    lower[d] = Math.min(lower[d], min[t][d]);
+                }
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Returns the upper corner of the box around the partners of set s that are still open.
+     */
+    private double[] partnerMax(int s, boolean[] open) {
+        double[] upper = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int t = s + 1; t < open.length; t++) {
+            if (open[t]) {
+                for (int d = 0; d < 3; d++) {
+                    upper[d] = Math.max(upper[d], max[t][d]);
+                }
+            }
+        }
+        return upper;
+    }
+
+    /**
+     * Returns true if p is within the cutoff of the box from lower to upper, in each dimension.
+     */
+    private boolean inside(Point3d p, double[] lower, double[] upper) {
+        return p.x >= lower[0] - cutoff && p.x <= upper[0] + cutoff
+            && p.y >= lower[1] - cutoff && p.y <= upper[1] + cutoff
+            && p.z >= lower[2] - cutoff && p.z <= upper[2] + cutoff;
+    }
+}
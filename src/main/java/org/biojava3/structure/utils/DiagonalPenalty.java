@@ -0,0 +1,73 @@
+package org.biojava3.structure.utils;
+
+import java.util.Arrays;
+
+/**
+ * The penalty CE-Symm applies to scores near the main diagonal, tabulated per diagonal offset.
+ *
+ * <p>The penalty <i>x</i> residues from the main diagonal is
+ * {@code gradientExpCoeff*e^(-x) + gradientPolyCoeff[n-1]*x^0 + gradientPolyCoeff[n-2]*x^(-1) + ...}. It depends only
+ * on <i>x</i>, so the terms are computed once per offset and then reused for every cell and every CE-Symm iteration,
+ * instead of calling {@link Math#pow(double, double)} for each cell.
+ *
+ * <p>The terms are subtracted in the same order as the original per-cell computation, so the results are identical.
+ * Not thread-safe: the table grows lazily.
+ */
+public class DiagonalPenalty {
+
+	private final double[] gradientPolyCoeff;
+	private final double gradientExpCoeff;
+
+	/**
+	 * terms[x] holds the exponential term followed by the polynomial terms for offset x, in subtraction order.
+	 */
+	private double[][] terms = new double[0][];
+
+	public DiagonalPenalty(double[] gradientPolyCoeff, double gradientExpCoeff) {
+		this.gradientPolyCoeff = gradientPolyCoeff.clone();
+		this.gradientExpCoeff = gradientExpCoeff;
+	}
+
+	public boolean hasCoefficients(double[] gradientPolyCoeff, double gradientExpCoeff) {
+		return this.gradientExpCoeff == gradientExpCoeff && Arrays.equals(this.gradientPolyCoeff, gradientPolyCoeff);
+	}
+
+	/**
+	 * Returns the "reset value" for graying out a cell {@code nResFromMainDiag} residues from the main diagonal.
+	 * @param unpenalizedScore The current score of the cell
+	 * @param nResFromMainDiag The (non-negative) distance from the diagonal
+	 * @return {@code unpenalizedScore} minus the penalty for {@code nResFromMainDiag}
+	 */
+	public double getResetVal(double unpenalizedScore, int nResFromMainDiag) {
+		if (nResFromMainDiag >= terms.length) grow(nResFromMainDiag + 1);
+		double[] t = terms[nResFromMainDiag];
+		double updateVal = unpenalizedScore; // notice that we can actually return a positive value if this is high enough
+		for (int p = 0; p < t.length; p++) {
+			updateVal -= t[p];
+		}
+		return updateVal;
+	}
+
+	/**
+	 * Makes sure offsets up to {@code size-1} are tabulated, so callers can size the table once per matrix.
+	 */
+	public void ensureCapacity(int size) {
+		if (size > terms.length) grow(size);
+	}
+
+	private void grow(int minSize) {
+		int size = Math.max(minSize, terms.length * 2);
+		double[][] newTerms = new double[size][];
+		System.arraycopy(terms, 0, newTerms, 0, terms.length);
+		for (int x = terms.length; x < size; x++) {
+			double[] t = new double[gradientPolyCoeff.length + 1];
+			t[0] = gradientExpCoeff * Math.pow(Math.E, -x);
+			for (int p = 0; p < gradientPolyCoeff.length; p++) {
+				t[p + 1] = gradientPolyCoeff[gradientPolyCoeff.length - 1 - p] * Math.pow(x, -p);
+			}
+			newTerms[x] = t;
+		}
+		terms = newTerms;
+	}
+
+}
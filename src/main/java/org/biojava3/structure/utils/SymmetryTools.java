@@ -12,6 +12,7 @@ import org.biojava.bio.structure.align.helper.AlignTools;
 import org.biojava.bio.structure.align.model.AFPChain;
 import org.biojava.bio.structure.gui.ScaleableMatrixPanel;
 import org.biojava.bio.structure.jama.Matrix;
+import org.biojava3.structure.align.symm.ScoreMatrix;
 
 
 public class SymmetryTools {
@@ -34,52 +35,52 @@ public class SymmetryTools {
 
 	}
 
-	/**
-	 * Returns the "reset value" for graying out the main diagonal. If we're blanking out the main diagonal, this value is always Integer.MIN_VALUE. This is possible if {@code gradientPolyCoeff = {Integer.MIN_VALUE}} and {@code gradientExpCoeff = 0}.
-	 * @param unpenalizedScore
-	 * @param nResFromMainDiag
-	 * @param gradientPolyCoeff
-	 * @param gradientExpCoeff
-	 * @return
-	 */
-	private static double getResetVal(double unpenalizedScore, double nResFromMainDiag, double[] gradientPolyCoeff, double gradientExpCoeff) {
-		if (unpenalizedScore == Double.NaN) return 0; // what else?
-		double updateVal = unpenalizedScore; // notice that we can actually return a positive value if this is high enough
-		updateVal -= gradientExpCoeff * Math.pow(Math.E, -nResFromMainDiag);
-		for (int p = 0; p < gradientPolyCoeff.length; p++) {
-			updateVal -= gradientPolyCoeff[gradientPolyCoeff.length-1-p] * Math.pow(nResFromMainDiag, -p);
-		}
-		//System.out.println("For unpenalized " + unpenalizedScore + " and " + nResFromMainDiag + " residues from diagonal: " + (updateVal-unpenalizedScore));
-		return updateVal;
-	}
-
 	public static Matrix grayOutCEOrig(Atom[] ca2, int rows, int cols,
 			CECalculator calculator, Matrix origM, int blankWindowSize, double[] gradientPolyCoeff, double gradientExpCoeff) {
 
 		if ( origM == null)
 			origM =   new Matrix( calculator.getMatMatrix());
 
-		// symmetry hack, disable main diagonal
+		grayOutCEOrig(ca2, rows, cols, calculator, ScoreMatrix.wrap(origM.getArray()), blankWindowSize, new DiagonalPenalty(gradientPolyCoeff, gradientExpCoeff));
+		return origM;
+	}
 
-		for ( int i = 0 ; i< rows; i++){
-			for ( int j = 0 ; j < cols ; j++){
-				int diff = Math.abs(i-j);
+	/**
+	 * Grays out the main diagonal of {@code origM} in place, as {@link #grayOutCEOrig(Atom[], int, int, CECalculator, Matrix, int, double[], double)} does for a Jama Matrix.
+	 * Only the two bands that can change are visited: |i-j| &lt; blankWindowSize and its mirror at ca2.length/2. This is O(rows*blankWindowSize) rather than O(rows*cols).
+	 */
+	public static ScoreMatrix grayOutCEOrig(Atom[] ca2, int rows, int cols,
+			CECalculator calculator, ScoreMatrix origM, int blankWindowSize, DiagonalPenalty penalty) {
 
-				double resetVal = getResetVal(origM.get(i, j), diff, gradientPolyCoeff, gradientExpCoeff);
+		double[][] m = origM.getArray();
 
-				if ( diff < blankWindowSize ){
-					origM.set(i,j, origM.get(i, j) + resetVal);
+		penalty.ensureCapacity(blankWindowSize);
 
-				}
-				int diff2 = Math.abs(i-(j-ca2.length/2)); // other side
+		int half = ca2.length/2;
 
-				double resetVal2 = getResetVal(origM.get(i, j), diff2, gradientPolyCoeff, gradientExpCoeff);
+		// symmetry hack, disable main diagonal
 
-				if ( diff2 < blankWindowSize ){
-					origM.set(i,j, origM.get(i, j) + resetVal2);
+		for ( int i = 0 ; i< rows; i++){
+			double[] row = m[i];
+
+			// the main band and the band on the other side; the second starts at or after the first
+			int start1 = Math.max(i-blankWindowSize+1, 0);
+			int end1 = Math.min(i+blankWindowSize, cols);
+			int start2 = Math.max(i+half-blankWindowSize+1, 0);
+			int end2 = Math.min(i+half+blankWindowSize, cols);
 
+			for ( int j = start1 ; j < end1 ; j++){
+				row[j] += penalty.getResetVal(row[j], Math.abs(i-j));
+
+				// the bands overlap for very short chains
+				int diff2 = Math.abs(i-(j-half));
+				if ( diff2 < blankWindowSize ){
+					row[j] += penalty.getResetVal(row[j], diff2);
 				}
 			}
+			for ( int j = Math.max(start2, end1) ; j < end2 ; j++){
+				row[j] += penalty.getResetVal(row[j], Math.abs(i-(j-half)));
+			}
 		}
 		return origM;
 	}
@@ -87,7 +88,23 @@ public class SymmetryTools {
 	public static Matrix grayOutPreviousAlignment(AFPChain afpChain, Atom[] ca2,
 			int rows, int cols, CECalculator calculator, Matrix max, int blankWindowSize, double[] gradientPolyCoeff, double gradientExpCoeff) {
 
-		max =  grayOutCEOrig(ca2, rows, cols, calculator, max,  blankWindowSize, gradientPolyCoeff, gradientExpCoeff);
+		if ( max == null)
+			max =   new Matrix( calculator.getMatMatrix());
+
+		grayOutPreviousAlignment(afpChain, ca2, rows, cols, calculator, ScoreMatrix.wrap(max.getArray()), blankWindowSize, new DiagonalPenalty(gradientPolyCoeff, gradientExpCoeff));
+		return max;
+	}
+
+	/**
+	 * Grays out the main diagonal and the path of {@code afpChain} in {@code max}, updating it in place.
+	 * @see #grayOutPreviousAlignment(AFPChain, Atom[], int, int, CECalculator, Matrix, int, double[], double)
+	 */
+	public static ScoreMatrix grayOutPreviousAlignment(AFPChain afpChain, Atom[] ca2,
+			int rows, int cols, CECalculator calculator, ScoreMatrix max, int blankWindowSize, DiagonalPenalty penalty) {
+
+		max =  grayOutCEOrig(ca2, rows, cols, calculator, max,  blankWindowSize, penalty);
+
+		double[][] m = max.getArray();
 
 		double[][] dist1 = calculator.getDist1();
 		double[][] dist2 = calculator.getDist2();
@@ -115,31 +132,32 @@ public class SymmetryTools {
 
 					for ( int k=0; k < blankWindowSize/2 ; k ++){
 						if ( i1-k >= 0) {
-							double resetVal = getResetVal(max.get(i1-k, i1-k), 0, gradientPolyCoeff, gradientExpCoeff);
+							double resetVal = penalty.getResetVal(m[i1-k][i1-k], 0);
 							dist1[i1-k][i1-k] = resetVal;
 						} else if ( i1+k < rows) {
-							double resetVal = getResetVal(max.get(i1+k, i1+k), 0, gradientPolyCoeff, gradientExpCoeff);
+							double resetVal = penalty.getResetVal(m[i1+k][i1+k], 0);
 							dist1[i1+k][i1+k] = resetVal;
 						}
 
 					}
 
+					double[] row = m[i1];
 					for ( int j2 = start2 ; j2 < end2 ; j2++){
-						double resetVal = getResetVal(max.get(i1, j2), Math.abs(i1-j2), gradientPolyCoeff, gradientExpCoeff);
-						max.set(i1,j2,resetVal);
+						double resetVal = penalty.getResetVal(row[j2], Math.abs(i1-j2));
+						row[j2] = resetVal;
 						if ( j2 < breakPoint) {
-							double resetVal2 = getResetVal(max.get(i1, j2+breakPoint), Math.abs(i1-(j2+breakPoint)), gradientPolyCoeff, gradientExpCoeff);
-							max.set(i1,j2+breakPoint,resetVal2);
+							double resetVal2 = penalty.getResetVal(row[j2+breakPoint], Math.abs(i1-(j2+breakPoint)));
+							row[j2+breakPoint] = resetVal2;
 						} else {
-							double resetVal2 = getResetVal(max.get(i1, j2-breakPoint), Math.abs(i1-(j2-breakPoint)), gradientPolyCoeff, gradientExpCoeff);
-							max.set(i1,j2-breakPoint,resetVal2);
+							double resetVal2 = penalty.getResetVal(row[j2-breakPoint], Math.abs(i1-(j2-breakPoint)));
+							row[j2-breakPoint] = resetVal2;
 						}
 						for ( int k=0; k <blankWindowSize/2 ; k ++){							
 							if ( j2-k >=0) {
-								double resetVal2 = getResetVal(max.get(j2-k, j2-k), 0, gradientPolyCoeff, gradientExpCoeff);
+								double resetVal2 = penalty.getResetVal(m[j2-k][j2-k], 0);
 								dist2[j2-k][j2-k] = resetVal2;
 							} else if ( j2+k < cols) {
-								double resetVal2 = getResetVal(max.get(j2+k, j2+k), 0, gradientPolyCoeff, gradientExpCoeff);
+								double resetVal2 = penalty.getResetVal(m[j2+k][j2+k], 0);
 								dist2[j2+k][j2+k] = resetVal2;
 							}
 						}
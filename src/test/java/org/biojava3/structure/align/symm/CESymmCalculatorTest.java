@@ -0,0 +1,224 @@
+package org.biojava3.structure.align.symm;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.StructureException;
+import org.biojava.bio.structure.StructureTools;
+import org.biojava.bio.structure.align.ce.CECalculator;
+import org.biojava.bio.structure.align.ce.CeParameters;
+import org.biojava.bio.structure.align.model.AFPChain;
+import org.biojava.bio.structure.jama.Matrix;
+
+/**
+ * Tests that CE-Symm gives the same alignments with {@link CESymmCalculator} as with a plain CECalculator.
+ */
+public class CESymmCalculatorTest extends TestCase {
+
+	/**
+	 * Without the angle check, and with the distance matrices of a workspace, CESymmCalculator must trace the same
+	 * paths as CECalculator
+	 */
+	public void testSameAsCECalculator() throws StructureException {
+		for (int order = 2; order <= 6; order++) {
+			String name = "order " + order;
+			AFPChain expected = new PlainCeSymm().align(getCA(order), getCA(order));
+			AFPChain actual = new CeSymm().align(getCA(order), getCA(order));
+			assertTrue("No alignment for " + name, expected.getOptLength() > 0);
+			assertSameAlignment(name, expected, actual);
+		}
+	}
+
+	/**
+	 * With gaps of any length, the trace keeps a score for every residue at each step
+	 */
+	public void testNoMaxGapSize() throws StructureException {
+		CeParameters params = new CeParameters();
+		params.setMaxGapSize(0);
+		AFPChain expected = new PlainCeSymm().align(getCA(3), getCA(3), params);
+		params = new CeParameters();
+		params.setMaxGapSize(0);
+		AFPChain actual = new CeSymm().align(getCA(3), getCA(3), params);
+		assertSameAlignment("maxGapSize 0", expected, actual);
+	}
+
+	/**
+	 * The stripes of a parallel trace are replayed in the order of the sequential loop, so the alignments must be the
+	 * same for any number of threads
+	 */
+	public void testParallelTrace() throws StructureException {
+		for (int order = 2; order <= 6; order++) {
+			AFPChain expected = new CeSymm().align(getCA(order), getCA(order));
+			for (int threads : new int[] {2, 4}) {
+				CeSymm ceSymm = new CeSymm();
+				ceSymm.setNrThreads(threads);
+				assertSameAlignment("order " + order + " on " + threads + " threads", expected,
+						ceSymm.align(getCA(order), getCA(order)));
+			}
+		}
+	}
+
+	/**
+	 * CeSymm hands every iteration the same duplicated atoms, so the calculator must not move them
+	 */
+	public void testAtomsUnchanged() throws StructureException {
+		CeSymm ceSymm = new CeSymm() {
+			@Override
+			CECalculator newCalculator(CeParameters params) {
+				CESymmCalculator calculator = new CESymmCalculator(params) {
+					@Override
+					public void traceFragmentMatrix(AFPChain afpChain, Atom[] ca1, Atom[] ca2) {
+						double[][] before = getCoordinates(ca2);
+						super.traceFragmentMatrix(afpChain, ca1, ca2);
+						assertTrue("The trace moved the atoms", Arrays.deepEquals(before, getCoordinates(ca2)));
+					}
+
+					@Override
+					public void nextStep(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+						double[][] before = getCoordinates(ca2);
+						super.nextStep(afpChain, ca1, ca2);
+						assertTrue("nextStep moved the atoms", Arrays.deepEquals(before, getCoordinates(ca2)));
+					}
+				};
+				calculator.setMinAngle(0);
+				return calculator;
+			}
+		};
+		ceSymm.setMaxNrAlternatives(3);
+		AFPChain afpChain = ceSymm.align(getCA(4), getCA(4));
+		assertTrue(afpChain.getOptLength() > 0);
+	}
+
+	private static double[][] getCoordinates(Atom[] ca) {
+		double[][] coordinates = new double[ca.length][];
+		for (int i = 0; i < ca.length; i++) {
+			coordinates[i] = ca[i].getCoords().clone();
+		}
+		return coordinates;
+	}
+
+	/**
+	 * A cancelled alignment, such as a census job over its time budget, must stop its trace rather than finish it, on
+	 * one thread or many
+	 */
+	public void testInterruptedTrace() throws StructureException {
+		for (int threads : new int[] {1, 2}) {
+			long fullTime = timeTrace(threads);
+			long interruptedTime;
+			Thread.currentThread().interrupt();
+			try {
+				interruptedTime = timeTrace(threads);
+				assertTrue("The trace cleared the interrupt", Thread.currentThread().isInterrupted());
+			} finally {
+				Thread.interrupted();
+			}
+			assertTrue("Took " + interruptedTime + "ns to stop a trace that takes " + fullTime + "ns on " + threads
+					+ " threads", interruptedTime < fullTime / 10);
+		}
+	}
+
+	/**
+	 * A cancel that arrives after the trace must stop the optimizer of nextStep, and CeSymm must return no alignment
+	 */
+	public void testInterruptedOptimizer() throws StructureException {
+		InterruptingCeSymm full = new InterruptingCeSymm(false);
+		assertNotNull(full.align(getCA(6), getCA(6)));
+		InterruptingCeSymm cancelled = new InterruptingCeSymm(true);
+		try {
+			assertNull("A cancelled alignment has no result", cancelled.align(getCA(6), getCA(6)));
+		} finally {
+			Thread.interrupted();
+		}
+		assertTrue("Took " + cancelled.nextStepTime + "ns to stop an optimizer that takes " + full.nextStepTime + "ns",
+				cancelled.nextStepTime < full.nextStepTime / 10);
+	}
+
+	/**
+	 * Returns the time in nanoseconds that a trace of the first CE-Symm iteration takes
+	 */
+	private static long timeTrace(int threads) throws StructureException {
+		CESymmCalculator calculator = new CESymmCalculator(new CeParameters());
+		calculator.setMinAngle(0);
+		calculator.setNrThreads(threads);
+		Atom[] ca1 = getCA(6);
+		Atom[] ca2 = StructureTools.duplicateCA2(getCA(6));
+		AFPChain afpChain = calculator.extractFragments(new AFPChain(), ca1, ca2);
+		long start = System.nanoTime();
+		calculator.traceFragmentMatrix(afpChain, ca1, ca2);
+		return System.nanoTime() - start;
+	}
+
+	static Atom[] getCA(int order) {
+		return RepeatProteins.getCA(order, 25 + 5 * order, order);
+	}
+
+	static void assertSameAlignment(String name, AFPChain expected, AFPChain actual) {
+		assertEquals("Wrong TM-score for " + name, expected.getTMScore(), actual.getTMScore());
+		assertEquals("Wrong RMSD for " + name, expected.getTotalRmsdOpt(), actual.getTotalRmsdOpt());
+		assertEquals("Wrong z-score for " + name, expected.getProbability(), actual.getProbability());
+		assertEquals("Wrong alignment for " + name, expected.getOptLength(), actual.getOptLength());
+		assertTrue("Wrong alignment for " + name, Arrays.deepEquals(expected.getOptAln(), actual.getOptAln()));
+		assertSameMatrix("Wrong rotation for " + name, expected.getBlockRotationMatrix()[0],
+				actual.getBlockRotationMatrix()[0]);
+		assertSameMatrix("Wrong scores for " + name, expected.getDistanceMatrix(), actual.getDistanceMatrix());
+		assertSameMatrix("Wrong distances for " + name, expected.getDisTable1(), actual.getDisTable1());
+		assertSameMatrix("Wrong distances for " + name, expected.getDisTable2(), actual.getDisTable2());
+	}
+
+	private static void assertSameMatrix(String message, Matrix expected, Matrix actual) {
+		assertEquals(message, expected.getRowDimension(), actual.getRowDimension());
+		assertEquals(message, expected.getColumnDimension(), actual.getColumnDimension());
+		for (int i = 0; i < expected.getRowDimension(); i++) {
+			for (int j = 0; j < expected.getColumnDimension(); j++) {
+				assertEquals(message, expected.get(i, j), actual.get(i, j));
+			}
+		}
+	}
+
+	/**
+	 * CE-Symm that times the first nextStep, and optionally interrupts its thread just before it
+	 */
+	private static class InterruptingCeSymm extends CeSymm {
+		private final boolean interrupt;
+		private long nextStepTime = -1;
+
+		InterruptingCeSymm(boolean interrupt) {
+			this.interrupt = interrupt;
+		}
+
+		@Override
+		CECalculator newCalculator(CeParameters params) {
+			CESymmCalculator calculator = new CESymmCalculator(params) {
+				@Override
+				public void nextStep(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+					if (nextStepTime >= 0) {
+						super.nextStep(afpChain, ca1, ca2);
+						return;
+					}
+					if (interrupt) Thread.currentThread().interrupt();
+					long start = System.nanoTime();
+					try {
+						super.nextStep(afpChain, ca1, ca2);
+					} finally {
+						nextStepTime = System.nanoTime() - start;
+					}
+				}
+			};
+			calculator.setMinAngle(0);
+			return calculator;
+		}
+	}
+
+	/**
+	 * CE-Symm with biojava's CECalculator
+	 */
+	static class PlainCeSymm extends CeSymm {
+		@Override
+		CECalculator newCalculator(CeParameters params) {
+			return new CECalculator(params);
+		}
+	}
+
+}
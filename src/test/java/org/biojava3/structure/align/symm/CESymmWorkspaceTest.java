@@ -0,0 +1,49 @@
+package org.biojava3.structure.align.symm;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.StructureException;
+import org.biojava.bio.structure.align.model.AFPChain;
+
+/**
+ * Tests that reusing the workspace of a thread doesn't change alignments.
+ */
+public class CESymmWorkspaceTest extends TestCase {
+
+	/**
+	 * A smaller alignment after a larger one runs on the larger arrays, which must be cleared where the trace reads
+	 * them; its result must match CECalculator's, which has no workspace
+	 */
+	public void testLargerThenSmaller() throws StructureException {
+		String large = "7 repeats of 60 residues";
+		String small = "2 repeats of 35 residues";
+
+		AFPChain expectedLarge = new CESymmCalculatorTest.PlainCeSymm().align(getLarge(), getLarge());
+		AFPChain expectedSmall = new CESymmCalculatorTest.PlainCeSymm().align(getSmall(), getSmall());
+
+		CESymmWorkspace workspace = CESymmWorkspace.forCurrentThread();
+
+		AFPChain actualLarge = new CeSymm().align(getLarge(), getLarge());
+		int grown = workspace.getGrowthCount();
+		assertTrue(grown > 0);
+
+		AFPChain actualSmall = new CeSymm().align(getSmall(), getSmall());
+		assertEquals("The workspace should not grow for a smaller alignment", grown, workspace.getGrowthCount());
+
+		CESymmCalculatorTest.assertSameAlignment(large, expectedLarge, actualLarge);
+		CESymmCalculatorTest.assertSameAlignment(small, expectedSmall, actualSmall);
+
+		// and the larger one again, on arrays the smaller one used
+		CESymmCalculatorTest.assertSameAlignment(large, expectedLarge, new CeSymm().align(getLarge(), getLarge()));
+	}
+
+	private static Atom[] getLarge() {
+		return RepeatProteins.getCA(7, 60, 7);
+	}
+
+	private static Atom[] getSmall() {
+		return RepeatProteins.getCA(2, 35, 2);
+	}
+
+}
@@ -5,6 +5,7 @@ package org.biojava3.structure.align.symm;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -58,8 +59,69 @@ public class CeSymmTest extends TestCase {
 			assertEquals("Wrong order for "+name,orderMap.get(name).intValue(), order);
 		}
 	}
+
+	/**
+	 * Tracing the fragment matrix on several threads must give exactly the sequential result, which comes from
+	 * biojava's CECalculator; so this also checks that CESymmCalculator without its angle check traces the same paths
+	 */
+	public void testParallelTraceIsIdentical() throws IOException, StructureException {
+		String[] names = new String[] {"1itb.A", "d1jlya1", "1tim.A", "3HKE.A"};
+		AtomCache cache = new AtomCache();
+		for (String name : names) {
+			CeSymm sequential = new CeSymm();
+			AFPChain expected = sequential.align(cache.getAtoms(name), cache.getAtoms(name));
+
+			CeSymm parallel = new CeSymm();
+			parallel.setNrThreads(4);
+			AFPChain actual = parallel.align(cache.getAtoms(name), cache.getAtoms(name));
+
+			assertEquals("Wrong TM-score for "+name, expected.getTMScore(), actual.getTMScore());
+			assertEquals("Wrong RMSD for "+name, expected.getTotalRmsdOpt(), actual.getTotalRmsdOpt());
+			assertEquals("Wrong z-score for "+name, expected.getProbability(), actual.getProbability());
+			assertEquals("Wrong alignment for "+name, expected.getOptLength(), actual.getOptLength());
+			assertTrue("Wrong alignment for "+name, Arrays.deepEquals(expected.getOptAln(), actual.getOptAln()));
+		}
+	}
 	
 	
+	/**
+	 * Every order is refined from the same CE-Symm alignment, so the candidate of the guessed order must match a
+	 * normal refined alignment
+	 */
+	public void testAlignAllOrders() throws IOException, StructureException {
+		String name = "1itb.A"; // b-trefoil, C3
+		AtomCache cache = new AtomCache();
+
+		CeSymm refining = new CeSymm();
+		refining.setRefineResult(true);
+		AFPChain expected = refining.align(cache.getAtoms(name), cache.getAtoms(name));
+
+		CeSymm ce = new CeSymm();
+		List<SymmetryAlternative> alternatives = ce.alignAllOrders(cache.getAtoms(name), cache.getAtoms(name));
+		assertFalse(alternatives.isEmpty());
+		for (int i = 1; i < alternatives.size(); i++) {
+			assertTrue(alternatives.get(i-1).getTmScore() >= alternatives.get(i).getTmScore());
+		}
+		SymmetryAlternative c3 = null;
+		for (SymmetryAlternative alternative : alternatives) {
+			assertEquals(3, alternative.getGuessedOrder());
+			assertTrue(alternative.getOrder() >= 2 && alternative.getOrder() <= ce.getMaxSymmetryOrder());
+			if (alternative.getOrder() == 3) c3 = alternative;
+		}
+		assertNotNull(c3);
+		assertEquals(expected.getOptLength(), c3.getAfpChain().getOptLength());
+		assertTrue(Arrays.deepEquals(expected.getOptAln(), c3.getAfpChain().getOptAln()));
+		assertEquals(expected.getTMScore(), c3.getTmScore(), 1e-6);
+	}
+
+	public void testAngleError() {
+		assertEquals(0, SymmetryAlternative.getAngleError(2*Math.PI/3, 3), 1e-9);
+		assertEquals(Math.PI/6, SymmetryAlternative.getAngleError(Math.PI/2, 3), 1e-9);
+		// 2*pi*2/5 is the same rotation as 2*pi*3/5
+		assertEquals(0, SymmetryAlternative.getAngleError(4*Math.PI/5, 5), 1e-9);
+		assertTrue(Double.isNaN(SymmetryAlternative.getAngleError(Double.NaN, 2)));
+	}
+
 	/**
 	 * CeSymm and CeCalculator both use some internal variables, which should
 	 * be reset at each call of align. Test that the order of align calls doesn't
@@ -0,0 +1,72 @@
+package org.biojava3.structure.align.symm;
+
+import java.util.Random;
+
+import org.biojava.bio.structure.AminoAcidImpl;
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomImpl;
+import org.biojava.bio.structure.Chain;
+import org.biojava.bio.structure.ChainImpl;
+import org.biojava.bio.structure.ResidueNumber;
+
+/**
+ * Builds CA traces of made-up proteins with rotational symmetry, so that CE-Symm can be tested without downloading
+ * structures.
+ */
+public class RepeatProteins {
+
+	/**
+	 * Returns the CA atoms of a chain of {@code order} copies of a random motif of {@code repeatLength} residues,
+	 * each copy rotated by 360/order degrees about the z axis from the one before. Some noise is added to every atom,
+	 * so the copies are similar but not identical.
+	 * @param seed Seeds the motif and the noise; the same arguments always give the same atoms
+	 */
+	public static Atom[] getCA(int order, int repeatLength, long seed) {
+
+		Random random = new Random(seed);
+
+		// a random walk with the CA-CA distance of a protein, started away from the axis
+		double[][] motif = new double[repeatLength][];
+		double[] position = {12, 0, 0};
+		for (int i = 0; i < repeatLength; i++) {
+			double[] step = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+			double length = Math.sqrt(step[0] * step[0] + step[1] * step[1] + step[2] * step[2]);
+			for (int k = 0; k < 3; k++) {
+				position[k] += 3.8 * step[k] / length;
+			}
+			motif[i] = position.clone();
+		}
+
+		Chain chain = new ChainImpl();
+		chain.setChainID("A");
+		Atom[] ca = new Atom[order * repeatLength];
+		for (int r = 0; r < order; r++) {
+			double angle = 2 * Math.PI * r / order;
+			double cos = Math.cos(angle);
+			double sin = Math.sin(angle);
+			for (int i = 0; i < repeatLength; i++) {
+				int n = r * repeatLength + i;
+				double[] p = motif[i];
+
+				AminoAcidImpl group = new AminoAcidImpl();
+				group.setPDBName("ALA");
+				group.setAminoType('A');
+				group.setResidueNumber(new ResidueNumber("A", n + 1, null));
+
+				Atom atom = new AtomImpl();
+				atom.setName("CA");
+				atom.setFullName(" CA ");
+				atom.setX(cos * p[0] - sin * p[1] + 0.3 * random.nextGaussian());
+				atom.setY(sin * p[0] + cos * p[1] + 0.3 * random.nextGaussian());
+				atom.setZ(p[2] + 0.3 * random.nextGaussian());
+				group.addAtom(atom);
+				atom.setGroup(group);
+
+				chain.addGroup(group);
+				ca[n] = atom;
+			}
+		}
+		return ca;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.biojava3.structure.align.symm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.biojava.bio.structure.StructureException;
+
+/**
+ * Times {@link SymmRefiner#refineSymmetry(Map, int)} against {@link SymmRefinerReference} on the
+ * {@link SymmRefinerTest} inputs scaled up: each input repeated as shifted, disjoint copies, and random
+ * repeat-protein-like alignments of increasing length. Checks that both give the same result.
+ *
+ * Usage: SymmRefinerBenchmark [copies] [repetitions]
+ */
+public class SymmRefinerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int copies = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		SymmRefinerTest test = new SymmRefinerTest();
+		test.setUp();
+		List<Map<Integer, Integer>> inputs = new ArrayList<Map<Integer, Integer>>();
+		List<Integer> orders = new ArrayList<Integer>();
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < test.alignments.size(); i++) {
+			inputs.add(scale(test.alignments.get(i), copies));
+			orders.add(test.orders.get(i));
+			names.add("test input " + i + " x" + copies);
+		}
+		Random random = new Random(0);
+		for (int length = 250; length <= 4000; length *= 2) {
+			for (int order = 2; order <= 6; order += 2) {
+				inputs.add(SymmRefinerTest.randomAlignment(random, length, order, 0.2));
+				orders.add(order);
+				names.add("random " + length + " residues, order " + order);
+			}
+		}
+
+		System.out.format("%-40s %12s %12s %8s%n", "input", "reference ms", "heap ms", "speedup");
+		for (int i = 0; i < inputs.size(); i++) {
+			Map<Integer, Integer> input = inputs.get(i);
+			int k = orders.get(i);
+			long reference = Long.MAX_VALUE;
+			long heap = Long.MAX_VALUE;
+			for (int r = 0; r < repetitions; r++) {
+				long start = System.nanoTime();
+				Map<Integer, Integer> expected = SymmRefinerReference.refineSymmetry(new HashMap<Integer, Integer>(input), k);
+				reference = Math.min(reference, System.nanoTime() - start);
+				start = System.nanoTime();
+				Map<Integer, Integer> refined = SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(input), k);
+				heap = Math.min(heap, System.nanoTime() - start);
+				if (!expected.equals(refined)) {
+					throw new IllegalStateException("Refinement of " + names.get(i) + " differs from the reference");
+				}
+			}
+			System.out.format("%-40s %12.2f %12.2f %8.1f%n", names.get(i), reference / 1e6, heap / 1e6,
+					(double) reference / heap);
+		}
+	}
+
+	/**
+	 * @return {@code copies} copies of {@code alignment}, each shifted past the previous one
+	 */
+	private static Map<Integer, Integer> scale(Map<Integer, Integer> alignment, int copies) throws StructureException {
+		int span = 0;
+		for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+			span = Math.max(span, Math.max(entry.getKey(), entry.getValue()) + 1);
+		}
+		Map<Integer, Integer> scaled = new HashMap<Integer, Integer>();
+		for (int c = 0; c < copies; c++) {
+			for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+				scaled.put(entry.getKey() + c * span, entry.getValue() + c * span);
+			}
+		}
+		return scaled;
+	}
+
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -284,6 +285,55 @@ public class SymmRefinerTest extends TestCase {
 		}
 	}
 
+	/**
+	 * The heap-based refinement should give exactly the same alignments as the original implementation, which
+	 * rescans every residue on every step.
+	 */
+	public void testMatchesReference() throws StructureException {
+		for (int k = 2; k <= 5; k++) {
+			for (int i = 0; i < alignments.size(); i++) {
+				assertMatchesReference("Alignment " + i, alignments.get(i), k);
+			}
+		}
+		Random random = new Random(42);
+		for (int trial = 0; trial < 200; trial++) {
+			int k = 2 + random.nextInt(4);
+			int order = 2 + random.nextInt(4);
+			Map<Integer, Integer> align = randomAlignment(random, 20 + random.nextInt(200), order, 0.3);
+			assertMatchesReference("Random alignment " + trial, align, k);
+		}
+	}
+
+	private void assertMatchesReference(String name, Map<Integer, Integer> align, int k) throws StructureException {
+		Map<Integer, Integer> expect = SymmRefinerReference.refineSymmetry(new HashMap<Integer, Integer>(align), k);
+		Map<Integer, Integer> refined = SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), k);
+		assertEquals(name + " differs from the reference for order " + k, expect, refined);
+	}
+
+	/**
+	 * Generates an alignment that resembles CE-Symm output for a repeat protein: residue x is mostly aligned to the
+	 * residue one repeat later (wrapping around at the end), with some residues shifted, unaligned, or aligned at
+	 * random.
+	 * @param length Number of residues
+	 * @param order Number of repeats
+	 * @param noise Fraction of residues that deviate from the ideal alignment
+	 */
+	static Map<Integer, Integer> randomAlignment(Random random, int length, int order, double noise) {
+		Map<Integer, Integer> align = new HashMap<Integer, Integer>();
+		int repeat = Math.max(1, length / order);
+		for (int x = 0; x < length; x++) {
+			int y = (x + repeat) % length;
+			if (random.nextDouble() < noise) {
+				double r = random.nextDouble();
+				if (r < 0.3) continue;
+				if (r < 0.8) y = (y + random.nextInt(5) - 2 + length) % length;
+				else y = random.nextInt(length);
+			}
+			align.put(x, y);
+		}
+		return align;
+	}
+
 	/* Didn't end up being a useful function, so never implemented.
 
 	public void testPartitionAlignment() throws SecurityException, NoSuchMethodException, IllegalArgumentException, IllegalAccessException, InvocationTargetException {
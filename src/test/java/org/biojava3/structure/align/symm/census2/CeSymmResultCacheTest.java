@@ -0,0 +1,153 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomImpl;
+import org.biojava.bio.structure.align.model.AFPChain;
+import org.biojava.bio.structure.jama.Matrix;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link CeSymmResultCache}.
+ * @author dmyerstu
+ */
+public class CeSymmResultCacheTest {
+
+	private File dir;
+
+	private static Atom atom(double x, double y, double z) {
+		Atom atom = new AtomImpl();
+		atom.setX(x);
+		atom.setY(y);
+		atom.setZ(z);
+		return atom;
+	}
+
+	private static Atom[] atoms(double shift) {
+		return new Atom[] { atom(1, 2, 3), atom(4, 5, 6 + shift), atom(7, 8, 9) };
+	}
+
+	private static AFPChain makeAfpChain() {
+		AFPChain afpChain = new AFPChain();
+		afpChain.setAlgorithmName("jCE-symmetry");
+		afpChain.setVersion("1.0");
+		afpChain.setCa1Length(6);
+		afpChain.setCa2Length(12);
+		afpChain.setTMScore(0.61);
+		afpChain.setProbability(5.2);
+		afpChain.setAlignScore(123.5);
+		afpChain.setTotalRmsdOpt(1.7);
+		afpChain.setGapLen(1);
+		afpChain.setAlnLength(4);
+		afpChain.setAlnseq1("AC-D".toCharArray());
+		afpChain.setAlnseq2("AEFD".toCharArray());
+		afpChain.setAlnsymb("| ..".toCharArray());
+		afpChain.setBlockNum(2);
+		afpChain.setOptAln(new int[][][] { { { 0, 1 }, { 3, 4 } }, { { 4 }, { 8 } } });
+		afpChain.setOptLen(new int[] { 2, 1 });
+		afpChain.setOptLength(3);
+		afpChain.setBlockResSize(new int[] { 2, 1 });
+		afpChain.setBlockRmsd(new double[] { 1.5, 2.5 });
+		afpChain.setOptRmsd(new double[] { 1.6, 2.6 });
+		afpChain.setBlockRotationMatrix(new Matrix[] {
+				new Matrix(new double[][] { { 0, -1, 0 }, { 1, 0, 0 }, { 0, 0, 1 } }), Matrix.identity(3, 3) });
+		afpChain.setBlockShiftVector(new Atom[] { atom(0.5, -0.5, 2), atom(0, 0, 0) });
+		return afpChain;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("cesymmcache", "");
+		dir.delete();
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testKey() {
+		String key = CeSymmResultCache.getKey(atoms(0), atoms(0), "CE-Symm 1.0");
+		assertEquals(40, key.length());
+		assertEquals(key, CeSymmResultCache.getKey(atoms(0), atoms(0), "CE-Symm 1.0"));
+		assertFalse(key.equals(CeSymmResultCache.getKey(atoms(0.001), atoms(0), "CE-Symm 1.0")));
+		assertFalse(key.equals(CeSymmResultCache.getKey(atoms(0), atoms(0.001), "CE-Symm 1.0")));
+		assertFalse(key.equals(CeSymmResultCache.getKey(atoms(0), atoms(0), "CE-Symm 1.1")));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		CeSymmResultCache cache = new CeSymmResultCache(dir);
+		String key = CeSymmResultCache.getKey(atoms(0), atoms(0), "CE-Symm 1.0");
+		assertNull(cache.get(key));
+		AFPChain expected = makeAfpChain();
+		cache.put(key, expected);
+		AFPChain actual = cache.get(key);
+		assertNotNull(actual);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertEquals(expected.getAlgorithmName(), actual.getAlgorithmName());
+		assertEquals(expected.getCa1Length(), actual.getCa1Length());
+		assertEquals(expected.getCa2Length(), actual.getCa2Length());
+		assertEquals(expected.getTMScore(), actual.getTMScore(), 0);
+		assertEquals(expected.getProbability(), actual.getProbability(), 0);
+		assertEquals(expected.getAlignScore(), actual.getAlignScore(), 0);
+		assertEquals(expected.getTotalRmsdOpt(), actual.getTotalRmsdOpt(), 0);
+		assertEquals(expected.getGapLen(), actual.getGapLen());
+		assertEquals(expected.getAlnLength(), actual.getAlnLength());
+		assertArrayEquals(expected.getAlnseq1(), actual.getAlnseq1());
+		assertArrayEquals(expected.getAlnsymb(), actual.getAlnsymb());
+		assertEquals(2, actual.getBlockNum());
+		assertEquals(3, actual.getOptLength());
+		assertArrayEquals(expected.getOptLen(), actual.getOptLen());
+		for (int b = 0; b < 2; b++) {
+			assertArrayEquals(expected.getOptAln()[b][0], actual.getOptAln()[b][0]);
+			assertArrayEquals(expected.getOptAln()[b][1], actual.getOptAln()[b][1]);
+			assertArrayEquals(expected.getBlockRotationMatrix()[b].getArray()[0],
+					actual.getBlockRotationMatrix()[b].getArray()[0], 0);
+			assertEquals(expected.getBlockShiftVector()[b].getX(), actual.getBlockShiftVector()[b].getX(), 0);
+			assertEquals(expected.getBlockShiftVector()[b].getZ(), actual.getBlockShiftVector()[b].getZ(), 0);
+		}
+		assertArrayEquals(expected.getBlockRmsd(), actual.getBlockRmsd(), 0);
+		assertArrayEquals(expected.getBlockResSize(), actual.getBlockResSize());
+	}
+
+	@Test
+	public void testUnreadable() throws IOException {
+		CeSymmResultCache cache = new CeSymmResultCache(dir);
+		String key = CeSymmResultCache.getKey(atoms(0), atoms(0), "CE-Symm 1.0");
+		cache.put(key, makeAfpChain());
+		File file = new File(new File(dir, key.substring(0, 2)), key + ".afp");
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(new byte[] { 1, 2, 3 });
+		fos.close();
+		assertNull(cache.get(key));
+		assertEquals(1, cache.getUnreadable());
+		cache.put(key, makeAfpChain()); // replaces the bad entry
+		assertNotNull(cache.get(key));
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * A unit test for {@link CensusCheckpoint}.
+ * @author dmyerstu
+ */
+public class CensusCheckpointTest {
+
+	private static Result makeResult(String scopId, float tmScore) {
+		Result result = new Result();
+		result.setScopId(scopId);
+		result.setClassification("b.1.1");
+		result.setIsSignificant(true);
+		result.setOrder(3);
+		Alignment alignment = new Alignment();
+		alignment.setTmScore(tmScore);
+		result.setAlignment(alignment);
+		return result;
+	}
+
+	@Test
+	public void testAppendAndRead() throws IOException {
+		File file = File.createTempFile("census", "checkpoint");
+		file.delete();
+		CensusCheckpoint checkpoint = new CensusCheckpoint(file);
+		checkpoint.setSyncFrequency(2);
+		checkpoint.open();
+		checkpoint.append(makeResult("d1a", 0.5f));
+		checkpoint.append(makeResult("d1b", 0.6f));
+		checkpoint.append(makeResult("d1c", 0.7f));
+		checkpoint.close();
+		List<Result> results = checkpoint.read();
+		assertEquals(3, results.size());
+		assertEquals(makeResult("d1a", 0.5f), results.get(0));
+		assertEquals(makeResult("d1c", 0.7f), results.get(2));
+		checkpoint.delete();
+	}
+
+	@Test
+	public void testIncompleteRecord() throws IOException {
+		File file = File.createTempFile("census", "checkpoint");
+		file.delete();
+		CensusCheckpoint checkpoint = new CensusCheckpoint(file);
+		checkpoint.open();
+		checkpoint.append(makeResult("d1a", 0.5f));
+		checkpoint.close();
+
+		// simulate a crash in the middle of a record
+		FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(new byte[] {0, 0, 1, 0, '<', 'r'});
+		fos.close();
+		assertEquals(1, checkpoint.read().size());
+
+		// reopening drops the incomplete record
+		checkpoint.open();
+		checkpoint.append(makeResult("d1b", 0.6f));
+		checkpoint.close();
+		List<Result> results = checkpoint.read();
+		assertEquals(2, results.size());
+		assertEquals("d1b", results.get(1).getScopId());
+		checkpoint.delete();
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.biojava3.structure.align.symm.census2.CensusRescorer.Summary;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link CensusRescorer}.
+ * @author dmyerstu
+ */
+public class CensusRescorerTest {
+
+	private static Result makeResult(String scopId, Float tmScore, Boolean isSignificant) {
+		Result result = new Result();
+		result.setScopId(scopId);
+		result.setIsSignificant(isSignificant);
+		Alignment alignment = new Alignment();
+		alignment.setTmScore(tmScore);
+		result.setAlignment(alignment);
+		return result;
+	}
+
+	@Test
+	public void testSweep() throws IOException {
+		Results census = new Results();
+		census.add(makeResult("d1a", 0.2f, false));
+		census.add(makeResult("d1b", 0.45f, true));
+		census.add(makeResult("d1c", 0.6f, true));
+		census.add(makeResult("d1d", 0.5f, false));
+		census.add(makeResult("d1e", null, false)); // throws
+		census.add(makeResult("d1f", 0.9f, null));
+		File file = File.createTempFile("census", "xml");
+		FileWriter fw = new FileWriter(file);
+		fw.write(census.toXML());
+		fw.close();
+
+		List<String> names = new ArrayList<String>();
+		List<Significance> sigs = new ArrayList<Significance>();
+		names.add("tm0.4");
+		sigs.add(SignificanceFactory.tmScore(0.4));
+		names.add("tm0.55");
+		sigs.add(SignificanceFactory.tmScore(0.55));
+		List<Summary> summaries = CensusRescorer.sweep(file, names, sigs, 2);
+		file.delete();
+
+		Summary loose = summaries.get(0);
+		assertEquals("tm0.4", loose.getName());
+		assertEquals(6, loose.getNTotal());
+		assertEquals(2, loose.getTruePositives());
+		assertEquals(1, loose.getFalsePositives());
+		assertEquals(0, loose.getFalseNegatives());
+		assertEquals(1, loose.getTrueNegatives());
+		assertEquals(1, loose.getNUnlabeled());
+		assertEquals(1, loose.getNUndetermined());
+		assertEquals(4, loose.getNSignificant());
+
+		Summary strict = summaries.get(1);
+		assertEquals(1, strict.getTruePositives());
+		assertEquals(0, strict.getFalsePositives());
+		assertEquals(1, strict.getFalseNegatives());
+		assertEquals(2, strict.getTrueNegatives());
+		assertEquals(0.75, strict.getAgreement(), 0.0001);
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.biojava3.structure.align.symm.census2.ColumnarResults.Column;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link ColumnarResults}.
+ * @author dmyerstu
+ */
+public class ColumnarResultsTest {
+
+	private static Results makeResults() {
+		Results results = new Results();
+		Result a = new Result();
+		a.setScopId("d1a");
+		a.setSunId(1);
+		a.setClassification("b.1.1");
+		a.setDescription("Immunoglobulin");
+		a.setIsSignificant(true);
+		a.setOrder(3);
+		a.setProtodomain("1abc.A_1-50");
+		Alignment alignment = new Alignment();
+		alignment.setTmScore(0.5f);
+		alignment.setzScore(Float.NaN);
+		alignment.setAlignLength(100);
+		a.setAlignment(alignment);
+		Axis axis = new Axis(2.1f, 0f, 0.6f, 0.8f, 1.5f, 0.1f);
+		a.setAxis(axis);
+		Timings timings = new Timings();
+		timings.setNumResidues(120);
+		timings.setAlignmentMillis(12.5f);
+		a.setTimings(timings);
+		results.add(a);
+		Result b = new Result(); // almost everything null
+		b.setScopId("d1b");
+		b.setClassification("b.1.1");
+		b.setStatus(Result.STATUS_TIMED_OUT);
+		b.setAlignment(new Alignment());
+		results.add(b);
+		Result c = new Result();
+		c.setScopId("d1c");
+		c.setClassification("a.60.8");
+		c.setIsSignificant(false);
+		results.add(c);
+		return results;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Results results = makeResults();
+		File file = File.createTempFile("census", "columns");
+		ColumnarResults.write(results, file);
+		ColumnarResults columns = ColumnarResults.open(file);
+		try {
+			assertEquals(3, columns.size());
+			assertEquals(results.getTimestamp(), columns.getTimestamp());
+			Results back = columns.toResults();
+			assertEquals(results.getData(), back.getData());
+			assertEquals(results.getData().get(0).getTimings(), back.getData().get(0).getTimings());
+			assertEquals(results.getData().get(0).getAxis(), back.getData().get(0).getAxis());
+			assertNull(back.getData().get(2).getAlignment());
+		} finally {
+			columns.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testColumns() throws IOException {
+		File file = File.createTempFile("census", "columns");
+		ColumnarResults.write(makeResults(), file);
+		ColumnarResults columns = ColumnarResults.open(file);
+		try {
+			assertEquals(0.5f, columns.getFloat(Column.TM_SCORE, 0), 0);
+			assertTrue(Float.isNaN(columns.getFloat(Column.Z_SCORE, 0)));
+			assertFalse(columns.isNull(Column.Z_SCORE, 0)); // a real NaN
+			assertTrue(columns.isNull(Column.TM_SCORE, 1)); // a null field
+			assertTrue(columns.isNull(Column.TM_SCORE, 2)); // a null alignment
+			assertEquals(3, columns.getInt(Column.ORDER, 0));
+			assertTrue(columns.isNull(Column.ORDER, 1));
+			assertTrue(columns.isNull(Column.IS_SIGNIFICANT, 1));
+			assertFalse(columns.getBoolean(Column.IS_SIGNIFICANT, 2));
+			assertEquals(2, columns.getDictionarySize(Column.CLASSIFICATION));
+			assertEquals(columns.getCode(Column.CLASSIFICATION, 0), columns.getCode(Column.CLASSIFICATION, 1));
+			assertEquals("a.60.8", columns.getString(Column.CLASSIFICATION, 2));
+			assertEquals(Result.STATUS_TIMED_OUT, columns.getString(Column.STATUS, 1));
+			assertEquals(-1, columns.getCode(Column.STATUS, 0));
+		} finally {
+			columns.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file written without some string column reads as null for it, and has no dictionary entries for it
+	 */
+	@Test
+	public void testMissingColumn() throws IOException {
+		File file = File.createTempFile("census", "columns");
+		ColumnarResults.write(makeResults(), file);
+		renameColumn(file, "STATUS", "STATUX");
+		ColumnarResults columns = ColumnarResults.open(file);
+		try {
+			assertNull(columns.getString(Column.STATUS, 1));
+			assertEquals(0, columns.getDictionarySize(Column.STATUS));
+			try {
+				columns.getDictionaryEntry(Column.STATUS, 0);
+				fail("Got a dictionary entry for a missing column");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertEquals("a.60.8", columns.getString(Column.CLASSIFICATION, 2));
+		} finally {
+			columns.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file too large to map as one buffer must be refused when it is opened
+	 */
+	@Test
+	public void testTooLarge() throws IOException {
+		File file = File.createTempFile("census", "columns");
+		ColumnarResults.write(makeResults(), file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(Integer.MAX_VALUE + 1L); // sparse on most file systems
+		} finally {
+			raf.close();
+		}
+		try {
+			ColumnarResults.open(file).close();
+			fail("Opened a file of " + file.length() + " bytes");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Renames a column in the directory of a columnar file, as if it had been written without that column
+	 */
+	private static void renameColumn(File file, String from, String to) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			// the directory writes names with writeUTF, so they are preceded by their length
+			byte[] name = ("\0" + (char) from.length() + from).getBytes("UTF-8");
+			for (int i = 0; i + name.length <= bytes.length; i++) {
+				boolean found = true;
+				for (int j = 0; j < name.length && found; j++) {
+					found = bytes[i + j] == name[j];
+				}
+				if (found) {
+					raf.seek(i + 2);
+					raf.write(to.getBytes("UTF-8"));
+					return;
+				}
+			}
+			fail("No column " + from);
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link ShardDirectory}.
+ * @author dmyerstu
+ */
+public class ShardDirectoryTest {
+
+	private File dir;
+	private ShardDirectory shards;
+
+	private static List<String> scopIds(int n) {
+		List<String> scopIds = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			scopIds.add("d" + i);
+		}
+		return scopIds;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("shards", "");
+		dir.delete();
+		shards = new ShardDirectory(dir);
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testCreate() throws IOException {
+		assertEquals(3, shards.create(scopIds(10), 3));
+		assertEquals(3, shards.getShardCount());
+		assertEquals(Arrays.asList("d0", "d1", "d2"), shards.getScopIds(0));
+		assertEquals(3, shards.getScopIds(1).size());
+		assertEquals(4, shards.getScopIds(2).size());
+		assertEquals("d9", shards.getScopIds(2).get(3));
+	}
+
+	@Test
+	public void testMoreShardsThanDomains() throws IOException {
+		assertEquals(2, shards.create(scopIds(2), 5));
+		assertEquals(2, shards.getShardCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCreateTwice() throws IOException {
+		shards.create(scopIds(4), 2);
+		shards.create(scopIds(4), 2);
+	}
+
+	@Test
+	public void testClaim() throws IOException {
+		shards.create(scopIds(4), 2);
+		assertTrue(shards.claim(0, "a"));
+		assertFalse(shards.claim(0, "b"));
+		assertEquals("a", shards.getClaimant(0));
+		assertEquals(Integer.valueOf(1), shards.claimNext("b"));
+		assertNull(shards.claimNext("c"));
+		assertTrue(shards.release(0, "a"));
+		assertNull(shards.getClaimant(0));
+		assertEquals(Integer.valueOf(0), shards.claimNext("c"));
+	}
+
+	@Test
+	public void testDoneAndFailed() throws IOException {
+		shards.create(scopIds(4), 2);
+		shards.claim(0, "a");
+		assertTrue(shards.markDone(0, "a"));
+		assertTrue(shards.isDone(0));
+		assertFalse(shards.isClaimed(0));
+		assertFalse(shards.claim(0, "b"));
+		assertFalse(shards.isFinished());
+		shards.claim(1, "a");
+		assertTrue(shards.markFailed(1, "a"));
+		assertTrue(shards.isFailed(1));
+		assertNull(shards.claimNext("b"));
+		assertTrue(shards.isFinished());
+	}
+
+	@Test
+	public void testStaleClaims() throws IOException {
+		shards.create(scopIds(4), 2);
+		shards.claim(0, "a");
+		shards.claim(1, "b");
+		assertTrue(shards.getStaleClaims(60 * 1000).isEmpty());
+		// the claim on shard 1 last had a heartbeat an hour ago
+		assertTrue(new File(dir, "shard-0001.claim").setLastModified(System.currentTimeMillis() - 60 * 60 * 1000));
+		assertEquals(Arrays.asList(1), shards.getStaleClaims(60 * 1000));
+		assertTrue(shards.heartbeat(1, "b"));
+		assertTrue(shards.getStaleClaims(60 * 1000).isEmpty());
+	}
+
+	/**
+	 * A worker whose claim was taken over must not touch, release, or finish the new claim.
+	 */
+	@Test
+	public void testLostClaim() throws IOException {
+		shards.create(scopIds(4), 2);
+		shards.claim(0, "a");
+		assertTrue(shards.holdsClaim(0, "a"));
+		assertTrue(new File(dir, "shard-0000.claim").setLastModified(System.currentTimeMillis() - 60 * 60 * 1000));
+		assertTrue(shards.release(0, "a"));
+		assertTrue(shards.claim(0, "b"));
+		assertFalse(shards.holdsClaim(0, "a"));
+
+		assertTrue(new File(dir, "shard-0000.claim").setLastModified(System.currentTimeMillis() - 60 * 60 * 1000));
+		assertFalse(shards.heartbeat(0, "a"));
+		assertEquals(Arrays.asList(0), shards.getStaleClaims(60 * 1000)); // not touched by a
+		assertFalse(shards.release(0, "a"));
+		assertFalse(shards.markDone(0, "a"));
+		assertFalse(shards.markFailed(0, "a"));
+		assertEquals("b", shards.getClaimant(0));
+		assertFalse(shards.isDone(0));
+		assertFalse(shards.isFailed(0));
+
+		assertTrue(shards.markDone(0, "b"));
+		assertTrue(shards.isDone(0));
+		assertFalse(shards.isClaimed(0));
+	}
+
+	@Test
+	public void testMerge() throws IOException {
+		shards.create(scopIds(4), 2);
+		Results shard0 = new Results();
+		shard0.add(makeResult("d0", true));
+		shard0.add(makeResult("d1", false));
+		write(shard0, shards.getResultsFile(0));
+		Results shard1 = new Results();
+		shard1.add(makeResult("d1", true)); // a failed result in shard 0 that was rerun
+		shard1.add(makeResult("d2", true));
+		write(shard1, shards.getResultsFile(1));
+
+		Results into = new Results();
+		into.add(makeResult("d9", true));
+		assertEquals(4, shards.merge(into));
+		assertEquals(4, into.size());
+		for (Result result : into.getData()) {
+			assertFalse(result.getScopId(), Census.isFailed(result));
+		}
+	}
+
+	private static Result makeResult(String scopId, boolean complete) {
+		Result result = new Result();
+		result.setScopId(scopId);
+		if (complete) {
+			Alignment alignment = new Alignment();
+			alignment.setTmScore(0.5f);
+			result.setAlignment(alignment);
+			result.setIsSignificant(true);
+		}
+		return result;
+	}
+
+	private static void write(Results results, File file) throws IOException {
+		PrintWriter out = new PrintWriter(file);
+		try {
+			out.print(results.toXML());
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link ShardedCensus}, with fake worker processes.
+ * @author dmyerstu
+ */
+public class ShardedCensusTest {
+
+	private static class FakeProcess extends Process {
+		private final int exit;
+
+		FakeProcess(int exit) {
+			this.exit = exit;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public int waitFor() {
+			return exit;
+		}
+
+		@Override
+		public int exitValue() {
+			return exit;
+		}
+
+		@Override
+		public void destroy() {
+		}
+	}
+
+	/**
+	 * Finishes each shard immediately, except that the first {@code nFailures} attempts on {@code failingShard} exit
+	 * without finishing, and that the worker on {@code stolenShard} loses its claim to another worker and exits.
+	 */
+	private static class FakeShardedCensus extends ShardedCensus {
+		private final int failingShard;
+		private final int nFailures;
+		private final Map<Integer, Integer> launches = new HashMap<Integer, Integer>();
+		private final List<String> workerIds = new ArrayList<String>();
+		private int stolenShard = -1;
+
+		FakeShardedCensus(File dir, int nWorkers, int failingShard, int nFailures) {
+			super(dir, nWorkers);
+			this.failingShard = failingShard;
+			this.nFailures = nFailures;
+			setPollInterval(1);
+		}
+
+		@Override
+		protected Process launch(int shard, String workerId) throws IOException {
+			assertEquals(workerId, getShards().getClaimant(shard));
+			workerIds.add(workerId);
+			Integer n = launches.get(shard);
+			n = n == null ? 1 : n + 1;
+			launches.put(shard, n);
+			if (shard == failingShard && n <= nFailures) return new FakeProcess(1);
+			if (shard == stolenShard) {
+				assertTrue(getShards().release(shard, workerId));
+				assertTrue(getShards().claim(shard, "elsewhere"));
+				return new FakeProcess(3);
+			}
+			assertTrue(getShards().markDone(shard, workerId));
+			return new FakeProcess(0);
+		}
+	}
+
+	private File dir;
+
+	private static List<String> scopIds(int n) {
+		List<String> scopIds = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			scopIds.add("d" + i);
+		}
+		return scopIds;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("shards", "");
+		dir.delete();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		FakeShardedCensus census = new FakeShardedCensus(dir, 2, 1, 1);
+		census.shard(scopIds(10), 4);
+		census.dispatch();
+		assertTrue(census.getShards().isFinished());
+		for (int shard = 0; shard < 4; shard++) {
+			assertTrue(census.getShards().isDone(shard));
+		}
+		assertEquals(Integer.valueOf(2), census.launches.get(1));
+		assertEquals(Integer.valueOf(1), census.launches.get(2));
+		assertEquals(5, census.workerIds.size());
+		assertEquals(5, new HashSet<String>(census.workerIds).size());
+	}
+
+	@Test
+	public void testGiveUp() throws Exception {
+		FakeShardedCensus census = new FakeShardedCensus(dir, 2, 0, 10);
+		census.setMaxAttempts(3);
+		census.shard(scopIds(10), 3);
+		census.dispatch();
+		assertTrue(census.getShards().isFinished());
+		assertTrue(census.getShards().isFailed(0));
+		assertFalse(census.getShards().isDone(0));
+		assertEquals(Integer.valueOf(3), census.launches.get(0));
+		assertTrue(census.getShards().isDone(2));
+	}
+
+	/**
+	 * Reaping a worker that lost its claim must leave the new claim alone.
+	 */
+	@Test
+	public void testLostClaim() throws Exception {
+		FakeShardedCensus census = new FakeShardedCensus(dir, 2, -1, 0);
+		census.stolenShard = 0;
+		census.setCoordinating(false);
+		census.shard(scopIds(10), 3);
+		census.dispatch();
+		assertEquals("elsewhere", census.getShards().getClaimant(0));
+		assertFalse(census.getShards().isDone(0));
+		assertFalse(census.getShards().isFailed(0));
+		assertTrue(census.getShards().isDone(1));
+		assertTrue(census.getShards().isDone(2));
+		assertEquals(Integer.valueOf(1), census.launches.get(0));
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.biojava.bio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Tests {@link SignificanceExpression}.
+ * 
+ * @author dmyerstu
+ */
+public class SignificanceExpressionTest {
+
+	private static final String[] DEFINITIONS = { "forCensus", "generallySymmetric", "liberalTmScore",
+			"forUnpublishedSymD", "forPublishedSymD8", "bin1", "bin2", "bin3", "asymmetric", "liberal",
+			"rotationallySymmetric", "conservative", "veryConservative", "superConservative",
+			"rotationallySymmetricWithAngle", "rotationallySymmetricSmart", "notRotationallySymmetricSmart" };
+
+	private static Result result(Float tmScore, Integer order, Float theta) {
+		Result result = new Result();
+		if (tmScore != null) {
+			Alignment alignment = new Alignment();
+			alignment.setTmScore(tmScore);
+			result.setAlignment(alignment);
+		}
+		result.setOrder(order);
+		if (theta != null) {
+			Axis axis = new Axis();
+			axis.setTheta(theta);
+			result.setAxis(axis);
+		}
+		return result;
+	}
+
+	/**
+	 * The compiled definitions must agree with the factory objects wherever those don't throw.
+	 */
+	@Test
+	public void testMatchesFactory() {
+		List<Result> results = SignificanceBenchmark.randomResults(5000, 1);
+		for (String name : DEFINITIONS) {
+			Significance factory = SignificanceFactory.fromMethod(null, name);
+			Significance compiled = SignificanceExpression.compile(name);
+			int nCompared = 0;
+			for (Result result : results) {
+				boolean expected;
+				try {
+					expected = factory.isSignificant(result);
+				} catch (RuntimeException e) {
+					continue;
+				}
+				assertEquals(name + " disagrees on " + result, expected, compiled.isSignificant(result));
+				nCompared++;
+			}
+			assertTrue(nCompared > 4000);
+		}
+	}
+
+	/**
+	 * The AFPChain paths must agree with the factory objects too, including on scores a rounding error away from a
+	 * threshold. Definitions that need an axis are left out, since a bare AFPChain has none.
+	 */
+	@Test
+	public void testMatchesFactoryOnAFPChain() {
+		final String[] alignmentOnly = { "forCensus", "generallySymmetric", "liberalTmScore", "forUnpublishedSymD",
+				"forPublishedSymD8", "bin1", "bin2", "bin3", "asymmetric" };
+		List<AFPChain> afpChains = new ArrayList<AFPChain>();
+		Random random = new Random(3);
+		for (double threshold : new double[] { 0.3, 0.4, 0.47, 0.5, 0.6, 1, 8 }) {
+			for (double score : new double[] { threshold, Math.nextUp(threshold),
+					Math.nextAfter(threshold, Double.NEGATIVE_INFINITY), threshold + 1e-9, threshold - 1e-9 }) {
+				afpChains.add(afpChain(score, random.nextDouble() * 12));
+				afpChains.add(afpChain(random.nextDouble(), score));
+			}
+		}
+		for (int i = 0; i < 1000; i++) {
+			afpChains.add(afpChain(random.nextDouble(), random.nextDouble() * 12));
+		}
+		for (String name : alignmentOnly) {
+			Significance factory = SignificanceFactory.fromMethod(null, name);
+			Significance compiled = SignificanceExpression.compile(name);
+			for (AFPChain afpChain : afpChains) {
+				for (int order = 1; order <= 3; order++) {
+					assertEquals(name + " disagrees on TM-score " + afpChain.getTMScore() + ", probability "
+							+ afpChain.getProbability() + " and order " + order,
+							factory.isSignificant(null, order, 0, afpChain),
+							compiled.isSignificant(null, order, 0, afpChain));
+				}
+				if (!name.equals("asymmetric")) { // the factory ignores that the order could be 1
+					assertEquals(name + " disagrees on TM-score " + afpChain.getTMScore() + " and probability "
+							+ afpChain.getProbability(), factory.isPossiblySignificant(afpChain),
+							compiled.isPossiblySignificant(afpChain));
+				}
+			}
+		}
+	}
+
+	private static AFPChain afpChain(double tmScore, double probability) {
+		AFPChain afpChain = new AFPChain();
+		afpChain.setTMScore(tmScore);
+		afpChain.setProbability(probability);
+		return afpChain;
+	}
+
+	@Test
+	public void testArguments() {
+		List<Result> results = SignificanceBenchmark.randomResults(1000, 2);
+		Significance factory = SignificanceFactory.rotationallySymmetric(0.5, 0.1);
+		Significance compiled = SignificanceExpression.compile("rotationallySymmetric(0.5, 0.1)");
+		Significance angleFactory = SignificanceFactory.rotationallySymmetricWithAngle(0.3, 5, 0.2);
+		Significance angleCompiled = SignificanceExpression.compile("rotationallySymmetricWithAngle(0.3, 5, 0.2)");
+		for (Result result : results) {
+			if (result.getAlignment() == null || result.getAxis() == null) continue;
+			assertEquals(factory.isSignificant(result), compiled.isSignificant(result));
+			assertEquals(angleFactory.isSignificant(result), angleCompiled.isSignificant(result));
+		}
+	}
+
+	@Test
+	public void testOperators() {
+		Significance sig = SignificanceExpression.compile("tm >= 0.5 | tm < 0.1 & order == 3");
+		assertTrue(sig.isSignificant(result(0.6f, 1, null)));
+		assertTrue(sig.isSignificant(result(0.05f, 3, null)));
+		assertFalse(sig.isSignificant(result(0.05f, 2, null)));
+		assertFalse(sig.isSignificant(result(0.3f, 3, null)));
+		sig = SignificanceExpression.compile("(tm >= 0.5 or tm < 0.1) and not order=3");
+		assertTrue(sig.isSignificant(result(0.6f, 1, null)));
+		assertFalse(sig.isSignificant(result(0.05f, 3, null)));
+		sig = SignificanceExpression.compile("!(order > 2) && tmScore(0.4) || order != 5 && order <= 6");
+		assertTrue(sig.isSignificant(result(0.45f, 2, null)));
+		assertFalse(sig.isSignificant(result(0.3f, 8, null)));
+		assertTrue(sig.isSignificant(result(0.3f, 4, null)));
+		assertFalse(sig.isSignificant(result(0.3f, 5, null)));
+		assertFalse(sig.isSignificant(result(0.3f, 7, null)));
+		sig = SignificanceExpression.compile("theta > pi");
+		assertFalse(sig.isSignificant(result(0.3f, 2, 3.0f)));
+		sig = SignificanceExpression.compile("epsilon <= 0.01 & order >= 2");
+		assertTrue(sig.isSignificant(result(0.3f, 3, (float) (2 * Math.PI / 3))));
+		assertFalse(sig.isSignificant(result(0.3f, 3, 1.0f)));
+	}
+
+	/**
+	 * Comparisons on undefined values are false, and never throw.
+	 */
+	@Test
+	public void testUndefinedValues() {
+		Result empty = new Result();
+		assertFalse(SignificanceExpression.compile("tm >= 0").isSignificant(empty));
+		assertFalse(SignificanceExpression.compile("tm != 0.3").isSignificant(empty));
+		assertTrue(SignificanceExpression.compile("!(tm >= 0)").isSignificant(empty));
+		assertFalse(SignificanceExpression.compile("epsilon < 10").isSignificant(result(0.5f, 1, 1.0f)));
+		assertFalse(SignificanceExpression.compile("epsilon < 10").isSignificant(result(0.5f, null, 1.0f)));
+		assertFalse(SignificanceExpression.compile("guessedOrder > 1").isSignificant(result(0.5f, 2, null)));
+		assertTrue(SignificanceExpression.compile("asymmetric").isSignificant(empty));
+		assertTrue(SignificanceExpression.compile("tm != 0.3").isSignificant(result(0.5f, null, null)));
+	}
+
+	/**
+	 * Only the alignment is known before the order and axis are determined.
+	 */
+	@Test
+	public void testPossiblySignificant() {
+		AFPChain afpChain = new AFPChain();
+		afpChain.setTMScore(0.35);
+		assertFalse(SignificanceExpression.compile("rotationallySymmetric").isPossiblySignificant(afpChain));
+		assertTrue(SignificanceExpression.compile("liberal").isPossiblySignificant(afpChain));
+		assertTrue(SignificanceExpression.compile("order >= 2 | tm >= 0.4").isPossiblySignificant(afpChain));
+		assertFalse(SignificanceExpression.compile("order >= 2 & tm >= 0.4").isPossiblySignificant(afpChain));
+		assertTrue(SignificanceExpression.compile("!(order >= 2 & tm >= 0.4)").isPossiblySignificant(afpChain));
+		assertTrue(SignificanceExpression.compile("asymmetric").isPossiblySignificant(afpChain));
+	}
+
+	@Test
+	public void testFromExpression() {
+		assertTrue(SignificanceFactory.fromExpression("liberalTmScore") instanceof SignificanceExpression);
+		assertTrue(SignificanceFactory.fromExpression("tm >= 0.3") instanceof SignificanceExpression);
+		assertFalse(SignificanceFactory.fromExpression("forCensus").isSignificant(result(0.3f, 2, null)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncomplete() {
+		SignificanceExpression.compile("tm >= 0.4 &");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoSuchField() {
+		SignificanceExpression.compile("tmscored >= 0.4");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoSuchDefinition() {
+		SignificanceExpression.compile("rotationallySymmetricish");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyArguments() {
+		SignificanceExpression.compile("tmScore(0.4, 0.5)");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnbalanced() {
+		SignificanceExpression.compile("(tm >= 0.4 | order >= 2");
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ *                    BioJava development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  If you do not have a copy,
+ * see:
+ *
+ *      http://www.gnu.org/copyleft/lesser.html
+ *
+ * Copyright for this code is held jointly by the individual
+ * authors.  These should be listed in @author doc comments.
+ *
+ * For more information on the BioJava project and its aims,
+ * or to join the biojava-l mailing list, visit the home page
+ * at:
+ *
+ *      http://www.biojava.org/
+ *
+ */
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.biojava.bio.structure.Structure;
+import org.biojava.bio.structure.StructureException;
+import org.biojava.bio.structure.StructureImpl;
+import org.biojava.bio.structure.align.util.AtomCache;
+import org.biojava.bio.structure.scop.ScopDatabase;
+import org.biojava.bio.structure.scop.ScopDomain;
+import org.junit.Test;
+
+/**
+ * Tests {@link StructurePrefetcher} with an AtomCache that makes up structures instead of reading files.
+ * 
+ * @author dmyerstu
+ */
+public class StructurePrefetcherTest {
+
+	private static class FakeCache extends AtomCache {
+		@Override
+		public Structure getStructureForDomain(String scopId, ScopDatabase scopDatabase) throws IOException,
+				StructureException {
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			if (scopId.equals("d5")) throw new StructureException("No such structure");
+			Structure structure = new StructureImpl();
+			structure.setName(scopId);
+			return structure;
+		}
+	}
+
+	private static List<ScopDomain> domains(int n) {
+		List<ScopDomain> domains = new ArrayList<ScopDomain>();
+		for (int i = 0; i < n; i++) {
+			ScopDomain domain = new ScopDomain();
+			domain.setScopId("d" + i);
+			domains.add(domain);
+		}
+		return domains;
+	}
+
+	@Test
+	public void testAllDomainsArrive() throws Exception {
+		StructurePrefetcher prefetcher = new StructurePrefetcher(new FakeCache(), null, domains(40), 3, 4);
+		prefetcher.start();
+		Set<String> seen = new HashSet<String>();
+		StructurePrefetcher.Prefetched item;
+		while ((item = prefetcher.take()) != null) {
+			final String scopId = item.getDomain().getScopId();
+			assertTrue("Got " + scopId + " twice", seen.add(scopId));
+			if (scopId.equals("d5")) {
+				assertNull(item.getStructure());
+			} else {
+				assertNotNull(item.getStructure());
+				assertEquals(scopId, item.getStructure().getName());
+			}
+		}
+		assertEquals(40, seen.size());
+		assertTrue(prefetcher.isExhausted());
+		assertNull(prefetcher.poll());
+		assertEquals(40, prefetcher.getTaken());
+		assertEquals(1, prefetcher.getFailed());
+		assertTrue(prefetcher.getMaxQueueDepth() <= 4);
+	}
+
+	/**
+	 * With a slow consumer, the I/O threads fill the queue and wait, and never hold more than its capacity.
+	 */
+	@Test
+	public void testBounded() throws Exception {
+		StructurePrefetcher prefetcher = new StructurePrefetcher(new FakeCache(), null, domains(20), 2, 2);
+		prefetcher.start();
+		int n = 0;
+		while (prefetcher.take() != null) {
+			assertTrue(prefetcher.getQueueDepth() <= 2);
+			Thread.sleep(10);
+			n++;
+		}
+		assertEquals(20, n);
+		assertTrue(prefetcher.getFullPuts() > 0);
+		assertTrue(prefetcher.getMeanQueueDepth() > 0.5);
+		prefetcher.shutdown();
+	}
+
+	/**
+	 * A domain whose structure throws an Error still arrives, without a structure, so the consumer doesn't wait forever.
+	 */
+	@Test(timeout = 10000)
+	public void testErrorWhileLoading() throws Exception {
+		AtomCache cache = new FakeCache() {
+			@Override
+			public Structure getStructureForDomain(String scopId, ScopDatabase scopDatabase) throws IOException,
+					StructureException {
+				if (scopId.equals("d3")) throw new StackOverflowError();
+				return super.getStructureForDomain(scopId, scopDatabase);
+			}
+		};
+		StructurePrefetcher prefetcher = new StructurePrefetcher(cache, null, domains(10), 1, 2);
+		prefetcher.start();
+		Set<String> failed = new HashSet<String>();
+		int n = 0;
+		StructurePrefetcher.Prefetched item;
+		while ((item = prefetcher.take()) != null) {
+			if (item.getStructure() == null) failed.add(item.getDomain().getScopId());
+			n++;
+		}
+		assertEquals(10, n);
+		assertEquals(new HashSet<String>(Arrays.asList("d3", "d5")), failed);
+		assertEquals(2, prefetcher.getFailed());
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		StructurePrefetcher prefetcher = new StructurePrefetcher(new FakeCache(), null, domains(0), 1, 1);
+		prefetcher.start();
+		assertTrue(prefetcher.isExhausted());
+		assertNull(prefetcher.take());
+	}
+
+}
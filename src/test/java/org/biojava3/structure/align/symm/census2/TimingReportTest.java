@@ -0,0 +1,49 @@
+package org.biojava3.structure.align.symm.census2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * A unit test for {@link TimingReport}.
+ * @author dmyerstu
+ */
+public class TimingReportTest {
+
+	private static Result makeResult(int nResidues, float structureMillis, Float alignmentMillis) {
+		Timings timings = new Timings();
+		timings.setNumResidues(nResidues);
+		timings.setStructureMillis(structureMillis);
+		timings.setAlignmentMillis(alignmentMillis);
+		Result result = new Result();
+		result.setTimings(timings);
+		return result;
+	}
+
+	@Test
+	public void testBuckets() {
+		assertEquals(0, TimingReport.getBucket(0.5));
+		assertEquals(1, TimingReport.getBucket(1));
+		assertEquals(2, TimingReport.getBucket(3.9));
+		assertEquals(3, TimingReport.getBucket(4));
+	}
+
+	@Test
+	public void testAdd() {
+		TimingReport report = new TimingReport(100);
+		report.add(makeResult(50, 10, 30f));
+		report.add(makeResult(150, 30, null));
+		report.add(new Result()); // no timings
+		report.add(null);
+		assertEquals(2, report.getCount());
+		assertEquals(20, report.getMeanMillis(0), 0.0001);
+		assertEquals(30, report.getMeanMillis(1), 0.0001);
+		assertTrue(Double.isNaN(report.getMeanMillis(2)));
+		assertEquals(1, report.getHistogram(0)[TimingReport.getBucket(10)]);
+		assertEquals(1, report.getHistogram(0)[TimingReport.getBucket(30)]);
+		assertEquals(40.0 / 70.0, report.getFractionLoading(), 0.0001);
+		assertTrue(report.toString().contains("100-199\t1"));
+	}
+
+}
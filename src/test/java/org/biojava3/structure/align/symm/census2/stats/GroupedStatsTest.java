@@ -0,0 +1,85 @@
+package org.biojava3.structure.align.symm.census2.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.biojava3.structure.align.symm.census2.Alignment;
+import org.biojava3.structure.align.symm.census2.Result;
+import org.biojava3.structure.align.symm.census2.Results;
+import org.biojava3.structure.align.symm.census2.Significance;
+import org.biojava3.structure.align.symm.census2.SignificanceFactory;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link GroupedStats}.
+ * @author dmyerstu
+ */
+public class GroupedStatsTest {
+
+	private static Result makeResult(String scopId, String classification, Float tmScore, Integer order) {
+		Result result = new Result();
+		result.setScopId(scopId);
+		result.setClassification(classification);
+		result.setOrder(order);
+		Alignment alignment = new Alignment();
+		alignment.setTmScore(tmScore);
+		result.setAlignment(alignment);
+		return result;
+	}
+
+	private static Results makeCensus() {
+		Results census = new Results();
+		census.add(makeResult("d1a", "a.1.1.1", 0.2f, null));
+		census.add(makeResult("d1b", "a.1.1.2", 0.6f, 2));
+		census.add(makeResult("d1c", "a.1.2.1", 0.8f, 3));
+		census.add(makeResult("d1d", "b.1.1.1", 0.5f, 2));
+		census.add(makeResult("d1e", "b.1.1.1", null, null)); // significance throws
+		census.add(makeResult("d1f", "c", 0.9f, 2)); // can't be grouped by fold
+		return census;
+	}
+
+	private static GroupedStats compute(int nThreads) {
+		List<Grouping> groupings = new ArrayList<Grouping>();
+		groupings.add(Grouping.superfamily());
+		groupings.add(Grouping.fold());
+		List<Property> properties = new ArrayList<Property>();
+		properties.add(Property.tmScore());
+		properties.add(Property.order());
+		List<Significance> sigs = new ArrayList<Significance>();
+		sigs.add(SignificanceFactory.tmScore(0.4));
+		sigs.add(SignificanceFactory.tmScore(0.7));
+		return GroupedStats.compute(groupings, properties, sigs, makeCensus(), nThreads);
+	}
+
+	@Test
+	public void testCounts() {
+		GroupedStats stats = compute(1);
+		assertEquals(6, stats.getResultCount());
+		assertEquals(2 + 2, stats.getErrorCount()); // both groupings fail for d1f; both significances for d1e
+		assertEquals(3, stats.getCount(1, "a.1"));
+		assertEquals(2, stats.getNSignificant(1, 0, "a.1"));
+		assertEquals(1, stats.getNSignificant(1, 1, "a.1"));
+		assertEquals(2, stats.getCount(0, "a.1.1"));
+		assertEquals(0.5, stats.getMean(1, 0, GroupedStats.ALL, "b.1"), 0.0001);
+		assertEquals(1, stats.getN(1, 0, GroupedStats.ALL, "b.1"));
+		assertEquals(0.7, stats.getMean(1, 0, 0, "a.1"), 0.0001);
+		assertEquals(2.5, stats.getMean(1, 1, 0, "a.1"), 0.0001);
+		assertEquals(0.2, stats.getMin(1, 0, GroupedStats.ALL, "a.1"), 0.0001);
+		assertEquals(0.8, stats.getMax(1, 0, GroupedStats.ALL, "a.1"), 0.0001);
+		assertEquals(0, stats.getN(1, 1, 1, "b.1"));
+		assertEquals(Double.NaN, stats.getMean(1, 1, 1, "b.1"), 0);
+	}
+
+	@Test
+	public void testParallelIsIdentical() {
+		GroupedStats sequential = compute(1);
+		GroupedStats parallel = compute(3);
+		assertEquals(sequential.toString(), parallel.toString());
+		assertEquals(sequential.getErrorCount(), parallel.getErrorCount());
+		assertEquals(sequential.getStdDev(1, 0, GroupedStats.ALL, "a.1"),
+				parallel.getStdDev(1, 0, GroupedStats.ALL, "a.1"), 0.000001);
+	}
+
+}
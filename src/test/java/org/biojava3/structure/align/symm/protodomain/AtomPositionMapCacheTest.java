@@ -0,0 +1,64 @@
+package org.biojava3.structure.align.symm.protodomain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.biojava.bio.structure.AtomPositionMap;
+import org.biojava.bio.structure.align.util.AtomCache;
+import org.biojava.bio.structure.io.FileParsingParameters;
+import org.biojava3.structure.align.symm.protodomain.ResourceList.NameProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A unit test for {@link AtomPositionMapCache}.
+ * @author dmyerstu
+ */
+public class AtomPositionMapCacheTest {
+
+	private AtomCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		ResourceList.set(NameProvider.defaultNameProvider(), ResourceList.DEFAULT_PDB_DIR);
+		cache = ResourceList.get().getCache();
+	}
+
+	@Test
+	public void testHitsAndEviction() throws Exception {
+		AtomPositionMapCache maps = new AtomPositionMapCache(1);
+		AtomPositionMap first = maps.get(cache, "2ags");
+		assertSame(first, maps.get(cache, "2AGS"));
+		assertEquals(1, maps.getHits());
+		assertEquals(1, maps.getMisses());
+		maps.get(cache, "1qdm"); // evicts 2ags
+		assertEquals(1, maps.size());
+		assertNotSame(first, maps.get(cache, "2ags"));
+		assertEquals(1, maps.getHits());
+		assertEquals(3, maps.getMisses());
+	}
+
+	/**
+	 * An entry parsed with only C-alpha atoms gives a different map, so it must not hit the map of the full entry
+	 */
+	@Test
+	public void testParsingSettings() throws Exception {
+		AtomCache caOnly = new AtomCache(cache.getPath(), false);
+		FileParsingParameters params = new FileParsingParameters();
+		params.setParseCAOnly(true);
+		caOnly.setFileParsingParams(params);
+
+		AtomPositionMapCache maps = new AtomPositionMapCache(10);
+		AtomPositionMap full = maps.get(cache, "2ags");
+		AtomPositionMap ca = maps.get(caOnly, "2ags");
+		assertNotSame(full, ca);
+		assertEquals(0, maps.getHits());
+		assertEquals(2, maps.getMisses());
+		assertSame(full, maps.get(cache, "2ags"));
+		assertSame(ca, maps.get(caOnly, "2AGS"));
+		assertEquals(2, maps.getHits());
+		assertEquals(2, maps.size());
+	}
+
+}
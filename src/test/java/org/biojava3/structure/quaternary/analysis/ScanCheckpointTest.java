@@ -0,0 +1,78 @@
+package org.biojava3.structure.quaternary.analysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests reading and resuming the log of a {@link ScanSymmetry} run.
+ */
+public class ScanCheckpointTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("scan", ".checkpoint");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * A line cut off by a crash must not count as logged, and must be gone once the log is reopened, so that the
+	 * next line starts on a line of its own
+	 */
+	public void testCutOffLine() throws IOException {
+		write("1ABC,done\n2DEF,failed\n3GHI,do");
+		Map<String, String> entries = new ScanCheckpoint(file).read();
+		assertEquals(Arrays.asList("1ABC", "2DEF"), new ArrayList<String>(entries.keySet()));
+		assertEquals("failed", entries.get("2DEF"));
+
+		ScanCheckpoint checkpoint = new ScanCheckpoint(file);
+		checkpoint.open();
+		checkpoint.append("3GHI", "done");
+		checkpoint.close();
+		entries = new ScanCheckpoint(file).read();
+		assertEquals(Arrays.asList("1ABC", "2DEF", "3GHI"), new ArrayList<String>(entries.keySet()));
+		assertEquals("done", entries.get("3GHI"));
+	}
+
+	/**
+	 * An entry that was retried has the status of its last line, and its place in the order
+	 */
+	public void testLastStatusWins() throws IOException {
+		write("1ABC,timed_out\n2DEF,done\n1ABC,done\n");
+		Map<String, String> entries = new ScanCheckpoint(file).read();
+		assertEquals(Arrays.asList("2DEF", "1ABC"), new ArrayList<String>(entries.keySet()));
+		assertEquals("done", entries.get("1ABC"));
+	}
+
+	/**
+	 * Opening a complete log must not change it
+	 */
+	public void testOpenComplete() throws IOException {
+		write("1ABC,done\n");
+		ScanCheckpoint checkpoint = new ScanCheckpoint(file);
+		checkpoint.open();
+		checkpoint.close();
+		assertEquals("1ABC,done\n".length(), file.length());
+		assertEquals("done", new ScanCheckpoint(file).read().get("1ABC"));
+	}
+
+	private void write(String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
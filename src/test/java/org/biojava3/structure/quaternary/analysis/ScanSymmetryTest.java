@@ -0,0 +1,89 @@
+package org.biojava3.structure.quaternary.analysis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the files that {@link ScanSymmetry} reads and cleans up before a scan.
+ */
+public class ScanSymmetryTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("scan", ".csv");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * The rows of an entry that was written but never logged must be dropped, and the header and the rows of logged
+	 * entries kept in order
+	 */
+	public void testRemoveUnfinishedRows() throws IOException {
+		write(ScanSymmetryJob.CSV_HEADER + "\n" +
+				"PDB1ABC,1,false\n" +
+				"PDB1ABC,2,false\n" +
+				"PDB2DEF,1,false\n" +
+				"PDB3GHI,1,true\n" +
+				"PDB2DEF,2,fal");
+		ScanSymmetry.removeUnfinishedRows(file, new HashSet<String>(Arrays.asList("1ABC", "3GHI")));
+		assertEquals(Arrays.asList(ScanSymmetryJob.CSV_HEADER, "PDB1ABC,1,false", "PDB1ABC,2,false", "PDB3GHI,1,true"),
+				read());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	/**
+	 * A file whose entries are all logged must be left as it is
+	 */
+	public void testRemoveNothing() throws IOException {
+		write(ScanSymmetryJob.CSV_HEADER + "\n" + "PDB1ABC,1,false\n");
+		long modified = file.lastModified();
+		ScanSymmetry.removeUnfinishedRows(file, new HashSet<String>(Arrays.asList("1ABC")));
+		assertEquals(Arrays.asList(ScanSymmetryJob.CSV_HEADER, "PDB1ABC,1,false"), read());
+		assertEquals(modified, file.lastModified());
+	}
+
+	public void testReadExcluded() throws IOException {
+		write("# run out of memory\n1m4x\n\n  3HQV \n");
+		Set<String> excluded = ScanSymmetry.readExcluded(file);
+		assertEquals(new HashSet<String>(Arrays.asList("1M4X", "3HQV")), excluded);
+	}
+
+	private void write(String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private List<String> read() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
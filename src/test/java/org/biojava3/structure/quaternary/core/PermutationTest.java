@@ -0,0 +1,134 @@
+package org.biojava3.structure.quaternary.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Permutation and PermutationGroup against the list-based methods they replaced.
+ */
+public class PermutationTest extends TestCase {
+
+	/**
+	 * Every permutation of up to 7 subunits, and random ones of up to 60, must have the order of
+	 * PermutationGroup.getOrder(List), including 0 when the order exceeds the number of subunits
+	 */
+	public void testOrder() {
+		for (int n = 1; n <= 7; n++) {
+			for (List<Integer> permutation: allPermutations(n)) {
+				assertEquals("Wrong order for " + permutation, PermutationGroup.getOrder(permutation),
+						Permutation.fromList(permutation).getOrder());
+			}
+		}
+		Random random = new Random(1);
+		for (int trial = 0; trial < 1000; trial++) {
+			List<Integer> permutation = identity(1 + random.nextInt(60));
+			Collections.shuffle(permutation, random);
+			assertEquals("Wrong order for " + permutation, PermutationGroup.getOrder(permutation),
+					Permutation.fromList(permutation).getOrder());
+		}
+	}
+
+	public void testOrderExamples() {
+		// a 2-cycle and a 3-cycle: lcm 6 > 5
+		assertEquals(0, new Permutation(new int[] {1, 0, 3, 4, 2}).getOrder());
+		// a 2-cycle and a 3-cycle in 6 subunits: lcm 6
+		assertEquals(6, new Permutation(new int[] {1, 0, 3, 4, 2, 5}).getOrder());
+		// two 2-cycles and a 4-cycle: lcm 4, not the product 16
+		assertEquals(4, new Permutation(new int[] {1, 0, 3, 2, 5, 6, 7, 4}).getOrder());
+		assertEquals(1, new Permutation(new int[] {0, 1, 2}).getOrder());
+	}
+
+	/**
+	 * The closure of a few generator sets must have the size of the group they generate, and the same elements as
+	 * repeatedly combining all pairs until nothing changes
+	 */
+	public void testCompleteGroup() {
+		int[] cycle6 = {1, 2, 3, 4, 5, 0};
+		int[] reflection6 = {0, 5, 4, 3, 2, 1};
+		assertClosure(1, new int[] {0, 1, 2, 3});
+		assertClosure(6, cycle6);
+		assertClosure(12, cycle6, reflection6);
+		// two 3-fold rotations of a tetrahedron generate T (A4)
+		assertClosure(12, new int[] {1, 2, 0, 3}, new int[] {0, 2, 3, 1});
+		// a transposition and a 5-cycle generate S5
+		assertClosure(120, new int[] {1, 0, 2, 3, 4}, new int[] {1, 2, 3, 4, 0});
+		// commuting 2-fold and 3-fold cycles on separate subunits: C6
+		assertClosure(6, new int[] {1, 0, 2, 3, 4}, new int[] {0, 1, 3, 4, 2});
+	}
+
+	private static void assertClosure(int expectedOrder, int[]... generators) {
+		PermutationGroup group = new PermutationGroup();
+		for (int[] generator: generators) {
+			group.addPermutation(new Permutation(generator));
+		}
+		group.completeGroup();
+		assertEquals(expectedOrder, group.getOrder());
+
+		Set<Permutation> elements = new HashSet<Permutation>();
+		for (int i = 0; i < group.getOrder(); i++) {
+			elements.add(group.getPermutation(i));
+		}
+		assertEquals(expectedOrder, elements.size());
+		assertEquals(closeByPairs(generators), elements);
+	}
+
+	/**
+	 * Closes the generators under composition by combining all pairs, the way the group used to be completed
+	 */
+	private static Set<Permutation> closeByPairs(int[]... generators) {
+		List<List<Integer>> elements = new ArrayList<List<Integer>>();
+		for (int[] generator: generators) {
+			elements.add(new Permutation(generator).toList());
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0, n = elements.size(); i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					List<Integer> product = PermutationGroup.combine(elements.get(i), elements.get(j));
+					if (!elements.contains(product)) {
+						elements.add(product);
+						changed = true;
+					}
+				}
+			}
+		}
+		Set<Permutation> closure = new HashSet<Permutation>();
+		for (List<Integer> element: elements) {
+			closure.add(Permutation.fromList(element));
+		}
+		return closure;
+	}
+
+	private static List<Integer> identity(int n) {
+		List<Integer> identity = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			identity.add(i);
+		}
+		return identity;
+	}
+
+	private static List<List<Integer>> allPermutations(int n) {
+		List<List<Integer>> permutations = new ArrayList<List<Integer>>();
+		permute(identity(n), 0, permutations);
+		return permutations;
+	}
+
+	private static void permute(List<Integer> permutation, int k, List<List<Integer>> permutations) {
+		if (k == permutation.size()) {
+			permutations.add(new ArrayList<Integer>(permutation));
+			return;
+		}
+		for (int i = k; i < permutation.size(); i++) {
+			Collections.swap(permutation, k, i);
+			permute(permutation, k + 1, permutations);
+			Collections.swap(permutation, k, i);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.biojava3.structure.quaternary.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Point3d;
+
+import junit.framework.TestCase;
+
+/**
+ * Solves ideal arrangements of identical subunits, built by applying the rotations of a point group to one subunit.
+ */
+public class RotationSolverTest extends TestCase {
+
+	private static final double PHI = (1 + Math.sqrt(5)) / 2;
+
+	/**
+	 * The axes of CandidateAxes only make the solver find the rotations sooner, so it must find the same rotation
+	 * group without them
+	 */
+	public void testCandidateAxes() {
+		for (Arrangement arrangement: getArrangements()) {
+			RotationGroup without = solve(arrangement, false, 1);
+			RotationGroup with = solve(arrangement, true, 1);
+			arrangement.assertGroup(without);
+			assertEquals(arrangement.getPointGroup(), without.getOrder(), with.getOrder());
+			assertEquals(arrangement.getPointGroup(), without.getPointGroup(), with.getPointGroup());
+		}
+	}
+
+	/**
+	 * The threads add the permutations in the same order as one thread, so they must find the same rotations
+	 */
+	public void testSolverThreads() {
+		for (Arrangement arrangement: getArrangements()) {
+			RotationGroup one = solve(arrangement, true, 1);
+			RotationGroup many = solve(arrangement, true, 4);
+			arrangement.assertGroup(many);
+			assertEquals(arrangement.getPointGroup(), one.getOrder(), many.getOrder());
+			assertEquals(arrangement.getPointGroup(), one.getPointGroup(), many.getPointGroup());
+			for (int i = 0; i < one.getOrder(); i++) {
+				assertEquals(arrangement.getPointGroup(), one.getRotation(i).getPermutation(),
+						many.getRotation(i).getPermutation());
+			}
+		}
+	}
+
+	private static List<Arrangement> getArrangements() {
+		List<Arrangement> arrangements = new ArrayList<Arrangement>();
+		arrangements.add(new Arrangement("C3", 3, rotation(0, 0, 1, 3)));
+		arrangements.add(new Arrangement("C7", 7, rotation(0, 0, 1, 7)));
+		arrangements.add(new Arrangement("D2", 4, rotation(0, 0, 1, 2), rotation(1, 0, 0, 2)));
+		arrangements.add(new Arrangement("D5", 10, rotation(0, 0, 1, 5), rotation(1, 0, 0, 2)));
+		arrangements.add(new Arrangement("T", 12, rotation(1, 1, 1, 3), rotation(0, 0, 1, 2)));
+		arrangements.add(new Arrangement("O", 24, rotation(0, 0, 1, 4), rotation(1, 1, 1, 3)));
+		// a 5-fold through a vertex of the icosahedron (0, ±1, ±PHI), and a 2-fold that swaps two of them
+		arrangements.add(new Arrangement("I", 60, rotation(0, 1, PHI, 5), rotation(0, 0, 1, 2)));
+		return arrangements;
+	}
+
+	static RotationGroup solve(Arrangement arrangement, boolean useCandidateAxes, int threads) {
+		QuatSymmetryParameters parameters = new QuatSymmetryParameters();
+		parameters.setSolverThreads(threads);
+		RotationSolver solver = new RotationSolver(arrangement.getSubunits(), parameters);
+		solver.setUseCandidateAxes(useCandidateAxes);
+		return solver.getSymmetryOperations();
+	}
+
+	private static Matrix3d rotation(double x, double y, double z, int fold) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		Matrix3d rotation = new Matrix3d();
+		rotation.set(new AxisAngle4d(x / length, y / length, z / length, 2 * Math.PI / fold));
+		return rotation;
+	}
+
+	/**
+	 * The subunits of an ideal point group: the closure of a few generating rotations applied to one chiral,
+	 * off-axis subunit
+	 */
+	static class Arrangement {
+		private final String pointGroup;
+		private final List<Matrix3d> rotations = new ArrayList<Matrix3d>();
+
+		Arrangement(String pointGroup, int order, Matrix3d... generators) {
+			this.pointGroup = pointGroup;
+			Matrix3d identity = new Matrix3d();
+			identity.setIdentity();
+			rotations.add(identity);
+			for (int i = 0; i < rotations.size(); i++) {
+				for (Matrix3d generator: generators) {
+					Matrix3d product = new Matrix3d();
+					product.mul(generator, rotations.get(i));
+					if (!contains(product)) {
+						rotations.add(product);
+					}
+				}
+			}
+			assertEquals("Wrong closure for " + pointGroup, order, rotations.size());
+		}
+
+		private boolean contains(Matrix3d rotation) {
+			for (Matrix3d r: rotations) {
+				if (r.epsilonEquals(rotation, 1E-6)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		String getPointGroup() {
+			return pointGroup;
+		}
+
+		Subunits getSubunits() {
+			List<Point3d[]> caCoords = new ArrayList<Point3d[]>();
+			List<Integer> clusterIds = new ArrayList<Integer>();
+			List<Boolean> pseudoStoichiometry = new ArrayList<Boolean>();
+			List<Double> identities = new ArrayList<Double>();
+			List<String> chainIds = new ArrayList<String>();
+			List<Integer> modelNumbers = new ArrayList<Integer>();
+			for (Matrix3d rotation: rotations) {
+				// a stretch of helix, placed away from every symmetry axis
+				Point3d[] trace = new Point3d[20];
+				for (int i = 0; i < trace.length; i++) {
+					double angle = Math.toRadians(100 * i);
+					trace[i] = new Point3d(31 + 2.3 * Math.cos(angle), 17 + 2.3 * Math.sin(angle), 9 + 1.5 * i);
+					rotation.transform(trace[i]);
+				}
+				caCoords.add(trace);
+				clusterIds.add(0);
+				pseudoStoichiometry.add(false);
+				identities.add(1.0);
+				chainIds.add(String.valueOf((char) ('A' + chainIds.size() % 26)));
+				modelNumbers.add(0);
+			}
+
+			// the folds of n identical subunits are the divisors of n
+			List<Integer> folds = new ArrayList<Integer>();
+			for (int fold = 1; fold <= rotations.size(); fold++) {
+				if (rotations.size() % fold == 0) {
+					folds.add(fold);
+				}
+			}
+			return new Subunits(caCoords, clusterIds, pseudoStoichiometry, identities, identities, folds, chainIds,
+					modelNumbers);
+		}
+
+		void assertGroup(RotationGroup group) {
+			assertEquals("Wrong order for " + pointGroup, rotations.size(), group.getOrder());
+			assertEquals("Wrong point group for " + pointGroup, pointGroup, group.getPointGroup());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.biojava3.structure.quaternary.geometry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.vecmath.Point3d;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares ContactCounter with counting every pair of points.
+ */
+public class ContactCounterTest extends TestCase {
+
+	/**
+	 * Chains of random walks, scattered so that some pairs touch and some are far apart
+	 */
+	public void testRandomWalks() {
+		Random random = new Random(1);
+		for (int trial = 0; trial < 100; trial++) {
+			List<Point3d[]> sets = new ArrayList<Point3d[]>();
+			int n = 1 + random.nextInt(20);
+			for (int s = 0; s < n; s++) {
+				Point3d[] points = new Point3d[random.nextInt(50)];
+				double x = random.nextDouble() * 100 - 50;
+				double y = random.nextDouble() * 100 - 50;
+				double z = random.nextDouble() * 100 - 50;
+				for (int i = 0; i < points.length; i++) {
+					x += random.nextGaussian() * 2.2;
+					y += random.nextGaussian() * 2.2;
+					z += random.nextGaussian() * 2.2;
+					points[i] = new Point3d(x, y, z);
+				}
+				sets.add(points);
+			}
+			assertSameCounts(sets, trial % 2 == 0 ? 8 : 10);
+		}
+	}
+
+	/**
+	 * Points on an integer lattice with an integer cutoff, so many pairs are exactly at the cutoff (which is not a
+	 * contact) and many points lie exactly on the bin boundaries of the DistanceBox
+	 */
+	public void testPointsAtCutoff() {
+		Random random = new Random(2);
+		for (int trial = 0; trial < 100; trial++) {
+			List<Point3d[]> sets = new ArrayList<Point3d[]>();
+			int n = 2 + random.nextInt(6);
+			for (int s = 0; s < n; s++) {
+				Point3d[] points = new Point3d[1 + random.nextInt(30)];
+				for (int i = 0; i < points.length; i++) {
+					points[i] = new Point3d(random.nextInt(13) - 6, random.nextInt(13) - 6, random.nextInt(13) - 6);
+				}
+				sets.add(points);
+			}
+			assertSameCounts(sets, 3);
+		}
+
+		// two points exactly at the cutoff, and two just inside it
+		List<Point3d[]> sets = new ArrayList<Point3d[]>();
+		sets.add(new Point3d[] {new Point3d(0, 0, 0), new Point3d(10, 0, 0)});
+		sets.add(new Point3d[] {new Point3d(0, 8, 0), new Point3d(10, Math.nextAfter(8.0, 0), 0)});
+		ContactCounter counter = new ContactCounter(sets, 8);
+		assertEquals(1, counter.getContactCount(0, 1));
+		assertEquals(1, counter.getContactCounts(Integer.MAX_VALUE)[0][1]);
+	}
+
+	private static void assertSameCounts(List<Point3d[]> sets, double cutoff) {
+		ContactCounter counter = new ContactCounter(sets, cutoff);
+		int[][] counts = counter.getContactCounts(Integer.MAX_VALUE);
+		int[][] capped = counter.getContactCounts(5);
+		for (int i = 0; i < sets.size(); i++) {
+			assertEquals(0, counter.getContactCount(i, i));
+			for (int j = i + 1; j < sets.size(); j++) {
+				int expected = countPairs(sets.get(i), sets.get(j), cutoff);
+				assertEquals("Wrong count for sets " + i + " and " + j, expected, counts[i][j]);
+				assertEquals("Wrong capped count for sets " + i + " and " + j, Math.min(expected, 5), capped[i][j]);
+				assertEquals(expected, counter.getContactCount(i, j));
+				assertEquals(expected, counter.getContactCount(j, i));
+			}
+		}
+	}
+
+	private static int countPairs(Point3d[] a, Point3d[] b, double cutoff) {
+		int count = 0;
+		for (Point3d p: a) {
+			for (Point3d q: b) {
+				if (p.distanceSquared(q) < cutoff * cutoff) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}